@@ -22,7 +22,9 @@ import java.util.List;
 import de.tuberlin.mcc.simra.app.R;
 import de.tuberlin.mcc.simra.app.databinding.ActivityEvaluateClosepassBinding;
 import de.tuberlin.mcc.simra.app.entities.DataLog;
+import de.tuberlin.mcc.simra.app.entities.DataLogColumns;
 import de.tuberlin.mcc.simra.app.entities.DataLogEntry;
+import de.tuberlin.mcc.simra.app.entities.DataLogLineParser;
 import de.tuberlin.mcc.simra.app.entities.IncidentLog;
 import de.tuberlin.mcc.simra.app.entities.IncidentLogEntry;
 import de.tuberlin.mcc.simra.app.util.IOUtils;
@@ -47,6 +49,7 @@ public class EvaluateClosePassActivity extends AppCompatActivity {
      * The incident Log of the current ride.
      */
     IncidentLog incidentLog;
+    int rideId;
     /**
      * The data Log of the current ride.
      */
@@ -123,7 +126,7 @@ public class EvaluateClosePassActivity extends AppCompatActivity {
 
         binding.toolbar.backButton.setOnClickListener(v -> finish());
 
-        int rideId = getIntent().getIntExtra(EXTRA_RIDE_ID, 0);
+        rideId = getIntent().getIntExtra(EXTRA_RIDE_ID, 0);
         int bikeType = getIntent().getIntExtra(EXTRA_BIKE_TYPE, 0);
         int phoneLocation = getIntent().getIntExtra(EXTRA_PHONE_LOCATION, 0);
         boolean childOnBoard = getIntent().getBooleanExtra(EXTRA_CHILD_ON_BOARD, false);
@@ -134,13 +137,15 @@ public class EvaluateClosePassActivity extends AppCompatActivity {
 
         MaterialButton closePassConfirmButton = findViewById(R.id.closePassConfirmButton);
         closePassConfirmButton.setOnClickListener(view -> {
-            incidentLog.updateOrAddIncident(IncidentLogEntry.newBuilder()
+            IncidentLogEntry closePass = incidentLog.updateOrAddIncident(IncidentLogEntry.newBuilder()
                     .withBaseInformation(
                             currentDataLogEntry.timestamp,
                             currentDataLogEntry.latitude, currentDataLogEntry.longitude
                     )
                     .withIncidentType(IncidentLogEntry.INCIDENT_TYPE.CLOSE_PASS)
                     .build());
+            // the picture is deleted right away, so the close pass must not get lost if the activity is left early
+            IncidentLog.saveIncident(rideId, closePass, this);
             removePicture(true);
         });
         MaterialButton closePassDisapproveButton = findViewById(R.id.closePassDisapproveButton);
@@ -154,17 +159,19 @@ public class EvaluateClosePassActivity extends AppCompatActivity {
 
     public void updateView() {
         boolean foundPicture = false;
-        for (DataLogEntry d : dataLog.dataLogEntries) {
-            if (d.timestamp == Long.parseLong(imageQueue.get(0).getName().split("\\.")[0])) {
-                binding.closePassCurrentValue.setText(String.valueOf(((DataLogEntry) d).obsDistanceLeft1));
+        long pictureTimestamp = Long.parseLong(imageQueue.get(0).getName().split("\\.")[0]);
+        DataLogColumns columns = dataLog.columns;
+        for (int row = 0; row < columns.getRowCount(); row++) {
+            if (columns.isPresent(DataLogLineParser.TIMESTAMP, row) && columns.getTimestamp(row) == pictureTimestamp) {
+                binding.closePassCurrentValue.setText(columns.isPresent(DataLogLineParser.OBS_DISTANCE_LEFT_1, row) ? String.valueOf(columns.getInt(DataLogLineParser.OBS_DISTANCE_LEFT_1, row)) : "null");
                 DisplayMetrics displayMetrics = new DisplayMetrics();
                 getWindowManager().getDefaultDisplay().getMetrics(displayMetrics);
                 binding.closePassPicture.setImageBitmap(decodeSampledBitmapFromFile(imageQueue.get(0).getAbsolutePath(), displayMetrics.widthPixels, displayMetrics.heightPixels));
                 foundPicture = true;
             }
             // Find next DataLogEntry with GPS Location attached
-            if (foundPicture == true && d.longitude != null) {
-                currentDataLogEntry = d;
+            if (foundPicture == true && columns.isGPSRow(row)) {
+                currentDataLogEntry = columns.get(row);
                 break;
             }
         }
@@ -22,10 +22,7 @@ import androidx.appcompat.app.AlertDialog;
 
 import com.google.android.material.snackbar.Snackbar;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
-import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -38,10 +35,11 @@ import java.util.TimeZone;
 import de.tuberlin.mcc.simra.app.R;
 import de.tuberlin.mcc.simra.app.databinding.ActivityHistoryBinding;
 import de.tuberlin.mcc.simra.app.entities.MetaData;
+import de.tuberlin.mcc.simra.app.entities.MetaDataEntry;
 import de.tuberlin.mcc.simra.app.entities.Profile;
+import de.tuberlin.mcc.simra.app.entities.RideCatalog;
 import de.tuberlin.mcc.simra.app.services.UploadService;
 import de.tuberlin.mcc.simra.app.util.BaseActivity;
-import de.tuberlin.mcc.simra.app.util.IOUtils;
 import de.tuberlin.mcc.simra.app.util.SharedPref;
 
 import static de.tuberlin.mcc.simra.app.util.SharedPref.lookUpBooleanSharedPrefs;
@@ -54,6 +52,8 @@ public class HistoryActivity extends BaseActivity {
     boolean exitWhenDone = false;
 
     String[] ridesArr;
+    // rides changed by the UploadService or other screens while the history is shown
+    private final MetaData.OnMetaDataChangeListener metaDataChangeListener = rideId -> runOnUiThread(this::refreshMyRides);
     BroadcastReceiver br;
 
     public static void startHistoryActivity(Context context) {
@@ -114,31 +114,14 @@ public class HistoryActivity extends BaseActivity {
 
     private void refreshMyRides() {
         List<String[]> metaDataLines = new ArrayList<>();
+        for (MetaDataEntry metaDataEntry : MetaData.getMetaDataEntries(this)) {
+            metaDataLines.add(metaDataEntry.stringifyMetaDataEntry().split(","));
+        }
 
-        File metaDataFile = IOUtils.Files.getMetaDataFile(this);
-        if (metaDataFile.exists()) {
-            try {
-                BufferedReader br = new BufferedReader(new FileReader(metaDataFile));
-                // br.readLine() to skip the first line which contains the headers
-                br.readLine();
-                br.readLine();
-                String line;
-                while (((line = br.readLine()) != null)) {
-                    if (!line.startsWith("key") && !line.startsWith("null")) {
-                        metaDataLines.add(line.split(","));
-                    }
-                }
-                Log.d(TAG, "metaDataLines: " + Arrays.deepToString(metaDataLines.toArray()));
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-
+        if (!metaDataLines.isEmpty()) {
             ridesArr = new String[metaDataLines.size()];
             for (int i = 0; i < metaDataLines.size(); i++) {
-                String[] metaDataLine = metaDataLines.get(i);
-                if (metaDataLine.length > 2 && !(metaDataLine[0].equals("key"))) {
-                    ridesArr[((metaDataLines.size()) - i) - 1] = listToTextShape(metaDataLine);
-                }
+                ridesArr[((metaDataLines.size()) - i) - 1] = listToTextShape(metaDataLines.get(i));
             }
 
             List<String> stringArrayList = new ArrayList<>(Arrays.asList(ridesArr));
@@ -147,7 +130,7 @@ public class HistoryActivity extends BaseActivity {
 
         } else {
 
-            Log.d(TAG, "metaData.csv doesn't exists");
+            Log.d(TAG, "no rides in metaData");
 
             Snackbar snackbar = Snackbar.make(findViewById(R.id.coordinator_layout), (getString(R.string.noHistory)), Snackbar.LENGTH_LONG);
             snackbar.show();
@@ -163,6 +146,7 @@ public class HistoryActivity extends BaseActivity {
         IntentFilter filter = new IntentFilter();
         filter.addAction("de.tuberlin.mcc.simra.app.UPLOAD_COMPLETE");
         this.registerReceiver(br, filter);
+        MetaData.addOnMetaDataChangeListener(metaDataChangeListener);
         refreshMyRides();
     }
 
@@ -170,6 +154,7 @@ public class HistoryActivity extends BaseActivity {
     protected void onPause() {
         super.onPause();
         this.unregisterReceiver(br);
+        MetaData.removeOnMetaDataChangeListener(metaDataChangeListener);
     }
 
     private String listToTextShape(String[] item) {
@@ -203,23 +188,22 @@ public class HistoryActivity extends BaseActivity {
         alert.setTitle(getString(R.string.warning));
         alert.setMessage(getString(R.string.delete_file_warning));
         alert.setPositiveButton(R.string.delete_ride_approve, (dialog, id) -> {
-            File[] dirFiles = getFilesDir().listFiles();
-            Log.d(TAG, "btnDelete.onClick() dirFiles: " + Arrays.deepToString(dirFiles));
             String clicked = (String) binding.listView.getItemAtPosition(position);
             Log.d(TAG, "btnDelete.onClick() clicked: " + clicked);
-            clicked = clicked.replace("#", "").split(";")[0];
-            if (dirFiles.length != 0) {
-                for (File actualFile : dirFiles) {
-                    if (actualFile.getName().startsWith(clicked + "_") || actualFile.getName().startsWith("accEvents" + clicked)) {
-
-                        /* don't delete the following line! */
-                        Log.i(TAG, actualFile.getName() + " deleted: " + actualFile.delete());
-                    }
+            int rideId = Integer.parseInt(clicked.replace("#", "").split(";")[0]);
+            Context context = getApplicationContext();
+            // the catalog may be busy with a check on app start
+            new Thread(() -> {
+                List<File> rideFiles = RideCatalog.getFiles(rideId, context);
+                List<File> remainingFiles = RideCatalog.deleteRide(rideId, context);
+                for (File rideFile : rideFiles) {
+                    /* don't delete the following line! */
+                    Log.i(TAG, rideFile.getName() + " deleted: " + !remainingFiles.contains(rideFile));
                 }
-            }
-            MetaData.deleteMetaDataEntryForRide(Integer.parseInt(clicked), this);
-            Toast.makeText(HistoryActivity.this, R.string.ride_deleted, Toast.LENGTH_SHORT).show();
-            refreshMyRides();
+                // the list is refreshed by the metaDataChangeListener
+                MetaData.deleteMetaDataEntryForRide(rideId, context);
+                runOnUiThread(() -> Toast.makeText(HistoryActivity.this, R.string.ride_deleted, Toast.LENGTH_SHORT).show());
+            }).start();
         });
         alert.setNegativeButton(R.string.cancel, (dialog, id) -> {
         });
@@ -330,22 +314,16 @@ public class HistoryActivity extends BaseActivity {
                 holder.btnDelete.setVisibility(View.INVISIBLE);
             }
             row.setOnClickListener(v -> {
-                // gets the files in the directory
-                // lists all the files into an array
-                File[] dirFiles = new File(IOUtils.Directories.getBaseFolderPath(context)).listFiles();
+                // the ride can only be shown if its files exist
                 String clicked = (String) binding.listView.getItemAtPosition(position);
-                Log.d(TAG, "dirFiles.length: " + dirFiles.length + " clicked: " + clicked + " position: " + position);
-                clicked = clicked.replace("#", "").split(";")[0];
-                if (dirFiles.length != 0) {
-                    // loops through the array of files, outputting the name to console
-                    for (File dirFile : dirFiles) {
-                        String fileOutput = dirFile.getName();
-                        Log.d(TAG, "fileOutput: " + fileOutput + " clicked: " + clicked + "_");
-                        if (fileOutput.startsWith(clicked + "_")) {
-                            ShowRouteActivity.startShowRouteActivity(Integer.parseInt(fileOutput.split("_", -1)[0]), Integer.parseInt(metaDataLines.get(metaDataLines.size() - position - 1)[3]), true, HistoryActivity.this);
-                        }
+                Log.d(TAG, "clicked: " + clicked + " position: " + position);
+                int rideId = Integer.parseInt(clicked.replace("#", "").split(";")[0]);
+                int state = Integer.parseInt(metaDataLines.get(metaDataLines.size() - position - 1)[3]);
+                new Thread(() -> {
+                    if (RideCatalog.hasRide(rideId, context)) {
+                        runOnUiThread(() -> ShowRouteActivity.startShowRouteActivity(rideId, state, true, HistoryActivity.this));
                     }
-                }
+                }).start();
             });
 
             holder.btnDelete.setOnClickListener(v -> {
@@ -4,7 +4,6 @@ import static de.tuberlin.mcc.simra.app.util.IOUtils.Directories.getBaseFolderPa
 import static de.tuberlin.mcc.simra.app.util.IOUtils.importSimRaData;
 import static de.tuberlin.mcc.simra.app.util.IOUtils.zipto;
 import static de.tuberlin.mcc.simra.app.util.Utils.prepareDebugZip;
-import static de.tuberlin.mcc.simra.app.util.Utils.sortFileListLastModified;
 
 import android.app.Activity;
 import android.app.AlarmManager;
@@ -16,6 +15,8 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -23,6 +24,7 @@ import android.view.View;
 import android.widget.AdapterView;
 import android.widget.CheckBox;
 import android.widget.LinearLayout;
+import android.widget.ProgressBar;
 import android.widget.Spinner;
 import android.widget.Switch;
 import android.widget.TextView;
@@ -30,18 +32,20 @@ import android.widget.Toast;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import de.tuberlin.mcc.simra.app.BuildConfig;
 import de.tuberlin.mcc.simra.app.R;
 import de.tuberlin.mcc.simra.app.databinding.ActivitySettingsBinding;
+import de.tuberlin.mcc.simra.app.entities.RideCatalog;
 import de.tuberlin.mcc.simra.app.services.DebugUploadService;
 import de.tuberlin.mcc.simra.app.services.OBSService;
 import de.tuberlin.mcc.simra.app.util.BaseActivity;
 import de.tuberlin.mcc.simra.app.util.IOUtils;
 import de.tuberlin.mcc.simra.app.util.SharedPref;
 import de.tuberlin.mcc.simra.app.util.UnitHelper;
+import de.tuberlin.mcc.simra.app.util.ZipExporter;
 import pl.droidsonroids.gif.GifImageView;
 
 
@@ -196,6 +200,14 @@ public class SettingsActivity extends BaseActivity {
         }
         binding.switchAI.setOnCheckedChangeListener((buttonView, isChecked) -> SharedPref.Settings.IncidentGenerationAIActive.setAIEnabled(isChecked, this));
 
+        // Switch: Battery saver recording (hardware sensor batching)
+        binding.batterySaverSwitch.setChecked(SharedPref.Settings.Ride.BatterySaver.isEnabled(this));
+        binding.batterySaverSwitch.setOnCheckedChangeListener((buttonView, isChecked) -> SharedPref.Settings.Ride.BatterySaver.setEnabled(isChecked, this));
+
+        // Switch: Raw sensor capture
+        binding.rawSensorCaptureSwitch.setChecked(SharedPref.Settings.Ride.RawSensorCapture.isEnabled(this));
+        binding.rawSensorCaptureSwitch.setOnCheckedChangeListener((buttonView, isChecked) -> SharedPref.Settings.Ride.RawSensorCapture.setEnabled(isChecked, this));
+
 
         binding.importButton.setOnClickListener(new View.OnClickListener() {
 
@@ -299,36 +311,45 @@ public class SettingsActivity extends BaseActivity {
 
     private void fireDebugPrompt() {
         androidx.appcompat.app.AlertDialog.Builder builder = new androidx.appcompat.app.AlertDialog.Builder(SettingsActivity.this).setTitle(R.string.debugPromptTitle2);
-        File[] dirFiles = new File(getBaseFolderPath(SettingsActivity.this)).listFiles();
-        List<File> files = new ArrayList<File>(Arrays.asList(dirFiles));
+        // DataLog files of all finished rides (a ride being recorded is not in the catalog), oldest first
+        List<RideCatalog.FileEntry> dataLogs = new ArrayList<>();
+        for (int rideId : RideCatalog.getRideIds(this)) {
+            RideCatalog.FileEntry dataLog = null;
+            for (RideCatalog.FileEntry fileEntry : RideCatalog.getFileEntries(rideId, this)) {
+                if (fileEntry.name.equals(IOUtils.Files.getGPSLogFileName(rideId, false))
+                        || (dataLog == null && fileEntry.name.equals(IOUtils.Files.getCompactDataLogFileName(rideId)))) {
+                    dataLog = fileEntry;
+                }
+            }
+            if (dataLog != null) {
+                dataLogs.add(dataLog);
+            }
+        }
+        Collections.sort(dataLogs, (dataLog1, dataLog2) -> Long.compare(dataLog1.lastModified, dataLog2.lastModified));
+        String baseFolderPath = getBaseFolderPath(SettingsActivity.this);
         List<File> ridesAndAccEvents = new ArrayList<>();
-        sortFileListLastModified(files);
         double sizeAllInMB = 0;
         double size10InMB = 0;
         int i10 = 0;
-        for (int i = 0; i < files.size(); i++) {
-            File file = files.get(i);
-            if (file.getName().contains("accGps")) {
-                int id = Integer.parseInt(file.getName().split("_")[0]);
-                String path = file.getParent() + File.separator + "accEvents" + id + ".csv";
-                File accEvents = new File(path);
-                sizeAllInMB += file.length() / 1024.0 / 1024.0;
-                ridesAndAccEvents.add(file);
-                if (accEvents.exists()) {
-                    sizeAllInMB += accEvents.length() / 1024.0 / 1024.0;
-                    ridesAndAccEvents.add(accEvents);
-                }
-                if (i10 < 10) {
-                    size10InMB = sizeAllInMB;
-                    i10++;
+        for (RideCatalog.FileEntry dataLog : dataLogs) {
+            for (RideCatalog.FileEntry fileEntry : RideCatalog.getFileEntries(dataLog.rideId, this)) {
+                if (fileEntry.name.equals(dataLog.name)
+                        || fileEntry.name.equals("accEvents" + dataLog.rideId + ".csv")
+                        || fileEntry.name.equals(IOUtils.Files.getRawSensorFileName(dataLog.rideId))) {
+                    sizeAllInMB += fileEntry.size / 1024.0 / 1024.0;
+                    ridesAndAccEvents.add(new File(baseFolderPath + fileEntry.name));
                 }
             }
+            if (i10 < 10) {
+                size10InMB = sizeAllInMB;
+                i10++;
+            }
         }
         sizeAllInMB = Math.round(sizeAllInMB / 3.0 * 100.0) / 100.0;
         size10InMB = Math.round(size10InMB / 3.0 * 100.0) / 100.0;
         final int[] clicked = {2};
         CharSequence[] array;
-        if (files.size() > 10) {
+        if (dataLogs.size() > 10) {
             array = new CharSequence[]{getText(R.string.debugSendAllRides) + " (" + sizeAllInMB + " MB)", getText(R.string.debugSend10Rides) + " (" + size10InMB + " MB)", getText(R.string.debugDoNotSendRides)};
         } else {
             array = new CharSequence[]{getText(R.string.debugSendAllRides) + " (" + sizeAllInMB + " MB)", getText(R.string.debugDoNotSendRides)};
@@ -394,14 +415,10 @@ public class SettingsActivity extends BaseActivity {
             }
         } else if (requestCode == DIRECTORY_PICKER_EXPORT && resultCode == Activity.RESULT_OK) {
             // triggers export to SimRa.zip (in a given directory)
-            zipto(SettingsActivity.this.getFilesDir().getParent(), data.getData(), SettingsActivity.this);
+            new ExportTask(data.getData()).execute();
         } else if (requestCode == FILE_PICKER_IMPORT && resultCode == Activity.RESULT_OK) {
             // triggers import data from given SimRa.zip
-            importSimRaData(data.getData(), this);
-            // reload activity so that the imported settings are shown in this view.
-            loadActivity();
-            // show toast that data import is completed
-            Toast.makeText(this, R.string.importDone, Toast.LENGTH_LONG).show();
+            new ImportTask(data.getData()).execute();
         } else {
             if (data != null) {
                 Log.d(TAG, " requestCode: " + requestCode + " resultCode: " + resultCode + " result " + data.getData());
@@ -429,6 +446,113 @@ public class SettingsActivity extends BaseActivity {
     }
 
 
+    /**
+     * Exports the app data to SimRa.zip in the background, showing the progress in a dialog
+     * which can cancel the export.
+     */
+    private class ExportTask extends AsyncTask<Void, Integer, Boolean> {
+        private final Uri toLocation;
+        private final ZipExporter exporter = new ZipExporter(Runtime.getRuntime().availableProcessors());
+        private ProgressBar progressBar;
+        private androidx.appcompat.app.AlertDialog dialog;
+
+        private ExportTask(Uri toLocation) {
+            this.toLocation = toLocation;
+        }
+
+        @Override
+        protected void onPreExecute() {
+            progressBar = new ProgressBar(SettingsActivity.this, null, android.R.attr.progressBarStyleHorizontal);
+            progressBar.setMax(100);
+            progressBar.setPadding(50, 20, 50, 0);
+            dialog = new androidx.appcompat.app.AlertDialog.Builder(SettingsActivity.this)
+                    .setTitle(R.string.exportProgress)
+                    .setView(progressBar)
+                    .setCancelable(false)
+                    .setNegativeButton(R.string.cancel, (d, whichButton) -> exporter.cancel())
+                    .show();
+        }
+
+        @Override
+        protected Boolean doInBackground(Void... voids) {
+            return zipto(getFilesDir().getParent(), toLocation, SettingsActivity.this, exporter,
+                    (bytesDone, bytesTotal) -> publishProgress(bytesTotal > 0 ? (int) (bytesDone * 100 / bytesTotal) : 100));
+        }
+
+        @Override
+        protected void onProgressUpdate(Integer... values) {
+            progressBar.setProgress(values[0]);
+        }
+
+        @Override
+        protected void onPostExecute(Boolean exported) {
+            if (dialog.isShowing()) {
+                dialog.dismiss();
+            }
+            if (exported) {
+                Toast.makeText(SettingsActivity.this, R.string.exportToast, Toast.LENGTH_SHORT).show();
+            } else if (!exporter.isCancelled()) {
+                Toast.makeText(SettingsActivity.this, R.string.exportFailed, Toast.LENGTH_LONG).show();
+            }
+        }
+    }
+
+    /**
+     * Imports the app data from SimRa.zip in the background, showing the progress in a dialog.
+     */
+    private class ImportTask extends AsyncTask<Void, Integer, Boolean> {
+        private final Uri zipUri;
+        private ProgressBar progressBar;
+        private androidx.appcompat.app.AlertDialog dialog;
+
+        private ImportTask(Uri zipUri) {
+            this.zipUri = zipUri;
+        }
+
+        @Override
+        protected void onPreExecute() {
+            progressBar = new ProgressBar(SettingsActivity.this, null, android.R.attr.progressBarStyleHorizontal);
+            progressBar.setMax(100);
+            progressBar.setIndeterminate(true);
+            progressBar.setPadding(50, 20, 50, 0);
+            dialog = new androidx.appcompat.app.AlertDialog.Builder(SettingsActivity.this)
+                    .setTitle(R.string.importProgress)
+                    .setView(progressBar)
+                    .setCancelable(false)
+                    .show();
+        }
+
+        @Override
+        protected Boolean doInBackground(Void... voids) {
+            return importSimRaData(zipUri, SettingsActivity.this, (bytesDone, bytesTotal) -> {
+                if (bytesTotal > 0) {
+                    publishProgress((int) (bytesDone * 100 / bytesTotal));
+                }
+            });
+        }
+
+        @Override
+        protected void onProgressUpdate(Integer... values) {
+            progressBar.setIndeterminate(false);
+            progressBar.setProgress(values[0]);
+        }
+
+        @Override
+        protected void onPostExecute(Boolean imported) {
+            if (dialog.isShowing()) {
+                dialog.dismiss();
+            }
+            if (imported) {
+                // reload activity so that the imported settings are shown in this view.
+                loadActivity();
+                // show toast that data import is completed
+                Toast.makeText(SettingsActivity.this, R.string.importDone, Toast.LENGTH_LONG).show();
+            } else {
+                Toast.makeText(SettingsActivity.this, R.string.importFailed, Toast.LENGTH_LONG).show();
+            }
+        }
+    }
+
     public class MyBroadcastReceiver extends BroadcastReceiver {
         @Override
         public void onReceive(Context context, Intent intent) {
@@ -390,7 +390,7 @@ public class ShowRouteActivity extends BaseActivity {
     private void saveChanges() {
         // Save incidents
         incidentLog = IncidentLog.filterIncidentLogUploadReady(incidentLog,bike,child == 1,trailer == 1,pLoc,false);
-        IncidentLog.saveIncidentLog(incidentLog, this);
+        IncidentLog.saveIncidentLogChanges(incidentLog, this);
         // Save new Route
         DataLog.saveDataLog(dataLog, this);
         // Update MetaData
@@ -425,6 +425,9 @@ public class ShowRouteActivity extends BaseActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        // merges the journal into the accEvents file, so that it does not grow with every edit
+        Context context = getApplicationContext();
+        new Thread(() -> IncidentLog.compactIncidentLog(rideId, context)).start();
 
         //*****************************************************************
         // Shutdown pool and await termination to make sure the program
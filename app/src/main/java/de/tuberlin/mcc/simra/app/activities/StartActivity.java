@@ -1,5 +1,6 @@
 package de.tuberlin.mcc.simra.app.activities;
 
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.res.Configuration;
@@ -25,6 +26,7 @@ import java.io.File;
 import java.util.Arrays;
 
 import de.tuberlin.mcc.simra.app.R;
+import de.tuberlin.mcc.simra.app.entities.RideCatalog;
 import de.tuberlin.mcc.simra.app.services.UploadService;
 import de.tuberlin.mcc.simra.app.util.BaseActivity;
 import de.tuberlin.mcc.simra.app.util.PermissionHelper;
@@ -67,6 +69,13 @@ public class StartActivity extends BaseActivity {
 
         // IMPORTANT: Do not remove!
         UpdateHelper.migrate(this);
+        // Rides which were being recorded when the app was killed, then the ride files the catalog
+        // did not see being written (builds the catalog on the first start)
+        Context context = getApplicationContext();
+        new Thread(() -> {
+            UpdateHelper.recoverUnfinishedRides(context);
+            RideCatalog.check(context);
+        }).start();
 
         showErrorDialogIfCrashedBefore();
 
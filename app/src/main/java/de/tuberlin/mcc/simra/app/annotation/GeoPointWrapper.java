@@ -28,6 +28,10 @@ public class GeoPointWrapper {
     }
 
     public double calcDistToReference() {
+        return calcDist(wrappedGeoPoint, referencePoint);
+    }
+
+    public static double calcDist(GeoPoint wrappedGeoPoint, GeoPoint referencePoint) {
 
         long earthRadiusKm = 6371;
 
@@ -24,9 +24,7 @@ import org.osmdroid.views.overlay.simplefastpoint.SimpleFastPointOverlay;
 import org.osmdroid.views.overlay.simplefastpoint.SimpleFastPointOverlayOptions;
 import org.osmdroid.views.overlay.simplefastpoint.SimplePointTheme;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -157,17 +155,18 @@ public class MarkerFunct {
      * @return
      */
     public DataLogEntry getClosesDataLogEntryToGeoPoint(GeoPoint geoPoint, DataLog gpsDataLog) {
-        List<GeoPointWrapper> wrappedGPS = new ArrayList<>();
         List<GeoPoint> gpsDataLogGeoPoints = gpsDataLog.rideAnalysisData.route.getPoints();
+        int closest = 0;
+        double closestDistance = Double.MAX_VALUE;
         for (int i = 0; i < gpsDataLogGeoPoints.size(); i++) {
-            wrappedGPS.add(new GeoPointWrapper(gpsDataLogGeoPoints.get(i), geoPoint, gpsDataLog.onlyGPSDataLogEntries.get(i)));
+            double distance = GeoPointWrapper.calcDist(gpsDataLogGeoPoints.get(i), geoPoint);
+            if (distance < closestDistance) {
+                closest = i;
+                closestDistance = distance;
+            }
         }
-        Collections.sort(wrappedGPS, (GeoPointWrapper o1, GeoPointWrapper o2) -> {
-            if (o1.distToReference < o2.distToReference) return -1;
-            if (o1.distToReference > o2.distToReference) return 1;
-            else return 0;
-        });
-        return wrappedGPS.get(0).dataLogEntry;
+        // only the closest GPS line is turned into a DataLogEntry
+        return gpsDataLog.onlyGPSDataLogEntries.get(closest);
     }
 
 
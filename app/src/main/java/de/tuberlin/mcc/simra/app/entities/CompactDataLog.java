@@ -0,0 +1,420 @@
+package de.tuberlin.mcc.simra.app.entities;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import de.tuberlin.mcc.simra.app.util.StorageExecutor;
+
+import static de.tuberlin.mcc.simra.app.entities.DataLogLineParser.*;
+
+/**
+ * Compact encoding of a DataLog for rides which are not edited anymore (synced rides) and their backups.
+ * <p>
+ * Values are stored as fixed-point numbers at the following precision, which is what the CSV file
+ * contains after a round trip through this encoding:
+ * <ul>
+ * <li>latitude and longitude: 1e-7 degrees (about 1 cm)</li>
+ * <li>GPS accuracy: 1e-3 m</li>
+ * <li>accelerometer and linear accelerometer: 1e-4 m/s&sup2;</li>
+ * <li>gyroscope: 1e-5 rad/s</li>
+ * <li>rotation vector: 1e-6</li>
+ * <li>timestamp and OBS columns: exact</li>
+ * </ul>
+ * Every column is delta encoded (each value minus the previous present value of the column)
+ * as zig-zag varint, which takes one or two bytes for most values.
+ * <p>
+ * File format: a little-endian header (int magic "SRDZ", short version, short flags, int row count,
+ * int GPS row count, int mask of the stored columns, int preamble length, preamble in UTF-8),
+ * followed by blocks of {@link #BLOCK_ROWS} rows, each one int stored length, int encoded length and the
+ * encoded rows, compressed with DEFLATE if {@link #FLAG_DEFLATE} is set. Within a block, each stored
+ * column has its presence as run lengths (alternating absent and present rows, starting with absent)
+ * and the deltas of its present values, then follow the GPS rows (count, row deltas, latitude,
+ * longitude and accuracy deltas). Deltas start at 0 in every block.
+ */
+public class CompactDataLog {
+    public static final int MAGIC = 'S' | 'R' << 8 | 'D' << 16 | 'Z' << 24;
+    public static final short VERSION = 1;
+    public static final short FLAG_DEFLATE = 1;
+    public static final int BLOCK_ROWS = 4096;
+    public static final double LATITUDE_LONGITUDE_SCALE = 1e7;
+    public static final double GPS_ACCURACY_SCALE = 1e3;
+    /**
+     * Scale of the fixed-point value of each column, 1 for timestamp and OBS columns
+     */
+    private static final double[] SCALES = new double[COLUMN_COUNT];
+
+    static {
+        Arrays.fill(SCALES, 1);
+        for (int column = ACCELEROMETER_X; column <= ACCELEROMETER_Z; column++) {
+            SCALES[column] = 1e4;
+        }
+        for (int column = LINEAR_ACCELEROMETER_X; column <= LINEAR_ACCELEROMETER_Z; column++) {
+            SCALES[column] = 1e4;
+        }
+        for (int column = GYROSCOPE_A; column <= GYROSCOPE_C; column++) {
+            SCALES[column] = 1e5;
+        }
+        for (int column = ROTATION_X; column <= ROTATION_C; column++) {
+            SCALES[column] = 1e6;
+        }
+    }
+
+    /**
+     * File info and header line of the CSV file, including the line separators
+     */
+    public final String preamble;
+    public final DataLogColumns columns;
+
+    public CompactDataLog(String preamble, DataLogColumns columns) {
+        this.preamble = preamble;
+        this.columns = columns;
+    }
+
+    /**
+     * Replaces the file through the {@link StorageExecutor}.
+     *
+     * @param deflate whether the blocks are compressed additionally
+     */
+    public void write(File file, boolean deflate) throws IOException {
+        if (!StorageExecutor.write(file, tempFile -> writeTo(tempFile, deflate))) {
+            throw new IOException("could not write " + file);
+        }
+    }
+
+    /**
+     * Writes the encoding to the given file, see {@link StorageExecutor.Writer}.
+     */
+    public void writeTo(File tempFile, boolean deflate) throws IOException {
+        byte[] preambleBytes = preamble.getBytes(StandardCharsets.UTF_8);
+        int columnMask = 0;
+        for (int column = 0; column < COLUMN_COUNT; column++) {
+            if (columns.presence[column] != null) {
+                columnMask |= 1 << column;
+            }
+        }
+        ByteBuffer header = ByteBuffer.allocate(24 + preambleBytes.length).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC);
+        header.putShort(VERSION);
+        header.putShort(deflate ? FLAG_DEFLATE : 0);
+        header.putInt(columns.rowCount);
+        header.putInt(columns.gpsRowCount);
+        header.putInt(columnMask);
+        header.putInt(preambleBytes.length);
+        header.put(preambleBytes);
+
+        Deflater deflater = deflate ? new Deflater(Deflater.BEST_COMPRESSION) : null;
+        try (FileOutputStream out = new FileOutputStream(tempFile, false)) {
+            out.write(header.array());
+            Output block = new Output();
+            Output compressed = new Output();
+            ByteBuffer blockHeader = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            int gpsIndex = 0;
+            for (int from = 0; from < columns.rowCount; from += BLOCK_ROWS) {
+                int to = Math.min(columns.rowCount, from + BLOCK_ROWS);
+                block.length = 0;
+                gpsIndex = encodeBlock(block, from, to, columnMask, gpsIndex);
+                Output stored = block;
+                if (deflater != null) {
+                    deflater.reset();
+                    deflater.setInput(block.bytes, 0, block.length);
+                    deflater.finish();
+                    compressed.length = 0;
+                    while (!deflater.finished()) {
+                        compressed.ensureCapacity(compressed.length + 4096);
+                        compressed.length += deflater.deflate(compressed.bytes, compressed.length, compressed.bytes.length - compressed.length);
+                    }
+                    stored = compressed;
+                }
+                blockHeader.clear();
+                blockHeader.putInt(stored.length);
+                blockHeader.putInt(block.length);
+                out.write(blockHeader.array());
+                out.write(stored.bytes, 0, stored.length);
+            }
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+    }
+
+    public static CompactDataLog read(File file) throws IOException {
+        byte[] bytes;
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            bytes = new byte[(int) in.length()];
+            in.readFully(bytes);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getShort() != VERSION) {
+                throw new IOException("invalid compact DataLog " + file);
+            }
+            boolean deflate = (buffer.getShort() & FLAG_DEFLATE) != 0;
+            int rowCount = buffer.getInt();
+            int gpsRowCount = buffer.getInt();
+            int columnMask = buffer.getInt();
+            byte[] preamble = new byte[buffer.getInt()];
+            buffer.get(preamble);
+            if (rowCount < 0 || gpsRowCount < 0 || gpsRowCount > rowCount || (columnMask & GPS_COLUMNS) != 0) {
+                throw new IOException("invalid compact DataLog " + file);
+            }
+
+            DataLogColumns columns = new DataLogColumns();
+            columns.rowCount = rowCount;
+            columns.capacity = rowCount;
+            for (int column = 0; column < COLUMN_COUNT; column++) {
+                if ((columnMask & 1 << column) == 0) {
+                    continue;
+                }
+                columns.presence[column] = new long[(rowCount + 63) >>> 6];
+                if (column == TIMESTAMP) {
+                    columns.timestamps = new long[rowCount];
+                } else if ((OBS_COLUMNS & 1 << column) != 0) {
+                    columns.intColumns[column] = new int[rowCount];
+                } else {
+                    columns.floatColumns[column] = new float[rowCount];
+                }
+            }
+            columns.gpsRowCount = gpsRowCount;
+            columns.gpsRows = new int[gpsRowCount];
+            columns.latitudes = new double[gpsRowCount];
+            columns.longitudes = new double[gpsRowCount];
+            columns.gpsAccuracies = new float[gpsRowCount];
+
+            Inflater inflater = deflate ? new Inflater() : null;
+            try {
+                Input block = new Input();
+                int gpsIndex = 0;
+                for (int from = 0; from < rowCount; from += BLOCK_ROWS) {
+                    int storedLength = buffer.getInt();
+                    int encodedLength = buffer.getInt();
+                    if (storedLength < 0 || encodedLength < 0 || storedLength > buffer.remaining()) {
+                        throw new IOException("invalid compact DataLog " + file);
+                    }
+                    if (inflater != null) {
+                        byte[] encoded = new byte[encodedLength];
+                        inflater.reset();
+                        inflater.setInput(buffer.array(), buffer.position(), storedLength);
+                        if (inflater.inflate(encoded) != encodedLength) {
+                            throw new IOException("invalid compact DataLog " + file);
+                        }
+                        block.reset(encoded, 0, encodedLength);
+                    } else {
+                        block.reset(buffer.array(), buffer.position(), storedLength);
+                    }
+                    buffer.position(buffer.position() + storedLength);
+                    gpsIndex = decodeBlock(block, columns, from, Math.min(rowCount, from + BLOCK_ROWS), columnMask, gpsIndex);
+                }
+                if (gpsIndex != gpsRowCount) {
+                    throw new IOException("invalid compact DataLog " + file);
+                }
+            } finally {
+                if (inflater != null) {
+                    inflater.end();
+                }
+            }
+            return new CompactDataLog(new String(preamble, StandardCharsets.UTF_8), columns);
+        } catch (DataFormatException | RuntimeException e) {
+            throw new IOException("invalid compact DataLog " + file, e);
+        }
+    }
+
+    /**
+     * Converts a compact file into its CSV file, the values have the precision documented above.
+     *
+     * @return number of exported rows
+     */
+    public static int exportToCsv(File compactFile, File csvFile) throws IOException {
+        CompactDataLog compactDataLog = read(compactFile);
+        new DataLogFile(compactDataLog.preamble, compactDataLog.columns, 0, 0).writeCsv(csvFile);
+        return compactDataLog.columns.getRowCount();
+    }
+
+    /**
+     * @return the fixed-point value of a column
+     */
+    private static long quantize(int column, double value) {
+        return Math.round(value * SCALES[column]);
+    }
+
+    private int encodeBlock(Output out, int from, int to, int columnMask, int gpsIndex) {
+        for (int column = 0; column < COLUMN_COUNT; column++) {
+            if ((columnMask & 1 << column) == 0) {
+                continue;
+            }
+            // presence as run lengths
+            boolean present = false;
+            int runStart = from;
+            for (int row = from; row < to; row++) {
+                if (columns.isPresent(column, row) != present) {
+                    out.writeVarint(row - runStart);
+                    runStart = row;
+                    present = !present;
+                }
+            }
+            out.writeVarint(to - runStart);
+            long previous = 0;
+            for (int row = from; row < to; row++) {
+                if (!columns.isPresent(column, row)) {
+                    continue;
+                }
+                long value;
+                if (column == TIMESTAMP) {
+                    value = columns.timestamps[row];
+                } else if ((OBS_COLUMNS & 1 << column) != 0) {
+                    value = columns.intColumns[column][row];
+                } else {
+                    value = quantize(column, columns.floatColumns[column][row]);
+                }
+                out.writeZigZag(value - previous);
+                previous = value;
+            }
+        }
+        int gpsEnd = gpsIndex;
+        while (gpsEnd < columns.gpsRowCount && columns.gpsRows[gpsEnd] < to) {
+            gpsEnd++;
+        }
+        out.writeVarint(gpsEnd - gpsIndex);
+        int previousRow = from;
+        long previousLatitude = 0;
+        long previousLongitude = 0;
+        long previousAccuracy = 0;
+        for (int i = gpsIndex; i < gpsEnd; i++) {
+            long latitude = Math.round(columns.latitudes[i] * LATITUDE_LONGITUDE_SCALE);
+            long longitude = Math.round(columns.longitudes[i] * LATITUDE_LONGITUDE_SCALE);
+            long accuracy = Math.round(columns.gpsAccuracies[i] * GPS_ACCURACY_SCALE);
+            out.writeVarint(columns.gpsRows[i] - previousRow);
+            out.writeZigZag(latitude - previousLatitude);
+            out.writeZigZag(longitude - previousLongitude);
+            out.writeZigZag(accuracy - previousAccuracy);
+            previousRow = columns.gpsRows[i];
+            previousLatitude = latitude;
+            previousLongitude = longitude;
+            previousAccuracy = accuracy;
+        }
+        return gpsEnd;
+    }
+
+    private static int decodeBlock(Input in, DataLogColumns columns, int from, int to, int columnMask, int gpsIndex) throws IOException {
+        for (int column = 0; column < COLUMN_COUNT; column++) {
+            if ((columnMask & 1 << column) == 0) {
+                continue;
+            }
+            long[] presence = columns.presence[column];
+            boolean present = false;
+            for (int row = from; row < to; present = !present) {
+                int run = (int) in.readVarint();
+                if (run < 0 || run > to - row) {
+                    throw new IOException("invalid run length " + run);
+                }
+                if (present) {
+                    for (int i = row; i < row + run; i++) {
+                        presence[i >>> 6] |= 1L << i;
+                    }
+                }
+                row += run;
+            }
+            long value = 0;
+            for (int row = from; row < to; row++) {
+                if ((presence[row >>> 6] & 1L << row) == 0) {
+                    continue;
+                }
+                value += in.readZigZag();
+                if (column == TIMESTAMP) {
+                    columns.timestamps[row] = value;
+                } else if ((OBS_COLUMNS & 1 << column) != 0) {
+                    columns.intColumns[column][row] = (int) value;
+                } else {
+                    columns.floatColumns[column][row] = (float) (value / SCALES[column]);
+                }
+            }
+        }
+        int gpsCount = (int) in.readVarint();
+        if (gpsCount < 0 || gpsIndex + gpsCount > columns.gpsRowCount) {
+            throw new IOException("invalid GPS row count " + gpsCount);
+        }
+        int row = from;
+        long latitude = 0;
+        long longitude = 0;
+        long accuracy = 0;
+        for (int i = gpsIndex; i < gpsIndex + gpsCount; i++) {
+            row += (int) in.readVarint();
+            latitude += in.readZigZag();
+            longitude += in.readZigZag();
+            accuracy += in.readZigZag();
+            if (row >= to) {
+                throw new IOException("invalid GPS row " + row);
+            }
+            columns.gpsRows[i] = row;
+            columns.latitudes[i] = latitude / LATITUDE_LONGITUDE_SCALE;
+            columns.longitudes[i] = longitude / LATITUDE_LONGITUDE_SCALE;
+            columns.gpsAccuracies[i] = (float) (accuracy / GPS_ACCURACY_SCALE);
+        }
+        return gpsIndex + gpsCount;
+    }
+
+    private static class Output {
+        private byte[] bytes = new byte[64 * 1024];
+        private int length = 0;
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+            }
+        }
+
+        private void writeVarint(long value) {
+            ensureCapacity(length + 10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        private void writeZigZag(long value) {
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+    }
+
+    private static class Input {
+        private byte[] bytes;
+        private int position;
+        private int limit;
+
+        private void reset(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.position = offset;
+            this.limit = offset + length;
+        }
+
+        private long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= limit) {
+                    throw new IOException("unexpected end of block");
+                }
+                byte b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IOException("invalid varint");
+        }
+
+        private long readZigZag() throws IOException {
+            long value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+    }
+}
@@ -6,21 +6,31 @@ import android.location.Location;
 import org.osmdroid.util.GeoPoint;
 import org.osmdroid.views.overlay.Polyline;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 import de.tuberlin.mcc.simra.app.util.IOUtils;
+import de.tuberlin.mcc.simra.app.util.StorageExecutor;
 import de.tuberlin.mcc.simra.app.util.Utils;
 
 public class DataLog {
     public final static String DATA_LOG_HEADER = "lat,lon,X,Y,Z,timeStamp,acc,a,b,c,obsDistanceLeft1,obsDistanceLeft2,obsDistanceRight1,obsDistanceRight2,obsClosePassEvent,XL,YL,ZL,RX,RY,RZ,RC";
     public final int rideId;
+    /**
+     * The lines of the ride, for bulk access without creating DataLogEntries
+     */
+    public final DataLogColumns columns;
+    /**
+     * Views of the lines, the DataLogEntries are created on access
+     */
     public final List<DataLogEntry> dataLogEntries;
     public final List<DataLogEntry> onlyGPSDataLogEntries;
     public final RideAnalysisData rideAnalysisData;
@@ -29,12 +39,13 @@ public class DataLog {
 
     private DataLog(
             int rideId,
-            List<DataLogEntry> dataLogEntries,
-            List<DataLogEntry> onlyGPSDataLogEntries, RideAnalysisData rideAnalysisData,
+            DataLogColumns columns,
+            RideAnalysisData rideAnalysisData,
             long startTime, long endTime) {
         this.rideId = rideId;
-        this.dataLogEntries = dataLogEntries;
-        this.onlyGPSDataLogEntries = onlyGPSDataLogEntries;
+        this.columns = columns;
+        this.dataLogEntries = columns.asList();
+        this.onlyGPSDataLogEntries = columns.gpsEntries();
         this.rideAnalysisData = rideAnalysisData;
         this.startTime = startTime;
         this.endTime = endTime;
@@ -45,53 +56,231 @@ public class DataLog {
     }
 
     public static DataLog loadDataLog(int rideId, Long startTimeBoundary, Long endTimeBoundary, Context context) {
-        List<DataLogEntry> dataPoints = new ArrayList<>();
-        List<DataLogEntry> onlyGPSDataLogEntries = new ArrayList<>();
+        DataLogColumns columns = null;
         long startTime = 0;
         long endTime = 0;
 
+        boolean completeRide = startTimeBoundary == null && endTimeBoundary == null;
         File gpsLogFile = IOUtils.Files.getGPSLogFile(rideId, false, context);
-        if (gpsLogFile.exists()) {
-            try (BufferedReader bufferedReader = new BufferedReader(new FileReader(gpsLogFile))) {
-                // Skip first two line as they do only contain the Header
-                bufferedReader.readLine();
-                bufferedReader.readLine();
-                String line;
-                while ((line = bufferedReader.readLine()) != null) {
-                    if (!line.trim().isEmpty()) {
-                        DataLogEntry dataLogEntry = DataLogEntry.parseDataLogEntryFromLine(line);
-                        if (Utils.isInTimeFrame(startTimeBoundary, endTimeBoundary, dataLogEntry.timestamp)
-                        ) {
-                            dataPoints.add(dataLogEntry);
-                            if (dataLogEntry.longitude != null && dataLogEntry.latitude != null) {
-                                onlyGPSDataLogEntries.add(dataLogEntry);
-                            }
-                        }
+        File dataLogFile = IOUtils.Files.getDataLogFile(rideId, context);
+        File indexFile = IOUtils.Files.getDataLogIndexFile(rideId, context);
+        // Only the blocks of lines which overlap the time frame are loaded, if the index is up to date
+        int fromLine = 0;
+        int toLine = Integer.MAX_VALUE;
+        long offset = -1;
+        if (!completeRide && indexFile.exists()) {
+            try {
+                DataLogIndex index = DataLogIndex.read(indexFile);
+                if (index.isUpToDate(gpsLogFile)) {
+                    int firstBlock = index.firstBlock(startTimeBoundary, endTimeBoundary);
+                    if (firstBlock >= 0) {
+                        fromLine = index.getFirstLine(firstBlock);
+                        toLine = index.getEndLine(index.lastBlock(startTimeBoundary, endTimeBoundary));
+                        offset = index.getOffset(firstBlock);
+                    } else {
+                        toLine = 0;
                     }
                 }
-                startTime = dataPoints.get(0).timestamp;
-                endTime = dataPoints.get(dataPoints.size() - 1).timestamp;
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
+        if (DataLogFile.isUpToDate(dataLogFile, gpsLogFile) || (!gpsLogFile.exists() && dataLogFile.exists())) {
+            try {
+                columns = filter(DataLogFile.open(dataLogFile, fromLine, toLine).columns, startTimeBoundary, endTimeBoundary);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        File compactFile = IOUtils.Files.getCompactDataLogFile(rideId, context);
+        if (columns == null && !gpsLogFile.exists() && compactFile.exists()) {
+            try {
+                columns = filter(CompactDataLog.read(compactFile).columns, startTimeBoundary, endTimeBoundary);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (columns == null) {
+            columns = new DataLogColumns();
+            if (gpsLogFile.exists() && toLine > fromLine) {
+                long sourceLength = gpsLogFile.length();
+                long sourceLastModified = gpsLogFile.lastModified();
+                try (FileInputStream in = new FileInputStream(gpsLogFile)) {
+                    if (offset > 0) {
+                        in.getChannel().position(offset);
+                    }
+                    DataLogLineParser.LineReader lineReader = new DataLogLineParser.LineReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+                    DataLogLineParser parser = new DataLogLineParser();
+                    // The first two lines do only contain the Header
+                    StringBuilder preamble = new StringBuilder();
+                    for (int i = 0; offset < 0 && i < 2 && lineReader.next(); i++) {
+                        preamble.append(lineReader.getChars(), lineReader.getStart(), lineReader.getEnd() - lineReader.getStart()).append(System.lineSeparator());
+                    }
+                    DataLogIndex.Builder indexBuilder = new DataLogIndex.Builder();
+                    int lines = 0;
+                    while (lines < toLine - fromLine && lineReader.next()) {
+                        if (!lineReader.isBlank()) {
+                            lines++;
+                            parser.parse(lineReader.getChars(), lineReader.getStart(), lineReader.getEnd());
+                            long timestamp = parser.isPresent(DataLogLineParser.TIMESTAMP) ? parser.getLong(DataLogLineParser.TIMESTAMP) : 0;
+                            indexBuilder.add(lineReader.getOffset(), timestamp);
+                            if (Utils.isInTimeFrame(startTimeBoundary, endTimeBoundary, timestamp)) {
+                                columns.add(parser);
+                            }
+                        }
+                    }
+                    columns.trimToSize();
+                    // the next time the ride is opened from the binary file, written in the background
+                    // unless the DataLog file was replaced in the meantime
+                    if (completeRide) {
+                        DataLogFile binary = new DataLogFile(preamble.toString(), columns, sourceLength, sourceLastModified);
+                        DataLogIndex index = indexBuilder.build(sourceLength, sourceLastModified);
+                        StorageExecutor.writeInBackground(dataLogFile, tempFile -> {
+                            checkUnchanged(gpsLogFile, sourceLength, sourceLastModified);
+                            binary.writeTo(tempFile);
+                        });
+                        StorageExecutor.writeInBackground(indexFile, tempFile -> {
+                            checkUnchanged(gpsLogFile, sourceLength, sourceLastModified);
+                            index.writeTo(tempFile);
+                        });
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        if (!columns.isEmpty()) {
+            startTime = columns.getTimestamp(0);
+            endTime = columns.getTimestamp(columns.getRowCount() - 1);
+        }
         RideAnalysisData rideAnalysisData = null;
-        rideAnalysisData = RideAnalysisData.calculateRideAnalysisData(onlyGPSDataLogEntries);
-        return new DataLog(rideId, dataPoints, onlyGPSDataLogEntries, rideAnalysisData, startTime, endTime);
+        rideAnalysisData = RideAnalysisData.calculateRideAnalysisData(columns);
+        return new DataLog(rideId, columns, rideAnalysisData, startTime, endTime);
+    }
+
+    /**
+     * Fails a cache write whose DataLog file was replaced after it was read, e.g. by {@link #saveDataLog}.
+     */
+    private static void checkUnchanged(File gpsLogFile, long sourceLength, long sourceLastModified) throws IOException {
+        if (gpsLogFile.length() != sourceLength || gpsLogFile.lastModified() != sourceLastModified) {
+            throw new IOException(gpsLogFile + " changed while it was loaded");
+        }
+    }
+
+    /**
+     * @return the rows of the columns which are in the time frame
+     */
+    private static DataLogColumns filter(DataLogColumns columns, Long startTimeBoundary, Long endTimeBoundary) {
+        if (startTimeBoundary == null && endTimeBoundary == null) {
+            return columns;
+        }
+        DataLogColumns result = new DataLogColumns();
+        for (int row = 0; row < columns.getRowCount(); row++) {
+            if (Utils.isInTimeFrame(startTimeBoundary, endTimeBoundary, columns.getTimestamp(row))) {
+                result.add(columns, row);
+            }
+        }
+        result.trimToSize();
+        return result;
     }
 
+    /**
+     * Replaces the DataLog file through the {@link StorageExecutor}, together with its binary
+     * version and its index.
+     */
     public static void saveDataLog(DataLog dataLog, Context context) {
         File gpsDataLogFile = IOUtils.Files.getGPSLogFile(dataLog.rideId, false, context);
-        if (gpsDataLogFile.exists() && gpsDataLogFile.isFile()) {
-            gpsDataLogFile.delete();
+        String preamble = IOUtils.Files.getFileInfoLine() + DATA_LOG_HEADER + System.lineSeparator();
+        StorageExecutor.write(gpsDataLogFile, tempFile -> {
+            DataLogIndex.Builder indexBuilder = new DataLogIndex.Builder();
+            try (DataLogCsvWriter writer = new DataLogCsvWriter(tempFile)) {
+                writer.write(preamble);
+                for (int row = 0; row < dataLog.columns.getRowCount(); row++) {
+                    indexBuilder.add(writer.getBytesWritten(), dataLog.columns.getTimestamp(row));
+                    writer.writeLine(dataLog.columns, row);
+                }
+            }
+            // length and modification time of the DataLog file do not change when it is renamed
+            try {
+                new DataLogFile(preamble, dataLog.columns, tempFile.length(), tempFile.lastModified())
+                        .write(IOUtils.Files.getDataLogFile(dataLog.rideId, context));
+                indexBuilder.build(tempFile.length(), tempFile.lastModified())
+                        .write(IOUtils.Files.getDataLogIndexFile(dataLog.rideId, context));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Replaces the DataLog file of a ride, its binary version and its index with a {@link CompactDataLog},
+     * which takes a fraction of the storage. For synced rides, which are not edited anymore.
+     *
+     * @return true if the ride is stored as CompactDataLog
+     */
+    public static boolean compactDataLog(int rideId, Context context) {
+        File gpsLogFile = IOUtils.Files.getGPSLogFile(rideId, false, context);
+        File compactFile = IOUtils.Files.getCompactDataLogFile(rideId, context);
+        if (!gpsLogFile.exists()) {
+            return compactFile.exists();
         }
-        try (BufferedWriter writer = new BufferedWriter((new FileWriter(gpsDataLogFile)))) {
-            writer.write(IOUtils.Files.getFileInfoLine() + DATA_LOG_HEADER + System.lineSeparator());
-            for (DataLogEntry dataLogEntry : dataLog.dataLogEntries) {
-                writer.write(dataLogEntry.stringifyDataLogEntry() + System.lineSeparator());
+        try {
+            String preamble;
+            try (BufferedReader reader = new BufferedReader(new FileReader(gpsLogFile))) {
+                preamble = reader.readLine() + System.lineSeparator() + reader.readLine() + System.lineSeparator();
+            }
+            DataLog dataLog = loadDataLog(rideId, context);
+            new CompactDataLog(preamble, dataLog.columns).write(compactFile, true);
+            // only delete the DataLog file if the compact file can be read
+            if (CompactDataLog.read(compactFile).columns.getRowCount() != dataLog.columns.getRowCount()) {
+                compactFile.delete();
+                return false;
             }
         } catch (IOException e) {
             e.printStackTrace();
+            compactFile.delete();
+            return false;
+        }
+        for (File file : new File[]{gpsLogFile, IOUtils.Files.getDataLogFile(rideId, context), IOUtils.Files.getDataLogIndexFile(rideId, context)}) {
+            file.delete();
+            RideCatalog.forgetFile(file);
+        }
+        return true;
+    }
+
+    /**
+     * Writes the DataLog file of a ride which is stored as {@link CompactDataLog}, for code which
+     * reads the file directly. Does nothing if the DataLog file exists.
+     */
+    public static void restoreDataLogFile(int rideId, Context context) {
+        File gpsLogFile = IOUtils.Files.getGPSLogFile(rideId, false, context);
+        File compactFile = IOUtils.Files.getCompactDataLogFile(rideId, context);
+        if (!gpsLogFile.exists() && compactFile.exists()) {
+            try {
+                CompactDataLog.exportToCsv(compactFile, gpsLogFile);
+                RideCatalog.recordFileInBackground(gpsLogFile);
+            } catch (IOException e) {
+                e.printStackTrace();
+                gpsLogFile.delete();
+            }
+        }
+    }
+
+    /**
+     * @return byte offset of the first line after the file info and header line of a DataLog file
+     */
+    public static long getFirstLineOffset(File gpsLogFile) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(gpsLogFile))) {
+            long offset = 0;
+            int lineFeeds = 0;
+            int b;
+            while (lineFeeds < 2 && (b = in.read()) >= 0) {
+                offset++;
+                if (b == '\n') {
+                    lineFeeds++;
+                }
+            }
+            return offset;
         }
     }
 
@@ -99,8 +288,8 @@ public class DataLog {
     public String toString() {
         StringBuilder dataLogString = new StringBuilder();
         dataLogString.append(IOUtils.Files.getFileInfoLine()).append(DATA_LOG_HEADER).append(System.lineSeparator());
-        for (DataLogEntry dataLogEntry : this.dataLogEntries) {
-            dataLogString.append(dataLogEntry.stringifyDataLogEntry()).append(System.lineSeparator());
+        for (int row = 0; row < columns.getRowCount(); row++) {
+            DataLogCsvWriter.appendLine(dataLogString, columns, row).append(System.lineSeparator());
         }
         return dataLogString.toString();
     }
@@ -117,7 +306,7 @@ public class DataLog {
             this.distance = distance;
         }
 
-        public static DataLog.RideAnalysisData calculateRideAnalysisData(List<DataLogEntry> dataLogEntries) {
+        public static DataLog.RideAnalysisData calculateRideAnalysisData(DataLogColumns columns) {
             Polyline polyLine = new Polyline();
 
             int waitedTime = 0; // seconds
@@ -126,20 +315,23 @@ public class DataLog {
             long previousTimeStamp = 0; // milliseconds
             long thisTimeStamp = 0; // milliseconds
             long distance = 0; // meters
-            for (DataLogEntry dataLogEntry : dataLogEntries) {
+            for (int gpsIndex = 0; gpsIndex < columns.getGPSRowCount(); gpsIndex++) {
+                double latitude = columns.getGPSLatitude(gpsIndex);
+                double longitude = columns.getGPSLongitude(gpsIndex);
+                long timestamp = columns.getGPSTimestamp(gpsIndex);
                 if (thisLocation == null) {
                     thisLocation = new Location("thisLocation");
-                    thisLocation.setLatitude(dataLogEntry.latitude);
-                    thisLocation.setLongitude(dataLogEntry.longitude);
+                    thisLocation.setLatitude(latitude);
+                    thisLocation.setLongitude(longitude);
                     previousLocation = new Location("previousLocation");
-                    previousLocation.setLatitude(dataLogEntry.latitude);
-                    previousLocation.setLongitude(dataLogEntry.longitude);
-                    thisTimeStamp = dataLogEntry.timestamp;
-                    previousTimeStamp = dataLogEntry.timestamp;
+                    previousLocation.setLatitude(latitude);
+                    previousLocation.setLongitude(longitude);
+                    thisTimeStamp = timestamp;
+                    previousTimeStamp = timestamp;
                 } else {
-                    thisLocation.setLatitude(dataLogEntry.latitude);
-                    thisLocation.setLongitude(dataLogEntry.longitude);
-                    thisTimeStamp = dataLogEntry.timestamp;
+                    thisLocation.setLatitude(latitude);
+                    thisLocation.setLongitude(longitude);
+                    thisTimeStamp = timestamp;
                     // distance to last location in meters
                     double distanceToLastPoint = thisLocation.distanceTo(previousLocation);
                     // time passed from last point in seconds
@@ -153,9 +345,9 @@ public class DataLog {
                         distance += (long) distanceToLastPoint;
                         polyLine.addPoint(new GeoPoint(thisLocation));
                     }
-                    previousLocation.setLatitude(dataLogEntry.latitude);
-                    previousLocation.setLongitude(dataLogEntry.longitude);
-                    previousTimeStamp = dataLogEntry.timestamp;
+                    previousLocation.setLatitude(latitude);
+                    previousLocation.setLongitude(longitude);
+                    previousTimeStamp = timestamp;
                 }
             }
             return new DataLog.RideAnalysisData(waitedTime, polyLine, distance);
@@ -0,0 +1,367 @@
+package de.tuberlin.mcc.simra.app.entities;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import static de.tuberlin.mcc.simra.app.entities.DataLogLineParser.*;
+
+/**
+ * The lines of a DataLog stored column by column in primitive arrays.
+ * <p>
+ * Columns are numbered like in {@link DataLogLineParser}. The columns of a sensor are only stored
+ * if all of them are present (like in {@link DataLogEntry}), every column has a bitmap of the rows
+ * in which it is present and its array is only allocated once a row has a value. The GPS columns
+ * are only stored for GPS rows, which are listed in an index. A long ride takes a fraction of the heap
+ * of a list of DataLogEntries.
+ * <p>
+ * {@link #asList()} and {@link #gpsEntries()} are views which create DataLogEntries on access.
+ */
+public class DataLogColumns {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // The arrays are read and written directly by DataLogFile
+    int rowCount = 0;
+    int capacity = 0;
+    long[] timestamps;
+    final float[][] floatColumns = new float[COLUMN_COUNT][];
+    final int[][] intColumns = new int[COLUMN_COUNT][];
+    // One bit per row for each column, the GPS columns use the GPS row index instead
+    final long[][] presence = new long[COLUMN_COUNT][];
+    int gpsRowCount = 0;
+    int[] gpsRows = new int[0];
+    double[] latitudes = new double[0];
+    double[] longitudes = new double[0];
+    float[] gpsAccuracies = new float[0];
+
+    /**
+     * Appends the line the parser parsed last.
+     */
+    public void add(DataLogLineParser line) {
+        int row = addRow();
+        if (line.areAllPresent(GPS_COLUMNS)) {
+            addGPS(row, line.getDouble(LATITUDE), line.getDouble(LONGITUDE), line.getFloat(GPS_ACCURACY));
+        }
+        if (line.isPresent(TIMESTAMP)) {
+            setTimestamp(row, line.getLong(TIMESTAMP));
+        }
+        addFloats(row, line, ACCELEROMETER_COLUMNS);
+        addFloats(row, line, GYROSCOPE_COLUMNS);
+        addFloats(row, line, LINEAR_ACCELEROMETER_COLUMNS);
+        addFloats(row, line, ROTATION_COLUMNS);
+        for (int column = OBS_DISTANCE_LEFT_1; column <= OBS_CLOSE_PASS_EVENT; column++) {
+            if (line.isPresent(column)) {
+                setInt(column, row, line.getInt(column));
+            }
+        }
+    }
+
+    public void add(DataLogEntry entry) {
+        int row = addRow();
+        if (entry.latitude != null && entry.longitude != null && entry.GPSAccuracy != null) {
+            addGPS(row, entry.latitude, entry.longitude, entry.GPSAccuracy);
+        }
+        if (entry.timestamp != null) {
+            setTimestamp(row, entry.timestamp);
+        }
+        setFloats(row, entry.accelerometerX, entry.accelerometerY, entry.accelerometerZ, null, ACCELEROMETER_X);
+        setFloats(row, entry.gyroscopeA, entry.gyroscopeB, entry.gyroscopeC, null, GYROSCOPE_A);
+        setFloats(row, entry.linearAccelerometerX, entry.linearAccelerometerY, entry.linearAccelerometerZ, null, LINEAR_ACCELEROMETER_X);
+        setFloats(row, entry.rotationX, entry.rotationY, entry.rotationZ, entry.rotationC, ROTATION_X);
+        setIntIfPresent(OBS_DISTANCE_LEFT_1, row, entry.obsDistanceLeft1);
+        setIntIfPresent(OBS_DISTANCE_LEFT_2, row, entry.obsDistanceLeft2);
+        setIntIfPresent(OBS_DISTANCE_RIGHT_1, row, entry.obsDistanceRight1);
+        setIntIfPresent(OBS_DISTANCE_RIGHT_2, row, entry.obsDistanceRight2);
+        setIntIfPresent(OBS_CLOSE_PASS_EVENT, row, entry.obsClosePassEvent);
+    }
+
+    /**
+     * Appends a row of other columns.
+     */
+    public void add(DataLogColumns source, int row) {
+        int newRow = addRow();
+        int gpsIndex = source.gpsIndexOf(row);
+        if (gpsIndex >= 0) {
+            addGPS(newRow, source.latitudes[gpsIndex], source.longitudes[gpsIndex], source.gpsAccuracies[gpsIndex]);
+        }
+        for (int column = 0; column < COLUMN_COUNT; column++) {
+            if ((GPS_COLUMNS & 1 << column) != 0 || !source.isPresent(column, row)) {
+                continue;
+            }
+            if (column == TIMESTAMP) {
+                setTimestamp(newRow, source.timestamps[row]);
+            } else if ((OBS_COLUMNS & 1 << column) != 0) {
+                setInt(column, newRow, source.intColumns[column][row]);
+            } else {
+                setFloat(column, newRow, source.floatColumns[column][row]);
+            }
+        }
+    }
+
+    /**
+     * Releases the unused capacity of the arrays, e.g. after all lines of a file are added.
+     */
+    public void trimToSize() {
+        if (capacity == rowCount) {
+            return;
+        }
+        capacity = rowCount;
+        timestamps = timestamps != null ? Arrays.copyOf(timestamps, capacity) : null;
+        for (int column = 0; column < COLUMN_COUNT; column++) {
+            floatColumns[column] = floatColumns[column] != null ? Arrays.copyOf(floatColumns[column], capacity) : null;
+            intColumns[column] = intColumns[column] != null ? Arrays.copyOf(intColumns[column], capacity) : null;
+            presence[column] = presence[column] != null ? Arrays.copyOf(presence[column], bitmapLength(capacity)) : null;
+        }
+        gpsRows = Arrays.copyOf(gpsRows, gpsRowCount);
+        latitudes = Arrays.copyOf(latitudes, gpsRowCount);
+        longitudes = Arrays.copyOf(longitudes, gpsRowCount);
+        gpsAccuracies = Arrays.copyOf(gpsAccuracies, gpsRowCount);
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public boolean isEmpty() {
+        return rowCount == 0;
+    }
+
+    public boolean isPresent(int column, int row) {
+        if ((GPS_COLUMNS & 1 << column) != 0) {
+            return isGPSRow(row);
+        }
+        long[] bitmap = presence[column];
+        return bitmap != null && (bitmap[row >>> 6] & 1L << row) != 0;
+    }
+
+    /**
+     * @return the timestamp of the row, 0 if it has none
+     */
+    public long getTimestamp(int row) {
+        return isPresent(TIMESTAMP, row) ? timestamps[row] : 0;
+    }
+
+    /**
+     * @return value of a sensor column, 0 if the row has none
+     */
+    public float getFloat(int column, int row) {
+        return isPresent(column, row) ? floatColumns[column][row] : 0;
+    }
+
+    /**
+     * @return value of an OBS column, 0 if the row has none
+     */
+    public int getInt(int column, int row) {
+        return isPresent(column, row) ? intColumns[column][row] : 0;
+    }
+
+    public boolean isGPSRow(int row) {
+        return gpsIndexOf(row) >= 0;
+    }
+
+    public int getGPSRowCount() {
+        return gpsRowCount;
+    }
+
+    /**
+     * @param gpsIndex index of the GPS row, between 0 and {@link #getGPSRowCount()}
+     * @return row of the GPS row
+     */
+    public int getGPSRow(int gpsIndex) {
+        return gpsRows[gpsIndex];
+    }
+
+    public double getGPSLatitude(int gpsIndex) {
+        return latitudes[gpsIndex];
+    }
+
+    public double getGPSLongitude(int gpsIndex) {
+        return longitudes[gpsIndex];
+    }
+
+    public float getGPSAccuracy(int gpsIndex) {
+        return gpsAccuracies[gpsIndex];
+    }
+
+    public long getGPSTimestamp(int gpsIndex) {
+        return getTimestamp(gpsRows[gpsIndex]);
+    }
+
+    /**
+     * @return a new DataLogEntry with the values of the row
+     */
+    public DataLogEntry get(int row) {
+        DataLogEntry.DataLogEntryBuilder builder = DataLogEntry.newBuilder();
+        int gpsIndex = gpsIndexOf(row);
+        if (gpsIndex >= 0) {
+            builder.withGPS(latitudes[gpsIndex], longitudes[gpsIndex], gpsAccuracies[gpsIndex]);
+        }
+        if (isPresent(TIMESTAMP, row)) {
+            builder.withTimestamp(timestamps[row]);
+        }
+        if (isPresent(ACCELEROMETER_X, row)) {
+            builder.withAccelerometer(floatColumns[ACCELEROMETER_X][row], floatColumns[ACCELEROMETER_Y][row], floatColumns[ACCELEROMETER_Z][row]);
+        }
+        if (isPresent(GYROSCOPE_A, row)) {
+            builder.withGyroscope(floatColumns[GYROSCOPE_A][row], floatColumns[GYROSCOPE_B][row], floatColumns[GYROSCOPE_C][row]);
+        }
+        if (isPresent(LINEAR_ACCELEROMETER_X, row)) {
+            builder.withLinearAccelerometer(floatColumns[LINEAR_ACCELEROMETER_X][row], floatColumns[LINEAR_ACCELEROMETER_Y][row], floatColumns[LINEAR_ACCELEROMETER_Z][row]);
+        }
+        if (isPresent(ROTATION_X, row)) {
+            builder.withRotation(floatColumns[ROTATION_X][row], floatColumns[ROTATION_Y][row], floatColumns[ROTATION_Z][row], floatColumns[ROTATION_C][row]);
+        }
+        builder.withOBS(
+                isPresent(OBS_DISTANCE_LEFT_1, row) ? intColumns[OBS_DISTANCE_LEFT_1][row] : null,
+                isPresent(OBS_DISTANCE_LEFT_2, row) ? intColumns[OBS_DISTANCE_LEFT_2][row] : null,
+                isPresent(OBS_DISTANCE_RIGHT_1, row) ? intColumns[OBS_DISTANCE_RIGHT_1][row] : null,
+                isPresent(OBS_DISTANCE_RIGHT_2, row) ? intColumns[OBS_DISTANCE_RIGHT_2][row] : null,
+                isPresent(OBS_CLOSE_PASS_EVENT, row) ? intColumns[OBS_CLOSE_PASS_EVENT][row] : null
+        );
+        return builder.build();
+    }
+
+    /**
+     * @return view of all rows
+     */
+    public List<DataLogEntry> asList() {
+        return new EntryList(false);
+    }
+
+    /**
+     * @return view of the GPS rows
+     */
+    public List<DataLogEntry> gpsEntries() {
+        return new EntryList(true);
+    }
+
+    /**
+     * @return index of the row in the GPS rows, negative if it is no GPS row
+     */
+    int gpsIndexOf(int row) {
+        // rows are added in order, so the GPS rows are sorted
+        return Arrays.binarySearch(gpsRows, 0, gpsRowCount, row);
+    }
+
+    private int addRow() {
+        if (rowCount == capacity) {
+            grow(Math.max(INITIAL_CAPACITY, capacity * 2));
+        }
+        return rowCount++;
+    }
+
+    private void grow(int newCapacity) {
+        capacity = newCapacity;
+        timestamps = timestamps != null ? Arrays.copyOf(timestamps, capacity) : null;
+        for (int column = 0; column < COLUMN_COUNT; column++) {
+            floatColumns[column] = floatColumns[column] != null ? Arrays.copyOf(floatColumns[column], capacity) : null;
+            intColumns[column] = intColumns[column] != null ? Arrays.copyOf(intColumns[column], capacity) : null;
+            presence[column] = presence[column] != null ? Arrays.copyOf(presence[column], bitmapLength(capacity)) : null;
+        }
+    }
+
+    private void addGPS(int row, double latitude, double longitude, float accuracy) {
+        if (gpsRowCount == gpsRows.length) {
+            int newLength = Math.max(64, gpsRows.length * 2);
+            gpsRows = Arrays.copyOf(gpsRows, newLength);
+            latitudes = Arrays.copyOf(latitudes, newLength);
+            longitudes = Arrays.copyOf(longitudes, newLength);
+            gpsAccuracies = Arrays.copyOf(gpsAccuracies, newLength);
+        }
+        gpsRows[gpsRowCount] = row;
+        latitudes[gpsRowCount] = latitude;
+        longitudes[gpsRowCount] = longitude;
+        gpsAccuracies[gpsRowCount] = accuracy;
+        gpsRowCount++;
+    }
+
+    private void setTimestamp(int row, long timestamp) {
+        if (timestamps == null) {
+            timestamps = new long[capacity];
+        }
+        timestamps[row] = timestamp;
+        setPresent(TIMESTAMP, row);
+    }
+
+    private void addFloats(int row, DataLogLineParser line, int columns) {
+        if (!line.areAllPresent(columns)) {
+            return;
+        }
+        for (int column = 0; column < COLUMN_COUNT; column++) {
+            if ((columns & 1 << column) != 0) {
+                setFloat(column, row, line.getFloat(column));
+            }
+        }
+    }
+
+    /**
+     * Sets the three or four columns of a sensor starting at firstColumn, if all values are present.
+     */
+    private void setFloats(int row, Float value0, Float value1, Float value2, Float value3, int firstColumn) {
+        boolean fourValues = firstColumn == ROTATION_X;
+        if (value0 == null || value1 == null || value2 == null || (fourValues && value3 == null)) {
+            return;
+        }
+        setFloat(firstColumn, row, value0);
+        setFloat(firstColumn + 1, row, value1);
+        setFloat(firstColumn + 2, row, value2);
+        if (fourValues) {
+            setFloat(firstColumn + 3, row, value3);
+        }
+    }
+
+    private void setFloat(int column, int row, float value) {
+        if (floatColumns[column] == null) {
+            floatColumns[column] = new float[capacity];
+        }
+        floatColumns[column][row] = value;
+        setPresent(column, row);
+    }
+
+    private void setIntIfPresent(int column, int row, Integer value) {
+        if (value != null) {
+            setInt(column, row, value);
+        }
+    }
+
+    private void setInt(int column, int row, int value) {
+        if (intColumns[column] == null) {
+            intColumns[column] = new int[capacity];
+        }
+        intColumns[column][row] = value;
+        setPresent(column, row);
+    }
+
+    private void setPresent(int column, int row) {
+        if (presence[column] == null) {
+            presence[column] = new long[bitmapLength(capacity)];
+        }
+        presence[column][row >>> 6] |= 1L << row;
+    }
+
+    private static int bitmapLength(int rows) {
+        return (rows + 63) >>> 6;
+    }
+
+    private class EntryList extends AbstractList<DataLogEntry> implements RandomAccess {
+        private final boolean onlyGPS;
+
+        private EntryList(boolean onlyGPS) {
+            this.onlyGPS = onlyGPS;
+        }
+
+        @Override
+        public DataLogEntry get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("index " + index + ", size " + size());
+            }
+            return DataLogColumns.this.get(onlyGPS ? gpsRows[index] : index);
+        }
+
+        @Override
+        public int size() {
+            return onlyGPS ? gpsRowCount : rowCount;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package de.tuberlin.mcc.simra.app.entities;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import static de.tuberlin.mcc.simra.app.entities.DataLogLineParser.*;
+
+/**
+ * Writes the lines of a DataLog CSV file without creating Strings or boxed values per line.
+ * <p>
+ * The values are appended as primitives to a reused StringBuilder, whose number formatting is the
+ * one of {@link Float#toString(float)} and {@link Double#toString(double)}, so the lines are byte
+ * for byte the ones of {@link DataLogEntry#stringifyDataLogEntry()}. The lines are ASCII and copied
+ * into a byte buffer, which is written to the file channel when full.
+ */
+public class DataLogCsvWriter implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final FileOutputStream out;
+    private final FileChannel channel;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final StringBuilder line = new StringBuilder(256);
+    private int position = 0;
+    private long bytesWritten = 0;
+
+    /**
+     * Creates or overwrites the file.
+     */
+    public DataLogCsvWriter(File file) throws IOException {
+        this.out = new FileOutputStream(file, false);
+        this.channel = out.getChannel();
+    }
+
+    /**
+     * Writes a text as it is, e.g. the file info line and the header.
+     */
+    public void write(String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (position == buffer.length) {
+                flushBuffer();
+            }
+            int length = Math.min(bytes.length - offset, buffer.length - position);
+            System.arraycopy(bytes, offset, buffer, position, length);
+            position += length;
+            offset += length;
+        }
+        bytesWritten += bytes.length;
+    }
+
+    /**
+     * Writes the entry and a line separator.
+     */
+    public void writeLine(DataLogEntry entry) throws IOException {
+        line.setLength(0);
+        appendLine(line, entry).append(LINE_SEPARATOR);
+        writeAscii(line);
+    }
+
+    /**
+     * Writes a row and a line separator.
+     */
+    public void writeLine(DataLogColumns columns, int row) throws IOException {
+        line.setLength(0);
+        appendLine(line, columns, row).append(LINE_SEPARATOR);
+        writeAscii(line);
+    }
+
+    /**
+     * @return number of bytes written so far, including the buffered ones
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Hands the buffered bytes to the file system.
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+    }
+
+    /**
+     * Hands the buffered bytes to the file system and waits until they are written to the storage device.
+     */
+    public void sync() throws IOException {
+        flushBuffer();
+        channel.force(true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Appends the CSV line of the entry without line separator.
+     */
+    public static StringBuilder appendLine(StringBuilder line, DataLogEntry entry) {
+        if (entry.latitude != null) {
+            line.append(entry.latitude.doubleValue());
+        }
+        line.append(',');
+        if (entry.longitude != null) {
+            line.append(entry.longitude.doubleValue());
+        }
+        line.append(',');
+        appendFloat(line, entry.accelerometerX).append(',');
+        appendFloat(line, entry.accelerometerY).append(',');
+        appendFloat(line, entry.accelerometerZ).append(',');
+        if (entry.timestamp != null) {
+            line.append(entry.timestamp.longValue());
+        }
+        line.append(',');
+        appendFloat(line, entry.GPSAccuracy).append(',');
+        appendFloat(line, entry.gyroscopeA).append(',');
+        appendFloat(line, entry.gyroscopeB).append(',');
+        appendFloat(line, entry.gyroscopeC).append(',');
+        appendInt(line, entry.obsDistanceLeft1).append(',');
+        appendInt(line, entry.obsDistanceLeft2).append(',');
+        appendInt(line, entry.obsDistanceRight1).append(',');
+        appendInt(line, entry.obsDistanceRight2).append(',');
+        appendInt(line, entry.obsClosePassEvent).append(',');
+        appendFloat(line, entry.linearAccelerometerX).append(',');
+        appendFloat(line, entry.linearAccelerometerY).append(',');
+        appendFloat(line, entry.linearAccelerometerZ).append(',');
+        appendFloat(line, entry.rotationX).append(',');
+        appendFloat(line, entry.rotationY).append(',');
+        appendFloat(line, entry.rotationZ).append(',');
+        return appendFloat(line, entry.rotationC);
+    }
+
+    /**
+     * Appends the CSV line of a row without line separator.
+     */
+    public static StringBuilder appendLine(StringBuilder line, DataLogColumns columns, int row) {
+        int gpsIndex = columns.gpsIndexOf(row);
+        for (int column = 0; column < COLUMN_COUNT; column++) {
+            if (column > 0) {
+                line.append(',');
+            }
+            if ((GPS_COLUMNS & 1 << column) != 0) {
+                if (gpsIndex >= 0) {
+                    if (column == LATITUDE) {
+                        line.append(columns.latitudes[gpsIndex]);
+                    } else if (column == LONGITUDE) {
+                        line.append(columns.longitudes[gpsIndex]);
+                    } else {
+                        line.append(columns.gpsAccuracies[gpsIndex]);
+                    }
+                }
+            } else if (columns.isPresent(column, row)) {
+                if (column == TIMESTAMP) {
+                    line.append(columns.timestamps[row]);
+                } else if ((OBS_COLUMNS & 1 << column) != 0) {
+                    line.append(columns.intColumns[column][row]);
+                } else {
+                    line.append(columns.floatColumns[column][row]);
+                }
+            }
+        }
+        return line;
+    }
+
+    private static StringBuilder appendFloat(StringBuilder line, Float value) {
+        return value != null ? line.append(value.floatValue()) : line;
+    }
+
+    private static StringBuilder appendInt(StringBuilder line, Integer value) {
+        return value != null ? line.append(value.intValue()) : line;
+    }
+
+    private void writeAscii(CharSequence chars) throws IOException {
+        int length = chars.length();
+        if (buffer.length - position < length) {
+            flushBuffer();
+        }
+        for (int i = 0; i < length; i++) {
+            buffer[position++] = (byte) chars.charAt(i);
+        }
+        bytesWritten += length;
+    }
+
+    private void flushBuffer() throws IOException {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, position);
+        while (byteBuffer.hasRemaining()) {
+            channel.write(byteBuffer);
+        }
+        position = 0;
+    }
+}
@@ -52,65 +52,46 @@ public class DataLogEntry {
         this.rotationC = dataLogEntryBuilder.rotationC;
     }
 
-    public static DataLogEntry parseDataLogEntryFromLine(String string) {
-        String[] dataLogLine = string.split(",", -1);
-        DataLogEntryBuilder dataLogEntryBuilder = DataLogEntry.newBuilder();
-
-        if (dataLogLine.length >= 6 && !dataLogLine[0].isEmpty() && !dataLogLine[1].isEmpty() && !dataLogLine[6].isEmpty()) {
-            dataLogEntryBuilder.withGPS(
-                    Double.parseDouble(dataLogLine[0]),
-                    Double.parseDouble(dataLogLine[1]),
-                    Float.parseFloat(dataLogLine[6])
-            );
-        }
-
-        if (dataLogLine.length >= 4 && !dataLogLine[2].isEmpty() && !dataLogLine[3].isEmpty() && !dataLogLine[4].isEmpty()) {
-            dataLogEntryBuilder.withAccelerometer(
-                    Float.parseFloat(dataLogLine[2]),
-                    Float.parseFloat(dataLogLine[3]),
-                    Float.parseFloat(dataLogLine[4])
-            );
-        }
-
-        if (dataLogLine.length >= 5 && !dataLogLine[5].isEmpty()) {
-            dataLogEntryBuilder.withTimestamp(
-                    Long.parseLong(dataLogLine[5])
-            );
-        }
-
-        if (dataLogLine.length >= 9 && !dataLogLine[7].isEmpty() && !dataLogLine[8].isEmpty() && !dataLogLine[9].isEmpty()) {
-            dataLogEntryBuilder.withGyroscope(
-                    Float.parseFloat(dataLogLine[7]),
-                    Float.parseFloat(dataLogLine[8]),
-                    Float.parseFloat(dataLogLine[9])
-            );
-        }
-
-        dataLogEntryBuilder.withOBS(
-                dataLogLine.length > 10 ? (!dataLogLine[10].isEmpty() ? Integer.parseInt(dataLogLine[10]) : null) : null,
-                dataLogLine.length > 11 ? (!dataLogLine[11].isEmpty() ? Integer.parseInt(dataLogLine[11]) : null) : null,
-                dataLogLine.length > 12 ? (!dataLogLine[12].isEmpty() ? Integer.parseInt(dataLogLine[12]) : null) : null,
-                dataLogLine.length > 13 ? (!dataLogLine[13].isEmpty() ? Integer.parseInt(dataLogLine[13]) : null) : null,
-                dataLogLine.length > 14 ? (!dataLogLine[14].isEmpty() ? Integer.parseInt(dataLogLine[14]) : null) : null
-        );
-
-        if(dataLogLine.length > 17 && !dataLogLine[15].isEmpty() && !dataLogLine[16].isEmpty() && !dataLogLine[17].isEmpty()) {
-            dataLogEntryBuilder.withLinearAccelerometer(
-                    Float.parseFloat(dataLogLine[15]),
-                    Float.parseFloat(dataLogLine[16]),
-                    Float.parseFloat(dataLogLine[17])
-            );
-        }
+    /**
+     * Takes the values of a parsed line. A sensor is only set if all of its values are present,
+     * the OBS values are set one by one.
+     */
+    DataLogEntry(DataLogLineParser line) {
+        this.rideId = null;
+        boolean hasGPS = line.areAllPresent(DataLogLineParser.GPS_COLUMNS);
+        this.latitude = hasGPS ? line.getDouble(DataLogLineParser.LATITUDE) : null;
+        this.longitude = hasGPS ? line.getDouble(DataLogLineParser.LONGITUDE) : null;
+        this.GPSAccuracy = hasGPS ? line.getFloat(DataLogLineParser.GPS_ACCURACY) : null;
+        boolean hasAccelerometer = line.areAllPresent(DataLogLineParser.ACCELEROMETER_COLUMNS);
+        this.accelerometerX = hasAccelerometer ? line.getFloat(DataLogLineParser.ACCELEROMETER_X) : null;
+        this.accelerometerY = hasAccelerometer ? line.getFloat(DataLogLineParser.ACCELEROMETER_Y) : null;
+        this.accelerometerZ = hasAccelerometer ? line.getFloat(DataLogLineParser.ACCELEROMETER_Z) : null;
+        this.timestamp = line.isPresent(DataLogLineParser.TIMESTAMP) ? line.getLong(DataLogLineParser.TIMESTAMP) : null;
+        boolean hasGyroscope = line.areAllPresent(DataLogLineParser.GYROSCOPE_COLUMNS);
+        this.gyroscopeA = hasGyroscope ? line.getFloat(DataLogLineParser.GYROSCOPE_A) : null;
+        this.gyroscopeB = hasGyroscope ? line.getFloat(DataLogLineParser.GYROSCOPE_B) : null;
+        this.gyroscopeC = hasGyroscope ? line.getFloat(DataLogLineParser.GYROSCOPE_C) : null;
+        this.obsDistanceLeft1 = line.isPresent(DataLogLineParser.OBS_DISTANCE_LEFT_1) ? line.getInt(DataLogLineParser.OBS_DISTANCE_LEFT_1) : null;
+        this.obsDistanceLeft2 = line.isPresent(DataLogLineParser.OBS_DISTANCE_LEFT_2) ? line.getInt(DataLogLineParser.OBS_DISTANCE_LEFT_2) : null;
+        this.obsDistanceRight1 = line.isPresent(DataLogLineParser.OBS_DISTANCE_RIGHT_1) ? line.getInt(DataLogLineParser.OBS_DISTANCE_RIGHT_1) : null;
+        this.obsDistanceRight2 = line.isPresent(DataLogLineParser.OBS_DISTANCE_RIGHT_2) ? line.getInt(DataLogLineParser.OBS_DISTANCE_RIGHT_2) : null;
+        this.obsClosePassEvent = line.isPresent(DataLogLineParser.OBS_CLOSE_PASS_EVENT) ? line.getInt(DataLogLineParser.OBS_CLOSE_PASS_EVENT) : null;
+        boolean hasLinearAccelerometer = line.areAllPresent(DataLogLineParser.LINEAR_ACCELEROMETER_COLUMNS);
+        this.linearAccelerometerX = hasLinearAccelerometer ? line.getFloat(DataLogLineParser.LINEAR_ACCELEROMETER_X) : null;
+        this.linearAccelerometerY = hasLinearAccelerometer ? line.getFloat(DataLogLineParser.LINEAR_ACCELEROMETER_Y) : null;
+        this.linearAccelerometerZ = hasLinearAccelerometer ? line.getFloat(DataLogLineParser.LINEAR_ACCELEROMETER_Z) : null;
+        boolean hasRotation = line.areAllPresent(DataLogLineParser.ROTATION_COLUMNS);
+        this.rotationX = hasRotation ? line.getFloat(DataLogLineParser.ROTATION_X) : null;
+        this.rotationY = hasRotation ? line.getFloat(DataLogLineParser.ROTATION_Y) : null;
+        this.rotationZ = hasRotation ? line.getFloat(DataLogLineParser.ROTATION_Z) : null;
+        this.rotationC = hasRotation ? line.getFloat(DataLogLineParser.ROTATION_C) : null;
+    }
 
-        if(dataLogLine.length > 20 && !dataLogLine[18].isEmpty() && !dataLogLine[19].isEmpty() && !dataLogLine[20].isEmpty() && !dataLogLine[21].isEmpty()) {
-            dataLogEntryBuilder.withRotation(
-                    Float.parseFloat(dataLogLine[18]),
-                    Float.parseFloat(dataLogLine[19]),
-                    Float.parseFloat(dataLogLine[20]),
-                    Float.parseFloat(dataLogLine[21])
-            );
-        }
-        return dataLogEntryBuilder.build();
+    /**
+     * For parsing many lines, reuse a {@link DataLogLineParser} instead.
+     */
+    public static DataLogEntry parseDataLogEntryFromLine(String string) {
+        return new DataLogLineParser().parse(string).toDataLogEntry();
     }
 
     public static DataLogEntryBuilder newBuilder() {
@@ -123,28 +104,7 @@ public class DataLogEntry {
      * @return Log Line without new line separator
      */
     public String stringifyDataLogEntry() {
-        return (latitude != null ? latitude : "") + "," +
-                (longitude != null ? longitude : "") + "," +
-                (accelerometerX != null ? accelerometerX : "") + "," +
-                (accelerometerY != null ? accelerometerY : "") + "," +
-                (accelerometerZ != null ? accelerometerZ : "") + "," +
-                (timestamp != null ? timestamp : "") + "," +
-                (GPSAccuracy != null ? GPSAccuracy : "") + "," +
-                (gyroscopeA != null ? gyroscopeA : "") + "," +
-                (gyroscopeB != null ? gyroscopeB : "") + "," +
-                (gyroscopeC != null ? gyroscopeC : "") + "," +
-                (obsDistanceLeft1 != null ? obsDistanceLeft1 : "") + "," +
-                (obsDistanceLeft2 != null ? obsDistanceLeft2 : "") + "," +
-                (obsDistanceRight1 != null ? obsDistanceRight1 : "") + "," +
-                (obsDistanceRight2 != null ? obsDistanceRight2 : "") + "," +
-                (obsClosePassEvent != null ? obsClosePassEvent : "") + "," +
-                (linearAccelerometerX != null ? linearAccelerometerX : "") + "," +
-                (linearAccelerometerY != null ? linearAccelerometerY : "") + "," +
-                (linearAccelerometerZ != null ? linearAccelerometerZ : "") + "," +
-                (rotationX != null ? rotationX : "") + "," +
-                (rotationY != null ? rotationY : "") + "," +
-                (rotationZ != null ? rotationZ : "") + "," +
-                (rotationC != null ? rotationC : "");
+        return DataLogCsvWriter.appendLine(new StringBuilder(192), this).toString();
     }
 
     public static final class DataLogEntryBuilder {
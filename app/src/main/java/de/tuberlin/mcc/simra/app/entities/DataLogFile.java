@@ -0,0 +1,322 @@
+package de.tuberlin.mcc.simra.app.entities;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import de.tuberlin.mcc.simra.app.util.StorageExecutor;
+
+import static de.tuberlin.mcc.simra.app.entities.DataLogLineParser.COLUMN_COUNT;
+import static de.tuberlin.mcc.simra.app.entities.DataLogLineParser.GPS_COLUMNS;
+import static de.tuberlin.mcc.simra.app.entities.DataLogLineParser.OBS_COLUMNS;
+import static de.tuberlin.mcc.simra.app.entities.DataLogLineParser.TIMESTAMP;
+
+/**
+ * Binary version of a DataLog ({@link DataLogColumns}), which is opened through a
+ * {@link MappedByteBuffer} without parsing. The CSV file (<code>&lt;id&gt;_accGps.csv</code>) stays
+ * the file which is recorded and uploaded, the binary file is written from it and is up to date
+ * as long as length and modification time of the CSV file match the ones stored in the header.
+ * {@link #exportToCsv(File, File)} writes the CSV file from the binary file.
+ * <p>
+ * File format (little-endian, every block starts at a multiple of 8 bytes):
+ * <ul>
+ * <li>header of {@link #HEADER_SIZE} bytes: int magic "SRDL", short version, short 0, int row count,
+ * int GPS row count, int mask of the stored columns, int preamble length,
+ * long length and long modification time of the CSV file</li>
+ * <li>preamble: the first two lines of the CSV file (file info and header line) in UTF-8</li>
+ * <li>for each stored column in ascending order: presence bitmap (one long per 64 rows),
+ * followed by one value per row (long timestamp, int OBS columns, float sensor columns)</li>
+ * <li>GPS block: int row of each GPS row, double latitudes, double longitudes, float accuracies</li>
+ * </ul>
+ */
+public class DataLogFile {
+    public static final int MAGIC = 'S' | 'R' << 8 | 'D' << 16 | 'L' << 24;
+    public static final short VERSION = 1;
+    public static final int HEADER_SIZE = 40;
+
+    /**
+     * File info and header line of the CSV file, including the line separators
+     */
+    public final String preamble;
+    public final DataLogColumns columns;
+    public final long sourceLength;
+    public final long sourceLastModified;
+
+    public DataLogFile(String preamble, DataLogColumns columns, long sourceLength, long sourceLastModified) {
+        this.preamble = preamble;
+        this.columns = columns;
+        this.sourceLength = sourceLength;
+        this.sourceLastModified = sourceLastModified;
+    }
+
+    /**
+     * @return true if the binary file exists and was written from the current version of the CSV file
+     */
+    public static boolean isUpToDate(File binaryFile, File csvFile) {
+        if (!binaryFile.exists() || !csvFile.exists()) {
+            return false;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(binaryFile, "r")) {
+            if (file.length() < HEADER_SIZE) {
+                return false;
+            }
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer.getInt(0) == MAGIC && buffer.getShort(4) == VERSION
+                    && buffer.getLong(24) == csvFile.length() && buffer.getLong(32) == csvFile.lastModified();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Opens a binary file. The column blocks are copied from the mapped file into the arrays of
+     * the DataLogColumns in bulk.
+     */
+    public static DataLogFile open(File binaryFile) throws IOException {
+        return open(binaryFile, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Opens the rows fromRow (inclusive) to toRow (exclusive) of a binary file, only these parts of
+     * the column blocks are read.
+     *
+     * @param fromRow a multiple of 64, e.g. the first line of a {@link DataLogIndex} block
+     * @param toRow   is limited to the row count
+     */
+    public static DataLogFile open(File binaryFile, int fromRow, int toRow) throws IOException {
+        if (fromRow < 0 || fromRow % 64 != 0) {
+            throw new IllegalArgumentException("fromRow " + fromRow + " is no multiple of 64");
+        }
+        try (RandomAccessFile file = new RandomAccessFile(binaryFile, "r")) {
+            long length = file.length();
+            if (length < HEADER_SIZE) {
+                throw new IOException("invalid DataLog file " + binaryFile);
+            }
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt() != MAGIC || buffer.getShort() != VERSION) {
+                throw new IOException("invalid DataLog file " + binaryFile);
+            }
+            buffer.getShort();
+            int rowCount = buffer.getInt();
+            int gpsRowCount = buffer.getInt();
+            int columnMask = buffer.getInt();
+            int preambleLength = buffer.getInt();
+            long sourceLength = buffer.getLong();
+            long sourceLastModified = buffer.getLong();
+            if (rowCount < 0 || gpsRowCount < 0 || gpsRowCount > rowCount || preambleLength < 0 || size(rowCount, gpsRowCount, columnMask, preambleLength) != length) {
+                throw new IOException("invalid DataLog file " + binaryFile);
+            }
+            byte[] preamble = new byte[preambleLength];
+            buffer.get(preamble);
+            align(buffer);
+
+            fromRow = Math.min(fromRow, rowCount);
+            int count = Math.max(0, Math.min(toRow, rowCount) - fromRow);
+            DataLogColumns columns = new DataLogColumns();
+            columns.rowCount = count;
+            columns.capacity = count;
+            int bitmapLength = bitmapLength(rowCount);
+            for (int column = 0; column < COLUMN_COUNT; column++) {
+                if ((columnMask & 1 << column) == 0) {
+                    continue;
+                }
+                int position = buffer.position();
+                long[] bitmap = new long[bitmapLength(count)];
+                buffer.position(position + (fromRow >>> 6) * 8);
+                buffer.asLongBuffer().get(bitmap);
+                if (count % 64 != 0) {
+                    // rows after toRow
+                    bitmap[bitmap.length - 1] &= (1L << count) - 1;
+                }
+                columns.presence[column] = bitmap;
+                buffer.position(position);
+                skip(buffer, bitmapLength * 8);
+
+                position = buffer.position();
+                buffer.position(position + fromRow * valueSize(column));
+                if (column == TIMESTAMP) {
+                    columns.timestamps = new long[count];
+                    buffer.asLongBuffer().get(columns.timestamps);
+                } else if ((OBS_COLUMNS & 1 << column) != 0) {
+                    columns.intColumns[column] = new int[count];
+                    buffer.asIntBuffer().get(columns.intColumns[column]);
+                } else {
+                    columns.floatColumns[column] = new float[count];
+                    buffer.asFloatBuffer().get(columns.floatColumns[column]);
+                }
+                buffer.position(position);
+                skip(buffer, rowCount * valueSize(column));
+            }
+
+            IntBuffer gpsRows = buffer.asIntBuffer();
+            int fromGPSRow = lowerBound(gpsRows, gpsRowCount, fromRow);
+            int gpsCount = lowerBound(gpsRows, gpsRowCount, fromRow + count) - fromGPSRow;
+            columns.gpsRowCount = gpsCount;
+            columns.gpsRows = new int[gpsCount];
+            columns.latitudes = new double[gpsCount];
+            columns.longitudes = new double[gpsCount];
+            columns.gpsAccuracies = new float[gpsCount];
+            gpsRows.position(fromGPSRow);
+            gpsRows.get(columns.gpsRows);
+            for (int i = 0; i < gpsCount; i++) {
+                columns.gpsRows[i] -= fromRow;
+            }
+            skip(buffer, gpsRowCount * 4);
+            ((DoubleBuffer) buffer.asDoubleBuffer().position(fromGPSRow)).get(columns.latitudes);
+            skip(buffer, gpsRowCount * 8);
+            ((DoubleBuffer) buffer.asDoubleBuffer().position(fromGPSRow)).get(columns.longitudes);
+            skip(buffer, gpsRowCount * 8);
+            ((FloatBuffer) buffer.asFloatBuffer().position(fromGPSRow)).get(columns.gpsAccuracies);
+            return new DataLogFile(new String(preamble, StandardCharsets.UTF_8), columns, sourceLength, sourceLastModified);
+        }
+    }
+
+    /**
+     * Replaces the binary file through the {@link StorageExecutor}.
+     */
+    public void write(File binaryFile) throws IOException {
+        if (!StorageExecutor.write(binaryFile, this::writeTo)) {
+            throw new IOException("could not write " + binaryFile);
+        }
+    }
+
+    /**
+     * Writes the binary file to the given file, see {@link StorageExecutor.Writer}.
+     */
+    public void writeTo(File tempFile) throws IOException {
+        byte[] preambleBytes = preamble.getBytes(StandardCharsets.UTF_8);
+        int rowCount = columns.rowCount;
+        int gpsRowCount = columns.gpsRowCount;
+        int columnMask = 0;
+        for (int column = 0; column < COLUMN_COUNT; column++) {
+            if (columns.presence[column] != null) {
+                columnMask |= 1 << column;
+            }
+        }
+        long size = size(rowCount, gpsRowCount, columnMask, preambleBytes.length);
+        try (RandomAccessFile file = new RandomAccessFile(tempFile, "rw")) {
+            file.setLength(size);
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC);
+            buffer.putShort(VERSION);
+            buffer.putShort((short) 0);
+            buffer.putInt(rowCount);
+            buffer.putInt(gpsRowCount);
+            buffer.putInt(columnMask);
+            buffer.putInt(preambleBytes.length);
+            buffer.putLong(sourceLength);
+            buffer.putLong(sourceLastModified);
+            buffer.put(preambleBytes);
+            align(buffer);
+
+            int bitmapLength = bitmapLength(rowCount);
+            for (int column = 0; column < COLUMN_COUNT; column++) {
+                if ((columnMask & 1 << column) == 0) {
+                    continue;
+                }
+                buffer.asLongBuffer().put(columns.presence[column], 0, bitmapLength);
+                skip(buffer, bitmapLength * 8);
+                if (column == TIMESTAMP) {
+                    buffer.asLongBuffer().put(columns.timestamps, 0, rowCount);
+                } else if ((OBS_COLUMNS & 1 << column) != 0) {
+                    buffer.asIntBuffer().put(columns.intColumns[column], 0, rowCount);
+                } else {
+                    buffer.asFloatBuffer().put(columns.floatColumns[column], 0, rowCount);
+                }
+                skip(buffer, rowCount * valueSize(column));
+            }
+            buffer.asIntBuffer().put(columns.gpsRows, 0, gpsRowCount);
+            skip(buffer, gpsRowCount * 4);
+            buffer.asDoubleBuffer().put(columns.latitudes, 0, gpsRowCount);
+            skip(buffer, gpsRowCount * 8);
+            buffer.asDoubleBuffer().put(columns.longitudes, 0, gpsRowCount);
+            skip(buffer, gpsRowCount * 8);
+            buffer.asFloatBuffer().put(columns.gpsAccuracies, 0, gpsRowCount);
+            buffer.force();
+        }
+    }
+
+    /**
+     * Writes the CSV file of the DataLog, like {@link DataLog#saveDataLog} does.
+     */
+    public void writeCsv(File csvFile) throws IOException {
+        try (DataLogCsvWriter writer = new DataLogCsvWriter(csvFile)) {
+            writer.write(preamble);
+            for (int row = 0; row < columns.getRowCount(); row++) {
+                writer.writeLine(columns, row);
+            }
+        }
+    }
+
+    /**
+     * Converts a binary file into its CSV file, e.g. if the CSV file is needed for the upload.
+     *
+     * @return number of exported rows
+     */
+    public static int exportToCsv(File binaryFile, File csvFile) throws IOException {
+        DataLogFile dataLogFile = open(binaryFile);
+        dataLogFile.writeCsv(csvFile);
+        return dataLogFile.columns.getRowCount();
+    }
+
+    /**
+     * @return index of the first GPS row which is not before row
+     */
+    private static int lowerBound(IntBuffer gpsRows, int gpsRowCount, int row) {
+        int low = 0;
+        int high = gpsRowCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (gpsRows.get(middle) < row) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static long size(int rowCount, int gpsRowCount, int columnMask, int preambleLength) {
+        long size = HEADER_SIZE + padding(preambleLength);
+        for (int column = 0; column < COLUMN_COUNT; column++) {
+            if ((columnMask & 1 << column) != 0) {
+                size += bitmapLength(rowCount) * 8L + padding((long) rowCount * valueSize(column));
+            }
+        }
+        return size + padding(gpsRowCount * 4L) + gpsRowCount * 16L + padding(gpsRowCount * 4L);
+    }
+
+    private static int valueSize(int column) {
+        if ((GPS_COLUMNS & 1 << column) != 0) {
+            throw new IllegalArgumentException("GPS column " + column + " is stored in the GPS block");
+        }
+        return column == TIMESTAMP ? 8 : 4;
+    }
+
+    private static int bitmapLength(int rows) {
+        return (rows + 63) >>> 6;
+    }
+
+    private static long padding(long length) {
+        return (length + 7) & ~7L;
+    }
+
+    private static void skip(MappedByteBuffer buffer, int length) {
+        buffer.position(buffer.position() + length);
+        align(buffer);
+    }
+
+    private static void align(MappedByteBuffer buffer) {
+        buffer.position((int) padding(buffer.position()));
+    }
+}
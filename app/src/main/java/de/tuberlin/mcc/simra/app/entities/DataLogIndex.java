@@ -0,0 +1,235 @@
+package de.tuberlin.mcc.simra.app.entities;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import de.tuberlin.mcc.simra.app.util.StorageExecutor;
+
+/**
+ * Sparse index of the DataLog file (<code>&lt;id&gt;_accGps.csv</code>) of a ride: the byte offset and
+ * the smallest and largest timestamp of every block of {@link #INTERVAL} lines. A DataLog restricted
+ * to a time frame is loaded from the blocks which overlap it only, see
+ * {@link #firstBlock(Long, Long)} and {@link #lastBlock(Long, Long)}. As the line of block b is
+ * b * INTERVAL, the index works for the {@link DataLogFile} of the ride as well.
+ * <p>
+ * Written when the ride is saved, like the DataLogFile it is up to date as long as length and
+ * modification time of the CSV file match the ones stored in it.
+ * <p>
+ * File format (little-endian): int magic "SRDI", short version, short 0, int interval,
+ * int line count, long length and long modification time of the CSV file, followed by
+ * long offset, long smallest and long largest timestamp of each block.
+ * Lines without a timestamp count as timestamp 0, like in {@link DataLogColumns#getTimestamp(int)}.
+ */
+public class DataLogIndex {
+    public static final int MAGIC = 'S' | 'R' << 8 | 'D' << 16 | 'I' << 24;
+    public static final short VERSION = 1;
+    public static final int HEADER_SIZE = 32;
+    /**
+     * Lines per block, a multiple of 64 so that blocks start at a long of the presence bitmaps of the DataLogFile
+     */
+    public static final int INTERVAL = 256;
+    private static final int BLOCK_SIZE = 24;
+
+    public final int interval;
+    public final int lineCount;
+    public final long sourceLength;
+    public final long sourceLastModified;
+    private final long[] offsets;
+    private final long[] minTimestamps;
+    private final long[] maxTimestamps;
+
+    private DataLogIndex(int interval, int lineCount, long sourceLength, long sourceLastModified, long[] offsets, long[] minTimestamps, long[] maxTimestamps) {
+        this.interval = interval;
+        this.lineCount = lineCount;
+        this.sourceLength = sourceLength;
+        this.sourceLastModified = sourceLastModified;
+        this.offsets = offsets;
+        this.minTimestamps = minTimestamps;
+        this.maxTimestamps = maxTimestamps;
+    }
+
+    public int getBlockCount() {
+        return offsets.length;
+    }
+
+    /**
+     * @return byte offset of the first line of the block in the CSV file
+     */
+    public long getOffset(int block) {
+        return offsets[block];
+    }
+
+    /**
+     * @return index of the first line of the block, not counting the file info and header line
+     */
+    public int getFirstLine(int block) {
+        return block * interval;
+    }
+
+    /**
+     * @return index after the last line of the block
+     */
+    public int getEndLine(int block) {
+        return Math.min(lineCount, (block + 1) * interval);
+    }
+
+    /**
+     * @return the first block with lines in the time frame, -1 if there is none
+     */
+    public int firstBlock(Long startTimeBoundary, Long endTimeBoundary) {
+        for (int block = 0; block < offsets.length; block++) {
+            if (overlaps(block, startTimeBoundary, endTimeBoundary)) {
+                return block;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the last block with lines in the time frame, -1 if there is none
+     */
+    public int lastBlock(Long startTimeBoundary, Long endTimeBoundary) {
+        for (int block = offsets.length - 1; block >= 0; block--) {
+            if (overlaps(block, startTimeBoundary, endTimeBoundary)) {
+                return block;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if the index was written for the current version of the CSV file
+     */
+    public boolean isUpToDate(File csvFile) {
+        return csvFile.exists() && csvFile.length() == sourceLength && csvFile.lastModified() == sourceLastModified;
+    }
+
+    /**
+     * Replaces the index file through the {@link StorageExecutor}.
+     */
+    public void write(File indexFile) throws IOException {
+        if (!StorageExecutor.write(indexFile, this::writeTo)) {
+            throw new IOException("could not write " + indexFile);
+        }
+    }
+
+    /**
+     * Writes the index to the given file, see {@link StorageExecutor.Writer}.
+     */
+    public void writeTo(File tempFile) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + offsets.length * BLOCK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putShort((short) 0);
+        buffer.putInt(interval);
+        buffer.putInt(lineCount);
+        buffer.putLong(sourceLength);
+        buffer.putLong(sourceLastModified);
+        for (int block = 0; block < offsets.length; block++) {
+            buffer.putLong(offsets[block]);
+            buffer.putLong(minTimestamps[block]);
+            buffer.putLong(maxTimestamps[block]);
+        }
+        try (FileOutputStream out = new FileOutputStream(tempFile, false)) {
+            out.write(buffer.array());
+        }
+    }
+
+    public static DataLogIndex read(File indexFile) throws IOException {
+        byte[] bytes;
+        try (RandomAccessFile file = new RandomAccessFile(indexFile, "r")) {
+            bytes = new byte[(int) file.length()];
+            file.readFully(bytes);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getShort() != VERSION) {
+            throw new IOException("invalid DataLog index " + indexFile);
+        }
+        buffer.getShort();
+        int interval = buffer.getInt();
+        int lineCount = buffer.getInt();
+        long sourceLength = buffer.getLong();
+        long sourceLastModified = buffer.getLong();
+        // blocks must start at a multiple of 64 to be opened in the DataLogFile
+        if (interval <= 0 || interval % 64 != 0 || lineCount < 0 || buffer.remaining() != blockCount(lineCount, interval) * BLOCK_SIZE) {
+            throw new IOException("invalid DataLog index " + indexFile);
+        }
+        int blockCount = blockCount(lineCount, interval);
+        long[] offsets = new long[blockCount];
+        long[] minTimestamps = new long[blockCount];
+        long[] maxTimestamps = new long[blockCount];
+        for (int block = 0; block < blockCount; block++) {
+            offsets[block] = buffer.getLong();
+            minTimestamps[block] = buffer.getLong();
+            maxTimestamps[block] = buffer.getLong();
+        }
+        return new DataLogIndex(interval, lineCount, sourceLength, sourceLastModified, offsets, minTimestamps, maxTimestamps);
+    }
+
+    private boolean overlaps(int block, Long startTimeBoundary, Long endTimeBoundary) {
+        return (startTimeBoundary == null || maxTimestamps[block] >= startTimeBoundary)
+                && (endTimeBoundary == null || minTimestamps[block] <= endTimeBoundary);
+    }
+
+    private static int blockCount(int lineCount, int interval) {
+        return (int) ((lineCount + (long) interval - 1) / interval);
+    }
+
+    /**
+     * Collects the index while the lines of a DataLog file are written or read.
+     */
+    public static class Builder {
+        private final int interval;
+        private int lineCount = 0;
+        private int blockCount = 0;
+        private long[] offsets = new long[16];
+        private long[] minTimestamps = new long[16];
+        private long[] maxTimestamps = new long[16];
+
+        public Builder() {
+            this(INTERVAL);
+        }
+
+        /**
+         * @param interval lines per block, a multiple of 64
+         */
+        public Builder(int interval) {
+            if (interval <= 0 || interval % 64 != 0) {
+                throw new IllegalArgumentException("interval " + interval + " is no multiple of 64");
+            }
+            this.interval = interval;
+        }
+
+        /**
+         * @param offset    byte offset of the line in the CSV file
+         * @param timestamp timestamp of the line, 0 if it has none
+         */
+        public void add(long offset, long timestamp) {
+            if (lineCount % interval == 0) {
+                if (blockCount == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, blockCount * 2);
+                    minTimestamps = Arrays.copyOf(minTimestamps, blockCount * 2);
+                    maxTimestamps = Arrays.copyOf(maxTimestamps, blockCount * 2);
+                }
+                offsets[blockCount] = offset;
+                minTimestamps[blockCount] = timestamp;
+                maxTimestamps[blockCount] = timestamp;
+                blockCount++;
+            } else {
+                minTimestamps[blockCount - 1] = Math.min(minTimestamps[blockCount - 1], timestamp);
+                maxTimestamps[blockCount - 1] = Math.max(maxTimestamps[blockCount - 1], timestamp);
+            }
+            lineCount++;
+        }
+
+        public DataLogIndex build(long sourceLength, long sourceLastModified) {
+            return new DataLogIndex(interval, lineCount, sourceLength, sourceLastModified,
+                    Arrays.copyOf(offsets, blockCount), Arrays.copyOf(minTimestamps, blockCount), Arrays.copyOf(maxTimestamps, blockCount));
+        }
+    }
+}
@@ -0,0 +1,392 @@
+package de.tuberlin.mcc.simra.app.entities;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads the fields of a DataLog line (see {@link DataLog#DATA_LOG_HEADER}) straight out of a char
+ * buffer into primitives. Empty cells are marked in a bitmask instead of being null.
+ * <p>
+ * Meant to be reused for all lines of a file: after warm up, parsing a line does not allocate.
+ * Only numbers which cannot be converted exactly with double arithmetic (e.g. more than 15 to 16
+ * significant digits) are handed to {@link Double#parseDouble(String)}, so the values are always
+ * the same as with the parse methods of the boxed types. Not thread safe.
+ */
+public class DataLogLineParser {
+    public static final int LATITUDE = 0;
+    public static final int LONGITUDE = 1;
+    public static final int ACCELEROMETER_X = 2;
+    public static final int ACCELEROMETER_Y = 3;
+    public static final int ACCELEROMETER_Z = 4;
+    public static final int TIMESTAMP = 5;
+    public static final int GPS_ACCURACY = 6;
+    public static final int GYROSCOPE_A = 7;
+    public static final int GYROSCOPE_B = 8;
+    public static final int GYROSCOPE_C = 9;
+    public static final int OBS_DISTANCE_LEFT_1 = 10;
+    public static final int OBS_DISTANCE_LEFT_2 = 11;
+    public static final int OBS_DISTANCE_RIGHT_1 = 12;
+    public static final int OBS_DISTANCE_RIGHT_2 = 13;
+    public static final int OBS_CLOSE_PASS_EVENT = 14;
+    public static final int LINEAR_ACCELEROMETER_X = 15;
+    public static final int LINEAR_ACCELEROMETER_Y = 16;
+    public static final int LINEAR_ACCELEROMETER_Z = 17;
+    public static final int ROTATION_X = 18;
+    public static final int ROTATION_Y = 19;
+    public static final int ROTATION_Z = 20;
+    public static final int ROTATION_C = 21;
+    public static final int COLUMN_COUNT = 22;
+    // Columns which have to be present for each sensor, see DataLogEntry
+    public static final int GPS_COLUMNS = 1 << LATITUDE | 1 << LONGITUDE | 1 << GPS_ACCURACY;
+    public static final int ACCELEROMETER_COLUMNS = 1 << ACCELEROMETER_X | 1 << ACCELEROMETER_Y | 1 << ACCELEROMETER_Z;
+    public static final int GYROSCOPE_COLUMNS = 1 << GYROSCOPE_A | 1 << GYROSCOPE_B | 1 << GYROSCOPE_C;
+    public static final int LINEAR_ACCELEROMETER_COLUMNS = 1 << LINEAR_ACCELEROMETER_X | 1 << LINEAR_ACCELEROMETER_Y | 1 << LINEAR_ACCELEROMETER_Z;
+    public static final int ROTATION_COLUMNS = 1 << ROTATION_X | 1 << ROTATION_Y | 1 << ROTATION_Z | 1 << ROTATION_C;
+    public static final int OBS_COLUMNS = 1 << OBS_DISTANCE_LEFT_1 | 1 << OBS_DISTANCE_LEFT_2 | 1 << OBS_DISTANCE_RIGHT_1
+            | 1 << OBS_DISTANCE_RIGHT_2 | 1 << OBS_CLOSE_PASS_EVENT;
+
+    // Columns which are parsed as double, long or int, all others are floats
+    private static final int DOUBLE_COLUMNS = 1 << LATITUDE | 1 << LONGITUDE;
+    private static final int INTEGER_COLUMNS = 1 << TIMESTAMP | OBS_COLUMNS;
+    // Largest mantissa and power of ten with which double arithmetic is exact
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final double[] values = new double[COLUMN_COUNT];
+    private final long[] integers = new long[COLUMN_COUNT];
+    private int presentColumns;
+    // Non-empty cells which are not a number of the type of their column
+    private int invalidColumns;
+    private char[] lineBuffer = new char[256];
+
+    public DataLogLineParser parse(String line) {
+        if (line.length() > lineBuffer.length) {
+            lineBuffer = new char[Math.max(line.length(), lineBuffer.length * 2)];
+        }
+        line.getChars(0, line.length(), lineBuffer, 0);
+        return parse(lineBuffer, 0, line.length());
+    }
+
+    /**
+     * Parses the line in chars[start, end), without line separator. A cell which is not a number
+     * of the type of its column only fails when it is used, see {@link #isPresent(int)}.
+     */
+    public DataLogLineParser parse(char[] chars, int start, int end) {
+        presentColumns = 0;
+        invalidColumns = 0;
+        int column = 0;
+        int cellStart = start;
+        for (int i = start; i <= end && column < COLUMN_COUNT; i++) {
+            if (i == end || chars[i] == ',') {
+                if (i > cellStart) {
+                    try {
+                        parseCell(column, chars, cellStart, i);
+                        presentColumns |= 1 << column;
+                    } catch (NumberFormatException e) {
+                        invalidColumns |= 1 << column;
+                    }
+                }
+                column++;
+                cellStart = i + 1;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return bitmask of the non-empty cells, bit n is column n
+     */
+    public int getPresentColumns() {
+        return presentColumns;
+    }
+
+    /**
+     * @throws NumberFormatException if the cell is not empty but invalid
+     */
+    public boolean isPresent(int column) {
+        return areAllPresent(1 << column);
+    }
+
+    /**
+     * @return whether all of the given columns are present
+     * @throws NumberFormatException if none of the cells is empty but one is invalid
+     */
+    public boolean areAllPresent(int columnMask) {
+        if ((invalidColumns & columnMask) != 0 && ((presentColumns | invalidColumns) & columnMask) == columnMask) {
+            throw new NumberFormatException("invalid DataLog cell in columns " + Integer.toBinaryString(invalidColumns & columnMask));
+        }
+        return (presentColumns & columnMask) == columnMask;
+    }
+
+    public double getDouble(int column) {
+        return values[column];
+    }
+
+    public float getFloat(int column) {
+        return (float) values[column];
+    }
+
+    public long getLong(int column) {
+        return integers[column];
+    }
+
+    public int getInt(int column) {
+        return (int) integers[column];
+    }
+
+    public DataLogEntry toDataLogEntry() {
+        return new DataLogEntry(this);
+    }
+
+    private void parseCell(int column, char[] chars, int start, int end) {
+        int columnBit = 1 << column;
+        if ((INTEGER_COLUMNS & columnBit) != 0) {
+            integers[column] = column == TIMESTAMP ? parseLong(chars, start, end) : parseInt(chars, start, end);
+        } else if ((DOUBLE_COLUMNS & columnBit) != 0) {
+            values[column] = parseDouble(chars, start, end);
+        } else {
+            values[column] = parseFloat(chars, start, end);
+        }
+    }
+
+    static long parseLong(char[] chars, int start, int end) {
+        int i = start;
+        boolean negative = chars[i] == '-';
+        if (negative || chars[i] == '+') {
+            i++;
+        }
+        // at most 18 digits can not overflow
+        if (i == end || end - i > 18) {
+            return Long.parseLong(new String(chars, start, end - start));
+        }
+        long result = 0;
+        for (; i < end; i++) {
+            int digit = chars[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return Long.parseLong(new String(chars, start, end - start));
+            }
+            result = result * 10 + digit;
+        }
+        return negative ? -result : result;
+    }
+
+    static int parseInt(char[] chars, int start, int end) {
+        long result = parseLong(chars, start, end);
+        if (result < Integer.MIN_VALUE || result > Integer.MAX_VALUE) {
+            return Integer.parseInt(new String(chars, start, end - start));
+        }
+        return (int) result;
+    }
+
+    static float parseFloat(char[] chars, int start, int end) {
+        double value = parseExact(chars, start, end);
+        if (Double.isNaN(value) || isFloatMidpoint(value)) {
+            // rounding to double first could round differently than rounding directly to float
+            return Float.parseFloat(new String(chars, start, end - start));
+        }
+        return (float) value;
+    }
+
+    static double parseDouble(char[] chars, int start, int end) {
+        double value = parseExact(chars, start, end);
+        if (Double.isNaN(value)) {
+            return Double.parseDouble(new String(chars, start, end - start));
+        }
+        return value;
+    }
+
+    /**
+     * Parses a decimal number of the form [+-]digits[.digits][(e|E)[+-]digits] if it can be
+     * converted to the nearest double exactly, that is mantissa and power of ten are exact doubles.
+     *
+     * @return NaN if the number has another form or can not be converted exactly
+     */
+    private static double parseExact(char[] chars, int start, int end) {
+        int i = start;
+        boolean negative = chars[i] == '-';
+        if (negative || chars[i] == '+') {
+            i++;
+        }
+        long mantissa = 0;
+        int exponent = 0;
+        int digits = 0;
+        int significantDigits = 0;
+        for (; i < end && chars[i] >= '0' && chars[i] <= '9'; i++) {
+            digits++;
+            if (mantissa != 0 || chars[i] != '0') {
+                if (++significantDigits > 18) {
+                    return Double.NaN;
+                }
+                mantissa = mantissa * 10 + (chars[i] - '0');
+            }
+        }
+        if (i < end && chars[i] == '.') {
+            for (i++; i < end && chars[i] >= '0' && chars[i] <= '9'; i++) {
+                digits++;
+                exponent--;
+                if (mantissa != 0 || chars[i] != '0') {
+                    if (++significantDigits > 18) {
+                        return Double.NaN;
+                    }
+                    mantissa = mantissa * 10 + (chars[i] - '0');
+                }
+            }
+        }
+        if (digits == 0) {
+            return Double.NaN;
+        }
+        if (i < end && (chars[i] == 'e' || chars[i] == 'E')) {
+            i++;
+            boolean negativeExponent = i < end && chars[i] == '-';
+            if (i < end && (negativeExponent || chars[i] == '+')) {
+                i++;
+            }
+            if (i == end || end - i > 4) {
+                return Double.NaN;
+            }
+            int exponentValue = 0;
+            for (; i < end && chars[i] >= '0' && chars[i] <= '9'; i++) {
+                exponentValue = exponentValue * 10 + (chars[i] - '0');
+            }
+            exponent += negativeExponent ? -exponentValue : exponentValue;
+        }
+        if (i != end) {
+            return Double.NaN;
+        }
+        double value;
+        if (mantissa == 0) {
+            value = 0;
+        } else if (mantissa > MAX_EXACT_MANTISSA || exponent < -22 || exponent > 22) {
+            return Double.NaN;
+        } else {
+            // one correctly rounded operation on exact operands
+            value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * @return whether value lies exactly halfway between two floats
+     */
+    private static boolean isFloatMidpoint(double value) {
+        // a double has 29 more mantissa bits than a float
+        return (Double.doubleToRawLongBits(value) & 0x1FFFFFFFL) == 0x10000000L;
+    }
+
+    /**
+     * Splits the content of a reader into lines without creating a String per line.
+     * The current line is in {@link #getChars()}[{@link #getStart()}, {@link #getEnd()}),
+     * it is valid until the next call of {@link #next()}.
+     */
+    public static class LineReader {
+        private final Reader reader;
+        private char[] buffer = new char[64 * 1024];
+        private int position = 0;
+        private int limit = 0;
+        // number of chars read before the first char of the buffer
+        private long bufferOffset = 0;
+        private int start;
+        private int end;
+        private boolean endOfInput = false;
+        // the last line ended with \r, which may be followed by \n
+        private boolean skipLineFeed = false;
+
+        public LineReader(Reader reader) {
+            this.reader = reader;
+        }
+
+        /**
+         * Moves to the next line.
+         *
+         * @return false if there are no more lines
+         */
+        public boolean next() throws IOException {
+            while (true) {
+                if (skipLineFeed && position < limit) {
+                    // \r\n is one line separator
+                    skipLineFeed = false;
+                    if (buffer[position] == '\n') {
+                        position++;
+                    }
+                }
+                for (int i = position; i < limit; i++) {
+                    char c = buffer[i];
+                    if (c == '\n' || c == '\r') {
+                        start = position;
+                        end = i;
+                        position = i + 1;
+                        skipLineFeed = c == '\r';
+                        return true;
+                    }
+                }
+                if (endOfInput) {
+                    if (position < limit) {
+                        start = position;
+                        end = limit;
+                        position = limit;
+                        return true;
+                    }
+                    return false;
+                }
+                fill();
+            }
+        }
+
+        public char[] getChars() {
+            return buffer;
+        }
+
+        public int getStart() {
+            return start;
+        }
+
+        public int getEnd() {
+            return end;
+        }
+
+        /**
+         * @return number of chars before the current line, the byte offset of the line in an ASCII file
+         */
+        public long getOffset() {
+            return bufferOffset + start;
+        }
+
+        /**
+         * @return whether the current line consists of whitespace only
+         */
+        public boolean isBlank() {
+            for (int i = start; i < end; i++) {
+                if (buffer[i] > ' ') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Moves the unread chars to the start of the buffer and reads more.
+         */
+        private void fill() throws IOException {
+            int unread = limit - position;
+            if (unread == buffer.length) {
+                char[] larger = new char[buffer.length * 2];
+                System.arraycopy(buffer, position, larger, 0, unread);
+                buffer = larger;
+            } else {
+                System.arraycopy(buffer, position, buffer, 0, unread);
+            }
+            bufferOffset += position;
+            position = 0;
+            limit = unread;
+            int read = reader.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                endOfInput = true;
+            } else {
+                limit += read;
+            }
+        }
+    }
+}
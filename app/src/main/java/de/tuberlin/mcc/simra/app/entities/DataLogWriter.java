@@ -0,0 +1,209 @@
+package de.tuberlin.mcc.simra.app.entities;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * Writes the lines of a ride to its DataLog file while the ride is being recorded.
+ * <p>
+ * GPS lines carry the timestamp of their location fix, which can be older than the sensor lines
+ * recorded before it. Therefore sensor lines are held back until the next GPS line arrives and
+ * all lines are written ordered by timestamp (GPS line first on equal timestamps), which is the
+ * same order a merge of the complete ride would produce. Only the sensor lines between two GPS
+ * lines are kept in memory, independent of the ride length.
+ * <p>
+ * Lines are appended to a temporary file in small buffered batches. {@link #finish()} renames it
+ * to the actual DataLog file. {@link #sync()} makes the lines written so far survive a crash, see
+ * {@link #recover(File, File)}. If an index file is given, the {@link DataLogIndex} of the lines is
+ * written to it in {@link #finish()}.
+ */
+public class DataLogWriter implements Closeable {
+    /**
+     * Buffered lines are handed to the file system at least every this many lines
+     */
+    public static final int FLUSH_INTERVAL_LINES = 64;
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final File tempFile;
+    private final File targetFile;
+    private final File indexFile;
+    private final DataLogIndex.Builder indexBuilder = new DataLogIndex.Builder();
+    private final DataLogCsvWriter writer;
+    private final Queue<DataLogEntry> pendingSensorLines = new ArrayDeque<>();
+    private int linesSinceFlush = 0;
+    private long linesWritten = 0;
+    private boolean hasGPSLine = false;
+    private boolean closed = false;
+
+    /**
+     * @param tempFile   file the lines are appended to during the ride, it is overwritten
+     * @param targetFile the DataLog file, which is replaced by tempFile in {@link #finish()}
+     * @param header     written at the beginning of the file (file info line and csv header including line separators)
+     */
+    public DataLogWriter(File tempFile, File targetFile, String header) throws IOException {
+        this(tempFile, targetFile, null, header);
+    }
+
+    /**
+     * @param indexFile the index of the DataLog file, written in {@link #finish()}, may be null
+     */
+    public DataLogWriter(File tempFile, File targetFile, File indexFile, String header) throws IOException {
+        this.tempFile = tempFile;
+        this.targetFile = targetFile;
+        this.indexFile = indexFile;
+        this.writer = new DataLogCsvWriter(tempFile);
+        this.writer.write(header);
+    }
+
+    /**
+     * Appends a line containing a location. All held back sensor lines which are older are written before it.
+     */
+    public void appendGPSLine(DataLogEntry gpsLine) throws IOException {
+        while (!pendingSensorLines.isEmpty() && pendingSensorLines.peek().timestamp < gpsLine.timestamp) {
+            writeLine(pendingSensorLines.poll());
+        }
+        writeLine(gpsLine);
+        hasGPSLine = true;
+    }
+
+    /**
+     * Appends a line containing sensor data only. It is held back until the next GPS line (or {@link #finish()}).
+     */
+    public void appendSensorLine(DataLogEntry sensorLine) {
+        pendingSensorLines.add(sensorLine);
+    }
+
+    /**
+     * @return whether at least one GPS line was appended
+     */
+    public boolean hasGPSLine() {
+        return hasGPSLine;
+    }
+
+    /**
+     * @return number of lines written to the file so far (not counting held back sensor lines)
+     */
+    public long getLinesWritten() {
+        return linesWritten;
+    }
+
+    public File getTempFile() {
+        return tempFile;
+    }
+
+    /**
+     * Hands all buffered lines to the file system.
+     */
+    public void flush() throws IOException {
+        writer.flush();
+        linesSinceFlush = 0;
+    }
+
+    /**
+     * Hands all buffered lines to the file system and waits until they are written to the storage device.
+     */
+    public void sync() throws IOException {
+        writer.sync();
+        linesSinceFlush = 0;
+    }
+
+    /**
+     * Turns the temporary file of a ride, whose recording was interrupted (e.g. the app was killed),
+     * into its DataLog file. An incomplete last line is removed.
+     *
+     * @return number of lines after the header, the temporary file is deleted if there are none
+     */
+    public static long recover(File tempFile, File targetFile) throws IOException {
+        long lines = 0;
+        long lastLineEnd = 0;
+        try (RandomAccessFile file = new RandomAccessFile(tempFile, "rw")) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long position = 0;
+            int read;
+            while ((read = file.read(buffer)) > 0) {
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] == '\n') {
+                        lines++;
+                        lastLineEnd = position + i + 1;
+                    }
+                }
+                position += read;
+            }
+            file.setLength(lastLineEnd);
+        }
+        // the first two lines are the file info line and the header
+        lines = Math.max(0, lines - 2);
+        if (lines == 0) {
+            tempFile.delete();
+            return 0;
+        }
+        if (targetFile.exists() && !targetFile.delete()) {
+            throw new IOException("could not replace " + targetFile);
+        }
+        if (!tempFile.renameTo(targetFile)) {
+            throw new IOException("could not rename " + tempFile + " to " + targetFile);
+        }
+        RideCatalog.recordFileInBackground(targetFile);
+        return lines;
+    }
+
+    /**
+     * Writes the remaining lines, closes the file and moves it to the DataLog file.
+     */
+    public void finish() throws IOException {
+        while (!pendingSensorLines.isEmpty()) {
+            writeLine(pendingSensorLines.poll());
+        }
+        close();
+        if (targetFile.exists() && !targetFile.delete()) {
+            throw new IOException("could not replace " + targetFile);
+        }
+        if (!tempFile.renameTo(targetFile)) {
+            throw new IOException("could not rename " + tempFile + " to " + targetFile);
+        }
+        RideCatalog.recordFileInBackground(targetFile);
+        if (indexFile != null) {
+            // the index is only an optimization, the DataLog file is loaded completely without it
+            try {
+                indexBuilder.build(targetFile.length(), targetFile.lastModified()).write(indexFile);
+            } catch (IOException e) {
+                indexFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Closes the file and deletes it.
+     */
+    public void discard() {
+        try {
+            close();
+        } catch (IOException ignored) {
+        }
+        tempFile.delete();
+    }
+
+    /**
+     * Closes the temporary file without moving it. Held back sensor lines are dropped.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            writer.close();
+        }
+    }
+
+    private void writeLine(DataLogEntry dataLogEntry) throws IOException {
+        indexBuilder.add(writer.getBytesWritten(), dataLogEntry.timestamp != null ? dataLogEntry.timestamp : 0);
+        writer.writeLine(dataLogEntry);
+        linesWritten++;
+        if (++linesSinceFlush >= FLUSH_INTERVAL_LINES) {
+            flush();
+        }
+    }
+}
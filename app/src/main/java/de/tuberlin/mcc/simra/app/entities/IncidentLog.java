@@ -60,6 +60,24 @@ public class IncidentLog {
      * @return Incident Log of the ride, empty if ride not found.
      */
     public static IncidentLog loadIncidentLogWithRideSettingsAndBoundary(int rideId, Integer bikeType, Integer phoneLocation, Boolean childOnBoard, Boolean bikeWithTrailer, Long startTimeBoundary, Long endTimeBoundary, Context context) {
+        IncidentLog storedIncidentLog = readIncidentLog(rideId, context);
+        Map<Integer, IncidentLogEntry> incidents = new HashMap() {};
+        for (IncidentLogEntry incidentLogEntry : storedIncidentLog.incidents.values()) {
+            incidentLogEntry.bikeType = bikeType;
+            incidentLogEntry.phoneLocation = phoneLocation;
+            incidentLogEntry.childOnBoard = childOnBoard;
+            incidentLogEntry.bikeWithTrailer = bikeWithTrailer;
+            if (!(incidentLogEntry.incidentType == IncidentLogEntry.INCIDENT_TYPE.FOR_RIDE_SETTINGS) && incidentLogEntry.isInTimeFrame(startTimeBoundary, endTimeBoundary)) {
+                incidents.put(incidentLogEntry.key, incidentLogEntry);
+            }
+        }
+        return new IncidentLog(rideId, incidents, storedIncidentLog.nn_version);
+    }
+
+    /**
+     * Reads the accEvents file and replays the journal onto it, without leaving out any incident.
+     */
+    private static IncidentLog readIncidentLog(int rideId, Context context) {
         File incidentFile = getEventsFile(rideId, context);
         Map<Integer, IncidentLogEntry> incidents = new HashMap() {};
         int nn_version = 0;
@@ -76,19 +94,18 @@ public class IncidentLog {
                 while ((line = bufferedReader.readLine()) != null) {
                     if (!line.trim().isEmpty()) {
                         IncidentLogEntry incidentLogEntry = IncidentLogEntry.parseEntryFromLine(line);
-                        incidentLogEntry.bikeType = bikeType;
-                        incidentLogEntry.phoneLocation = phoneLocation;
-                        incidentLogEntry.childOnBoard = childOnBoard;
-                        incidentLogEntry.bikeWithTrailer = bikeWithTrailer;
-                        if (!(incidentLogEntry.incidentType == IncidentLogEntry.INCIDENT_TYPE.FOR_RIDE_SETTINGS) && incidentLogEntry.isInTimeFrame(startTimeBoundary, endTimeBoundary)) {
-                            incidents.put(incidentLogEntry.key, incidentLogEntry);
-                        }
+                        incidents.put(incidentLogEntry.key, incidentLogEntry);
                     }
                 }
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
+        try {
+            IncidentLogJournal.replay(getEventsJournalFile(rideId, context), incidents);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
         return new IncidentLog(rideId, incidents, nn_version);
     }
 
@@ -123,9 +140,96 @@ public class IncidentLog {
         return new IncidentLog(incidentLog.rideId, incidents, incidentLog.nn_version);
     }
 
+    /**
+     * Writes the whole accEvents file. The journal is merged into it and deleted.
+     */
     public static void saveIncidentLog(IncidentLog incidentLog, Context context) {
         File accEventsFile = getEventsFile(incidentLog.rideId, context);
-        Utils.overwriteFile(incidentLog.toString(), accEventsFile);
+        if (Utils.overwriteFile(incidentLog.toString(), accEventsFile)) {
+            File journalFile = getEventsJournalFile(incidentLog.rideId, context);
+            journalFile.delete();
+            RideCatalog.forgetFile(journalFile);
+        }
+    }
+
+    /**
+     * Saves a single added or edited incident by appending it to the journal of the ride.
+     */
+    public static void saveIncident(int rideId, IncidentLogEntry incidentLogEntry, Context context) {
+        try {
+            IncidentLogJournal.appendUpdate(getEventsJournalFile(rideId, context), incidentLogEntry);
+            RideCatalog.recordFile(getEventsJournalFile(rideId, context));
+        } catch (IOException e) {
+            Log.e(TAG, "saveIncident() could not append to journal, writing whole file", e);
+            IncidentLog incidentLog = readIncidentLog(rideId, context);
+            incidentLog.incidents.put(incidentLogEntry.key, incidentLogEntry);
+            saveIncidentLog(incidentLog, context);
+        }
+    }
+
+    /**
+     * Removes a single incident by appending the removal to the journal of the ride.
+     */
+    public static void deleteIncident(int rideId, int key, Context context) {
+        try {
+            IncidentLogJournal.appendDelete(getEventsJournalFile(rideId, context), key);
+            RideCatalog.recordFile(getEventsJournalFile(rideId, context));
+        } catch (IOException e) {
+            Log.e(TAG, "deleteIncident() could not append to journal, writing whole file", e);
+            IncidentLog incidentLog = readIncidentLog(rideId, context);
+            incidentLog.incidents.remove(key);
+            saveIncidentLog(incidentLog, context);
+        }
+    }
+
+    /**
+     * Saves the incidents of an edited ride: the incidents which differ from the stored ones are
+     * appended to the journal of the ride as one record, see {@link IncidentLogJournal}.
+     *
+     * @param incidentLog the incidents as they are to be saved
+     */
+    public static void saveIncidentLogChanges(IncidentLog incidentLog, Context context) {
+        int rideId = incidentLog.rideId;
+        IncidentLog storedIncidentLog = readIncidentLog(rideId, context);
+        if (storedIncidentLog.nn_version != incidentLog.nn_version) {
+            // the version is only stored in the header of the accEvents file
+            saveIncidentLog(incidentLog, context);
+            return;
+        }
+        List<Integer> removedKeys = new ArrayList<>();
+        for (Integer key : storedIncidentLog.incidents.keySet()) {
+            if (!incidentLog.incidents.containsKey(key)) {
+                removedKeys.add(key);
+            }
+        }
+        List<IncidentLogEntry> updatedIncidents = new ArrayList<>();
+        for (IncidentLogEntry incidentLogEntry : incidentLog.incidents.values()) {
+            IncidentLogEntry storedEntry = storedIncidentLog.incidents.get(incidentLogEntry.key);
+            if (storedEntry == null || !storedEntry.stringifyDataLogEntry().equals(incidentLogEntry.stringifyDataLogEntry())) {
+                updatedIncidents.add(incidentLogEntry);
+            }
+        }
+        if (removedKeys.isEmpty() && updatedIncidents.isEmpty()) {
+            return;
+        }
+        File journalFile = getEventsJournalFile(rideId, context);
+        try {
+            IncidentLogJournal.appendChanges(journalFile, updatedIncidents, removedKeys);
+            RideCatalog.recordFile(journalFile);
+        } catch (IOException e) {
+            Log.e(TAG, "saveIncidentLogChanges() could not append to journal, writing whole file", e);
+            saveIncidentLog(incidentLog, context);
+        }
+    }
+
+    /**
+     * Merges the journal of the ride, if any, into its accEvents file.
+     * Needed before the accEvents file is read directly.
+     */
+    public static void compactIncidentLog(int rideId, Context context) {
+        if (getEventsJournalFile(rideId, context).exists()) {
+            saveIncidentLog(readIncidentLog(rideId, context), context);
+        }
     }
 
     public static List<IncidentLogEntry> getScaryIncidents(IncidentLog incidentLog) {
@@ -144,6 +248,10 @@ public class IncidentLog {
         return new File(IOUtils.Directories.getBaseFolderPath(context) + "accEvents" + rideId + ".csv");
     }
 
+    public static File getEventsJournalFile(Integer rideId, Context context) {
+        return new File(IOUtils.Directories.getBaseFolderPath(context) + "accEvents" + rideId + ".journal");
+    }
+
     @Override
     public String toString() {
         StringBuilder incidentString = new StringBuilder();
@@ -182,7 +290,7 @@ public class IncidentLog {
     }
     public IncidentLogEntry updateOrAddIncident(IncidentLogEntry incidentLogEntry) {
         if (incidentLogEntry.key == null) {
-            incidentLogEntry.key = (1000 + incidents.size());
+            incidentLogEntry.key = nextKey();
         }
         incidents.put(incidentLogEntry.key, incidentLogEntry);
         return incidentLogEntry;
@@ -192,6 +300,22 @@ public class IncidentLog {
         return updateOrAddIncident(incidentLogEntry);
     }
 
+    /**
+     * Keys of new incidents start at 1000 and follow the largest key in use, so a new incident
+     * cannot overwrite another one after an incident was removed.
+     *
+     * @return a key larger than all keys in use
+     */
+    private int nextKey() {
+        int key = 1000;
+        for (Integer usedKey : incidents.keySet()) {
+            if (usedKey != null && usedKey >= key) {
+                key = usedKey + 1;
+            }
+        }
+        return key;
+    }
+
     public Map<Integer, IncidentLogEntry> removeIncident(IncidentLogEntry incidentLogEntry) {
         incidents.remove(incidentLogEntry.key);
         return incidents;
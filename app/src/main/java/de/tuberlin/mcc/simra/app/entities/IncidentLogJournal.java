@@ -0,0 +1,110 @@
+package de.tuberlin.mcc.simra.app.entities;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Changes of the incidents of a ride which are not yet written to its accEvents file.
+ * <p>
+ * Saving a single incident appends a record instead of rewriting the whole file:
+ * {@code U,<IncidentLogEntry line>} for an added or updated incident, {@code D,<key>} for a
+ * removed one. The changes saved together, e.g. when a ride is edited, are one record
+ * {@code G,<length>:<record><length>:<record>...} of such records with their length, so that a
+ * crash cannot leave only some of them. Loading replays the records in order onto the incidents
+ * of the accEvents file.
+ * {@link IncidentLog#saveIncidentLog(IncidentLog, android.content.Context)} writes the whole file
+ * and deletes the journal. See {@link JournalFile} for records cut off by a crash.
+ */
+public class IncidentLogJournal {
+    private static final char UPDATE = 'U';
+    private static final char DELETE = 'D';
+    private static final char GROUP = 'G';
+
+    public static void appendUpdate(File journalFile, IncidentLogEntry incidentLogEntry) throws IOException {
+        JournalFile.append(journalFile, UPDATE + "," + incidentLogEntry.stringifyDataLogEntry());
+    }
+
+    public static void appendDelete(File journalFile, int key) throws IOException {
+        JournalFile.append(journalFile, DELETE + "," + key);
+    }
+
+    /**
+     * Appends the changes as one record, which is replayed completely or not at all.
+     */
+    public static void appendChanges(File journalFile, List<IncidentLogEntry> updatedIncidents, List<Integer> removedKeys) throws IOException {
+        StringBuilder group = new StringBuilder().append(GROUP).append(',');
+        for (Integer key : removedKeys) {
+            appendMember(group, DELETE + "," + key);
+        }
+        for (IncidentLogEntry incidentLogEntry : updatedIncidents) {
+            appendMember(group, UPDATE + "," + incidentLogEntry.stringifyDataLogEntry());
+        }
+        JournalFile.append(journalFile, group.toString());
+    }
+
+    private static void appendMember(StringBuilder group, String record) {
+        group.append(record.length()).append(':').append(record);
+    }
+
+    /**
+     * Applies the complete records of the journal to the incidents.
+     *
+     * @return number of applied records, the changes saved together count as one
+     */
+    public static int replay(File journalFile, Map<Integer, IncidentLogEntry> incidents) throws IOException {
+        int records = 0;
+        for (String record : JournalFile.readRecords(journalFile)) {
+            if (apply(record, incidents)) {
+                records++;
+            }
+        }
+        return records;
+    }
+
+    private static boolean apply(String record, Map<Integer, IncidentLogEntry> incidents) {
+        if (record.length() < 3 || record.charAt(1) != ',') {
+            return false;
+        }
+        try {
+            if (record.charAt(0) == UPDATE) {
+                IncidentLogEntry incidentLogEntry = IncidentLogEntry.parseEntryFromLine(record.substring(2));
+                incidents.put(incidentLogEntry.key, incidentLogEntry);
+                return true;
+            } else if (record.charAt(0) == DELETE) {
+                incidents.remove(Integer.parseInt(record.substring(2)));
+                return true;
+            } else if (record.charAt(0) == GROUP) {
+                return applyGroup(record, incidents);
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Applies the records of the group to a copy of the incidents first, so that a damaged group
+     * changes nothing.
+     */
+    private static boolean applyGroup(String record, Map<Integer, IncidentLogEntry> incidents) {
+        Map<Integer, IncidentLogEntry> changedIncidents = new HashMap<>(incidents);
+        int position = 2;
+        while (position < record.length()) {
+            int colon = record.indexOf(':', position);
+            if (colon < 0) {
+                return false;
+            }
+            int end = colon + 1 + Integer.parseInt(record.substring(position, colon));
+            if (end > record.length() || !apply(record.substring(colon + 1, end), changedIncidents)) {
+                return false;
+            }
+            position = end;
+        }
+        incidents.clear();
+        incidents.putAll(changedIncidents);
+        return true;
+    }
+}
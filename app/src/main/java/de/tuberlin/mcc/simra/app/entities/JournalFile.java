@@ -0,0 +1,81 @@
+package de.tuberlin.mcc.simra.app.entities;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.tuberlin.mcc.simra.app.util.StorageExecutor;
+
+/**
+ * A file of records in UTF-8 which only gets appended to, one record per line.
+ * A record is only complete with its line feed, so a record which was cut off by a crash is ignored
+ * when reading and dropped before the next one is appended.
+ * <p>
+ * Records are appended on the thread of the {@link StorageExecutor}, so they cannot interleave with
+ * the rewrite of the file the journal belongs to.
+ */
+class JournalFile {
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    static void append(File journalFile, String record) throws IOException {
+        StorageExecutor.run(() -> appendDirectly(journalFile, record));
+    }
+
+    /**
+     * Appends the record on the calling thread, for a journal whose writes are serialized otherwise.
+     */
+    static void appendDirectly(File journalFile, String record) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+            long length = file.length();
+            // a record cut off by a crash is dropped, so that it does not swallow this one
+            while (length > 0) {
+                file.seek(length - 1);
+                if (file.read() == '\n') {
+                    break;
+                }
+                length--;
+            }
+            file.setLength(length);
+            file.seek(length);
+            file.write((record + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * @return the complete, non-empty records of the journal in order, empty if there is no journal
+     */
+    static List<String> readRecords(File journalFile) throws IOException {
+        List<String> records = new ArrayList<>();
+        if (!journalFile.exists()) {
+            return records;
+        }
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = new FileInputStream(journalFile)) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                int start = 0;
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] != '\n') {
+                        continue;
+                    }
+                    line.write(buffer, start, i - start);
+                    String record = new String(line.toByteArray(), StandardCharsets.UTF_8).trim();
+                    if (!record.isEmpty()) {
+                        records.add(record);
+                    }
+                    line.reset();
+                    start = i + 1;
+                }
+                line.write(buffer, start, read - start);
+            }
+        }
+        return records;
+    }
+}
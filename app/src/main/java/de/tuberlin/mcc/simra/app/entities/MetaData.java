@@ -7,10 +7,11 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import de.tuberlin.mcc.simra.app.util.IOUtils;
 import de.tuberlin.mcc.simra.app.util.Utils;
@@ -26,47 +27,142 @@ import de.tuberlin.mcc.simra.app.util.Utils;
  */
 public class MetaData {
     public final static String METADATA_HEADER = "key,startTime,endTime,state,numberOfIncidents,waitedTime,distance,numberOfScary,region";
+    /**
+     * Ride id passed to the listeners if all entries may have changed
+     */
+    public static final int ALL_RIDES = -1;
+    // The MetaData of all rides, loaded on first access. All reads and writes go through it.
+    private static Map<Integer, MetaDataEntry> cache = null;
+    private static final List<OnMetaDataChangeListener> listeners = new CopyOnWriteArrayList<>();
     private Map<Integer, MetaDataEntry> metaDataEntries;
 
     public MetaData(Map<Integer, MetaDataEntry> metaDataEntries) {
         this.metaDataEntries = metaDataEntries;
     }
 
+    public interface OnMetaDataChangeListener {
+        /**
+         * Called on the thread which changed the MetaData.
+         *
+         * @param rideId the changed ride or {@link #ALL_RIDES}
+         */
+        void onMetaDataChanged(int rideId);
+    }
+
+    public static void addOnMetaDataChangeListener(OnMetaDataChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public static void removeOnMetaDataChangeListener(OnMetaDataChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Replaces the MetaData of all rides and writes metaData.csv.
+     */
     public static void saveMetaData(MetaData metaData, Context context) {
-        StringBuilder metaDataString = new StringBuilder();
-        Iterator<Map.Entry<Integer, MetaDataEntry>> iterator = metaData.metaDataEntries.entrySet().iterator();
-        while (iterator.hasNext()) {
-            Map.Entry<Integer, MetaDataEntry> entry = iterator.next();
-            metaDataString.append(entry.getValue().stringifyMetaDataEntry()).append(System.lineSeparator());
+        synchronized (MetaData.class) {
+            cache = copy(metaData.metaDataEntries);
+            writeMetaDataFile(context);
         }
-        File newFile = IOUtils.Files.getMetaDataFile(context);
-        Utils.overwriteFile(IOUtils.Files.getFileInfoLine() + METADATA_HEADER + System.lineSeparator() + metaDataString, newFile);
+        notifyListeners(ALL_RIDES);
     }
 
-    public static MetaData loadMetaData(Context context) {
-        File metaDataFile = IOUtils.Files.getMetaDataFile(context);
-        Map<Integer, MetaDataEntry> metaDataEntries = new HashMap() {};
-        if (metaDataFile.exists()) {
-            try (BufferedReader bufferedReader = new BufferedReader(new FileReader(metaDataFile))) {
-                // Skip first two line as they do only contain the Header
-                bufferedReader.readLine();
-                bufferedReader.readLine();
-                String line;
-                while ((line = bufferedReader.readLine()) != null) {
-                    if (!line.trim().isEmpty()) {
-                        MetaDataEntry metaDataEntry = MetaDataEntry.parseEntryFromLine(line);
-                        metaDataEntries.put(metaDataEntry.rideId, metaDataEntry);
-                    }
+    /**
+     * Writes the changes in the journal to metaData.csv, e.g. before metaData.csv is read directly.
+     */
+    public static synchronized void compactMetaData(Context context) {
+        if (IOUtils.Files.getMetaDataJournalFile(context).exists()) {
+            getCache(context);
+            writeMetaDataFile(context);
+        }
+    }
+
+    /**
+     * Drops the MetaData in memory, e.g. after metaData.csv was replaced by an update or import.
+     * They are loaded again on next access.
+     */
+    public static void invalidate() {
+        synchronized (MetaData.class) {
+            cache = null;
+        }
+        notifyListeners(ALL_RIDES);
+    }
+
+    /**
+     * @return a copy of the MetaData of all rides
+     */
+    public static synchronized MetaData loadMetaData(Context context) {
+        return new MetaData(copy(getCache(context)));
+    }
+
+    public static synchronized MetaDataEntry getMetaDataEntryForRide(Integer rideId, Context context) {
+        MetaDataEntry metaDataEntry = getCache(context).get(rideId);
+        return metaDataEntry != null ? copy(metaDataEntry) : null;
+    }
+
+    /**
+     * Appends the change to the journal, metaData.csv is only rewritten once the journal got long.
+     */
+    public static void updateOrAddMetaDataEntryForRide(MetaDataEntry metaDataEntry, Context context) {
+        synchronized (MetaData.class) {
+            getCache(context).put(metaDataEntry.rideId, copy(metaDataEntry));
+            File journalFile = IOUtils.Files.getMetaDataJournalFile(context);
+            try {
+                MetaDataJournal.appendUpdate(journalFile, metaDataEntry);
+                if (MetaDataJournal.needsCompaction(journalFile)) {
+                    writeMetaDataFile(context);
                 }
             } catch (IOException e) {
                 e.printStackTrace();
+                writeMetaDataFile(context);
             }
         }
-        return new MetaData(metaDataEntries);
+        notifyListeners(metaDataEntry.rideId);
+    }
+
+    public static void deleteMetaDataEntryForRide(int rideId, Context context) {
+        synchronized (MetaData.class) {
+            getCache(context).remove(rideId);
+            File journalFile = IOUtils.Files.getMetaDataJournalFile(context);
+            try {
+                MetaDataJournal.appendDelete(journalFile, rideId);
+                if (MetaDataJournal.needsCompaction(journalFile)) {
+                    writeMetaDataFile(context);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                writeMetaDataFile(context);
+            }
+        }
+        notifyListeners(rideId);
+    }
+
+    /**
+     * @return copies of the MetaData of all rides, ordered by ride id
+     */
+    public static synchronized List<MetaDataEntry> getMetaDataEntries(Context context) {
+        List<MetaDataEntry> metaDataEntries = new ArrayList<>(getCache(context).size());
+        for (MetaDataEntry metaDataEntry : getCache(context).values()) {
+            metaDataEntries.add(copy(metaDataEntry));
+        }
+        Collections.sort(metaDataEntries, (a, b) -> a.rideId.compareTo(b.rideId));
+        return metaDataEntries;
+    }
+
+    private static Map<Integer, MetaDataEntry> getCache(Context context) {
+        if (cache == null) {
+            cache = readMetaDataFiles(context);
+        }
+        return cache;
     }
 
-    public static MetaDataEntry getMetaDataEntryForRide(Integer rideId, Context context) {
+    /**
+     * Reads metaData.csv and applies the journal.
+     */
+    private static Map<Integer, MetaDataEntry> readMetaDataFiles(Context context) {
         File metaDataFile = IOUtils.Files.getMetaDataFile(context);
+        Map<Integer, MetaDataEntry> metaDataEntries = new HashMap<>();
         if (metaDataFile.exists()) {
             try (BufferedReader bufferedReader = new BufferedReader(new FileReader(metaDataFile))) {
                 // Skip first two line as they do only contain the Header
@@ -76,38 +172,56 @@ public class MetaData {
                 while ((line = bufferedReader.readLine()) != null) {
                     if (!line.trim().isEmpty()) {
                         MetaDataEntry metaDataEntry = MetaDataEntry.parseEntryFromLine(line);
-                        if (metaDataEntry.rideId.equals(rideId)) {
-                            return metaDataEntry;
-                        }
+                        metaDataEntries.put(metaDataEntry.rideId, metaDataEntry);
                     }
                 }
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
-        return null;
+        try {
+            MetaDataJournal.replay(IOUtils.Files.getMetaDataJournalFile(context), metaDataEntries);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return metaDataEntries;
     }
 
-    public static void updateOrAddMetaDataEntryForRide(MetaDataEntry metaDataEntry, Context context) {
-        MetaData metaData = loadMetaData(context);
-        metaData.metaDataEntries.put(metaDataEntry.rideId, metaDataEntry);
-        saveMetaData(metaData, context);
+    /**
+     * Writes the cached entries to metaData.csv and deletes the journal.
+     */
+    private static void writeMetaDataFile(Context context) {
+        StringBuilder metaDataString = new StringBuilder();
+        for (MetaDataEntry metaDataEntry : cache.values()) {
+            metaDataString.append(metaDataEntry.stringifyMetaDataEntry()).append(System.lineSeparator());
+        }
+        File newFile = IOUtils.Files.getMetaDataFile(context);
+        if (Utils.overwriteFile(IOUtils.Files.getFileInfoLine() + METADATA_HEADER + System.lineSeparator() + metaDataString, newFile)) {
+            // metaData.csv contains all changes now
+            IOUtils.Files.getMetaDataJournalFile(context).delete();
+        }
     }
 
-    public static void deleteMetaDataEntryForRide(int rideId, Context context) {
-        MetaData metaData = loadMetaData(context);
-        metaData.metaDataEntries.remove(rideId);
-        saveMetaData(metaData, context);
+    private static void notifyListeners(int rideId) {
+        for (OnMetaDataChangeListener listener : listeners) {
+            listener.onMetaDataChanged(rideId);
+        }
     }
 
-    public static List<MetaDataEntry> getMetaDataEntries(Context context) {
-        List<MetaDataEntry> metaDataEntries = new ArrayList<>();
-        Iterator<Map.Entry<Integer, MetaDataEntry>> iterator = loadMetaData(context).metaDataEntries.entrySet().iterator();
-        while (iterator.hasNext()) {
-            Map.Entry<Integer, MetaDataEntry> entry = iterator.next();
-            metaDataEntries.add(entry.getValue());
+    private static Map<Integer, MetaDataEntry> copy(Map<Integer, MetaDataEntry> metaDataEntries) {
+        Map<Integer, MetaDataEntry> copy = new HashMap<>();
+        for (MetaDataEntry metaDataEntry : metaDataEntries.values()) {
+            copy.put(metaDataEntry.rideId, copy(metaDataEntry));
         }
-        return metaDataEntries;
+        return copy;
+    }
+
+    /**
+     * The entries are mutable, so the cache hands out and stores copies.
+     */
+    private static MetaDataEntry copy(MetaDataEntry metaDataEntry) {
+        return new MetaDataEntry(metaDataEntry.rideId, metaDataEntry.startTime, metaDataEntry.endTime, metaDataEntry.state,
+                metaDataEntry.numberOfIncidents, metaDataEntry.waitedTime, metaDataEntry.distance, metaDataEntry.numberOfScaryIncidents, metaDataEntry.region);
     }
 
     public static class STATE {
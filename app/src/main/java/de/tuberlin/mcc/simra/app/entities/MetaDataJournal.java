@@ -0,0 +1,72 @@
+package de.tuberlin.mcc.simra.app.entities;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Changes of the MetaData which are not yet written to metaData.csv.
+ * <p>
+ * Instead of rewriting metaData.csv on every change, a record is appended to the journal:
+ * {@code U,<MetaDataEntry line>} for an added or updated ride, {@code D,<rideId>} for a deleted one.
+ * Reading replays the records in order onto the entries of metaData.csv. Once the journal gets
+ * longer than {@link #COMPACTION_SIZE}, MetaData writes all entries to metaData.csv and deletes the
+ * journal. See {@link JournalFile} for records cut off by a crash.
+ */
+public class MetaDataJournal {
+    /**
+     * Size in bytes from which on the journal is merged into metaData.csv, about 1000 records
+     */
+    public static final long COMPACTION_SIZE = 64 * 1024;
+    private static final char UPDATE = 'U';
+    private static final char DELETE = 'D';
+
+    public static void appendUpdate(File journalFile, MetaDataEntry metaDataEntry) throws IOException {
+        JournalFile.append(journalFile, UPDATE + "," + metaDataEntry.stringifyMetaDataEntry());
+    }
+
+    public static void appendDelete(File journalFile, int rideId) throws IOException {
+        JournalFile.append(journalFile, DELETE + "," + rideId);
+    }
+
+    /**
+     * @return whether the journal should be merged into metaData.csv
+     */
+    public static boolean needsCompaction(File journalFile) {
+        return journalFile.length() > COMPACTION_SIZE;
+    }
+
+    /**
+     * Applies the complete records of the journal to the entries.
+     *
+     * @return number of applied records
+     */
+    public static int replay(File journalFile, Map<Integer, MetaDataEntry> metaDataEntries) throws IOException {
+        int records = 0;
+        for (String record : JournalFile.readRecords(journalFile)) {
+            if (apply(record, metaDataEntries)) {
+                records++;
+            }
+        }
+        return records;
+    }
+
+    private static boolean apply(String record, Map<Integer, MetaDataEntry> metaDataEntries) {
+        if (record.length() < 3 || record.charAt(1) != ',') {
+            return false;
+        }
+        try {
+            if (record.charAt(0) == UPDATE) {
+                MetaDataEntry metaDataEntry = MetaDataEntry.parseEntryFromLine(record.substring(2));
+                metaDataEntries.put(metaDataEntry.rideId, metaDataEntry);
+                return true;
+            } else if (record.charAt(0) == DELETE) {
+                metaDataEntries.remove(Integer.parseInt(record.substring(2)));
+                return true;
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+}
@@ -0,0 +1,272 @@
+package de.tuberlin.mcc.simra.app.entities;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Raw sensor events of a ride at full rate, recorded additionally to the DataLog if activated
+ * in the settings (see {@link de.tuberlin.mcc.simra.app.util.SharedPref.Settings.Ride.RawSensorCapture}).
+ * <p>
+ * File format (little-endian): a header of {@link #HEADER_SIZE} bytes
+ * (int magic "SRAW", short version, short record size, long clock offset) followed by records of
+ * {@link #RECORD_SIZE} bytes (int sensor, long sensor timestamp in nanos, 4 float values, unused values are 0).
+ * The sensor is the index used by the {@link de.tuberlin.mcc.simra.app.services.SensorIngestion}.
+ * Sensor timestamp + clock offset = nanos since the epoch, the offset is the one the timestamps of
+ * the DataLog of the ride are computed with.
+ */
+public class RawSensorLog {
+    public static final int MAGIC = 'S' | 'R' << 8 | 'A' << 16 | 'W' << 24;
+    public static final short VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int VALUES_PER_RECORD = 4;
+    public static final int RECORD_SIZE = 4 + 8 + VALUES_PER_RECORD * 4;
+    public static final String CSV_HEADER = "sensor,timeStamp,sensorTimeStamp,v0,v1,v2,v3";
+    /**
+     * Names of the sensors in the CSV export, indexed like the SensorIngestion
+     */
+    private static final String[] SENSOR_NAMES = {"accelerometer", "gyroscope", "linearAccelerometer", "rotation"};
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Converts a raw sensor file into a CSV file with one line per record.
+     *
+     * @return number of exported records
+     */
+    public static long exportToCsv(File rawFile, File csvFile) throws IOException {
+        long records = 0;
+        try (Reader reader = new Reader(rawFile);
+             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(csvFile), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            writer.write(CSV_HEADER);
+            writer.write(System.lineSeparator());
+            StringBuilder line = new StringBuilder(128);
+            while (reader.next()) {
+                line.setLength(0);
+                int sensor = reader.getSensor();
+                line.append(sensor >= 0 && sensor < SENSOR_NAMES.length ? SENSOR_NAMES[sensor] : String.valueOf(sensor))
+                        .append(',').append(reader.getCurrentTimeMillis())
+                        .append(',').append(reader.getTimestampNanos());
+                for (int i = 0; i < VALUES_PER_RECORD; i++) {
+                    line.append(',').append(reader.getValue(i));
+                }
+                line.append(System.lineSeparator());
+                writer.write(line.toString());
+                records++;
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Cuts off the incomplete last record of a raw sensor file which was not closed, e.g. of a ride
+     * whose recording was interrupted.
+     *
+     * @return number of complete records
+     * @throws IOException if the file has no valid header, e.g. nothing was flushed before the crash
+     */
+    public static long recover(File rawFile) throws IOException {
+        long recordCount;
+        try (Reader reader = new Reader(rawFile)) {
+            recordCount = reader.getRecordCount();
+        }
+        try (RandomAccessFile file = new RandomAccessFile(rawFile, "rw")) {
+            file.setLength(HEADER_SIZE + recordCount * RECORD_SIZE);
+        }
+        return recordCount;
+    }
+
+    /**
+     * Appends records to a raw sensor file through a direct buffer. {@link #append} does not allocate.
+     * Not thread safe.
+     */
+    public static class Writer implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private long recordCount = 0;
+        private boolean headerWritten = false;
+
+        /**
+         * @param file             file to write, it is overwritten
+         * @param clockOffsetNanos offset from the sensor timestamps to nanos since the epoch, see
+         *                         {@link #setClockOffsetNanos(long)} if it is not known yet
+         */
+        public Writer(File file, long clockOffsetNanos) throws IOException {
+            channel = new FileOutputStream(file, false).getChannel();
+            buffer.putInt(MAGIC);
+            buffer.putShort(VERSION);
+            buffer.putShort((short) RECORD_SIZE);
+            buffer.putLong(clockOffsetNanos);
+        }
+
+        /**
+         * @param values     the first {@link #VALUES_PER_RECORD} of valueCount values are written
+         * @param valueCount number of valid entries in values
+         */
+        public void append(int sensor, long timestampNanos, float[] values, int valueCount) throws IOException {
+            if (buffer.remaining() < RECORD_SIZE) {
+                flush();
+            }
+            buffer.putInt(sensor);
+            buffer.putLong(timestampNanos);
+            for (int i = 0; i < VALUES_PER_RECORD; i++) {
+                buffer.putFloat(i < valueCount ? values[i] : 0F);
+            }
+            recordCount++;
+        }
+
+        public long getRecordCount() {
+            return recordCount;
+        }
+
+        /**
+         * Replaces the clock offset in the header, e.g. once it is derived from the first sensor timestamp.
+         * Does not allocate as long as the header was not flushed yet.
+         */
+        public void setClockOffsetNanos(long clockOffsetNanos) throws IOException {
+            if (!headerWritten) {
+                buffer.putLong(8, clockOffsetNanos);
+                return;
+            }
+            ByteBuffer offset = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            offset.putLong(0, clockOffsetNanos);
+            while (offset.hasRemaining()) {
+                channel.write(offset, 8 + offset.position());
+            }
+        }
+
+        /**
+         * Writes the buffered records to the file.
+         */
+        public void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+            headerWritten = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel.isOpen()) {
+                try {
+                    flush();
+                } finally {
+                    channel.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the records of a raw sensor file one after the other. An incomplete last record
+     * (e.g. after a crash) is ignored. Not thread safe.
+     */
+    public static class Reader implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private final long clockOffsetNanos;
+        private final long recordCount;
+        private final float[] values = new float[VALUES_PER_RECORD];
+        private int sensor;
+        private long timestampNanos;
+
+        public Reader(File file) throws IOException {
+            channel = new FileInputStream(file).getChannel();
+            try {
+                buffer.limit(0);
+                if (!fill(HEADER_SIZE)) {
+                    throw new EOFException("raw sensor file too short: " + file);
+                }
+                int magic = buffer.getInt();
+                short version = buffer.getShort();
+                short recordSize = buffer.getShort();
+                if (magic != MAGIC || version != VERSION || recordSize != RECORD_SIZE) {
+                    throw new IOException("unsupported raw sensor file: " + file);
+                }
+                clockOffsetNanos = buffer.getLong();
+                recordCount = (channel.size() - HEADER_SIZE) / RECORD_SIZE;
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * @return number of complete records in the file
+         */
+        public long getRecordCount() {
+            return recordCount;
+        }
+
+        public long getClockOffsetNanos() {
+            return clockOffsetNanos;
+        }
+
+        /**
+         * Moves to the next record.
+         *
+         * @return false if there are no more records
+         */
+        public boolean next() throws IOException {
+            if (!fill(RECORD_SIZE)) {
+                return false;
+            }
+            sensor = buffer.getInt();
+            timestampNanos = buffer.getLong();
+            for (int i = 0; i < VALUES_PER_RECORD; i++) {
+                values[i] = buffer.getFloat();
+            }
+            return true;
+        }
+
+        public int getSensor() {
+            return sensor;
+        }
+
+        public long getTimestampNanos() {
+            return timestampNanos;
+        }
+
+        public long getCurrentTimeMillis() {
+            return (timestampNanos + clockOffsetNanos) / 1_000_000L;
+        }
+
+        public float getValue(int index) {
+            return values[index];
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        /**
+         * Makes sure at least count bytes are in the buffer.
+         */
+        private boolean fill(int count) throws IOException {
+            if (buffer.remaining() >= count) {
+                return true;
+            }
+            buffer.compact();
+            while (buffer.position() < count) {
+                if (channel.read(buffer) < 0) {
+                    buffer.flip();
+                    return false;
+                }
+            }
+            buffer.flip();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,525 @@
+package de.tuberlin.mcc.simra.app.entities;
+
+import android.content.Context;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+import de.tuberlin.mcc.simra.app.util.IOUtils;
+
+/**
+ * Catalog of the files of all rides in the base folder, with size, last modified time and CRC32 of
+ * every file, so that the files of a ride are found without listing the folder and parsing file names.
+ * <p>
+ * The catalog is loaded on first access and kept in memory. It is saved to rideCatalog.csv, changes
+ * are appended to rideCatalog.journal like {@link MetaDataJournal}. If neither exists, the catalog is
+ * rebuilt from the folder. The writers of ride files report their files with {@link #recordFile(File)}
+ * and {@link #forgetFile(File)} while the catalog is loaded; {@link #check(Context)} corrects anything
+ * else, e.g. files written by a service before the catalog was loaded, and runs on app start.
+ * Files are hashed without holding the lock of RideCatalog, so that reading the catalog does not
+ * wait for a check.
+ * The ride state is not kept here, it is in {@link MetaData}.
+ */
+public class RideCatalog {
+    public static final String RIDE_CATALOG_HEADER = "rideId,name,size,lastModified,crc32";
+    public static final String FILE_NAME = "rideCatalog.csv";
+    public static final String JOURNAL_FILE_NAME = "rideCatalog.journal";
+    /**
+     * Size in bytes from which on the journal is merged into rideCatalog.csv
+     */
+    public static final long COMPACTION_SIZE = 64 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final char UPDATE = 'U';
+    private static final char DELETE = 'D';
+
+    // rideId -> file name -> entry, loaded on first access
+    private static Map<Integer, Map<String, FileEntry>> cache = null;
+    private static File cacheFolder = null;
+    // hashes the files reported by recordFileInBackground
+    private static final ExecutorService recorder = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "RideCatalog");
+        // a file which is not recorded before the process ends is found by the next check
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public static class FileEntry {
+        public final int rideId;
+        public final String name;
+        public final long size;
+        public final long lastModified;
+        public final long crc32;
+
+        public FileEntry(int rideId, String name, long size, long lastModified, long crc32) {
+            this.rideId = rideId;
+            this.name = name;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.crc32 = crc32;
+        }
+
+        public static FileEntry parseEntryFromLine(String line) {
+            String[] values = line.split(",", -1);
+            return new FileEntry(Integer.parseInt(values[0]), values[1], Long.parseLong(values[2]), Long.parseLong(values[3]), Long.parseLong(values[4]));
+        }
+
+        public String stringifyFileEntry() {
+            return rideId + "," + name + "," + size + "," + lastModified + "," + crc32;
+        }
+
+        /**
+         * @return whether the file still has the size and modification time of this entry
+         */
+        public boolean matches(File file) {
+            return file.length() == size && file.lastModified() == lastModified;
+        }
+    }
+
+    /**
+     * @return the ids of all rides with files, in ascending order
+     */
+    public static List<Integer> getRideIds(Context context) {
+        Map<Integer, Map<String, FileEntry>> catalog = getCache(getFolder(context));
+        List<Integer> rideIds;
+        synchronized (RideCatalog.class) {
+            rideIds = new ArrayList<>(catalog.keySet());
+        }
+        Collections.sort(rideIds);
+        return rideIds;
+    }
+
+    public static boolean hasRide(int rideId, Context context) {
+        Map<Integer, Map<String, FileEntry>> catalog = getCache(getFolder(context));
+        synchronized (RideCatalog.class) {
+            return catalog.containsKey(rideId);
+        }
+    }
+
+    /**
+     * @return the entries of the files of the ride, ordered by name, empty if the ride has no files
+     */
+    public static List<FileEntry> getFileEntries(int rideId, Context context) {
+        Map<Integer, Map<String, FileEntry>> catalog = getCache(getFolder(context));
+        synchronized (RideCatalog.class) {
+            Map<String, FileEntry> files = catalog.get(rideId);
+            return files != null ? new ArrayList<>(files.values()) : new ArrayList<>();
+        }
+    }
+
+    /**
+     * @return the files of the ride, ordered by name
+     */
+    public static List<File> getFiles(int rideId, Context context) {
+        File folder = getFolder(context);
+        List<File> files = new ArrayList<>();
+        for (FileEntry fileEntry : getFileEntries(rideId, context)) {
+            files.add(new File(folder, fileEntry.name));
+        }
+        return files;
+    }
+
+    /**
+     * Deletes all files of the ride and removes it from the catalog.
+     *
+     * @return the files which could not be deleted
+     */
+    public static List<File> deleteRide(int rideId, Context context) {
+        List<File> files = getFiles(rideId, context);
+        List<File> remainingFiles = new ArrayList<>();
+        synchronized (RideCatalog.class) {
+            for (File file : files) {
+                if (file.delete() || !file.exists()) {
+                    forgetFile(file);
+                } else {
+                    remainingFiles.add(file);
+                }
+            }
+        }
+        return remainingFiles;
+    }
+
+    /**
+     * Compares the catalog with the base folder and corrects it, e.g. on app start.
+     *
+     * @return number of corrected files
+     */
+    public static int check(Context context) {
+        return check(getFolder(context));
+    }
+
+    static int check(File folder) {
+        Map<Integer, Map<String, FileEntry>> catalog = getCache(folder);
+        Map<String, FileEntry> knownEntries = new HashMap<>();
+        synchronized (RideCatalog.class) {
+            for (Map<String, FileEntry> rideFiles : catalog.values()) {
+                knownEntries.putAll(rideFiles);
+            }
+        }
+        Map<String, FileEntry> fileEntries = hash(folder, knownEntries);
+        synchronized (RideCatalog.class) {
+            if (!isLoadedFor(folder)) {
+                // invalidated meanwhile, the next check corrects the reloaded catalog
+                return 0;
+            }
+            return update(folder, fileEntries);
+        }
+    }
+
+    /**
+     * Corrects the catalog like {@link #check(Context)} and saves it to rideCatalog.csv without a
+     * journal, e.g. before it is exported.
+     */
+    public static void checkAndCompact(Context context) {
+        File folder = getFolder(context);
+        check(folder);
+        synchronized (RideCatalog.class) {
+            if (isLoadedFor(folder)) {
+                writeCatalogFile();
+            }
+        }
+    }
+
+    /**
+     * Drops the catalog in memory, e.g. after the files were replaced by an import.
+     */
+    public static synchronized void invalidate() {
+        cache = null;
+        cacheFolder = null;
+    }
+
+    /**
+     * Records a ride file which was just written. Does nothing for other files or if the catalog
+     * is not loaded, {@link #check(Context)} finds the file then.
+     */
+    public static void recordFile(File file) {
+        int rideId = rideIdOf(file.getName());
+        if (rideId < 0 || !isLoadedFor(file.getParentFile())) {
+            return;
+        }
+        FileEntry fileEntry;
+        try {
+            fileEntry = createEntry(rideId, file);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        synchronized (RideCatalog.class) {
+            if (isLoadedFor(file.getParentFile())) {
+                put(cache, fileEntry);
+                append(UPDATE + "," + fileEntry.stringifyFileEntry());
+            }
+        }
+    }
+
+    /**
+     * Like {@link #recordFile(File)}, but reads the file for its CRC32 on a background thread, so
+     * that neither the StorageExecutor thread nor the main thread, e.g. when a ride is finished,
+     * reads a whole ride file a second time.
+     */
+    public static void recordFileInBackground(File file) {
+        if (rideIdOf(file.getName()) < 0 || !isLoadedFor(file.getParentFile())) {
+            return;
+        }
+        recorder.execute(() -> recordFile(file));
+    }
+
+    /**
+     * Removes a ride file which was deleted from the catalog.
+     */
+    public static synchronized void forgetFile(File file) {
+        int rideId = rideIdOf(file.getName());
+        if (rideId < 0 || !isLoadedFor(file.getParentFile())) {
+            return;
+        }
+        if (remove(cache, rideId, file.getName())) {
+            append(DELETE + "," + file.getName());
+        }
+    }
+
+    /**
+     * @return the ride of a file in the base folder, -1 if it is not a file of a finished ride
+     */
+    static int rideIdOf(String name) {
+        if (name.endsWith(".tmp")) {
+            return -1;
+        }
+        if (name.startsWith("accEvents")) {
+            return parseRideId(name, "accEvents".length(), name.indexOf('.'));
+        } else if (name.startsWith("rawSensors")) {
+            return parseRideId(name, "rawSensors".length(), name.indexOf('.'));
+        }
+        return parseRideId(name, 0, name.indexOf('_'));
+    }
+
+    private static int parseRideId(String name, int start, int end) {
+        if (end <= start || end - start > 9) {
+            return -1;
+        }
+        for (int i = start; i < end; i++) {
+            if (name.charAt(i) < '0' || name.charAt(i) > '9') {
+                return -1;
+            }
+        }
+        return Integer.parseInt(name.substring(start, end));
+    }
+
+    static FileEntry createEntry(int rideId, File file) throws IOException {
+        // size and modification time before reading, so that a concurrent change is found by the next check
+        long size = file.length();
+        long lastModified = file.lastModified();
+        CRC32 crc32 = new CRC32();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                crc32.update(buffer, 0, read);
+            }
+        }
+        return new FileEntry(rideId, file.getName(), size, lastModified, crc32.getValue());
+    }
+
+    /**
+     * Loads the catalog if needed. Must not be called while holding the lock of RideCatalog, as on
+     * first run the files are hashed without it.
+     */
+    static Map<Integer, Map<String, FileEntry>> getCache(File folder) {
+        synchronized (RideCatalog.class) {
+            if (isLoadedFor(folder)) {
+                return cache;
+            }
+            if (new File(folder, FILE_NAME).exists() || new File(folder, JOURNAL_FILE_NAME).exists()) {
+                cache = new HashMap<>();
+                cacheFolder = folder;
+                read(folder, cache);
+                return cache;
+            }
+        }
+        // first run: rebuild from the folder
+        Map<String, FileEntry> fileEntries = hash(folder, new HashMap<>());
+        synchronized (RideCatalog.class) {
+            if (!isLoadedFor(folder)) {
+                cache = new HashMap<>();
+                cacheFolder = folder;
+                update(folder, fileEntries);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Reads a saved catalog, e.g. of an imported archive, without loading it.
+     *
+     * @return the entries by file name, empty if there is no catalog in the folder
+     */
+    public static Map<String, FileEntry> readCatalog(File folder) {
+        Map<Integer, Map<String, FileEntry>> catalog = new HashMap<>();
+        read(folder, catalog);
+        Map<String, FileEntry> fileEntries = new HashMap<>();
+        for (Map<String, FileEntry> rideFiles : catalog.values()) {
+            fileEntries.putAll(rideFiles);
+        }
+        return fileEntries;
+    }
+
+    private static void read(File folder, Map<Integer, Map<String, FileEntry>> catalog) {
+        File catalogFile = new File(folder, FILE_NAME);
+        if (catalogFile.exists()) {
+            try (BufferedReader bufferedReader = new BufferedReader(new FileReader(catalogFile))) {
+                // skip RIDE_CATALOG_HEADER
+                String line = bufferedReader.readLine();
+                while ((line = bufferedReader.readLine()) != null) {
+                    if (!line.trim().isEmpty()) {
+                        put(catalog, FileEntry.parseEntryFromLine(line));
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        try {
+            for (String record : JournalFile.readRecords(new File(folder, JOURNAL_FILE_NAME))) {
+                apply(catalog, record);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Hashes the ride files in the folder which are not in the known entries or changed since. Runs
+     * without the lock of RideCatalog, so that reading the catalog does not wait for it.
+     *
+     * @return the new entries by file name
+     */
+    private static Map<String, FileEntry> hash(File folder, Map<String, FileEntry> knownEntries) {
+        Map<String, FileEntry> fileEntries = new HashMap<>();
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return fileEntries;
+        }
+        for (File file : files) {
+            int rideId = rideIdOf(file.getName());
+            if (rideId < 0 || !file.isFile()) {
+                continue;
+            }
+            FileEntry knownEntry = knownEntries.get(file.getName());
+            if (knownEntry == null || !knownEntry.matches(file)) {
+                try {
+                    fileEntries.put(file.getName(), createEntry(rideId, file));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return fileEntries;
+    }
+
+    /**
+     * Brings the catalog in line with the files in the folder, using the entries from
+     * {@link #hash(File, Map)}, and saves it if anything changed. A file which changed after it was
+     * hashed is recorded by its writer or found by the next check.
+     */
+    private static int update(File folder, Map<String, FileEntry> fileEntries) {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        int changes = 0;
+        Set<String> names = new HashSet<>();
+        for (File file : files) {
+            int rideId = rideIdOf(file.getName());
+            if (rideId < 0 || !file.isFile()) {
+                continue;
+            }
+            names.add(file.getName());
+            Map<String, FileEntry> rideFiles = cache.get(rideId);
+            FileEntry fileEntry = rideFiles != null ? rideFiles.get(file.getName()) : null;
+            FileEntry hashedEntry = fileEntries.get(file.getName());
+            if ((fileEntry == null || !fileEntry.matches(file)) && hashedEntry != null && hashedEntry.matches(file)) {
+                put(cache, hashedEntry);
+                changes++;
+            }
+        }
+        for (Map<String, FileEntry> rideFiles : new ArrayList<>(cache.values())) {
+            for (FileEntry fileEntry : new ArrayList<>(rideFiles.values())) {
+                if (!names.contains(fileEntry.name)) {
+                    remove(cache, fileEntry.rideId, fileEntry.name);
+                    changes++;
+                }
+            }
+        }
+        if (changes > 0 || !new File(folder, FILE_NAME).exists()) {
+            writeCatalogFile();
+        }
+        return changes;
+    }
+
+    private static boolean isLoadedFor(File folder) {
+        synchronized (RideCatalog.class) {
+            return cache != null && folder != null && cacheFolder.equals(folder);
+        }
+    }
+
+    private static void put(Map<Integer, Map<String, FileEntry>> catalog, FileEntry fileEntry) {
+        Map<String, FileEntry> rideFiles = catalog.get(fileEntry.rideId);
+        if (rideFiles == null) {
+            rideFiles = new TreeMap<>();
+            catalog.put(fileEntry.rideId, rideFiles);
+        }
+        rideFiles.put(fileEntry.name, fileEntry);
+    }
+
+    private static boolean remove(Map<Integer, Map<String, FileEntry>> catalog, int rideId, String name) {
+        Map<String, FileEntry> rideFiles = catalog.get(rideId);
+        if (rideFiles == null || rideFiles.remove(name) == null) {
+            return false;
+        }
+        if (rideFiles.isEmpty()) {
+            catalog.remove(rideId);
+        }
+        return true;
+    }
+
+    private static void apply(Map<Integer, Map<String, FileEntry>> catalog, String record) {
+        if (record.length() < 3 || record.charAt(1) != ',') {
+            return;
+        }
+        try {
+            if (record.charAt(0) == UPDATE) {
+                put(catalog, FileEntry.parseEntryFromLine(record.substring(2)));
+            } else if (record.charAt(0) == DELETE) {
+                String name = record.substring(2);
+                remove(catalog, rideIdOf(name), name);
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Appends to the journal on the calling thread: the files of the catalog are only written while
+     * holding the lock of RideCatalog, and the StorageExecutor thread takes that lock to report the
+     * files it wrote, so waiting for it here could deadlock.
+     */
+    private static void append(String record) {
+        File journalFile = new File(cacheFolder, JOURNAL_FILE_NAME);
+        try {
+            JournalFile.appendDirectly(journalFile, record);
+            if (journalFile.length() > COMPACTION_SIZE) {
+                writeCatalogFile();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            writeCatalogFile();
+        }
+    }
+
+    /**
+     * Writes the catalog to rideCatalog.csv and deletes the journal, on the calling thread like
+     * {@link #append(String)}.
+     */
+    private static void writeCatalogFile() {
+        File catalogFile = new File(cacheFolder, FILE_NAME);
+        File tempFile = new File(cacheFolder, FILE_NAME + ".tmp");
+        StringBuilder content = new StringBuilder(RIDE_CATALOG_HEADER).append(System.lineSeparator());
+        for (Map<String, FileEntry> rideFiles : cache.values()) {
+            for (FileEntry fileEntry : rideFiles.values()) {
+                content.append(fileEntry.stringifyFileEntry()).append(System.lineSeparator());
+            }
+        }
+        try (FileOutputStream out = new FileOutputStream(tempFile, false)) {
+            out.write(content.toString().getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        } catch (IOException e) {
+            e.printStackTrace();
+            tempFile.delete();
+            return;
+        }
+        if (tempFile.renameTo(catalogFile)) {
+            new File(cacheFolder, JOURNAL_FILE_NAME).delete();
+        } else {
+            tempFile.delete();
+        }
+    }
+
+    private static File getFolder(Context context) {
+        return new File(IOUtils.Directories.getBaseFolderPath(context));
+    }
+}
@@ -0,0 +1,96 @@
+package de.tuberlin.mcc.simra.app.entities;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * State of a ride which is currently being recorded, written periodically by the RecorderService
+ * next to the temporary DataLog (see {@link DataLogWriter}). If the app is killed during a ride,
+ * the journal and the temporary DataLog are turned into a normal ride on the next start.
+ * <p>
+ * File format: a header line and a value line with the ride state, followed by the IncidentLog
+ * of the ride as it is written to its events file.
+ */
+public class RideJournal {
+    public final static String RIDE_JOURNAL_HEADER = "key,startTime,endTime,waitedTime,distance,region";
+    public final static String FILE_SUFFIX = ".journal";
+
+    public final int rideId;
+    public final long startTime;
+    public final long endTime;
+    public final long waitedTime;
+    public final long distance;
+    public final int region;
+    /**
+     * Content of the events file (see {@link IncidentLog#toString()}), may be empty
+     */
+    public final String incidentLog;
+
+    public RideJournal(int rideId, long startTime, long endTime, long waitedTime, long distance, int region, String incidentLog) {
+        this.rideId = rideId;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.waitedTime = waitedTime;
+        this.distance = distance;
+        this.region = region;
+        this.incidentLog = incidentLog != null ? incidentLog : "";
+    }
+
+    public MetaDataEntry toMetaDataEntry() {
+        return new MetaDataEntry(rideId, startTime, endTime, MetaData.STATE.JUST_RECORDED, 0, waitedTime, distance, 0, region);
+    }
+
+    /**
+     * Replaces the journal file atomically: the content is written to a temporary file, synced
+     * to the storage device and then renamed. So the journal file is always either the old or the
+     * new complete version.
+     */
+    public void write(File journalFile) throws IOException {
+        File tempFile = new File(journalFile.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tempFile, false)) {
+            out.write(stringify().getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            out.getFD().sync();
+        }
+        if (!tempFile.renameTo(journalFile)) {
+            tempFile.delete();
+            throw new IOException("could not rename " + tempFile + " to " + journalFile);
+        }
+    }
+
+    public static RideJournal read(File journalFile) throws IOException {
+        byte[] bytes;
+        try (RandomAccessFile file = new RandomAccessFile(journalFile, "r")) {
+            bytes = new byte[(int) file.length()];
+            file.readFully(bytes);
+        }
+        String content = new String(bytes, StandardCharsets.UTF_8);
+        String[] parts = content.split("\n", 3);
+        if (parts.length < 2 || !parts[0].trim().equals(RIDE_JOURNAL_HEADER)) {
+            throw new IOException("invalid ride journal " + journalFile);
+        }
+        String[] values = parts[1].trim().split(",", -1);
+        try {
+            return new RideJournal(
+                    Integer.parseInt(values[0]),
+                    Long.parseLong(values[1]),
+                    Long.parseLong(values[2]),
+                    Long.parseLong(values[3]),
+                    Long.parseLong(values[4]),
+                    Integer.parseInt(values[5]),
+                    parts.length > 2 ? parts[2] : ""
+            );
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            throw new IOException("invalid ride journal " + journalFile, e);
+        }
+    }
+
+    private String stringify() {
+        return RIDE_JOURNAL_HEADER + "\n"
+                + rideId + "," + startTime + "," + endTime + "," + waitedTime + "," + distance + "," + region + "\n"
+                + incidentLog;
+    }
+}
@@ -8,9 +8,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.SharedPreferences;
-import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.location.Location;
 import android.location.LocationListener;
@@ -20,6 +17,7 @@ import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.PowerManager;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
@@ -27,72 +25,100 @@ import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import org.osmdroid.util.GeoPoint;
 import org.osmdroid.views.overlay.Polyline;
 
+import java.io.IOException;
 import java.io.Serializable;
-import java.util.Collection;
+import java.util.ArrayDeque;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
-import java.util.Queue;
+import java.util.Map;
 
 import de.tuberlin.mcc.simra.app.R;
 import de.tuberlin.mcc.simra.app.entities.DataLog;
 import de.tuberlin.mcc.simra.app.entities.DataLogEntry;
+import de.tuberlin.mcc.simra.app.entities.DataLogWriter;
 import de.tuberlin.mcc.simra.app.entities.IncidentLog;
 import de.tuberlin.mcc.simra.app.entities.IncidentLogEntry;
 import de.tuberlin.mcc.simra.app.entities.MetaData;
 import de.tuberlin.mcc.simra.app.entities.MetaDataEntry;
+import de.tuberlin.mcc.simra.app.entities.RawSensorLog;
+import de.tuberlin.mcc.simra.app.entities.RideCatalog;
+import de.tuberlin.mcc.simra.app.entities.RideJournal;
 import de.tuberlin.mcc.simra.app.util.Constants;
+import de.tuberlin.mcc.simra.app.util.FloatRingBuffer;
 import de.tuberlin.mcc.simra.app.util.ForegroundServiceNotificationManager;
 import de.tuberlin.mcc.simra.app.util.IOUtils;
 import de.tuberlin.mcc.simra.app.util.IncidentBroadcaster;
+import de.tuberlin.mcc.simra.app.util.OBSDistanceBuffer;
+import de.tuberlin.mcc.simra.app.util.RecordingHealth;
+import de.tuberlin.mcc.simra.app.util.SensorResampler;
 import de.tuberlin.mcc.simra.app.util.SharedPref;
 import de.tuberlin.mcc.simra.app.util.UnitHelper;
+import de.tuberlin.mcc.simra.app.util.UpdateHelper;
+import de.tuberlin.mcc.simra.app.util.Utils;
 
 import static de.tuberlin.mcc.simra.app.services.OBSService.ACTION_VALUE_RECEIVED_CLOSEPASS_EVENT;
 import static de.tuberlin.mcc.simra.app.services.OBSService.ACTION_VALUE_RECEIVED_DISTANCE;
 import static de.tuberlin.mcc.simra.app.services.OBSService.EXTRA_VALUE_SERIALIZED;
 import static de.tuberlin.mcc.simra.app.util.SharedPref.lookUpIntSharedPrefs;
-import static de.tuberlin.mcc.simra.app.util.Utils.mergeGPSandSensorLines;
-import static de.tuberlin.mcc.simra.app.util.Utils.overwriteFile;
 
-public class RecorderService extends Service implements SensorEventListener, LocationListener {
+public class RecorderService extends Service implements LocationListener {
     public static final String TAG = "RecorderService_LOG:";
+    // Resampled slots are not made up across gaps of the accelerometer longer than this
+    private static final int MAX_SENSOR_GAP_SLOTS = 5;
+    // How long a slot waits for lagging sensors
+    private static final long MAX_SENSOR_DELAY_NANOS = 1_000_000_000L;
+    private static final long MAX_SENSOR_TIMESTAMP_AGE_NANOS = 10_000_000_000L;
+    // Battery saver: sample every 10 ms and let the hardware batch the events for up to 5 s
+    private static final int BATCHING_SAMPLING_PERIOD_US = 10_000;
+    private static final int BATCHING_MAX_REPORT_LATENCY_US = 5_000_000;
+    // Locations kept to find the location at the time of a line, when lines are built from delayed batches
+    private static final int RECENT_LOCATIONS = 16;
+    // The OBS sends a distance every 50 ms, this keeps about 25 s
+    private static final int OBS_BUFFER_CAPACITY = 512;
+    // A line gets the distance measured closest to its time, if it is at most this many millisecs away
+    private static final long OBS_MAX_TIME_DIFFERENCE = 100;
+    // Time between two lines in millisecs
+    private static final long LINE_INTERVAL = Constants.MVG_AVG_STEP * Constants.SENSOR_RESAMPLING_PERIOD;
+    // Time between two syncs of the DataLog and the ride journal to the storage in millisecs
+    private static final long JOURNAL_SYNC_INTERVAL = 10_000;
+    // Key of the ride being recorded, so that its journal is not recovered while recording
+    private static volatile Integer recordingRideKey = null;
     long startTime = 0;
     long endTime;
-    float[] accelerometerMatrix = new float[3];
-    float[] gyroscopeMatrix = new float[3];
-    float[] linearAccelerometerMatrix = new float[3];
-    float[] rotationMatrix = new float[5];
-    Location lastLocation;
+    volatile Location lastLocation;
     Polyline route = new Polyline();
     Handler recordingStarterHandler = new Handler();
-    Handler recordingHandler = new Handler();
+    // Runs on the sensor ingestion thread, see SensorIngestion
+    Handler recordingHandler;
     long waitedTime = 0;
-    long lastHandlerStart = 0;
     //~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
     // Strings for storing data to enable continued use by other activities
     //~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
-    Queue<Float> accelerometerQueueX = new LinkedList<>();
-    Queue<Float> accelerometerQueueY = new LinkedList<>();
-    Queue<Float> accelerometerQueueZ = new LinkedList<>();
-    Queue<Float> linearAccelerometerQueueX = new LinkedList<>();
-    Queue<Float> linearAccelerometerQueueY = new LinkedList<>();
-    Queue<Float> linearAccelerometerQueueZ = new LinkedList<>();
-    Queue<Float> rotationQueueX = new LinkedList<>();
-    Queue<Float> rotationQueueY = new LinkedList<>();
-    Queue<Float> rotationQueueZ = new LinkedList<>();
-    Queue<Float> rotationQueueC = new LinkedList<>();
+    FloatRingBuffer accelerometerBuffer = new FloatRingBuffer(3, Constants.MVG_AVG_WINDOW);
+    FloatRingBuffer linearAccelerometerBuffer = new FloatRingBuffer(3, Constants.MVG_AVG_WINDOW);
+    FloatRingBuffer rotationBuffer = new FloatRingBuffer(4, Constants.MVG_AVG_WINDOW);
     SharedPreferences sharedPrefs;
     SharedPreferences.Editor editor;
     Location startLocation;
     // OpenBikeSensor
-    private final LinkedList<OBSService.Measurement> lastOBSDistanceValues = new LinkedList<>();
+    // Left distances by receive time (the OBS clock differs from ours), only accessed on the recording thread
+    private final OBSDistanceBuffer obsDistanceBuffer = new OBSDistanceBuffer(OBS_BUFFER_CAPACITY);
     private final LinkedList<OBSService.ClosePassEvent> lastOBSClosePassEvents = new LinkedList<>();
     private LocationManager locationManager;
-    private Sensor accelerometer;
-    private Sensor gyroscope;
-    private Sensor linearAccelerometer;
-    private Sensor rotation;
-    private int key;
+    private SensorIngestion sensorIngestion;
+    // Resamples the sensor events to the grid the lines are built from, only accessed on the recording thread
+    private SensorResampler sensorResampler;
+    // Offset from the sensor timestamps to System.currentTimeMillis() in nanos
+    private long sensorClockOffsetNanos = Long.MIN_VALUE;
+    private boolean batterySaver;
+    private boolean rawSensorCapture;
+    // Writes every sensor event if raw sensor capture is activated, only accessed on the recording thread
+    private RawSensorLog.Writer rawSensorWriter = null;
+    // Only accessed on the recording thread
+    private final ArrayDeque<Location> recentLocations = new ArrayDeque<>();
+    // Taken on the recording thread when the service starts, see takeRideKey()
+    private volatile int key;
     private long lastPictureTaken = 0;
     private Integer incidentDuringRide = null;
     private final BroadcastReceiver openBikeSensorMessageReceiverDistanceValue = new BroadcastReceiver() {
@@ -100,8 +126,15 @@ public class RecorderService extends Service implements SensorEventListener, Loc
         public void onReceive(Context context, Intent intent) {
             Serializable serializable = intent.getSerializableExtra(EXTRA_VALUE_SERIALIZED);
 
-            if (serializable instanceof OBSService.Measurement) {
-                lastOBSDistanceValues.add((OBSService.Measurement) serializable);
+            if (serializable instanceof OBSService.Measurement && !((OBSService.Measurement) serializable).leftSensorValues.isEmpty()) {
+                long receivedAt = System.currentTimeMillis();
+                int leftDistance = ((OBSService.Measurement) serializable).leftSensorValues.get(0);
+                // hand over to the recording thread, which owns the buffer
+                recordingHandler.post(() -> {
+                    if (dataLogWriter != null) {
+                        obsDistanceBuffer.add(receivedAt, leftDistance);
+                    }
+                });
             }
         }
     };
@@ -111,7 +144,8 @@ public class RecorderService extends Service implements SensorEventListener, Loc
             Serializable serializable = intent.getSerializableExtra(EXTRA_VALUE_SERIALIZED);
 
             if (serializable instanceof OBSService.ClosePassEvent) {
-                lastOBSClosePassEvents.add((OBSService.ClosePassEvent) serializable);
+                // hand over to the recording thread, which owns the queue
+                recordingHandler.post(() -> lastOBSClosePassEvents.add((OBSService.ClosePassEvent) serializable));
             }
         }
     };
@@ -126,13 +160,25 @@ public class RecorderService extends Service implements SensorEventListener, Loc
     private long privacyDuration;
     private boolean lineAdded;
     private long lastGPSUpdate = 0;
-    private SensorManager sensorManager = null;
     private PowerManager.WakeLock wakeLock = null;
     private final IBinder mBinder = new MyBinder();
-    private String accGpsString = "";
-    private Queue<DataLogEntry> gpsLines = new LinkedList<>();
-    private Queue<DataLogEntry> sensorLines = new LinkedList<>();
+    // Streams the recorded lines to disk during the ride, only accessed on the recording thread
+    private DataLogWriter dataLogWriter = null;
+    // Created by takeRideKey(), only accessed on the recording thread
     private IncidentLog incidentLog = null;
+    private int region;
+    // Only accessed on the recording thread
+    private long lastJournalSync = 0;
+    // Written on the recording thread, can be read from any thread
+    private final RecordingHealth recordingHealth = new RecordingHealth();
+
+    /**
+     * @return whether the ride is being recorded right now, so its files must not be touched
+     */
+    public static boolean isRecordingRide(int rideId) {
+        Integer recordingRideKey = RecorderService.recordingRideKey;
+        return recordingRideKey != null && recordingRideKey == rideId;
+    }
 
     public int getCurrentRideKey() {
         return key;
@@ -146,34 +192,33 @@ public class RecorderService extends Service implements SensorEventListener, Loc
         return recordingAllowed;
     }
 
+    public boolean isBatterySaverActive() {
+        return batterySaver;
+    }
 
-    //~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
-    // SensorEventListener Methods
-    //~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
-
-    @Override
-    public void onSensorChanged(SensorEvent event) {
-        if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
-            /**/accelerometerMatrix = event.values;/**/
-        } else if (event.sensor.getType() == Sensor.TYPE_GYROSCOPE) {
-            /**/gyroscopeMatrix = event.values;/**/
-        } else if (event.sensor.getType() == Sensor.TYPE_LINEAR_ACCELERATION) {
+    /**
+     * @return number of sensor events received during this ride
+     */
+    public long getSensorEventCount() {
+        return sensorIngestion.getEventCount();
+    }
 
-            /**/linearAccelerometerMatrix = event.values;/**/
+    /**
+     * @return number of times the sensor events were delivered (woke up the recording thread) during this ride
+     */
+    public long getSensorWakeupCount() {
+        return sensorIngestion.getDeliveryCount();
+    }
 
-        } else if (event.sensor.getType() == Sensor.TYPE_ROTATION_VECTOR) {
-            rotationMatrix = event.values;
-        }
+    public RecordingHealth getRecordingHealth() {
+        return recordingHealth;
     }
 
+
     //~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
     // LocationListener Methods
     //~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
 
-    @Override
-    public void onAccuracyChanged(Sensor sensor, int accuracy) {
-    }
-
     @Override
     public void onLocationChanged(Location location) {
         // Set start location. Important for privacy distance.
@@ -181,6 +226,15 @@ public class RecorderService extends Service implements SensorEventListener, Loc
             startLocation = location;
         }
         lastLocation = location;
+        if (batterySaver) {
+            recordingHandler.post(() -> {
+                recentLocations.addLast(location);
+                if (recentLocations.size() > RECENT_LOCATIONS) {
+                    recentLocations.removeFirst();
+                }
+            });
+        }
+        checkPrivacyGate();
     }
 
     @Override
@@ -212,12 +266,25 @@ public class RecorderService extends Service implements SensorEventListener, Loc
         takePictureDuringRideInterval = SharedPref.Settings.Ride.PicturesDuringRideInterval.getInterval(this);
         safetyDistanceWithTolerances = SharedPref.Settings.Ride.OvertakeWidth.getWidth(this);
 
-        // Prepare the sensors for accGpsFile
-        sensorManager = (SensorManager) getSystemService(SENSOR_SERVICE);
-        accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-        gyroscope = sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
-        linearAccelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_LINEAR_ACCELERATION);
-        rotation = sensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR);
+        // Prepare the sensors for accGpsFile. Sensor events and the recording itself are
+        // handled on the sensor ingestion thread instead of the main thread.
+        sensorIngestion = new SensorIngestion((SensorManager) getSystemService(SENSOR_SERVICE));
+        recordingHandler = sensorIngestion.getHandler();
+        batterySaver = SharedPref.Settings.Ride.BatterySaver.isEnabled(this);
+        rawSensorCapture = SharedPref.Settings.Ride.RawSensorCapture.isEnabled(this);
+        // In battery saver mode the events of the sensors arrive in separate bursts, so the slots have to wait longer
+        long maxSensorDelayNanos = batterySaver ? MAX_SENSOR_DELAY_NANOS + BATCHING_MAX_REPORT_LATENCY_US * 1000L : MAX_SENSOR_DELAY_NANOS;
+        long resamplingPeriodNanos = Constants.SENSOR_RESAMPLING_PERIOD * 1_000_000L;
+        sensorResampler = new SensorResampler(
+                new int[]{3, 3, 3, 4},
+                SensorIngestion.ACCELEROMETER,
+                resamplingPeriodNanos,
+                MAX_SENSOR_GAP_SLOTS * resamplingPeriodNanos,
+                maxSensorDelayNanos,
+                new InsertHandler());
+        for (int sensor = 0; sensor < SensorIngestion.SENSOR_COUNT; sensor++) {
+            sensorResampler.setExpected(sensor, sensorIngestion.hasSensor(sensor));
+        }
         // Request location updates
         locationManager = (LocationManager) getSystemService(Context
                 .LOCATION_SERVICE);
@@ -248,7 +315,7 @@ public class RecorderService extends Service implements SensorEventListener, Loc
         incidentBroadcastReceiver = IncidentBroadcaster.receiveIncidents(this, new IncidentBroadcaster.IncidentCallbacks() {
             @Override
             public void onManualIncident(int incidentType) {
-                incidentDuringRide = incidentType;
+                recordingHandler.post(() -> incidentDuringRide = incidentType);
             }
         });
     }
@@ -277,35 +344,15 @@ public class RecorderService extends Service implements SensorEventListener, Loc
         super.onStartCommand(intent, flags, startId);
 
         startTime = System.currentTimeMillis();
-        Runnable recordingStarter = new Runnable() {
-            @Override
-            public void run() {
-
-                // Privacy filter: Set recordingAllowed to true, when enough time (privacyDuration) passed
-                // since the user pressed Start Recording AND there is enough distance (privacyDistance)
-                // between the starting location and the current location.
-                if (!recordingAllowed && startLocation != null && lastLocation != null
-                        && (startLocation.distanceTo(lastLocation) >= privacyDistance)
-                        && (System.currentTimeMillis() - startTime) > privacyDuration) {
-                    recordingAllowed = true;
-                    /**/
-                    recordingStarterHandler.removeCallbacksAndMessages(null);/**/
-                    Runnable recorder = new InsertHandler(/*actualLocation,actualAccelerometerMatrix, actualGyroscopeMatrix, actualLinearAccelerometerMatrix, actualRotationMatrix*/);
-                    recordingHandler.post(recorder);
-
-                } else {
-                    // Repeat this the same runnable code block again another 50 ms
-                    // 'this' is referencing the Runnable object
-                    recordingStarterHandler.postDelayed(this, 50);
-                }
-            }
-        };
-        recordingStarterHandler.post(recordingStarter);
         // When the user records a route for the first time, the ride key is 0.
         // For all subsequent rides, the key value increases by one at a time.
 
-        key = sharedPrefs.getInt("RIDE-KEY", 0);
-        incidentLog = new IncidentLog(key, new HashMap<>(), 0);
+        // Posted first, so the ride key is taken before anything is recorded
+        recordingHandler.post(this::takeRideKey);
+        region = lookUpIntSharedPrefs("Region", 0, "Profile", this);
+
+        // The privacy gate is checked on every location update and once when privacyDuration has passed
+        recordingStarterHandler.postDelayed(this::checkPrivacyGate, privacyDuration + 1);
 
         // Fire the notification while recording
         Notification notification =
@@ -317,38 +364,65 @@ public class RecorderService extends Service implements SensorEventListener, Loc
         startForeground(ForegroundServiceNotificationManager.getNotificationId(), notification);
         wakeLock.acquire(28800000);
 
-        // Register Accelerometer and Gyroscope
-        sensorManager.registerListener(this, accelerometer,
-                SensorManager.SENSOR_DELAY_FASTEST);
-        sensorManager.registerListener(this, gyroscope,
-                SensorManager.SENSOR_DELAY_FASTEST);
-        sensorManager.registerListener(this, linearAccelerometer,
-                SensorManager.SENSOR_DELAY_FASTEST);
-        sensorManager.registerListener(this, rotation,
-                SensorManager.SENSOR_DELAY_FASTEST);
+        // Register Accelerometer, Gyroscope, Linear Accelerometer and Rotation Vector
+        if (batterySaver) {
+            sensorIngestion.register(BATCHING_SAMPLING_PERIOD_US, BATCHING_MAX_REPORT_LATENCY_US);
+        } else {
+            sensorIngestion.register(SensorManager.SENSOR_DELAY_FASTEST);
+        }
         return START_STICKY;
     }
 
     @Override
     public void onDestroy() {
 
+        // Stop waiting for the privacy gate
+        recordingStarterHandler.removeCallbacksAndMessages(null);
+
+        // Stop the sensors and the recording thread first, so that the recorded lines can be
+        // read safely on this thread
+        sensorIngestion.quit();
+        Log.d(TAG, "resampled sensor slots: " + sensorResampler.getEmittedSlots()
+                + " dropped slots: " + sensorResampler.getDroppedSlots()
+                + " late samples: " + sensorResampler.getLateSamples());
+        Log.d(TAG, "OBS distances: " + obsDistanceBuffer.getAddedCount()
+                + " overflows: " + obsDistanceBuffer.getOverflowCount()
+                + " dropped: " + obsDistanceBuffer.getDroppedCount());
+        Log.d(TAG, "battery saver: " + batterySaver
+                + " sensor events: " + sensorIngestion.getEventCount()
+                + " wakeups: " + sensorIngestion.getDeliveryCount());
+
         // Create a file for the ride and write ride into it (AccGpsFile). Also, update metaData.csv
         // with current ride and and sharedPrefs with current ride key. Do these things only,
         // if recording is allowed (see privacyDuration and privacyDistance) and we have written some
         // data.
-        if (recordingAllowed && lineAdded) {
-            recordingHandler.removeCallbacksAndMessages(null);
-            int region = lookUpIntSharedPrefs("Region", 0, "Profile", this);
-            accGpsString = mergeGPSandSensorLines(gpsLines,sensorLines);
-            overwriteFile((IOUtils.Files.getFileInfoLine() + DataLog.DATA_LOG_HEADER + System.lineSeparator() + accGpsString), IOUtils.Files.getGPSLogFile(key, false, this));
+        // The journal is kept if the DataLog could not be finished, so that the next start recovers it
+        boolean rideFinished = true;
+        if (recordingAllowed && lineAdded && dataLogWriter != null) {
+            // Most lines are already on disk, only the last few get written here
+            try {
+                dataLogWriter.finish();
+            } catch (IOException e) {
+                Log.e(TAG, "could not finish DataLog of ride " + key, e);
+                rideFinished = false;
+            }
             MetaData.updateOrAddMetaDataEntryForRide(new MetaDataEntry(key, startTime, endTime, MetaData.STATE.JUST_RECORDED, 0, waitedTime, Math.round(route.getDistance()), 0, region), this);
             IncidentLog.saveIncidentLog(incidentLog, this);
+            saveRecordingHealth();
             editor.putInt("RIDE-KEY", key + 1);
             editor.apply();
+        } else if (dataLogWriter != null) {
+            dataLogWriter.discard();
+        }
+        // The ride is either saved or discarded, nothing left to recover. Without a DataLogWriter
+        // no journal was written.
+        if (rideFinished && dataLogWriter != null) {
+            IOUtils.Files.getRideJournalFile(key, this).delete();
+        }
+        recordingRideKey = null;
+        if (rawSensorWriter != null) {
+            closeRawSensorWriter(!(recordingAllowed && lineAdded));
         }
-
-        // Unregister receiver and listener prior to gpsExecutor shutdown
-        sensorManager.unregisterListener(this);
 
         // Stop requesting location updates
         locationManager.removeUpdates(this);
@@ -367,25 +441,207 @@ public class RecorderService extends Service implements SensorEventListener, Loc
         /**/wakeLock.release();/**/
     }
 
-    private float computeAverage(Collection<Float> myVals) {
-        float sum = 0;
-        for (float f : myVals) {
-            sum += f;
+    /**
+     * Privacy filter: Set recordingAllowed to true, when enough time (privacyDuration) passed
+     * since the user pressed Start Recording AND there is enough distance (privacyDistance)
+     * between the starting location and the current location.
+     * Called on the main thread from {@link #onLocationChanged(Location)} and the one-shot timer
+     * posted in {@link #onStartCommand(Intent, int, int)}, so nothing polls while waiting.
+     */
+    private void checkPrivacyGate() {
+        if (recordingAllowed || startTime == 0) {
+            return;
+        }
+        if (startLocation != null && lastLocation != null
+                && (startLocation.distanceTo(lastLocation) >= privacyDistance)
+                && (System.currentTimeMillis() - startTime) > privacyDuration) {
+            recordingAllowed = true;
+            recordingStarterHandler.removeCallbacksAndMessages(null);
+            recordingHandler.post(() -> {
+                openDataLogWriter();
+                if (rawSensorCapture) {
+                    openRawSensorWriter();
+                }
+                // from now on every sensor event goes through the resampler into the InsertHandler
+                sensorIngestion.setSampleListener(this::onSensorSample);
+            });
+        }
+    }
+
+    /**
+     * A ride of an earlier run of the service (e.g. killed by the system and restarted) has to be
+     * recovered before its key is used again. Runs on the recording thread, as the recovery reads
+     * and hashes whole rides and may wait for the recovery started by the StartActivity.
+     */
+    private void takeRideKey() {
+        UpdateHelper.recoverUnfinishedRides(this);
+        key = sharedPrefs.getInt("RIDE-KEY", 0);
+        recordingRideKey = key;
+        incidentLog = new IncidentLog(key, new HashMap<>(), 0);
+    }
+
+    private void openDataLogWriter() {
+        try {
+            dataLogWriter = new DataLogWriter(
+                    IOUtils.Files.getGPSLogFile(key, true, this),
+                    IOUtils.Files.getGPSLogFile(key, false, this),
+                    IOUtils.Files.getDataLogIndexFile(key, this),
+                    IOUtils.Files.getFileInfoLine() + DataLog.DATA_LOG_HEADER + System.lineSeparator());
+        } catch (IOException e) {
+            Log.e(TAG, "could not create DataLog of ride " + key, e);
+            return;
+        }
+        writeRideJournal();
+    }
+
+    /**
+     * Makes the lines written so far and the state of the ride survive a crash, see
+     * {@link UpdateHelper#recoverUnfinishedRides(Context)}. Runs on the recording thread.
+     */
+    private void syncRideJournal() {
+        try {
+            dataLogWriter.sync();
+        } catch (IOException e) {
+            Log.e(TAG, "could not sync DataLog of ride " + key, e);
+        }
+        writeRideJournal();
+    }
+
+    private void writeRideJournal() {
+        RideJournal rideJournal = new RideJournal(key, startTime, endTime, waitedTime, Math.round(route.getDistance()), region, incidentLog.toString());
+        try {
+            rideJournal.write(IOUtils.Files.getRideJournalFile(key, this));
+        } catch (IOException e) {
+            Log.e(TAG, "could not write journal of ride " + key, e);
+        }
+    }
+
+    /**
+     * Writes a small summary of the recording health of the ride next to its DataLog.
+     */
+    private void saveRecordingHealth() {
+        Map<String, Long> summary = recordingHealth.getSummary();
+        summary.put("resampledSlots", sensorResampler.getEmittedSlots());
+        summary.put("droppedSlots", sensorResampler.getDroppedSlots());
+        summary.put("lateSamples", sensorResampler.getLateSamples());
+        summary.put("obsDistances", obsDistanceBuffer.getAddedCount());
+        summary.put("obsOverflows", obsDistanceBuffer.getOverflowCount());
+        summary.put("obsDropped", obsDistanceBuffer.getDroppedCount());
+        summary.put("sensorEvents", sensorIngestion.getEventCount());
+        summary.put("sensorWakeups", sensorIngestion.getDeliveryCount());
+        summary.put("batterySaver", batterySaver ? 1L : 0L);
+        String content = RecordingHealth.stringifySummary(summary);
+        Log.d(TAG, "recording health of ride " + key + ":" + System.lineSeparator() + content);
+        Utils.overwriteFile(content, IOUtils.Files.getRecordingHealthFile(key, this));
+    }
+
+    private void openRawSensorWriter() {
+        try {
+            // the clock offset is replaced with the one of the DataLog with the first sensor event
+            rawSensorWriter = new RawSensorLog.Writer(IOUtils.Files.getRawSensorFile(key, this),
+                    System.currentTimeMillis() * 1_000_000L - SystemClock.elapsedRealtimeNanos());
+        } catch (IOException e) {
+            Log.e(TAG, "could not create raw sensor file of ride " + key, e);
+        }
+    }
+
+    private void closeRawSensorWriter(boolean delete) {
+        Log.d(TAG, "raw sensor records: " + rawSensorWriter.getRecordCount());
+        try {
+            rawSensorWriter.close();
+        } catch (IOException e) {
+            Log.e(TAG, "could not close raw sensor file of ride " + key, e);
+        }
+        rawSensorWriter = null;
+        if (delete) {
+            IOUtils.Files.getRawSensorFile(key, this).delete();
+        } else {
+            RideCatalog.recordFileInBackground(IOUtils.Files.getRawSensorFile(key, this));
+        }
+    }
+
+    /**
+     * Runs on the recording thread for every sensor event once recording is allowed. Must not allocate.
+     */
+    private void onSensorSample(int sensor, float[] values, int valueCount, long timestampNanos) {
+        sensorResampler.onSample(sensor, values, valueCount, timestampNanos);
+        if (rawSensorWriter != null) {
+            try {
+                if (rawSensorWriter.getRecordCount() == 0) {
+                    // the same offset as the timestamps of the DataLog
+                    rawSensorWriter.setClockOffsetNanos(getSensorClockOffsetNanos(timestampNanos));
+                }
+                rawSensorWriter.append(sensor, timestampNanos, values, valueCount);
+            } catch (IOException e) {
+                // stop the raw capture, the ride itself is recorded anyway
+                Log.e(TAG, "could not write raw sensor file of ride " + key, e);
+                closeRawSensorWriter(true);
+            }
+        }
+    }
+
+    /**
+     * Sensor lines are only recorded after the first GPS line.
+     */
+    private void appendLine(DataLogEntry dataLogEntry, boolean isGPSLine) {
+        if (dataLogWriter == null) {
+            return;
+        }
+        try {
+            if (isGPSLine) {
+                dataLogWriter.appendGPSLine(dataLogEntry);
+            } else if (dataLogWriter.hasGPSLine()) {
+                dataLogWriter.appendSensorLine(dataLogEntry);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "could not write DataLog line of ride " + key, e);
         }
-        return sum / myVals.size();
     }
 
-    // Create the Handler object (on the main thread by default)
-    // Define the code block to be executed
-    private
+    /**
+     * Converts a sensor timestamp to milliseconds since the epoch.
+     */
+    private long toCurrentTimeMillis(long sensorTimestampNanos) {
+        return (sensorTimestampNanos + getSensorClockOffsetNanos(sensorTimestampNanos)) / 1_000_000L;
+    }
 
-    class InsertHandler implements Runnable {
+    /**
+     * Offset from the sensor timestamps to nanos since the epoch, derived from the first timestamp.
+     * {@link android.hardware.SensorEvent#timestamp} is based on {@link SystemClock#elapsedRealtimeNanos()}
+     * on most devices. If the first timestamp does not fit to that, it is assumed to be recent instead.
+     */
+    private long getSensorClockOffsetNanos(long sensorTimestampNanos) {
+        if (sensorClockOffsetNanos == Long.MIN_VALUE) {
+            long elapsedRealtimeNanos = SystemClock.elapsedRealtimeNanos();
+            long age = elapsedRealtimeNanos - sensorTimestampNanos;
+            long base = (age >= 0 && age <= MAX_SENSOR_TIMESTAMP_AGE_NANOS) ? elapsedRealtimeNanos : sensorTimestampNanos;
+            sensorClockOffsetNanos = System.currentTimeMillis() * 1_000_000L - base;
+        }
+        return sensorClockOffsetNanos;
+    }
 
-        public InsertHandler() {
+    /**
+     * In battery saver mode the lines are built from batches delivered up to a few seconds late.
+     *
+     * @return the newest location which is not newer than the given time, lastLocation if there is none
+     */
+    private Location locationAt(long currentTimeMillis) {
+        Iterator<Location> newestFirst = recentLocations.descendingIterator();
+        while (newestFirst.hasNext()) {
+            Location location = newestFirst.next();
+            if (location.getTime() <= currentTimeMillis) {
+                return location;
+            }
         }
+        return lastLocation;
+    }
+
+    // Runs on the sensor ingestion thread (see recordingHandler), once per resampled slot
+    private class InsertHandler implements SensorResampler.SlotListener {
 
         @SuppressLint("MissingPermission")
-        public void run() {
+        @Override
+        public void onSlot(long timestampNanos, float[][] values) {
             /*
               How is this Working?
               We are collecting GPS, Accelerometer, Gyroscope (and OpenBikeSensor) Data, those are updated as following;
@@ -394,64 +650,60 @@ public class RecorderService extends Service implements SensorEventListener, Loc
               - gyroscope data (a,b,c) roughly every 3 seconds
               <p>
               Every Data Type is given asynchronously via its Callback function.
-              In order to synchronize the accelerometer interval ist used as baseline.
-              1. We wait till there are 30 values generated
+              The SensorResampler aligns the sensor values by their timestamps and calls this
+              every SENSOR_RESAMPLING_PERIOD millisecs of sensor time, with the accelerometer as baseline.
+              1. We wait till there are {@link Constants.MVG_AVG_WINDOW} values generated
               2. We write a Log Entry every {@link Constants.MVG_AVG_STEP}
                  as this number of values is removed at the end of this function
-                 and we wait again till there are 30
+                 and we wait again till there are {@link Constants.MVG_AVG_WINDOW}
              */
+            recordingHealth.onTick(SystemClock.elapsedRealtimeNanos(), Constants.SENSOR_RESAMPLING_PERIOD * 1_000_000L);
             boolean isGPSLine = false;
-            long start = System.currentTimeMillis() - startTime;
             /**/
-            if (accelerometerQueueX.size() < 30) {
-                accelerometerQueueX.add(accelerometerMatrix[0]);
-                accelerometerQueueY.add(accelerometerMatrix[1]);
-                accelerometerQueueZ.add(accelerometerMatrix[2]);
-
+            if (!accelerometerBuffer.isFull()) {
+                accelerometerBuffer.add(values[SensorIngestion.ACCELEROMETER]);
             }
-            if (linearAccelerometerQueueX.size() < 30) {
-                linearAccelerometerQueueX.add(linearAccelerometerMatrix[0]);
-                linearAccelerometerQueueY.add(linearAccelerometerMatrix[1]);
-                linearAccelerometerQueueZ.add(linearAccelerometerMatrix[2]);
+            if (!linearAccelerometerBuffer.isFull()) {
+                linearAccelerometerBuffer.add(values[SensorIngestion.LINEAR_ACCELEROMETER]);
             }
-            if (rotationQueueX.size() < 30) {
-                rotationQueueX.add(rotationMatrix[0]);
-                rotationQueueY.add(rotationMatrix[1]);
-                rotationQueueZ.add(rotationMatrix[2]);
-                rotationQueueC.add(rotationMatrix[3]);
+            if (!rotationBuffer.isFull()) {
+                rotationBuffer.add(values[SensorIngestion.ROTATION]);
             }
              /**/
-            /**/if (accelerometerQueueX.size() >= 30 && linearAccelerometerQueueX.size() >= 30 && rotationQueueX.size() >= 30) {
+            /**/if (accelerometerBuffer.isFull() && linearAccelerometerBuffer.isFull() && rotationBuffer.isFull()) {
                 DataLogEntry.DataLogEntryBuilder dataLogEntryBuilder = DataLogEntry.newBuilder();
-                long lastAccUpdate = System.currentTimeMillis();
+                long lastAccUpdate = toCurrentTimeMillis(timestampNanos);
                 dataLogEntryBuilder.withTimestamp(lastAccUpdate);
                 dataLogEntryBuilder.withAccelerometer(
-                        // Every average is computed over 30 data points
-                        /**/computeAverage(accelerometerQueueX),
-                        computeAverage(accelerometerQueueY),
-                        computeAverage(accelerometerQueueZ)/**/
+                        // Every average is computed over MVG_AVG_WINDOW data points
+                        /**/accelerometerBuffer.average(0),
+                        accelerometerBuffer.average(1),
+                        accelerometerBuffer.average(2)/**/
                 );
 
                 dataLogEntryBuilder.withLinearAccelerometer(
-                        // Every average is computed over 30 data points
-                        /**/computeAverage(linearAccelerometerQueueX),
-                        computeAverage(linearAccelerometerQueueY),
-                        computeAverage(linearAccelerometerQueueZ)/**/
+                        // Every average is computed over MVG_AVG_WINDOW data points
+                        /**/linearAccelerometerBuffer.average(0),
+                        linearAccelerometerBuffer.average(1),
+                        linearAccelerometerBuffer.average(2)/**/
                 );
 
                 dataLogEntryBuilder.withRotation(
-                        // Every average is computed over 30 data points
-                        /**/computeAverage(rotationQueueX),
-                        computeAverage(rotationQueueY),
-                        computeAverage(rotationQueueZ),
-                        computeAverage(rotationQueueC)/**/
+                        // Every average is computed over MVG_AVG_WINDOW data points
+                        /**/rotationBuffer.average(0),
+                        rotationBuffer.average(1),
+                        rotationBuffer.average(2),
+                        rotationBuffer.average(3)/**/
                 );
 
                 if ((lastAccUpdate - lastGPSUpdate) >= Constants.GPS_FREQUENCY) {
                     isGPSLine = true;
                     lastGPSUpdate = lastAccUpdate;
-                    Location thisLocation = lastLocation;
-                    dataLogEntryBuilder.withTimestamp(thisLocation.getTime());
+                    Location thisLocation = batterySaver ? locationAt(lastAccUpdate) : lastLocation;
+                    if (thisLocation != null) {
+                        dataLogEntryBuilder.withTimestamp(thisLocation.getTime());
+                        recordingHealth.onGPSFix(lastAccUpdate - thisLocation.getTime());
+                    }
 
                     if (thisLocation == null) {
                         thisLocation = locationManager.getLastKnownLocation(LocationManager
@@ -486,50 +738,46 @@ public class RecorderService extends Service implements SensorEventListener, Loc
                                 .build());
                     }
                 }
+                float[] gyroscope = values[SensorIngestion.GYROSCOPE];
                 dataLogEntryBuilder.withGyroscope(
-                        /**/gyroscopeMatrix[0],
-                        gyroscopeMatrix[1],
-                        gyroscopeMatrix[2]/**/
+                        /**/gyroscope[0],
+                        gyroscope[1],
+                        gyroscope[2]/**/
                 );
 
-                if (lastOBSDistanceValues.size() > 0) {
-                    OBSService.Measurement lastOBSDistanceValue = lastOBSDistanceValues.removeFirst();
-                    dataLogEntryBuilder.withOBS(lastOBSDistanceValue.leftSensorValues.get(0), null, null, null, null);
-
-                    if (takePictureDuringRideActivated) {
-                        if (lastOBSDistanceValue.leftSensorValues.get(0) <= safetyDistanceWithTolerances && lastPictureTaken + takePictureDuringRideInterval * 1000 <= lastAccUpdate) {
-                            lastPictureTaken = lastAccUpdate;
-                            CameraService.takePicture(RecorderService.this, String.valueOf(lastAccUpdate), IOUtils.Directories.getPictureCacheDirectoryPath(RecorderService.this));
-                        }
+                // Join the line with the OBS distance measured closest to its time
+                int obsDistance = obsDistanceBuffer.closest(lastAccUpdate, OBS_MAX_TIME_DIFFERENCE);
+                if (obsDistance != OBSDistanceBuffer.NO_VALUE) {
+                    dataLogEntryBuilder.withOBS(obsDistance, null, null, null, null);
+                }
+                if (takePictureDuringRideActivated) {
+                    // closest distance since the previous line
+                    int minObsDistance = obsDistanceBuffer.minimum(lastAccUpdate - LINE_INTERVAL, lastAccUpdate);
+                    if (minObsDistance != OBSDistanceBuffer.NO_VALUE && minObsDistance <= safetyDistanceWithTolerances && lastPictureTaken + takePictureDuringRideInterval * 1000 <= lastAccUpdate) {
+                        lastPictureTaken = lastAccUpdate;
+                        CameraService.takePicture(RecorderService.this, String.valueOf(lastAccUpdate), IOUtils.Directories.getPictureCacheDirectoryPath(RecorderService.this));
                     }
                 }
+                // later lines can not be joined with older measurements anymore
+                obsDistanceBuffer.discardOlderThan(lastAccUpdate - OBS_MAX_TIME_DIFFERENCE);
 
-                if(isGPSLine) {
-                    gpsLines.add(dataLogEntryBuilder.build());
-                } else if(!gpsLines.isEmpty()) {
-                    sensorLines.add(dataLogEntryBuilder.build());
-                }
+                appendLine(dataLogEntryBuilder.build(), isGPSLine);
                 lineAdded = true;
+                recordingHealth.onLine(SystemClock.elapsedRealtimeNanos(), System.currentTimeMillis() - lastAccUpdate, obsDistanceBuffer.size());
 
                 endTime = System.currentTimeMillis();
 
-                /**/
-                for (int i = 0; i < Constants.MVG_AVG_STEP; i++) {
-                    accelerometerQueueX.remove();
-                    accelerometerQueueY.remove();
-                    accelerometerQueueZ.remove();
-                    linearAccelerometerQueueX.remove();
-                    linearAccelerometerQueueY.remove();
-                    linearAccelerometerQueueZ.remove();
-                    rotationQueueX.remove();
-                    rotationQueueY.remove();
-                    rotationQueueZ.remove();
-                    rotationQueueC.remove();
+                if (dataLogWriter != null && lastAccUpdate - lastJournalSync >= JOURNAL_SYNC_INTERVAL) {
+                    lastJournalSync = lastAccUpdate;
+                    syncRideJournal();
                 }
+
+                /**/
+                accelerometerBuffer.removeOldest(Constants.MVG_AVG_STEP);
+                linearAccelerometerBuffer.removeOldest(Constants.MVG_AVG_STEP);
+                rotationBuffer.removeOldest(Constants.MVG_AVG_STEP);
                  /**/
             /**/}
-            lastHandlerStart = start;
-            recordingHandler.postDelayed(this,50);
         }
     }
 
@@ -537,5 +785,9 @@ public class RecorderService extends Service implements SensorEventListener, Loc
         public RecorderService getService() {
             return RecorderService.this;
         }
+
+        public RecordingHealth getRecordingHealth() {
+            return recordingHealth;
+        }
     }
 }
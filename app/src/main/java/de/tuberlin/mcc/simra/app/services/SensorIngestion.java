@@ -0,0 +1,273 @@
+package de.tuberlin.mcc.simra.app.services;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener2;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Receives the motion sensor events of a ride on a dedicated {@link HandlerThread}, so that
+ * UI work or garbage collection on the main thread can not stall or skew the sampling.
+ * <p>
+ * The values of every event are copied into preallocated buffers, because the framework may
+ * reuse {@link SensorEvent#values} for subsequent events. The buffers and the recorded
+ * {@link SensorEvent#timestamp} (nanoseconds) must only be accessed from the ingestion thread,
+ * i.e. from code posted to {@link #getHandler()}.
+ * <p>
+ * The sensors can optionally be registered with a maximum report latency, so that the hardware
+ * collects the events in its FIFO and delivers them in bursts. The number of events and of
+ * deliveries (bursts of events arriving together, i.e. wakeups of the ingestion thread) are
+ * counted to compare the energy use of both modes.
+ */
+public class SensorIngestion implements SensorEventListener2 {
+    private static final String TAG = "SensorIngestion_LOG";
+
+    public static final int ACCELEROMETER = 0;
+    public static final int GYROSCOPE = 1;
+    public static final int LINEAR_ACCELEROMETER = 2;
+    public static final int ROTATION = 3;
+    public static final int SENSOR_COUNT = 4;
+    /**
+     * The rotation vector has the most values (x, y, z, cos, heading accuracy)
+     */
+    public static final int MAX_VALUES = 5;
+    /**
+     * Events received less than this after the previous one belong to the same delivery
+     */
+    private static final long DELIVERY_GAP_NANOS = 1_000_000L;
+    private static final long FLUSH_TIMEOUT_MILLIS = 1000;
+
+    private final SensorManager sensorManager;
+    private final HandlerThread handlerThread;
+    private final Handler handler;
+    private final Sensor[] sensors = new Sensor[SENSOR_COUNT];
+    private final float[][] values = new float[SENSOR_COUNT][MAX_VALUES];
+    private final int[] valueCounts = new int[SENSOR_COUNT];
+    private final long[] timestampsNanos = new long[SENSOR_COUNT];
+    private SampleListener sampleListener;
+    private boolean batching = false;
+    private volatile CountDownLatch flushLatch;
+    // Only written on the ingestion thread
+    private volatile long eventCount = 0;
+    private volatile long deliveryCount = 0;
+    private long lastEventReceivedNanos = 0;
+
+    public SensorIngestion(SensorManager sensorManager) {
+        this.sensorManager = sensorManager;
+        sensors[ACCELEROMETER] = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        sensors[GYROSCOPE] = sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
+        sensors[LINEAR_ACCELEROMETER] = sensorManager.getDefaultSensor(Sensor.TYPE_LINEAR_ACCELERATION);
+        sensors[ROTATION] = sensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR);
+        handlerThread = new HandlerThread("SimRa-SensorIngestion", Process.THREAD_PRIORITY_URGENT_DISPLAY);
+        handlerThread.start();
+        handler = new Handler(handlerThread.getLooper());
+    }
+
+    /**
+     * @return Handler of the ingestion thread. Everything reading the sensor buffers has to run on it.
+     */
+    public Handler getHandler() {
+        return handler;
+    }
+
+    /**
+     * Sets a listener which gets every copied sample on the ingestion thread.
+     * The passed values array is reused and only valid during the call.
+     */
+    public void setSampleListener(SampleListener sampleListener) {
+        this.sampleListener = sampleListener;
+    }
+
+    /**
+     * Registers all available sensors with the given sampling period, delivering to the ingestion thread.
+     *
+     * @param samplingPeriodUs e.g. {@link SensorManager#SENSOR_DELAY_FASTEST}
+     */
+    public void register(int samplingPeriodUs) {
+        register(samplingPeriodUs, 0);
+    }
+
+    /**
+     * Registers all available sensors with the given sampling period and maximum report latency.
+     * With a latency greater than 0 the events are batched in the hardware FIFO (if the sensor has one)
+     * and delivered in bursts.
+     *
+     * @param samplingPeriodUs   sampling period in microseconds
+     * @param maxReportLatencyUs maximum time in microseconds events may be delayed before they are delivered
+     */
+    public void register(int samplingPeriodUs, int maxReportLatencyUs) {
+        batching = maxReportLatencyUs > 0;
+        for (Sensor sensor : sensors) {
+            if (sensor != null) {
+                if (batching && sensor.getFifoMaxEventCount() == 0) {
+                    Log.d(TAG, sensor.getName() + " has no hardware FIFO, its events are not batched");
+                }
+                sensorManager.registerListener(this, sensor, samplingPeriodUs, maxReportLatencyUs, handler);
+            }
+        }
+    }
+
+    public void unregister() {
+        sensorManager.unregisterListener(this);
+    }
+
+    /**
+     * Unregisters the sensors and stops the ingestion thread after the work which is already
+     * due, e.g. the last incidents and OBS events of a ride. Blocks until the thread has finished,
+     * so afterwards everything written on the ingestion thread is visible to the caller.
+     */
+    public void quit() {
+        if (batching) {
+            flushBatches();
+        }
+        unregister();
+        handlerThread.quitSafely();
+        try {
+            handlerThread.join();
+        } catch (InterruptedException e) {
+            Log.e(TAG, "interrupted while waiting for sensor thread", e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return number of sensor events received since the creation
+     */
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * @return number of deliveries since the creation, events arriving together count as one delivery
+     */
+    public long getDeliveryCount() {
+        return deliveryCount;
+    }
+
+    /**
+     * Delivers the events still held in the hardware FIFOs, so that the end of the ride is not lost.
+     * Blocks until the flush completed or {@link #FLUSH_TIMEOUT_MILLIS} passed.
+     */
+    private void flushBatches() {
+        int registeredSensors = 0;
+        for (Sensor sensor : sensors) {
+            if (sensor != null) {
+                registeredSensors++;
+            }
+        }
+        CountDownLatch latch = new CountDownLatch(registeredSensors);
+        flushLatch = latch;
+        if (registeredSensors > 0 && sensorManager.flush(this)) {
+            try {
+                if (!latch.await(FLUSH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    Log.w(TAG, "sensor flush did not complete in time");
+                }
+            } catch (InterruptedException e) {
+                Log.e(TAG, "interrupted while flushing the sensors", e);
+                Thread.currentThread().interrupt();
+            }
+        }
+        flushLatch = null;
+    }
+
+    /**
+     * @return whether the device has the sensor
+     */
+    public boolean hasSensor(int sensor) {
+        return sensors[sensor] != null;
+    }
+
+    /**
+     * @param sensor one of {@link #ACCELEROMETER}, {@link #GYROSCOPE}, {@link #LINEAR_ACCELEROMETER}, {@link #ROTATION}
+     * @return the preallocated buffer holding the latest values of the sensor (updated in place)
+     */
+    public float[] getValues(int sensor) {
+        return values[sensor];
+    }
+
+    /**
+     * @return number of valid entries in {@link #getValues(int)}, 0 if no event was received yet
+     */
+    public int getValueCount(int sensor) {
+        return valueCounts[sensor];
+    }
+
+    /**
+     * @return {@link SensorEvent#timestamp} of the latest event of the sensor in nanoseconds, 0 if none yet
+     */
+    public long getTimestampNanos(int sensor) {
+        return timestampsNanos[sensor];
+    }
+
+    //~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    // SensorEventListener Methods
+    //~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        int sensor = indexOf(event.sensor.getType());
+        if (sensor < 0) {
+            return;
+        }
+        int valueCount = Math.min(event.values.length, MAX_VALUES);
+        System.arraycopy(event.values, 0, values[sensor], 0, valueCount);
+        valueCounts[sensor] = valueCount;
+        timestampsNanos[sensor] = event.timestamp;
+        long receivedNanos = SystemClock.elapsedRealtimeNanos();
+        if (receivedNanos - lastEventReceivedNanos > DELIVERY_GAP_NANOS) {
+            deliveryCount++;
+        }
+        lastEventReceivedNanos = receivedNanos;
+        eventCount++;
+        if (sampleListener != null) {
+            sampleListener.onSample(sensor, values[sensor], valueCount, event.timestamp);
+        }
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+    }
+
+    @Override
+    public void onFlushCompleted(Sensor sensor) {
+        CountDownLatch latch = flushLatch;
+        if (latch != null) {
+            latch.countDown();
+        }
+    }
+
+    private static int indexOf(int sensorType) {
+        switch (sensorType) {
+            case Sensor.TYPE_ACCELEROMETER:
+                return ACCELEROMETER;
+            case Sensor.TYPE_GYROSCOPE:
+                return GYROSCOPE;
+            case Sensor.TYPE_LINEAR_ACCELERATION:
+                return LINEAR_ACCELEROMETER;
+            case Sensor.TYPE_ROTATION_VECTOR:
+                return ROTATION;
+            default:
+                return -1;
+        }
+    }
+
+    public interface SampleListener {
+        /**
+         * Called on the ingestion thread for every sensor event.
+         *
+         * @param sensor         index of the sensor, see {@link #ACCELEROMETER} etc.
+         * @param values         copied values, reused for the next event of that sensor
+         * @param valueCount     number of valid entries in values
+         * @param timestampNanos {@link SensorEvent#timestamp}
+         */
+        void onSample(int sensor, float[] values, int valueCount, long timestampNanos);
+    }
+}
@@ -16,9 +16,7 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
@@ -30,6 +28,7 @@ import javax.net.ssl.HttpsURLConnection;
 
 import de.tuberlin.mcc.simra.app.BuildConfig;
 import de.tuberlin.mcc.simra.app.R;
+import de.tuberlin.mcc.simra.app.entities.DataLog;
 import de.tuberlin.mcc.simra.app.entities.IncidentLog;
 import de.tuberlin.mcc.simra.app.entities.IncidentLogEntry;
 import de.tuberlin.mcc.simra.app.entities.MetaData;
@@ -37,8 +36,10 @@ import de.tuberlin.mcc.simra.app.entities.MetaDataEntry;
 import de.tuberlin.mcc.simra.app.entities.Profile;
 import de.tuberlin.mcc.simra.app.util.Constants;
 import de.tuberlin.mcc.simra.app.util.ForegroundServiceNotificationManager;
+import de.tuberlin.mcc.simra.app.util.GzipUpload;
 import de.tuberlin.mcc.simra.app.util.IOUtils;
 import de.tuberlin.mcc.simra.app.util.SharedPref;
+import de.tuberlin.mcc.simra.app.util.UploadBody;
 import de.tuberlin.mcc.simra.app.util.Utils;
 
 import static de.tuberlin.mcc.simra.app.util.SharedPref.lookUpIntSharedPrefs;
@@ -212,9 +213,9 @@ public class UploadService extends Service {
                     if (metaDataEntry.state.equals(MetaData.STATE.ANNOTATED)) {
                         foundARideToUpload = true;
                         // concatenate fileInfoVersion, accEvents and accGps content
-                        Pair<String, IncidentLog> contentToUploadAndAccEventsContentToOverwrite = Utils.getConsolidatedRideForUpload(metaDataEntry.rideId, context);
+                        Pair<UploadBody, IncidentLog> contentToUploadAndAccEventsContentToOverwrite = Utils.getConsolidatedRideForUpload(metaDataEntry.rideId, context);
 
-                        String contentToUpload = contentToUploadAndAccEventsContentToOverwrite.first;
+                        UploadBody contentToUpload = contentToUploadAndAccEventsContentToOverwrite.first;
 
                         String password = lookUpSharedPrefs(String.valueOf(metaDataEntry.rideId), "-1", "keyPrefs", context);
 
@@ -252,9 +253,16 @@ public class UploadService extends Service {
 
                             regionProfileUpdated[metaDataEntry.region] = true;
                             regionProfilesList.set(metaDataEntry.region, regionProfile);
+
+                            DataLog.compactDataLog(metaDataEntry.rideId, context);
                         }
+                    } else if (metaDataEntry.state.equals(MetaData.STATE.SYNCED)) {
+                        // rides synced before the compact format existed
+                        DataLog.compactDataLog(metaDataEntry.rideId, context);
                     }
                 }
+                // the uploaded rides were marked as synced in the MetaData journal
+                MetaData.compactMetaData(context);
                 if (!foundARideToUpload) {
                     Intent intent = new Intent();
                     intent.setAction("de.tuberlin.mcc.simra.app.UPLOAD_COMPLETE");
@@ -325,6 +333,10 @@ public class UploadService extends Service {
 
         // String fileType = profile | ride | crash
         private Pair<Integer, String> postFile(String fileType, String contentToSend, int region) throws IOException {
+            return postFile(fileType, new UploadBody().add(contentToSend), region);
+        }
+
+        private Pair<Integer, String> postFile(String fileType, UploadBody contentToSend, int region) throws IOException {
 
             String[] simRa_regions_config = getRegions(context);
             String locale = simRa_regions_config[region].split("=")[2];
@@ -335,18 +347,7 @@ public class UploadService extends Service {
             // Tell the URLConnection to use a SocketFactory from our SSLContext
             URL url = new URL(BuildConfig.API_ENDPOINT + BuildConfig.API_VERSION + fileType + "?loc=" + locale + "&clientHash=" + getClientHash(context));
             Log.d(TAG, "URL: " + url.toString());
-            HttpsURLConnection urlConnection =
-                    (HttpsURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("POST");
-            urlConnection.setDoInput(true);
-            urlConnection.setDoOutput(true);
-            urlConnection.setReadTimeout(10000);
-            urlConnection.setConnectTimeout(15000);
-            urlConnection.setRequestProperty("Content-Type", "text/plain");
-            byte[] outputInBytes = contentToSend.getBytes(StandardCharsets.UTF_8);
-            OutputStream os = urlConnection.getOutputStream();
-            os.write(outputInBytes);
-            os.close();
+            HttpsURLConnection urlConnection = send(fileType, url, "POST", contentToSend);
             BufferedReader in = new BufferedReader(
                     new InputStreamReader(urlConnection.getInputStream()));
             String inputLine;
@@ -367,6 +368,10 @@ public class UploadService extends Service {
 
         // fileType = profile | ride
         private Pair<Integer, String> putFile(String fileType, String fileHash, String filePassword, String contentToSend, int region) throws IOException {
+            return putFile(fileType, fileHash, filePassword, new UploadBody().add(contentToSend), region);
+        }
+
+        private Pair<Integer, String> putFile(String fileType, String fileHash, String filePassword, UploadBody contentToSend, int region) throws IOException {
 
             String[] simRa_regions_config = getRegions(context);
             String locale = simRa_regions_config[region].split("=")[2];
@@ -376,19 +381,8 @@ public class UploadService extends Service {
             // URL url = new URL(Constants.MCC_VM3 + "upload/" + fileHash + "?version=" + appVersion + "&loc=" + locale + "&clientHash=" + clientHash);
             URL url = new URL(BuildConfig.API_ENDPOINT + BuildConfig.API_VERSION + fileType + "?fileHash=" + fileHash + "&filePassword=" + filePassword + "&loc=" + locale + "&clientHash=" + getClientHash(context));
 
-            HttpsURLConnection urlConnection =
-                    (HttpsURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("PUT");
-            urlConnection.setDoInput(true);
-            urlConnection.setDoOutput(true);
-            urlConnection.setReadTimeout(10000);
-            urlConnection.setConnectTimeout(15000);
-            urlConnection.setRequestProperty("Content-Type", "text/plain");
-            Log.d(TAG, "contentToSend.length(): " + contentToSend.length());
-            byte[] outputInBytes = contentToSend.getBytes(StandardCharsets.UTF_8);
-            OutputStream os = urlConnection.getOutputStream();
-            os.write(outputInBytes);
-            os.close();
+            Log.d(TAG, "contentToSend.getContentLength(): " + contentToSend.getContentLength());
+            HttpsURLConnection urlConnection = send(fileType, url, "PUT", contentToSend);
             int status = urlConnection.getResponseCode();
             if (status == 200) {
                 uploadSuccessful = true;
@@ -399,5 +393,27 @@ public class UploadService extends Service {
 
             return new Pair<>(status, response);
         }
+
+        /**
+         * Streams the body gzip compressed if the endpoint is known to decode it and did not reject it before.
+         */
+        private HttpsURLConnection send(String fileType, URL url, String method, UploadBody contentToSend) throws IOException {
+            GzipUpload.Response response = GzipUpload.send(() -> {
+                HttpsURLConnection urlConnection =
+                        (HttpsURLConnection) url.openConnection();
+                urlConnection.setRequestMethod(method);
+                urlConnection.setDoInput(true);
+                urlConnection.setDoOutput(true);
+                urlConnection.setReadTimeout(10000);
+                urlConnection.setConnectTimeout(15000);
+                urlConnection.setRequestProperty("Content-Type", "text/plain");
+                return urlConnection;
+            }, contentToSend, SharedPref.App.GzipUpload.isAccepted(fileType, context));
+            if (response.gzipRejected) {
+                Log.d(TAG, fileType + " does not accept gzip compressed bodies");
+                SharedPref.App.GzipUpload.setRejected(fileType, context);
+            }
+            return (HttpsURLConnection) response.connection;
+        }
     }
 }
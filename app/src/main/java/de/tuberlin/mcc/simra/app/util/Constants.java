@@ -7,6 +7,17 @@ public class Constants {
     // Accelerometer data gets recorded 50 times per second (every 20 millisecs).
     public static final int ACCELEROMETER_FREQUENCY = 20;
 
+    /**
+     * Sensor values are resampled to one sample every this many millisecs (by sensor timestamp)
+     * before the moving average is computed.
+     */
+    public static final int SENSOR_RESAMPLING_PERIOD = 50;
+
+    /**
+     * Number of samples the accelerometer moving average is computed over
+     */
+    public static final int MVG_AVG_WINDOW = 30;
+
     /**
      * Step size for accelerometer moving average
      */
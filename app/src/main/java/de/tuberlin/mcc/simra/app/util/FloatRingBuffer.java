@@ -0,0 +1,146 @@
+package de.tuberlin.mcc.simra.app.util;
+
+/**
+ * Fixed capacity ring buffer holding samples of one or more float channels
+ * (e.g. the x, y and z axis of the accelerometer).
+ * <p>
+ * A running sum is maintained per channel, so adding a sample, removing the oldest samples and
+ * reading the moving average are O(1) per channel and never allocate. This is meant for the
+ * sensor hot path in {@link de.tuberlin.mcc.simra.app.services.RecorderService}, which is called
+ * many times per second for the whole duration of a ride.
+ */
+public class FloatRingBuffer {
+    private final int channels;
+    private final int capacity;
+    /**
+     * Samples are stored interleaved: value of channel c in slot s is at s * channels + c
+     */
+    private final float[] values;
+    /**
+     * Sums are kept as double so that subtracting evicted samples does not accumulate float error
+     */
+    private final double[] sums;
+    private int head = 0;
+    private int size = 0;
+    private int evictionsSinceResync = 0;
+
+    /**
+     * @param channels number of values per sample
+     * @param capacity maximum number of samples held in the buffer
+     */
+    public FloatRingBuffer(int channels, int capacity) {
+        if (channels < 1 || capacity < 1) {
+            throw new IllegalArgumentException("channels and capacity must be positive");
+        }
+        this.channels = channels;
+        this.capacity = capacity;
+        this.values = new float[channels * capacity];
+        this.sums = new double[channels];
+    }
+
+    public int channels() {
+        return channels;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Appends a sample. If the buffer is full, the oldest sample is overwritten.
+     *
+     * @param sample the first {@link #channels()} values are read, additional values are ignored
+     */
+    public void add(float[] sample) {
+        if (size == capacity) {
+            removeOldest(1);
+        }
+        int base = ((head + size) % capacity) * channels;
+        for (int c = 0; c < channels; c++) {
+            values[base + c] = sample[c];
+            sums[c] += sample[c];
+        }
+        size++;
+    }
+
+    /**
+     * Removes up to count of the oldest samples.
+     */
+    public void removeOldest(int count) {
+        int toRemove = Math.min(count, size);
+        for (int i = 0; i < toRemove; i++) {
+            int base = head * channels;
+            for (int c = 0; c < channels; c++) {
+                sums[c] -= values[base + c];
+            }
+            head = (head + 1) % capacity;
+        }
+        size -= toRemove;
+        evictionsSinceResync += toRemove;
+        if (size == 0) {
+            head = 0;
+            clearSums();
+        } else if (evictionsSinceResync >= capacity) {
+            resyncSums();
+        }
+    }
+
+    /**
+     * @return the average of the given channel over all samples in the buffer, NaN if empty
+     */
+    public float average(int channel) {
+        if (size == 0) {
+            return Float.NaN;
+        }
+        return (float) (sums[channel] / size);
+    }
+
+    /**
+     * @return the value of the given channel of the newest sample, NaN if empty
+     */
+    public float newest(int channel) {
+        if (size == 0) {
+            return Float.NaN;
+        }
+        return values[((head + size - 1) % capacity) * channels + channel];
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+        clearSums();
+    }
+
+    private void clearSums() {
+        for (int c = 0; c < channels; c++) {
+            sums[c] = 0;
+        }
+        evictionsSinceResync = 0;
+    }
+
+    /**
+     * Recomputes the running sums from the stored samples.
+     * Called once per {@link #capacity} evictions, so the cost stays amortized O(1) per sample.
+     */
+    private void resyncSums() {
+        clearSums();
+        for (int i = 0; i < size; i++) {
+            int base = ((head + i) % capacity) * channels;
+            for (int c = 0; c < channels; c++) {
+                sums[c] += values[base + c];
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package de.tuberlin.mcc.simra.app.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Sends an {@link UploadBody} with {@code Content-Encoding: gzip}. Ride CSV files get 5 to 10 times
+ * smaller, which matters on weak mobile connections.
+ * Only used for endpoints known to decode request bodies, see {@link SharedPref.App.GzipUpload}:
+ * a server which ignores the header would store the compressed bytes. If such an endpoint answers
+ * 415 after all, the body is sent again uncompressed and the caller should remember not to compress
+ * for this endpoint any more. Other errors, like 400, are returned as they are.
+ */
+public class GzipUpload {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public interface Connector {
+        /**
+         * Opens a new connection with method, timeouts and headers set, but nothing sent yet.
+         */
+        HttpURLConnection connect() throws IOException;
+    }
+
+    public static class Response {
+        public final HttpURLConnection connection;
+        public final int status;
+        /**
+         * Whether the server rejected the compressed body but accepted the uncompressed one.
+         */
+        public final boolean gzipRejected;
+
+        private Response(HttpURLConnection connection, int status, boolean gzipRejected) {
+            this.connection = connection;
+            this.status = status;
+            this.gzipRejected = gzipRejected;
+        }
+    }
+
+    /**
+     * Sends the body, compressed if gzip is true, and falls back to an uncompressed body if the
+     * server rejects the compressed one. The response can be read from the returned connection.
+     */
+    public static Response send(Connector connector, UploadBody body, boolean gzip) throws IOException {
+        HttpURLConnection connection = connector.connect();
+        int status = write(connection, body, gzip);
+        if (gzip && isRejected(status)) {
+            connection.disconnect();
+            HttpURLConnection retryConnection = connector.connect();
+            int retryStatus = write(retryConnection, body, false);
+            return new Response(retryConnection, retryStatus, retryStatus / 100 == 2);
+        }
+        return new Response(connection, status, false);
+    }
+
+    /**
+     * Writes the body into the connection and returns the response code.
+     * The body is streamed: with its length if uncompressed, in chunks if compressed.
+     */
+    public static int write(HttpURLConnection connection, UploadBody body, boolean gzip) throws IOException {
+        if (gzip) {
+            connection.setRequestProperty("Content-Encoding", "gzip");
+            connection.setChunkedStreamingMode(BUFFER_SIZE);
+            try (GZIPOutputStream out = new GZIPOutputStream(connection.getOutputStream(), BUFFER_SIZE)) {
+                body.writeTo(out);
+            }
+        } else {
+            connection.setFixedLengthStreamingMode(body.getContentLength());
+            try (OutputStream out = connection.getOutputStream()) {
+                body.writeTo(out);
+            }
+        }
+        return connection.getResponseCode();
+    }
+
+    public static boolean isRejected(int status) {
+        return status == HttpURLConnection.HTTP_UNSUPPORTED_TYPE;
+    }
+}
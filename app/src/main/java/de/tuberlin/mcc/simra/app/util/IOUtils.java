@@ -1,14 +1,11 @@
 package de.tuberlin.mcc.simra.app.util;
 
-import static de.tuberlin.mcc.simra.app.util.SharedPref.clearSharedPrefs;
-import static de.tuberlin.mcc.simra.app.util.SharedPref.createEntry;
-
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
 import android.net.Uri;
 import android.os.Environment;
 import android.util.Log;
 import android.util.Pair;
-import android.widget.Toast;
 
 import androidx.documentfile.provider.DocumentFile;
 
@@ -19,21 +16,26 @@ import org.osmdroid.util.GeoPoint;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
 import de.tuberlin.mcc.simra.app.BuildConfig;
-import de.tuberlin.mcc.simra.app.R;
+import de.tuberlin.mcc.simra.app.entities.MetaData;
+import de.tuberlin.mcc.simra.app.entities.RideCatalog;
+import de.tuberlin.mcc.simra.app.entities.RideJournal;
 
 public class IOUtils {
     private static final String TAG = "IOUtils_LOG";
@@ -52,114 +54,93 @@ public class IOUtils {
      * Example: zipFileAtPath("downloads/myfolder", "downloads/myFolder.zip");
      */
     public static void zipFolder(String inputFolderPath, String outZipPath) {
-        try {
-            FileOutputStream fos = new FileOutputStream(outZipPath);
-            ZipOutputStream zos = new ZipOutputStream(fos);
-            File srcFile = new File(inputFolderPath);
-            File[] files = srcFile.listFiles();
-            Log.d(TAG, "Zip directory: " + srcFile.getName());
-            for (int i = 0; i < files.length; i++) {
-                Log.d("", "Adding file: " + files[i].getName());
-                byte[] buffer = new byte[1024];
-                FileInputStream fis = new FileInputStream(files[i]);
-                zos.putNextEntry(new ZipEntry(files[i].getName()));
-                int length;
-                while ((length = fis.read(buffer)) > 0) {
-                    zos.write(buffer, 0, length);
-                }
-                zos.closeEntry();
-                fis.close();
+        File srcFile = new File(inputFolderPath);
+        File[] files = srcFile.listFiles();
+        Log.d(TAG, "Zip directory: " + srcFile.getName());
+        List<ZipExporter.Entry> entries = new ArrayList<>();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                entries.add(new ZipExporter.Entry(file.getName(), file));
             }
-            zos.close();
+        }
+        try (FileOutputStream fos = new FileOutputStream(outZipPath)) {
+            new ZipExporter(Runtime.getRuntime().availableProcessors()).export(entries, fos, null);
         } catch (IOException e) {
             Log.e(TAG, e.getMessage());
         }
     }
 
-    public static boolean zipto(String sourcePath, Uri toLocation, Context ctx) {
-
-        final int BUFFER = 2048;
-
+    /**
+     * Exports the app folder (files and shared_prefs) as SimRa.zip into the directory toLocation.
+     * The files are compressed in parallel by exporter, which can be used to cancel the export.
+     * Must not be called on the UI thread.
+     *
+     * @param progressListener may be null
+     * @return whether SimRa.zip was written completely
+     */
+    public static boolean zipto(String sourcePath, Uri toLocation, Context ctx, ZipExporter exporter, ZipExporter.ProgressListener progressListener) {
         File sourceFile = new File(sourcePath);
+        DocumentFile zipFile = null;
         try {
-            BufferedInputStream origin = null;
             DocumentFile parent = DocumentFile.fromTreeUri(ctx, toLocation);
             try {
                 parent.findFile("SimRa.zip").delete();
             } catch (NullPointerException ignored) {
 
             }
-            DocumentFile zipFile = parent.createFile("application/zip", "SimRa.zip");
+            zipFile = parent.createFile("application/zip", "SimRa.zip");
             Uri zipUri = null;
             if (zipFile != null) {
                 zipUri = zipFile.getUri();
             }
-            FileOutputStream dest = (FileOutputStream) ctx.getContentResolver().openOutputStream(zipUri);
-            ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(dest));
+            // the import checks the ride files against the exported catalog
+            RideCatalog.checkAndCompact(ctx);
+            List<ZipExporter.Entry> entries = new ArrayList<>();
             if (sourceFile.isDirectory()) {
                 Log.d(TAG, "parent: " + sourceFile.getParent() + " length: " + sourceFile.getParent().length());
-                zipSubFolder(out, sourceFile, sourceFile.getParent().length(), ctx);
+                collectSubFolder(entries, sourceFile, sourceFile.getParent().length(), ctx);
             } else {
-                byte[] data = new byte[BUFFER];
-                FileInputStream fi = new FileInputStream(sourcePath);
-                origin = new BufferedInputStream(fi, BUFFER);
-                ZipEntry entry = new ZipEntry(getLastPathComponent(sourcePath));
-                entry.setTime(sourceFile.lastModified()); // to keep modification time after unzipping
-                out.putNextEntry(entry);
-
-                int count;
-                while ((count = origin.read(data, 0, BUFFER)) != -1) {
-                    out.write(data, 0, count);
-                }
+                entries.add(new ZipExporter.Entry(getLastPathComponent(sourcePath), sourceFile));
+            }
+            try (OutputStream dest = ctx.getContentResolver().openOutputStream(zipUri)) {
+                exporter.export(entries, dest, progressListener);
             }
-
-            out.close();
         } catch (Exception e) {
             e.printStackTrace();
+            // do not leave a truncated SimRa.zip, which could be imported later
+            if (zipFile != null) {
+                zipFile.delete();
+            }
             return false;
         }
-        Toast.makeText(ctx, R.string.exportToast, Toast.LENGTH_SHORT).show();
         return true;
     }
 
     /*
      *
-     * Zips a subfolder
+     * Collects the files of a subfolder, in a fixed order
      *
      */
 
-    private static void zipSubFolder(ZipOutputStream out, File folder,
-                                     int basePathLength, Context ctx) throws IOException {
+    private static void collectSubFolder(List<ZipExporter.Entry> entries, File folder,
+                                         int basePathLength, Context ctx) {
         if (!(folder.getAbsolutePath().equals(ctx.getFilesDir().getParent()) || folder.getAbsolutePath().contains("files") || folder.getAbsolutePath().contains("shared_prefs"))) {
             return;
         }
-        final int BUFFER = 2048;
-
         File[] fileList = folder.listFiles();
-        BufferedInputStream origin = null;
+        if (fileList == null) {
+            return;
+        }
+        Arrays.sort(fileList);
         for (File file : fileList) {
             Log.d(TAG, "file: " + file.getPath() + " is directory: " + file.isDirectory());
             if (file.isDirectory()) {
-                zipSubFolder(out, file, basePathLength, ctx);
+                collectSubFolder(entries, file, basePathLength, ctx);
             } else {
-
-                byte data[] = new byte[BUFFER];
-                String unmodifiedFilePath = file.getPath();
-                String relativePath = unmodifiedFilePath
-                        .substring(basePathLength);
+                String relativePath = file.getPath().substring(basePathLength);
                 if (!relativePath.contains(".zip")) {
-                    FileInputStream fi = new FileInputStream(unmodifiedFilePath);
-
-                    origin = new BufferedInputStream(fi, BUFFER);
-                    ZipEntry entry = new ZipEntry(relativePath);
-
-                    entry.setTime(file.lastModified()); // to keep modification time after unzipping
-                    out.putNextEntry(entry);
-                    int count;
-                    while ((count = origin.read(data, 0, BUFFER)) != -1) {
-                        out.write(data, 0, count);
-                    }
-                    origin.close();
+                    entries.add(new ZipExporter.Entry(relativePath, file));
                 }
             }
         }
@@ -215,103 +196,100 @@ public class IOUtils {
 
     /**
      * imports rides, settings and statistics from a previously via export created SimRa.zip file.
-     * The settings and statistics (.xml files) are being parsed and written as shared preferences.
-     * The rides, incidents, metaData and other files and folders are simply extracted as .csv files.
+     * The settings and statistics (.xml files) are being parsed and written as shared preferences,
+     * with one commit per file. The rides, incidents, metaData and other files and folders are extracted.
+     * Everything is extracted to a staging folder and the ride files are checked against the ride
+     * catalog in the zip first, so a corrupt zip changes nothing. Journals on the device which are not
+     * in the zip are removed with the replaced files. If replacing the files or the shared
+     * preferences fails, the old ones are restored. Must not be called on the UI thread.
      *
-     * @param zipUri  The URI of SimRa.zip chosen by the file picker
-     * @param context Activity context needed to write to shared preferences
-     * @return false, if IOException is thrown, true otherwise.
+     * @param zipUri           The URI of SimRa.zip chosen by the file picker
+     * @param context          Activity context needed to write to shared preferences
+     * @param progressListener may be null
+     * @return false, if the data could not be imported, true otherwise.
      */
-    public static boolean importSimRaData(Uri zipUri, Context context) {
-        InputStream is;
-        ZipInputStream zis;
+    public static boolean importSimRaData(Uri zipUri, Context context, ZipImporter.ProgressListener progressListener) {
+        File appFolder = context.getFilesDir().getParentFile();
+        File stagingFolder = new File(appFolder, "import");
+        ZipImporter importer = new ZipImporter(Runtime.getRuntime().availableProcessors(),
+                stagingFolder, new File(appFolder, "import_backup"));
+        Map<String, Map<String, ?>> previousSharedPrefs = new HashMap<>();
         try {
-            is = context.getContentResolver().openInputStream(zipUri);
-            zis = new ZipInputStream(new BufferedInputStream(is));
-            ZipEntry entry;
-
-            while ((entry = zis.getNextEntry()) != null) {
-                String entryFilePath = entry.getName().replaceFirst("/" + context.getPackageName(), "");
-                String[] entryFilePathArray = entryFilePath.split("/");
-                StringBuilder tempPath = new StringBuilder(context.getFilesDir().getParentFile().getPath());
-                for (int i = 1; i < entryFilePathArray.length; i++) {
-                    tempPath.append("/").append(entryFilePathArray[i]);
-                    // create parent directories, if not present yet
-                    if (i < entryFilePathArray.length - 1) {
-                        File folder = new File(tempPath.toString());
-                        if (!folder.exists()) {
-                            folder.mkdir();
-                        }
-                        // delete the file if it already exists. Otherwise, extract it or parse the xml.
-                    } else {
-                        File file = new File(tempPath.toString());
-                        if (file.exists()) {
-                            file.delete();
-                        }
-                        if (file.getName().endsWith(".xml")) {
-                            loadSharePrefs(file, zis, context);
-                        } else {
-                            unzipContent(file, zis);
-                        }
+            long bytesTotal = -1;
+            try (AssetFileDescriptor assetFileDescriptor = context.getContentResolver().openAssetFileDescriptor(zipUri, "r")) {
+                if (assetFileDescriptor != null) {
+                    bytesTotal = assetFileDescriptor.getLength();
+                }
+            } catch (IOException | RuntimeException e) {
+                Log.d(TAG, "size of " + zipUri + " unknown");
+            }
+            List<ZipImporter.ExtractedFile> extractedFiles;
+            try (InputStream is = context.getContentResolver().openInputStream(zipUri)) {
+                extractedFiles = importer.extract(new BufferedInputStream(is), bytesTotal, context.getPackageName(), progressListener);
+            }
+
+            // check everything before the first file is replaced
+            Map<String, RideCatalog.FileEntry> catalog = RideCatalog.readCatalog(new File(stagingFolder, "files"));
+            List<ZipImporter.ExtractedFile> files = new ArrayList<>();
+            Set<String> paths = new HashSet<>();
+            Map<String, Map<String, Object>> sharedPrefs = new HashMap<>();
+            for (ZipImporter.ExtractedFile extractedFile : extractedFiles) {
+                if (extractedFile.path.startsWith("shared_prefs/") && extractedFile.path.endsWith(".xml")) {
+                    String sharedPrefName = extractedFile.stagedFile.getName().replace(".xml", "");
+                    sharedPrefs.put(sharedPrefName, SharedPref.readSharedPrefsFile(extractedFile.stagedFile));
+                    continue;
+                }
+                RideCatalog.FileEntry fileEntry = extractedFile.path.startsWith("files/") ? catalog.get(extractedFile.stagedFile.getName()) : null;
+                if (fileEntry != null) {
+                    if (fileEntry.size != extractedFile.size || fileEntry.crc32 != extractedFile.crc32) {
+                        throw new IOException(extractedFile.path + " does not match the ride catalog");
+                    }
+                    // keeps the imported catalog valid without reading the file again
+                    extractedFile.stagedFile.setLastModified(fileEntry.lastModified);
+                }
+                files.add(extractedFile);
+                paths.add(extractedFile.path);
+            }
+            // the journals of metaData.csv, the events files and the catalog on this device would be
+            // replayed onto the imported files; the journals of unfinished rides stay for their recovery
+            List<String> removedPaths = new ArrayList<>();
+            File[] deviceFiles = context.getFilesDir().listFiles();
+            if (deviceFiles != null) {
+                for (File deviceFile : deviceFiles) {
+                    String path = "files/" + deviceFile.getName();
+                    if (deviceFile.isFile() && deviceFile.getName().endsWith(".journal") && !deviceFile.getName().startsWith("Ride") && !paths.contains(path)) {
+                        removedPaths.add(path);
                     }
                 }
-                zis.closeEntry();
             }
 
-            zis.close();
+            importer.commit(files, removedPaths, appFolder);
+            for (Map.Entry<String, Map<String, Object>> entry : sharedPrefs.entrySet()) {
+                previousSharedPrefs.put(entry.getKey(), new HashMap<>(context.getSharedPreferences(entry.getKey(), Context.MODE_PRIVATE).getAll()));
+                if (!SharedPref.replaceSharedPrefs(entry.getKey(), entry.getValue(), context)) {
+                    throw new IOException("could not write shared preferences " + entry.getKey());
+                }
+            }
         } catch (IOException e) {
             e.printStackTrace();
+            for (Map.Entry<String, Map<String, ?>> entry : previousSharedPrefs.entrySet()) {
+                SharedPref.replaceSharedPrefs(entry.getKey(), entry.getValue(), context);
+            }
+            if (!importer.rollback()) {
+                Log.e(TAG, "import could not be rolled back completely");
+            }
             return false;
+        } finally {
+            importer.cleanUp();
+            // metaData.csv and the ride files were replaced
+            MetaData.invalidate();
+            RideCatalog.invalidate();
         }
-
+        // adds the rides which were on the device before, but not in the imported catalog
+        RideCatalog.check(context);
         return true;
     }
 
-    /**
-     * Parses a shared preferences file (.xml) and overwrites/creates new entries in the respective
-     * shared preferences file.
-     *
-     * @param file
-     * @param zis
-     * @param context
-     * @throws IOException
-     */
-    private static void loadSharePrefs(File file, ZipInputStream zis, Context context) throws IOException {
-        File tempFile = new File(file.getAbsolutePath().replace(".xml", "_temp.xml"));
-        unzipContent(tempFile, zis);
-        String sharedPrefName = file.getName().replace(".xml", "");
-        clearSharedPrefs(sharedPrefName, context);
-        try (BufferedReader bufferedReader = new BufferedReader(new FileReader(tempFile))) {
-            String line;
-            while ((line = bufferedReader.readLine()) != null) {
-                if (!line.trim().isEmpty() && !line.startsWith("<?xml") && !line.startsWith("<map>") && !line.startsWith("</map>")) {
-                    createEntry(sharedPrefName, line, context);
-                }
-            }
-        }
-        tempFile.delete();
-    }
-
-    /**
-     * Unzips the content in zis to file.
-     *
-     * @param file
-     * @param zis
-     * @throws IOException
-     */
-    private static void unzipContent(File file, ZipInputStream zis) throws IOException {
-        FileOutputStream fOut;
-        int count;
-        byte[] buffer = new byte[1024];
-        // Log.d(TAG, "file " + file.getPath() + " is being created");
-        file.createNewFile();
-        fOut = new FileOutputStream(file);
-        while ((count = zis.read(buffer)) != -1) {
-            fOut.write(buffer, 0, count);
-        }
-        fOut.close();
-    }
-
     /**
      * Stores navigation points into a json file
      *
@@ -474,6 +452,13 @@ public class IOUtils {
             return new File(getMetaDataFilePath(context));
         }
 
+        /**
+         * Changes of the MetaData not yet written to metaData.csv, see MetaDataJournal
+         */
+        public static File getMetaDataJournalFile(Context context) {
+            return new File(IOUtils.Directories.getBaseFolderPath(context) + "metaData.journal");
+        }
+
         public static String getGPSLogFileName(int rideId, boolean isTempFile) {
             return (isTempFile ? "Temp" : "") + rideId + "_accGps.csv";
         }
@@ -486,6 +471,76 @@ public class IOUtils {
             return new File(getGPSLogFilePath(rideId, isTempFile, context));
         }
 
+        public static String getDataLogFileName(int rideId) {
+            return rideId + "_dataLog.bin";
+        }
+
+        /**
+         * @return binary version of the DataLog of a ride, see {@link de.tuberlin.mcc.simra.app.entities.DataLogFile}
+         */
+        public static File getDataLogFile(int rideId, Context context) {
+            return new File(IOUtils.Directories.getBaseFolderPath(context) + getDataLogFileName(rideId));
+        }
+
+        public static String getCompactDataLogFileName(int rideId) {
+            return rideId + "_accGps.srz";
+        }
+
+        /**
+         * @return compact version of the DataLog of a synced ride, see {@link de.tuberlin.mcc.simra.app.entities.CompactDataLog}
+         */
+        public static File getCompactDataLogFile(int rideId, Context context) {
+            return new File(IOUtils.Directories.getBaseFolderPath(context) + getCompactDataLogFileName(rideId));
+        }
+
+        public static String getDataLogIndexFileName(int rideId) {
+            return rideId + "_dataLog.idx";
+        }
+
+        /**
+         * @return sparse index of the DataLog of a ride, see {@link de.tuberlin.mcc.simra.app.entities.DataLogIndex}
+         */
+        public static File getDataLogIndexFile(int rideId, Context context) {
+            return new File(IOUtils.Directories.getBaseFolderPath(context) + getDataLogIndexFileName(rideId));
+        }
+
+        public static String getRawSensorFileName(int rideId) {
+            return "rawSensors" + rideId + ".bin";
+        }
+
+        /**
+         * @return file of the raw sensor events of a ride, see {@link de.tuberlin.mcc.simra.app.entities.RawSensorLog}
+         */
+        public static File getRawSensorFile(int rideId, Context context) {
+            return new File(IOUtils.Directories.getBaseFolderPath(context) + getRawSensorFileName(rideId));
+        }
+
+        /**
+         * @return file of the recording health summary of a ride, see {@link RecordingHealth}
+         */
+        public static File getRecordingHealthFile(int rideId, Context context) {
+            return new File(IOUtils.Directories.getBaseFolderPath(context) + rideId + "_recordingHealth.csv");
+        }
+
+        public static String getRideJournalFileName(int rideId) {
+            return "Ride" + rideId + RideJournal.FILE_SUFFIX;
+        }
+
+        /**
+         * @return journal of a ride which is being recorded, see {@link RideJournal}
+         */
+        public static File getRideJournalFile(int rideId, Context context) {
+            return new File(IOUtils.Directories.getBaseFolderPath(context) + getRideJournalFileName(rideId));
+        }
+
+        /**
+         * @return journals of rides whose recording was not finished
+         */
+        public static File[] getRideJournalFiles(Context context) {
+            File[] files = new File(IOUtils.Directories.getBaseFolderPath(context)).listFiles((dir, name) -> name.startsWith("Ride") && name.endsWith(RideJournal.FILE_SUFFIX));
+            return files != null ? files : new File[0];
+        }
+
         public static File getRegionsFile(Context context) {
             return new File(IOUtils.Directories.getBaseFolderPath(context) + "simRa_regions.config");
         }
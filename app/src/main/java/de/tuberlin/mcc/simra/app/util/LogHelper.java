@@ -10,6 +10,8 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.Arrays;
 
+import de.tuberlin.mcc.simra.app.entities.MetaData;
+
 /**
  * Log Helper Methods for easier debugging
  */
@@ -39,6 +41,7 @@ public class LogHelper {
 
     public static void showMetadata(Context context) {
         Log.d(TAG, "===========================V=metaData=V===========================");
+        MetaData.compactMetaData(context);
         try (BufferedReader metaDataReader = new BufferedReader(new InputStreamReader(new FileInputStream(IOUtils.Files.getMetaDataFile(context))))) {
             String metaDataLine;
             // loop through the metaData.csv lines
@@ -0,0 +1,170 @@
+package de.tuberlin.mcc.simra.app.util;
+
+/**
+ * Bounded buffer of OpenBikeSensor distance measurements ordered by time, so that each recorded
+ * line can be joined with the measurement(s) taken at its time instead of the oldest queued one.
+ * <p>
+ * The timestamps have to be in the same time base as the lines (the OBS device clock is not),
+ * e.g. the time the measurement was received. When the buffer is full, the oldest measurement is
+ * overwritten and counted as overflow. Measurements which are removed without ever having been
+ * joined with a line are counted as dropped.
+ * <p>
+ * Not thread safe. Does not allocate after construction.
+ */
+public class OBSDistanceBuffer {
+    /**
+     * Returned if there is no matching measurement
+     */
+    public static final int NO_VALUE = Integer.MIN_VALUE;
+
+    private final long[] timestamps;
+    private final int[] distances;
+    private final boolean[] used;
+    private int head = 0;
+    private int size = 0;
+    private long addedCount = 0;
+    private long overflowCount = 0;
+    private long droppedCount = 0;
+
+    public OBSDistanceBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        timestamps = new long[capacity];
+        distances = new int[capacity];
+        used = new boolean[capacity];
+    }
+
+    /**
+     * Adds a measurement. A timestamp older than the newest one is treated as equal to it,
+     * so that the buffer stays ordered.
+     */
+    public void add(long timestamp, int distance) {
+        if (size == timestamps.length) {
+            overflowCount++;
+            removeOldest();
+        }
+        if (size > 0) {
+            timestamp = Math.max(timestamp, timestamps[index(size - 1)]);
+        }
+        int i = index(size);
+        timestamps[i] = timestamp;
+        distances[i] = distance;
+        used[i] = false;
+        size++;
+        addedCount++;
+    }
+
+    /**
+     * @return the distance of the measurement closest to time, if it is at most tolerance away, otherwise {@link #NO_VALUE}
+     */
+    public int closest(long time, long tolerance) {
+        if (size == 0) {
+            return NO_VALUE;
+        }
+        // first measurement at or after time
+        int after = firstAtOrAfter(time);
+        int best = -1;
+        long bestDelta = Long.MAX_VALUE;
+        if (after < size) {
+            best = after;
+            bestDelta = timestamps[index(after)] - time;
+        }
+        if (after > 0 && time - timestamps[index(after - 1)] < bestDelta) {
+            best = after - 1;
+            bestDelta = time - timestamps[index(after - 1)];
+        }
+        if (best < 0 || bestDelta > tolerance) {
+            return NO_VALUE;
+        }
+        used[index(best)] = true;
+        return distances[index(best)];
+    }
+
+    /**
+     * @return the minimum distance of the measurements in (from, to], {@link #NO_VALUE} if there are none
+     */
+    public int minimum(long from, long to) {
+        int min = NO_VALUE;
+        for (int n = firstAtOrAfter(from); n < size; n++) {
+            int i = index(n);
+            if (timestamps[i] == from) {
+                continue;
+            }
+            if (timestamps[i] > to) {
+                break;
+            }
+            used[i] = true;
+            if (min == NO_VALUE || distances[i] < min) {
+                min = distances[i];
+            }
+        }
+        return min;
+    }
+
+    /**
+     * Removes all measurements older than time.
+     */
+    public void discardOlderThan(long time) {
+        while (size > 0 && timestamps[head] < time) {
+            removeOldest();
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return timestamps.length;
+    }
+
+    public long getAddedCount() {
+        return addedCount;
+    }
+
+    /**
+     * @return number of measurements overwritten because the buffer was full
+     */
+    public long getOverflowCount() {
+        return overflowCount;
+    }
+
+    /**
+     * @return number of measurements removed without having been joined with a line
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    private int index(int n) {
+        return (head + n) % timestamps.length;
+    }
+
+    private void removeOldest() {
+        if (!used[head]) {
+            droppedCount++;
+        }
+        head = (head + 1) % timestamps.length;
+        size--;
+    }
+
+    /**
+     * Binary search over the ordered measurements.
+     *
+     * @return position (relative to the oldest) of the first measurement with a timestamp at or after time, size if there is none
+     */
+    private int firstAtOrAfter(long time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[index(mid)] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
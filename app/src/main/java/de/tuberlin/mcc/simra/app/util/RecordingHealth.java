@@ -0,0 +1,208 @@
+package de.tuberlin.mcc.simra.app.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Health metrics of the recording pipeline of a ride: how regularly the resampled sensor slots
+ * are handled (tick jitter), how long it takes from a sensor event to its line, the lines per second,
+ * the number of queued OBS measurements and the age of the GPS fixes used for the lines.
+ * <p>
+ * Written by the recording thread only, so updates are plain ordered writes without locks or CAS.
+ * Any other thread (e.g. an activity bound to the RecorderService) can read them at any time.
+ */
+public class RecordingHealth {
+    public final static String SUMMARY_HEADER = "metric,value";
+
+    private final Histogram tickJitterMicros = Histogram.exponential(24);
+    private final Histogram sensorToLineMillis = Histogram.exponential(16);
+    private final Histogram obsQueueDepth = Histogram.exponential(12);
+    private final Histogram gpsFixAgeMillis = Histogram.exponential(20);
+    private final AtomicLong lines = new AtomicLong();
+    private final AtomicLong firstLineNanos = new AtomicLong(Long.MIN_VALUE);
+    private final AtomicLong lastLineNanos = new AtomicLong(Long.MIN_VALUE);
+    private long lastTickNanos = Long.MIN_VALUE;
+
+    /**
+     * Called for every slot handed to the InsertHandler.
+     *
+     * @param nowNanos    monotonic time the slot is handled
+     * @param periodNanos expected time between two slots
+     */
+    public void onTick(long nowNanos, long periodNanos) {
+        if (lastTickNanos != Long.MIN_VALUE) {
+            tickJitterMicros.record(Math.abs(nowNanos - lastTickNanos - periodNanos) / 1000);
+        }
+        lastTickNanos = nowNanos;
+    }
+
+    /**
+     * Called for every line written.
+     *
+     * @param nowNanos      monotonic time the line is written
+     * @param latencyMillis time from the sensor event (of the slot the line is built from) to the line
+     * @param obsQueueDepth number of OBS measurements waiting to be joined with lines
+     */
+    public void onLine(long nowNanos, long latencyMillis, int obsQueueDepth) {
+        if (firstLineNanos.get() == Long.MIN_VALUE) {
+            firstLineNanos.lazySet(nowNanos);
+        }
+        lastLineNanos.lazySet(nowNanos);
+        increment(lines);
+        sensorToLineMillis.record(latencyMillis);
+        this.obsQueueDepth.record(obsQueueDepth);
+    }
+
+    /**
+     * @param ageMillis age of the location used for a GPS line
+     */
+    public void onGPSFix(long ageMillis) {
+        gpsFixAgeMillis.record(ageMillis);
+    }
+
+    public Histogram getTickJitterMicros() {
+        return tickJitterMicros;
+    }
+
+    public Histogram getSensorToLineMillis() {
+        return sensorToLineMillis;
+    }
+
+    public Histogram getOBSQueueDepth() {
+        return obsQueueDepth;
+    }
+
+    public Histogram getGPSFixAgeMillis() {
+        return gpsFixAgeMillis;
+    }
+
+    public long getLines() {
+        return lines.get();
+    }
+
+    /**
+     * @return average lines per second between the first and the last line
+     */
+    public double getLinesPerSecond() {
+        long first = firstLineNanos.get();
+        long last = lastLineNanos.get();
+        long count = lines.get();
+        if (first == Long.MIN_VALUE || last <= first || count < 2) {
+            return 0;
+        }
+        return (count - 1) * 1e9 / (last - first);
+    }
+
+    /**
+     * @return the metrics as name value pairs, see {@link #stringifySummary(Map)}
+     */
+    public Map<String, Long> getSummary() {
+        Map<String, Long> summary = new LinkedHashMap<>();
+        summary.put("lines", getLines());
+        summary.put("linesPerMinute", Math.round(getLinesPerSecond() * 60));
+        tickJitterMicros.addToSummary("tickJitterMicros", summary);
+        sensorToLineMillis.addToSummary("sensorToLineMillis", summary);
+        obsQueueDepth.addToSummary("obsQueueDepth", summary);
+        gpsFixAgeMillis.addToSummary("gpsFixAgeMillis", summary);
+        return summary;
+    }
+
+    public static String stringifySummary(Map<String, Long> summary) {
+        StringBuilder result = new StringBuilder(SUMMARY_HEADER).append(System.lineSeparator());
+        for (Map.Entry<String, Long> entry : summary.entrySet()) {
+            result.append(entry.getKey()).append(',').append(entry.getValue()).append(System.lineSeparator());
+        }
+        return result.toString();
+    }
+
+    /**
+     * Single writer increment, visible to other threads without locking.
+     */
+    private static void increment(AtomicLong counter) {
+        counter.lazySet(counter.get() + 1);
+    }
+
+    /**
+     * Histogram of non-negative values with the buckets [0, 0], [1, 1], [2, 3], [4, 7], ...
+     * and one bucket for all larger values. Single writer, see {@link RecordingHealth}.
+     */
+    public static class Histogram {
+        private final AtomicLongArray buckets;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        private Histogram(int bucketCount) {
+            buckets = new AtomicLongArray(bucketCount);
+        }
+
+        /**
+         * @param bucketCount number of buckets, the last one takes all values from 2^(bucketCount - 2) on
+         */
+        public static Histogram exponential(int bucketCount) {
+            return new Histogram(bucketCount);
+        }
+
+        public void record(long value) {
+            value = Math.max(0, value);
+            int bucket = Math.min(64 - Long.numberOfLeadingZeros(value), buckets.length() - 1);
+            buckets.lazySet(bucket, buckets.get(bucket) + 1);
+            increment(count);
+            sum.lazySet(sum.get() + value);
+            if (value > max.get()) {
+                max.lazySet(value);
+            }
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        public long getMean() {
+            long count = this.count.get();
+            return count == 0 ? 0 : sum.get() / count;
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return upper bound of the bucket which contains the percentile, at most the maximum
+         */
+        public long getPercentile(double percentile) {
+            long count = this.count.get();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank && seen > 0) {
+                    return Math.min(upperBound(i), getMax());
+                }
+            }
+            return getMax();
+        }
+
+        private long upperBound(int bucket) {
+            if (bucket == buckets.length() - 1) {
+                return Long.MAX_VALUE;
+            }
+            return bucket == 0 ? 0 : (1L << bucket) - 1;
+        }
+
+        private void addToSummary(String name, Map<String, Long> summary) {
+            summary.put(name + ".count", getCount());
+            summary.put(name + ".mean", getMean());
+            summary.put(name + ".p50", getPercentile(50));
+            summary.put(name + ".p90", getPercentile(90));
+            summary.put(name + ".p99", getPercentile(99));
+            summary.put(name + ".max", getMax());
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package de.tuberlin.mcc.simra.app.util;
+
+import java.util.Arrays;
+
+/**
+ * Resamples asynchronous, timestamped sensor events onto a fixed time grid.
+ * <p>
+ * One sensor is the driver (the accelerometer in the RecorderService): its first sample defines
+ * the grid and a slot exists once the driver has a sample at or past it. The value of every
+ * sensor at a slot time is linearly interpolated between its samples before and after the slot.
+ * A slot is emitted as soon as every sensor has a sample at or past it, or, if a sensor lags or
+ * does not deliver at all, once the driver is more than the maximum delay ahead of the slot (the
+ * lagging sensor then contributes its latest value, 0 before its first sample). Therefore the output only depends on the
+ * sensor timestamps and not on when or in which bursts the events are delivered, as long as the
+ * bursts are shorter than the maximum delay.
+ * <p>
+ * If the driver does not deliver a sample for longer than the maximum gap, the slots in the gap
+ * are not made up but counted as dropped. Samples that are not newer than the previous sample of
+ * the same sensor are ignored and counted as late.
+ * <p>
+ * Not thread safe, all methods have to be called on the same thread. {@link #onSample} does not allocate.
+ */
+public class SensorResampler {
+    private final int sensorCount;
+    private final int[] channels;
+    private final int driverSensor;
+    private final long periodNanos;
+    private final long maxGapNanos;
+    private final long maxDelayNanos;
+    private final SlotListener slotListener;
+
+    private final float[][] previousValues;
+    private final float[][] latestValues;
+    private final long[] previousTimestamps;
+    private final long[] latestTimestamps;
+    private final int[] sampleCounts;
+    // bit per expected sensor, a slot is complete when all of them are filled
+    private int expectedSensors;
+
+    // Slots which exist or are being filled, indexed by slot index modulo the ring size
+    private final int ringSize;
+    private final float[][][] ringValues;
+    private final long[] ringSlotIndex;
+    private final int[] ringFilledSensors;
+    // per sensor the index of the next slot it has not filled yet
+    private final long[] fillIndex;
+
+    private boolean started = false;
+    private long origin;
+    private long nextIndex;
+    private long emittedSlots = 0;
+    private long droppedSlots = 0;
+    private long lateSamples = 0;
+    private long samples = 0;
+
+    /**
+     * @param channels      number of values used of every sensor, indexed by sensor (at most 31 sensors)
+     * @param driverSensor  index of the sensor which defines the grid
+     * @param periodNanos   distance of two grid slots
+     * @param maxGapNanos   slots are only interpolated across driver gaps up to this length
+     * @param maxDelayNanos how far the driver may be ahead of a slot before it is emitted without waiting for lagging sensors
+     * @param slotListener  gets the emitted slots
+     */
+    public SensorResampler(int[] channels, int driverSensor, long periodNanos, long maxGapNanos, long maxDelayNanos, SlotListener slotListener) {
+        if (periodNanos <= 0 || maxGapNanos < periodNanos || maxDelayNanos < 0) {
+            throw new IllegalArgumentException("period must be positive and not longer than the maximum gap");
+        }
+        if (channels.length > 31 || driverSensor < 0 || driverSensor >= channels.length) {
+            throw new IllegalArgumentException("invalid sensors");
+        }
+        this.sensorCount = channels.length;
+        this.channels = channels.clone();
+        this.driverSensor = driverSensor;
+        this.periodNanos = periodNanos;
+        this.maxGapNanos = maxGapNanos;
+        this.maxDelayNanos = maxDelayNanos;
+        this.slotListener = slotListener;
+        this.previousValues = new float[sensorCount][];
+        this.latestValues = new float[sensorCount][];
+        for (int s = 0; s < sensorCount; s++) {
+            previousValues[s] = new float[channels[s]];
+            latestValues[s] = new float[channels[s]];
+        }
+        this.previousTimestamps = new long[sensorCount];
+        this.latestTimestamps = new long[sensorCount];
+        this.sampleCounts = new int[sensorCount];
+        this.expectedSensors = (1 << sensorCount) - 1;
+
+        this.ringSize = (int) (maxDelayNanos / periodNanos) + 2;
+        this.ringValues = new float[ringSize][sensorCount][];
+        for (int r = 0; r < ringSize; r++) {
+            for (int s = 0; s < sensorCount; s++) {
+                ringValues[r][s] = new float[channels[s]];
+            }
+        }
+        this.ringSlotIndex = new long[ringSize];
+        Arrays.fill(ringSlotIndex, -1);
+        this.ringFilledSensors = new int[ringSize];
+        this.fillIndex = new long[sensorCount];
+    }
+
+    /**
+     * @param sensor         index of the sensor
+     * @param values         values of the sample, only read during the call
+     * @param valueCount     number of valid entries in values, missing channels are set to 0
+     * @param timestampNanos timestamp of the sample
+     */
+    public void onSample(int sensor, float[] values, int valueCount, long timestampNanos) {
+        if (sensor < 0 || sensor >= sensorCount) {
+            return;
+        }
+        if (sampleCounts[sensor] > 0 && timestampNanos <= latestTimestamps[sensor]) {
+            lateSamples++;
+            return;
+        }
+        samples++;
+
+        // keep the previous sample for interpolation
+        float[] swap = previousValues[sensor];
+        previousValues[sensor] = latestValues[sensor];
+        latestValues[sensor] = swap;
+        previousTimestamps[sensor] = latestTimestamps[sensor];
+        int count = Math.min(valueCount, channels[sensor]);
+        for (int c = 0; c < channels[sensor]; c++) {
+            swap[c] = c < count ? values[c] : 0F;
+        }
+        latestTimestamps[sensor] = timestampNanos;
+        if (sampleCounts[sensor] < 2) {
+            sampleCounts[sensor]++;
+        }
+
+        if (!started) {
+            if (sensor != driverSensor) {
+                return;
+            }
+            started = true;
+            origin = timestampNanos;
+            nextIndex = 0;
+        } else if (sensor == driverSensor && timestampNanos - previousTimestamps[sensor] > maxGapNanos) {
+            // emit what was recorded before the gap, but do not make up the slots inside it
+            emitSlots(previousTimestamps[sensor], true);
+            long firstIndexAfterGap = (timestampNanos - origin + periodNanos - 1) / periodNanos;
+            if (firstIndexAfterGap > nextIndex) {
+                droppedSlots += firstIndexAfterGap - nextIndex;
+                nextIndex = firstIndexAfterGap;
+            }
+        }
+        fillSlots(sensor, timestampNanos);
+        emitSlots(latestTimestamps[driverSensor], false);
+    }
+
+    /**
+     * Slots do not wait for sensors which are not expected (e.g. not available on the device).
+     * All sensors are expected by default.
+     */
+    public void setExpected(int sensor, boolean expected) {
+        if (expected) {
+            expectedSensors |= 1 << sensor;
+        } else {
+            expectedSensors &= ~(1 << sensor);
+        }
+    }
+
+    /**
+     * @return number of slots passed to the listener
+     */
+    public long getEmittedSlots() {
+        return emittedSlots;
+    }
+
+    /**
+     * @return number of slots skipped because the driver sensor had a gap longer than the maximum gap
+     */
+    public long getDroppedSlots() {
+        return droppedSlots;
+    }
+
+    /**
+     * @return number of ignored samples, which were not newer than the previous sample of their sensor
+     */
+    public long getLateSamples() {
+        return lateSamples;
+    }
+
+    /**
+     * @return number of accepted samples of all sensors
+     */
+    public long getSamples() {
+        return samples;
+    }
+
+    private long slotTime(long index) {
+        return origin + index * periodNanos;
+    }
+
+    private int ringPosition(long index) {
+        int position = (int) (index % ringSize);
+        if (ringSlotIndex[position] != index) {
+            ringSlotIndex[position] = index;
+            ringFilledSensors[position] = 0;
+        }
+        return position;
+    }
+
+    /**
+     * Interpolates the values of the sensor for all slots up to its latest sample.
+     */
+    private void fillSlots(int sensor, long timestampNanos) {
+        long index = Math.max(fillIndex[sensor], nextIndex);
+        long limit = nextIndex + ringSize;
+        while (index < limit && slotTime(index) <= timestampNanos) {
+            int position = ringPosition(index);
+            valueAt(sensor, slotTime(index), ringValues[position][sensor]);
+            ringFilledSensors[position] |= 1 << sensor;
+            index++;
+        }
+        fillIndex[sensor] = index;
+    }
+
+    /**
+     * Emits all slots up to the driver timestamp, which are complete or waited long enough.
+     */
+    private void emitSlots(long driverTimestamp, boolean force) {
+        while (slotTime(nextIndex) <= driverTimestamp) {
+            long slot = slotTime(nextIndex);
+            int position = ringPosition(nextIndex);
+            int missing = expectedSensors & ~ringFilledSensors[position];
+            if (missing != 0 && !force && driverTimestamp - slot <= maxDelayNanos) {
+                return;
+            }
+            for (int s = 0; s < sensorCount; s++) {
+                if ((ringFilledSensors[position] & (1 << s)) == 0) {
+                    valueAt(s, slot, ringValues[position][s]);
+                }
+            }
+            emittedSlots++;
+            slotListener.onSlot(slot, ringValues[position]);
+            ringSlotIndex[position] = -1;
+            nextIndex++;
+        }
+    }
+
+    private void valueAt(int sensor, long time, float[] out) {
+        if (sampleCounts[sensor] == 0) {
+            for (int c = 0; c < out.length; c++) {
+                out[c] = 0F;
+            }
+        } else if (sampleCounts[sensor] == 1 || latestTimestamps[sensor] <= time) {
+            System.arraycopy(latestValues[sensor], 0, out, 0, out.length);
+        } else if (previousTimestamps[sensor] >= time) {
+            // the sensor is ahead, the previous sample is the closest one still known
+            System.arraycopy(previousValues[sensor], 0, out, 0, out.length);
+        } else {
+            float fraction = (float) ((double) (time - previousTimestamps[sensor]) / (latestTimestamps[sensor] - previousTimestamps[sensor]));
+            for (int c = 0; c < out.length; c++) {
+                out[c] = previousValues[sensor][c] + (latestValues[sensor][c] - previousValues[sensor][c]) * fraction;
+            }
+        }
+    }
+
+    public interface SlotListener {
+        /**
+         * @param timestampNanos time of the slot in the time base of the sensor timestamps
+         * @param values         resampled values indexed by sensor, only valid during the call
+         */
+        void onSlot(long timestampNanos, float[][] values);
+    }
+}
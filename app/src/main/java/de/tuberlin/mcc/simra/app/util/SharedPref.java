@@ -3,6 +3,18 @@ package de.tuberlin.mcc.simra.app.util;
 import android.content.Context;
 import android.content.SharedPreferences;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import de.tuberlin.mcc.simra.app.BuildConfig;
+
 /**
  * Helper for central access to all shared prefs used by the app
  * Be aware that changing already implemented Strings to access the preferences resets the Preferences for App Users!
@@ -126,9 +138,32 @@ public class SharedPref {
         context.getApplicationContext().getSharedPreferences(SharedPref.SHARED_PREF_NAME, SharedPref.DEFAULT_MODE).edit().putLong(Settings.Ride.PrivacyDuration.PRIVACY_DURATION, value).apply();
     }
 
-    public static void createEntry(String sharedPrefName, String line, Context context) {
+    /**
+     * Reads the entries of a shared preferences file (.xml) as written by Android, one entry per line.
+     * Entries which are not string, boolean, int or long are skipped.
+     *
+     * @return the values by name, in the order of the file
+     * @throws IOException if the file cannot be read or a line is no entry
+     */
+    public static Map<String, Object> readSharedPrefsFile(File file) throws IOException {
+        Map<String, Object> entries = new LinkedHashMap<>();
+        try (BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = bufferedReader.readLine()) != null) {
+                if (!line.trim().isEmpty() && !line.startsWith("<?xml") && !line.startsWith("<map>") && !line.startsWith("</map>")) {
+                    try {
+                        parseEntry(line, entries);
+                    } catch (RuntimeException e) {
+                        throw new IOException("invalid entry in " + file.getName() + ": " + line, e);
+                    }
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static void parseEntry(String line, Map<String, Object> entries) {
         String[] sharedPrefsEntry = line.replaceAll("<", " ").replaceAll(">", " ").replaceAll("/", "").trim().split(" ");
-        // Log.d("SharedPref_LOG:","sharedPrefsEntry: " + Arrays.toString(sharedPrefsEntry));
         String entryType = sharedPrefsEntry[0];
         String entryName = sharedPrefsEntry[1].split("\"")[1];
         String entryValue = "";
@@ -139,28 +174,47 @@ public class SharedPref {
         }
         switch (entryType) {
             case "string":
-                writeToSharedPrefs(entryName, entryValue, sharedPrefName, context);
+                entries.put(entryName, entryValue);
                 break;
             case "boolean":
-                writeBooleanToSharedPrefs(entryName, Boolean.parseBoolean(entryValue), sharedPrefName, context);
+                entries.put(entryName, Boolean.parseBoolean(entryValue));
                 break;
             case "int":
-                writeIntToSharedPrefs(entryName, Integer.parseInt(entryValue), sharedPrefName, context);
+                entries.put(entryName, Integer.parseInt(entryValue));
                 break;
             case "long":
-                writeLongToSharedPrefs(entryName, Long.parseLong(entryValue), sharedPrefName, context);
+                entries.put(entryName, Long.parseLong(entryValue));
                 break;
         }
-        // Log.d("SharedPref_LOG", "entry: " + entryType + " " + entryName + " " + entryValue);
     }
 
-    public static void clearSharedPrefs(String sharedPrefName, Context context) {
-        SharedPreferences preferences =
-                context.getSharedPreferences(sharedPrefName,
-                        Context.MODE_PRIVATE);
-        SharedPreferences.Editor editor = preferences.edit();
+    /**
+     * Replaces all entries of the shared preferences with the given ones in a single commit.
+     * The entries can also be a copy of {@link SharedPreferences#getAll()}.
+     *
+     * @return whether the entries were written
+     */
+    @SuppressWarnings("unchecked")
+    public static boolean replaceSharedPrefs(String sharedPrefName, Map<String, ?> entries, Context context) {
+        SharedPreferences.Editor editor = context.getApplicationContext().getSharedPreferences(sharedPrefName, Context.MODE_PRIVATE).edit();
         editor.clear();
-        editor.commit();
+        for (Map.Entry<String, ?> entry : entries.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof String) {
+                editor.putString(entry.getKey(), (String) value);
+            } else if (value instanceof Boolean) {
+                editor.putBoolean(entry.getKey(), (Boolean) value);
+            } else if (value instanceof Integer) {
+                editor.putInt(entry.getKey(), (Integer) value);
+            } else if (value instanceof Long) {
+                editor.putLong(entry.getKey(), (Long) value);
+            } else if (value instanceof Float) {
+                editor.putFloat(entry.getKey(), (Float) value);
+            } else if (value instanceof Set) {
+                editor.putStringSet(entry.getKey(), (Set<String>) value);
+            }
+        }
+        return editor.commit();
     }
 
     public static class App {
@@ -195,6 +249,32 @@ public class SharedPref {
             }
         }
 
+        /**
+         * Whether an upload endpoint (ride, profile, crash, classify-ride) accepts gzip compressed bodies.
+         * Only the endpoints listed in BuildConfig.GZIP_UPLOAD_ENDPOINTS, which are known to decode them,
+         * and only until the server rejected one with 415, see GzipUpload
+         */
+        public static class GzipUpload {
+            private static final String GZIP_REJECTED = APP + "GZIP-REJECTED-";
+
+            public static boolean isAccepted(String endpoint, Context context) {
+                return isEnabled(endpoint) && !readBooleanFromAppSharedPrefs(GZIP_REJECTED + endpoint, context);
+            }
+
+            private static boolean isEnabled(String endpoint) {
+                for (String enabledEndpoint : BuildConfig.GZIP_UPLOAD_ENDPOINTS.split(",")) {
+                    if (enabledEndpoint.trim().equals(endpoint)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            public static void setRejected(String endpoint, Context context) {
+                writeBooleanToAppSharedPrefsAsync(GZIP_REJECTED + endpoint, true, context);
+            }
+        }
+
         /**
          * Grouped State for Crash Data
          */
@@ -647,6 +727,39 @@ public class SharedPref {
                 }
             }
 
+            /**
+             * Battery saver recording: the sensors deliver their events in batches (hardware FIFO)
+             * instead of waking the application processor for every single event.
+             */
+            public static class BatterySaver {
+                // See top of this class before changing this string
+                public static final String BATTERY_SAVER = SETTINGS + "BATTERY_SAVER";
+
+                public static boolean isEnabled(Context context) {
+                    return readBooleanFromAppSharedPrefs(BATTERY_SAVER, context);
+                }
+
+                public static void setEnabled(boolean enabled, Context context) {
+                    writeBooleanToAppSharedPrefsAsync(BATTERY_SAVER, enabled, context);
+                }
+            }
+
+            /**
+             * Raw capture: all sensor events of a ride are additionally written to a binary file, see RawSensorLog.
+             */
+            public static class RawSensorCapture {
+                // See top of this class before changing this string
+                public static final String RAW_SENSOR_CAPTURE = SETTINGS + "RAW_SENSOR_CAPTURE";
+
+                public static boolean isEnabled(Context context) {
+                    return readBooleanFromAppSharedPrefs(RAW_SENSOR_CAPTURE, context);
+                }
+
+                public static void setEnabled(boolean enabled, Context context) {
+                    writeBooleanToAppSharedPrefsAsync(RAW_SENSOR_CAPTURE, enabled, context);
+                }
+            }
+
             public static class PicturesDuringRideInterval {
                 // See top of this class before changing this string
                 public static final String PICTURES_DURING_RIDE_INTERVAL = SETTINGS + "PICTURES_DURING_RIDE_INTERVAL";
@@ -0,0 +1,190 @@
+package de.tuberlin.mcc.simra.app.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import de.tuberlin.mcc.simra.app.entities.RideCatalog;
+
+/**
+ * Replaces files from a single writer thread, so that writes from the UI thread, the services and
+ * their background tasks cannot interleave.
+ * <p>
+ * Every file is written to a temporary file, synced to the storage device and then renamed, so it
+ * is always either the old or the new complete version, even if the app crashes mid-write.
+ * A write which is still waiting for the writer thread is replaced by a newer write of the same file,
+ * so back-to-back saves of the same file are written once.
+ * <p>
+ * Appends to the journals of the MetaData and the incident logs run on the writer thread as well,
+ * see {@link #run(Task)}. The ride catalog writes its own files, see {@link RideCatalog}.
+ */
+public class StorageExecutor {
+    private static volatile Thread writerThread;
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "StorageExecutor");
+        // only cache updates are not waited for by their caller, so the thread never has to keep the process alive
+        thread.setDaemon(true);
+        writerThread = thread;
+        return thread;
+    });
+    private static final Map<String, Write> pendingWrites = new HashMap<>();
+
+    public interface Writer {
+        /**
+         * Writes the complete new content of the file into the given temporary file.
+         */
+        void writeTo(File tempFile) throws IOException;
+    }
+
+    public interface Task {
+        void run() throws IOException;
+    }
+
+    /**
+     * Replaces the file with the text in UTF-8 and waits until it is written.
+     *
+     * @return whether the file was written
+     */
+    public static boolean write(File file, String content) {
+        return write(file, tempFile -> {
+            try (FileOutputStream out = new FileOutputStream(tempFile, false)) {
+                out.write(content.getBytes(StandardCharsets.UTF_8));
+            }
+        });
+    }
+
+    /**
+     * Replaces the file with the content of the writer and waits until it is written.
+     * If a newer write of the same file replaces this one before it started, the result of the newer
+     * write is returned.
+     *
+     * @return whether the file was written
+     */
+    public static boolean write(File file, Writer writer) {
+        if (Thread.currentThread() == writerThread) {
+            return new Write(file, writer).call();
+        }
+        try {
+            return submit(file, writer).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Replaces the file with the content of the writer without waiting for it, e.g. to update a cache
+     * of another file. A failed write is only logged.
+     */
+    public static void writeInBackground(File file, Writer writer) {
+        if (Thread.currentThread() == writerThread) {
+            new Write(file, writer).call();
+        } else {
+            submit(file, writer);
+        }
+    }
+
+    /**
+     * Runs the task on the writer thread and waits for it, for changes of a file which are not a
+     * complete replacement, like appending to a journal.
+     */
+    public static void run(Task task) throws IOException {
+        if (Thread.currentThread() == writerThread) {
+            task.run();
+            return;
+        }
+        try {
+            executor.submit(() -> {
+                task.run();
+                return null;
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for the writer thread");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static Future<Boolean> submit(File file, Writer writer) {
+        synchronized (pendingWrites) {
+            Write pendingWrite = pendingWrites.get(file.getAbsolutePath());
+            if (pendingWrite != null) {
+                pendingWrite.writer = writer;
+                return pendingWrite.future;
+            }
+            Write write = new Write(file, writer);
+            pendingWrites.put(file.getAbsolutePath(), write);
+            write.future = executor.submit(write);
+            return write.future;
+        }
+    }
+
+    /**
+     * Writes the content to a temporary file, syncs it and renames it to the file.
+     * Must only be called from the writer thread or where no other thread writes the file.
+     */
+    static void writeAtomically(File file, Writer writer) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        try {
+            writer.writeTo(tempFile);
+            try (RandomAccessFile out = new RandomAccessFile(tempFile, "rw")) {
+                out.getFD().sync();
+            }
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("could not rename " + tempFile + " to " + file);
+            }
+        } finally {
+            if (tempFile.exists()) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    private static class Write implements Callable<Boolean> {
+        private final File file;
+        private Writer writer;
+        private Future<Boolean> future;
+
+        private Write(File file, Writer writer) {
+            this.file = file;
+            this.writer = writer;
+        }
+
+        @Override
+        public Boolean call() {
+            Writer writer;
+            synchronized (pendingWrites) {
+                // from now on, writes of the file have to wait for the next turn
+                if (pendingWrites.get(file.getAbsolutePath()) == this) {
+                    pendingWrites.remove(file.getAbsolutePath());
+                }
+                writer = this.writer;
+            }
+            try {
+                writeAtomically(file, writer);
+                RideCatalog.recordFileInBackground(file);
+                return true;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
+    }
+}
@@ -1,9 +1,23 @@
 package de.tuberlin.mcc.simra.app.util;
 import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
 import de.tuberlin.mcc.simra.app.BuildConfig;
+import de.tuberlin.mcc.simra.app.entities.DataLogWriter;
+import de.tuberlin.mcc.simra.app.entities.IncidentLog;
+import de.tuberlin.mcc.simra.app.entities.MetaData;
+import de.tuberlin.mcc.simra.app.entities.MetaDataEntry;
+import de.tuberlin.mcc.simra.app.entities.RawSensorLog;
+import de.tuberlin.mcc.simra.app.entities.RideCatalog;
+import de.tuberlin.mcc.simra.app.entities.RideJournal;
+import de.tuberlin.mcc.simra.app.services.RecorderService;
 import de.tuberlin.mcc.simra.app.update.VersionUpdater;
 
 public class UpdateHelper {
+    private static final String TAG = "UpdateHelper_LOG";
 
     /**
      * Migrate Shared Prefs Data from previous Versions to the current
@@ -20,6 +34,75 @@ public class UpdateHelper {
         VersionUpdater.updateToV50(context, lastAppVersion);
         VersionUpdater.updateToV52(context, lastAppVersion);
         VersionUpdater.updateToV58(context, lastAppVersion);
+        // the updates rewrite metaData.csv and rename ride files directly
+        MetaData.invalidate();
+        RideCatalog.invalidate();
         SharedPref.writeIntToSharedPrefs("App-Version", BuildConfig.VERSION_CODE, "simraPrefs", context);
     }
+
+    /**
+     * Turns rides whose recording was interrupted (e.g. the app was killed or crashed) into normal
+     * rides, using the journal written by the {@link RecorderService} during the ride. Rides without
+     * any recorded line are removed.
+     * <p>
+     * Synchronized, as it runs in the background on start and the RecorderService runs it on its
+     * recording thread before it takes the next ride key.
+     *
+     * @param context
+     */
+    public static synchronized void recoverUnfinishedRides(Context context) {
+        for (File journalFile : IOUtils.Files.getRideJournalFiles(context)) {
+            RideJournal rideJournal;
+            try {
+                rideJournal = RideJournal.read(journalFile);
+            } catch (IOException e) {
+                Log.e(TAG, "could not read ride journal " + journalFile, e);
+                journalFile.delete();
+                continue;
+            }
+            int rideId = rideJournal.rideId;
+            if (RecorderService.isRecordingRide(rideId)) {
+                continue;
+            }
+            File tempFile = IOUtils.Files.getGPSLogFile(rideId, true, context);
+            File dataLogFile = IOUtils.Files.getGPSLogFile(rideId, false, context);
+            try {
+                long lines = tempFile.exists() ? DataLogWriter.recover(tempFile, dataLogFile) : 0;
+                Log.d(TAG, "recovered " + lines + " lines of ride " + rideId);
+            } catch (IOException e) {
+                Log.e(TAG, "could not recover DataLog of ride " + rideId, e);
+            }
+            File rawSensorFile = IOUtils.Files.getRawSensorFile(rideId, context);
+            // the raw sensor file is kept with its ride, it is removed with a ride without any line
+            if (rawSensorFile.exists() && !dataLogFile.exists()) {
+                rawSensorFile.delete();
+            } else if (rawSensorFile.exists()) {
+                try {
+                    long records = RawSensorLog.recover(rawSensorFile);
+                    RideCatalog.recordFileInBackground(rawSensorFile);
+                    Log.d(TAG, "recovered " + records + " raw sensor records of ride " + rideId);
+                } catch (IOException e) {
+                    Log.e(TAG, "could not recover raw sensor file of ride " + rideId, e);
+                    rawSensorFile.delete();
+                }
+            }
+            if (dataLogFile.exists()) {
+                if (!IncidentLog.getEventsFile(rideId, context).exists()) {
+                    Utils.overwriteFile(rideJournal.incidentLog, IncidentLog.getEventsFile(rideId, context));
+                }
+                if (MetaData.getMetaDataEntryForRide(rideId, context) == null) {
+                    MetaDataEntry metaDataEntry = rideJournal.toMetaDataEntry();
+                    if (metaDataEntry.endTime < metaDataEntry.startTime) {
+                        // no journal sync since the first line
+                        metaDataEntry.endTime = dataLogFile.lastModified();
+                    }
+                    MetaData.updateOrAddMetaDataEntryForRide(metaDataEntry, context);
+                }
+                if (SharedPref.App.RideKey.getRideKey(context) <= rideId) {
+                    SharedPref.App.RideKey.setRideKey(rideId + 1, context);
+                }
+            }
+            journalFile.delete();
+        }
+    }
 }
@@ -0,0 +1,99 @@
+package de.tuberlin.mcc.simra.app.util;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Body of an upload request, made of texts and (parts of) files. {@link #writeTo(OutputStream)}
+ * streams the files from the disk into the connection, so the body is never held in memory.
+ * The length is known in advance for {@link javax.net.ssl.HttpsURLConnection#setFixedLengthStreamingMode(long)}.
+ */
+public class UploadBody {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final List<Part> parts = new ArrayList<>();
+    private long contentLength = 0;
+
+    /**
+     * Adds a text in UTF-8.
+     */
+    public UploadBody add(String text) {
+        return add(new Part(text.getBytes(StandardCharsets.UTF_8), null, 0, 0));
+    }
+
+    /**
+     * Adds the content of a file from offset on, as long as it is now.
+     */
+    public UploadBody add(File file, long offset) {
+        return add(new Part(null, file, offset, Math.max(0, file.length() - offset)));
+    }
+
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * Writes the body with a buffer of fixed size.
+     *
+     * @throws EOFException if a file got shorter since it was added
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        byte[] buffer = null;
+        for (Part part : parts) {
+            if (part.bytes != null) {
+                out.write(part.bytes);
+                continue;
+            }
+            if (buffer == null) {
+                buffer = new byte[BUFFER_SIZE];
+            }
+            try (InputStream in = new FileInputStream(part.file)) {
+                long skipped = 0;
+                while (skipped < part.offset) {
+                    long n = in.skip(part.offset - skipped);
+                    if (n <= 0) {
+                        throw new EOFException(part.file + " is shorter than " + part.offset);
+                    }
+                    skipped += n;
+                }
+                long remaining = part.length;
+                while (remaining > 0) {
+                    int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (read < 0) {
+                        throw new EOFException(part.file + " is shorter than " + (part.offset + part.length));
+                    }
+                    out.write(buffer, 0, read);
+                    remaining -= read;
+                }
+            }
+        }
+        out.flush();
+    }
+
+    private UploadBody add(Part part) {
+        parts.add(part);
+        contentLength += part.bytes != null ? part.bytes.length : part.length;
+        return this;
+    }
+
+    private static class Part {
+        private final byte[] bytes;
+        private final File file;
+        private final long offset;
+        private final long length;
+
+        private Part(byte[] bytes, File file, long offset, long length) {
+            this.bytes = bytes;
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -19,12 +19,10 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
@@ -33,7 +31,6 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Locale;
-import java.util.Queue;
 
 import javax.net.ssl.HttpsURLConnection;
 
@@ -42,10 +39,12 @@ import androidx.appcompat.app.AlertDialog;
 import de.tuberlin.mcc.simra.app.BuildConfig;
 import de.tuberlin.mcc.simra.app.R;
 import de.tuberlin.mcc.simra.app.entities.DataLog;
-import de.tuberlin.mcc.simra.app.entities.DataLogEntry;
+import de.tuberlin.mcc.simra.app.entities.DataLogColumns;
 import de.tuberlin.mcc.simra.app.entities.IncidentLog;
 import de.tuberlin.mcc.simra.app.entities.IncidentLogEntry;
+import de.tuberlin.mcc.simra.app.entities.MetaData;
 import de.tuberlin.mcc.simra.app.entities.Profile;
+import de.tuberlin.mcc.simra.app.entities.RawSensorLog;
 
 import static de.tuberlin.mcc.simra.app.activities.ProfileActivity.startProfileActivityForChooseRegion;
 import static de.tuberlin.mcc.simra.app.entities.IncidentLog.getEventsFile;
@@ -83,15 +82,17 @@ public class Utils {
      * Produces the consolidated File which should be uploaded to the backend
      * concatenates content from IncidentLog and DataLog
      * removes incidents that are auto generated
+     * The DataLog is not loaded, it is streamed from its file when the body is written.
      *
      * @param rideId
      * @param context
      * @return The ride to upload and the filtered incident log to overwrite after successful upload
      */
-    public static Pair<String, IncidentLog> getConsolidatedRideForUpload(int rideId, Context context) {
+    public static Pair<UploadBody, IncidentLog> getConsolidatedRideForUpload(int rideId, Context context) {
 
         StringBuilder content = new StringBuilder();
 
+        IncidentLog.compactIncidentLog(rideId, context);
         File incidentFile = getEventsFile(rideId, context);
 
         if (incidentFile.exists()) {
@@ -106,24 +107,32 @@ public class Utils {
         }
 
         IncidentLog incidentLog = IncidentLog.filterIncidentLogUploadReady(IncidentLog.loadIncidentLogFromFileOnly(rideId, context), null, null, null, null, true);
-        String dataLog = DataLog.loadDataLog(rideId, context).toString();
 
         // content.append(incidentLog.toString());
         content.append(System.lineSeparator()).append("=========================").append(System.lineSeparator());
-        content.append(dataLog);
+        content.append(IOUtils.Files.getFileInfoLine()).append(DataLog.DATA_LOG_HEADER).append(System.lineSeparator());
+        UploadBody body = new UploadBody().add(content.toString());
 
-        return new Pair<>(content.toString(), incidentLog);
+        DataLog.restoreDataLogFile(rideId, context);
+        File dataLogFile = IOUtils.Files.getGPSLogFile(rideId, false, context);
+        if (dataLogFile.exists()) {
+            try {
+                body.add(dataLogFile, DataLog.getFirstLineOffset(dataLogFile));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        return new Pair<>(body, incidentLog);
     }
 
-    public static void overwriteFile(String content, File file) {
-        try {
-            FileOutputStream writer = new FileOutputStream(file);
-            writer.write(content.getBytes());
-            writer.flush();
-            writer.close();
-        } catch (IOException ioe) {
-            Log.d(TAG, Arrays.toString(ioe.getStackTrace()));
-        }
+    /**
+     * Replaces the file atomically, see {@link StorageExecutor}.
+     *
+     * @return whether the file was written
+     */
+    public static boolean overwriteFile(String content, File file) {
+        return StorageExecutor.write(file, content);
     }
 
     public static void deleteErrorLogsForVersion(Context context, int version) {
@@ -193,6 +202,8 @@ public class Utils {
     public static Pair<List<IncidentLogEntry>, Integer> findAccEvents(int rideId, int bike, int pLoc, int state, Context context) {
         List<IncidentLogEntry> foundEvents = null;
         Integer nn_version = 0;
+        // both read the DataLog file
+        DataLog.restoreDataLogFile(rideId, context);
         if (SharedPref.Settings.IncidentGenerationAIActive.getAIEnabled(context)) {
             Pair<List<IncidentLogEntry>, Integer> findAccEventOnlineResult = findAccEventOnline(rideId, bike, pLoc, context);
             foundEvents = findAccEventOnlineResult.first;
@@ -216,43 +227,23 @@ public class Utils {
                     + "&phoneLocation=" + pLoc);
 
             Log.d(TAG, "URL for AI-Backend: " + url.toString());
-            HttpsURLConnection urlConnection = (HttpsURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("POST");
-            urlConnection.setRequestProperty("Content-Type", "text/plain");
-            urlConnection.setDoOutput(true);
-            urlConnection.setReadTimeout(10000);
-            urlConnection.setConnectTimeout(3000);
-
-            //Read log file in to byte Array
-            File rideFile = IOUtils.Files.getGPSLogFile(rideId, false, context);
-            FileInputStream fileInputStream = new FileInputStream(rideFile);
-            long byteLength = rideFile.length();
 
-            byte[] fileContent = new byte[(int) byteLength];
-            fileInputStream.read(fileContent, 0, (int) byteLength);
-
-            //upload byteArr
+            // stream the ride file, compressed if the backend is known to decode it
             Log.d(TAG, "send data: ");
-            try (OutputStream os = urlConnection.getOutputStream()) {
-                long startTime = System.currentTimeMillis();
-                long uploadTimeoutMS = 8000;
-                int chunkSize = 1024;
-                int chunkIndex = 0;
-
-                while (chunkSize * chunkIndex < fileContent.length) {
-                    int offset = chunkSize * chunkIndex;
-                    int remaining = fileContent.length - offset;
-                    os.write(fileContent, offset, remaining > chunkSize ? chunkSize : remaining);
-                    chunkIndex += 1;
-
-                    //upload timeout
-                    if (startTime + uploadTimeoutMS < System.currentTimeMillis())
-                        return null;
-                }
-
-                os.flush();
-                os.close();
+            File rideFile = IOUtils.Files.getGPSLogFile(rideId, false, context);
+            GzipUpload.Response response = GzipUpload.send(() -> {
+                HttpsURLConnection connection = (HttpsURLConnection) url.openConnection();
+                connection.setRequestMethod("POST");
+                connection.setRequestProperty("Content-Type", "text/plain");
+                connection.setDoOutput(true);
+                connection.setReadTimeout(10000);
+                connection.setConnectTimeout(3000);
+                return connection;
+            }, new UploadBody().add(rideFile, 0), SharedPref.App.GzipUpload.isAccepted("classify-ride", context));
+            if (response.gzipRejected) {
+                SharedPref.App.GzipUpload.setRejected("classify-ride", context);
             }
+            HttpsURLConnection urlConnection = (HttpsURLConnection) response.connection;
 
             // receive results
             Log.d(TAG, "receive data: ");
@@ -280,12 +271,13 @@ public class Utils {
                 // for each gps data log entries loop through the incident timestamps and create an incident at position, if the timestamps match
                 int key = 0;
                 int index = 0;
-                while (!allLogs.onlyGPSDataLogEntries.isEmpty() && incidentTimestamps.length() > 0 && index < allLogs.onlyGPSDataLogEntries.size()) {
-                    DataLogEntry gpsLine = allLogs.onlyGPSDataLogEntries.get(index);
+                DataLogColumns gpsLines = allLogs.columns;
+                while (gpsLines.getGPSRowCount() > 0 && incidentTimestamps.length() > 0 && index < gpsLines.getGPSRowCount()) {
+                    long timestamp = gpsLines.getGPSTimestamp(index);
                     for (int i = 0; i < incidentTimestamps.length(); i++) {
-                        if (gpsLine.timestamp == incidentTimestamps.getLong(i)) {
+                        if (timestamp == incidentTimestamps.getLong(i)) {
                             foundIncidents.add(IncidentLogEntry.newBuilder()
-                                    .withBaseInformation(gpsLine.timestamp, gpsLine.latitude, gpsLine.longitude)
+                                    .withBaseInformation(timestamp, gpsLines.getGPSLatitude(index), gpsLines.getGPSLongitude(index))
                                     .withIncidentType(IncidentLogEntry.INCIDENT_TYPE.AUTO_GENERATED)
                                     .withKey(key++)
                                     .build());
@@ -512,24 +504,6 @@ public class Utils {
 
     }
 
-    public static String mergeGPSandSensorLines(Queue<DataLogEntry> gpsLines, Queue<DataLogEntry> sensorLines) {
-        StringBuilder accGpsString = new StringBuilder();
-
-        while (!gpsLines.isEmpty() || !sensorLines.isEmpty()) {
-            DataLogEntry gpsLine = gpsLines.peek();
-            DataLogEntry sensorLine = sensorLines.peek();
-            long gpsTS = gpsLine != null ? gpsLine.timestamp : Long.MAX_VALUE;
-            long sensorTS = sensorLine != null ? sensorLine.timestamp : Long.MAX_VALUE;
-            if (gpsTS <= sensorTS) {
-                accGpsString.append(gpsLines.poll().stringifyDataLogEntry()).append(System.lineSeparator());
-            } else {
-                accGpsString.append(sensorLines.poll().stringifyDataLogEntry()).append(System.lineSeparator());
-            }
-        }
-
-        return accGpsString.toString();
-    }
-
     /**
      * calculates the nearest three regions to given location
      *
@@ -688,12 +662,33 @@ public class Utils {
                 filesToUpload.remove(0);
             }
         }
+        MetaData.compactMetaData(context);
         filesToUpload.add(IOUtils.Files.getMetaDataFile(context));
         filesToUpload.addAll(Arrays.asList(getSharedPrefsDirectory(context).listFiles()));
+        // raw sensor files are sent as CSV, which can be read without the app
+        List<File> exportedFiles = new ArrayList<>();
+        for (int i = 0; i < filesToUpload.size(); i++) {
+            File file = filesToUpload.get(i);
+            if (file.getName().startsWith("rawSensors") && file.getName().endsWith(".bin")) {
+                File csvFile = new File(context.getCacheDir(), file.getName().replace(".bin", ".csv"));
+                try {
+                    RawSensorLog.exportToCsv(file, csvFile);
+                    filesToUpload.set(i, csvFile);
+                    exportedFiles.add(csvFile);
+                } catch (IOException e) {
+                    Log.e(TAG, "could not export " + file, e);
+                    csvFile.delete();
+                }
+            }
+        }
         try {
             zip(filesToUpload, new File(IOUtils.Directories.getBaseFolderPath(context) + "zip.zip"));
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            for (File exportedFile : exportedFiles) {
+                exportedFile.delete();
+            }
         }
     }
 
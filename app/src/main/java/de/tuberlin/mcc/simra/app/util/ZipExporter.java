@@ -0,0 +1,470 @@
+package de.tuberlin.mcc.simra.app.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Calendar;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes files into a zip, compressing them in parallel.
+ * <p>
+ * The entries are compressed on a pool of threads into memory and written by the calling thread in
+ * the given order, so the zip is the same for every run. At most a few more entries than there are
+ * threads, and at most {@link #MAX_PENDING_BYTES} of them, are held in memory. Larger files are
+ * compressed by the calling thread directly into the zip. Entries which do not get smaller are
+ * stored. Offsets beyond 4 GiB and more than 65535 entries are written as Zip64.
+ */
+public class ZipExporter {
+    private static final int BUFFER_SIZE = 256 * 1024;
+    /**
+     * Files up to this size are compressed on the pool, into memory
+     */
+    static final long IN_MEMORY_LIMIT = 4 * 1024 * 1024;
+    /**
+     * Sum of the sizes of the files which are compressed into memory at a time
+     */
+    static final long MAX_PENDING_BYTES = 16 * 1024 * 1024;
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int DATA_DESCRIPTOR = 0x08074b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_HEADER = 0x06054b50;
+    private static final int ZIP64_END_HEADER = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    // names are UTF-8
+    private static final int FLAG_UTF8 = 0x0800;
+    // CRC32 and sizes follow the data
+    private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    private final int threads;
+    private volatile boolean cancelled = false;
+
+    public interface ProgressListener {
+        /**
+         * Called on the exporting thread after each entry.
+         */
+        void onProgress(long bytesDone, long bytesTotal);
+    }
+
+    public static class Entry {
+        public final String name;
+        public final File file;
+
+        public Entry(String name, File file) {
+            this.name = name;
+            this.file = file;
+        }
+    }
+
+    /**
+     * @param threads number of threads compressing entries, e.g. the number of cores
+     */
+    public ZipExporter(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Stops a running export, which then throws an {@link InterruptedIOException}.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Writes the entries as zip into out, which is not closed.
+     *
+     * @param progressListener may be null
+     * @throws InterruptedIOException if the export was cancelled
+     */
+    public void export(List<Entry> entries, OutputStream out, ProgressListener progressListener) throws IOException {
+        long bytesTotal = 0;
+        for (Entry entry : entries) {
+            bytesTotal += entry.file.length();
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Deque<Pending> pending = new ArrayDeque<>();
+        long pendingBytes = 0;
+        try {
+            ZipWriter zipWriter = new ZipWriter(new BufferedOutputStream(out, BUFFER_SIZE));
+            long bytesDone = 0;
+            int next = 0;
+            while (next < entries.size() || !pending.isEmpty()) {
+                // keep the pool busy, but bound the entries held in memory
+                while (next < entries.size()) {
+                    Entry entry = entries.get(next);
+                    long length = entry.file.length();
+                    long memory = length > IN_MEMORY_LIMIT ? 0 : length;
+                    if (!pending.isEmpty() && (pending.size() >= threads + 2 || pendingBytes + memory > MAX_PENDING_BYTES)) {
+                        break;
+                    }
+                    next++;
+                    pending.add(new Pending(entry, memory, memory > 0 || length == 0 ? executor.submit(() -> compress(entry)) : null));
+                    pendingBytes += memory;
+                }
+                Pending nextPending = pending.poll();
+                long size;
+                if (nextPending.future != null) {
+                    Compressed compressed = await(nextPending.future);
+                    checkCancelled();
+                    zipWriter.write(compressed);
+                    size = compressed.size;
+                } else {
+                    checkCancelled();
+                    size = zipWriter.writeStreamed(nextPending.entry);
+                }
+                pendingBytes -= nextPending.memory;
+                bytesDone += size;
+                if (progressListener != null) {
+                    progressListener.onProgress(bytesDone, bytesTotal);
+                }
+            }
+            zipWriter.finish();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Compressed compress(Entry entry) throws IOException {
+        checkCancelled();
+        CRC32 crc32 = new CRC32();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        Buffer compressedBytes = new Buffer((int) Math.min(entry.file.length() / 2 + 64, IN_MEMORY_LIMIT));
+        byte[] buffer = new byte[BUFFER_SIZE];
+        byte[] deflated = new byte[BUFFER_SIZE];
+        long size = 0;
+        try (InputStream in = new FileInputStream(entry.file)) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                checkCancelled();
+                crc32.update(buffer, 0, read);
+                size += read;
+                deflater.setInput(buffer, 0, read);
+                while (!deflater.needsInput()) {
+                    compressedBytes.write(deflated, 0, deflater.deflate(deflated));
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                compressedBytes.write(deflated, 0, deflater.deflate(deflated));
+            }
+        } finally {
+            deflater.end();
+        }
+        if (size >= ZIP64_MAGIC) {
+            throw new IOException(entry.file + " is too large for a zip entry");
+        }
+        if (compressedBytes.size() >= size) {
+            // already compressed, e.g. pictures: stored, read again when written
+            return new Compressed(entry, STORED, crc32.getValue(), size, size, null);
+        }
+        return new Compressed(entry, DEFLATED, crc32.getValue(), size, compressedBytes.size(), compressedBytes.bytes());
+    }
+
+    private Compressed await(Future<Compressed> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("export interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private void checkCancelled() throws InterruptedIOException {
+        if (cancelled) {
+            throw new InterruptedIOException("export cancelled");
+        }
+    }
+
+    private static class Pending {
+        private final Entry entry;
+        // bytes held in memory while pending
+        private final long memory;
+        // null if the entry is compressed while it is written
+        private final Future<Compressed> future;
+
+        private Pending(Entry entry, long memory, Future<Compressed> future) {
+            this.entry = entry;
+            this.memory = memory;
+            this.future = future;
+        }
+    }
+
+    /**
+     * Gives access to its bytes without copying them.
+     */
+    private static class Buffer extends ByteArrayOutputStream {
+        private Buffer(int size) {
+            super(size);
+        }
+
+        private byte[] bytes() {
+            return buf;
+        }
+    }
+
+    private static class Compressed {
+        private final Entry entry;
+        private final int method;
+        private final long crc32;
+        private final long size;
+        private final long compressedSize;
+        // null if stored, may be longer than compressedSize
+        private final byte[] bytes;
+
+        private Compressed(Entry entry, int method, long crc32, long size, long compressedSize, byte[] bytes) {
+            this.entry = entry;
+            this.method = method;
+            this.crc32 = crc32;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Writes local headers with known sizes, so the zip can be read by {@link java.util.zip.ZipInputStream},
+     * and the central directory at the end. Files compressed while written are deflated and followed by
+     * a data descriptor, which ZipInputStream reads as well.
+     */
+    private class ZipWriter {
+        private final OutputStream out;
+        private final ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+        private final byte[] header = new byte[64];
+        private long offset = 0;
+        private long entryCount = 0;
+
+        private ZipWriter(OutputStream out) {
+            this.out = out;
+        }
+
+        private void write(Compressed compressed) throws IOException {
+            byte[] name = compressed.entry.name.getBytes(StandardCharsets.UTF_8);
+            int dosTime = toDosTime(compressed.entry.file.lastModified());
+            long localHeaderOffset = offset;
+            writeLocalHeader(name, FLAG_UTF8, compressed.method, dosTime, compressed.crc32, compressed.compressedSize, compressed.size);
+            if (compressed.bytes != null) {
+                out.write(compressed.bytes, 0, (int) compressed.compressedSize);
+            } else {
+                copy(compressed.entry.file, compressed.size);
+            }
+            offset += compressed.compressedSize;
+            addCentralHeader(name, FLAG_UTF8, compressed.method, dosTime, compressed.crc32, compressed.compressedSize, compressed.size, localHeaderOffset);
+        }
+
+        /**
+         * Compresses the file directly into the zip, followed by its CRC32 and sizes.
+         *
+         * @return the size of the file
+         */
+        private long writeStreamed(Entry entry) throws IOException {
+            byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+            int dosTime = toDosTime(entry.file.lastModified());
+            long localHeaderOffset = offset;
+            writeLocalHeader(name, FLAG_UTF8 | FLAG_DATA_DESCRIPTOR, DEFLATED, dosTime, 0, 0, 0);
+            CRC32 crc32 = new CRC32();
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            byte[] deflated = new byte[BUFFER_SIZE];
+            long size = 0;
+            long compressedSize = 0;
+            try (InputStream in = new FileInputStream(entry.file)) {
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    checkCancelled();
+                    crc32.update(buffer, 0, read);
+                    size += read;
+                    deflater.setInput(buffer, 0, read);
+                    while (!deflater.needsInput()) {
+                        int length = deflater.deflate(deflated);
+                        out.write(deflated, 0, length);
+                        compressedSize += length;
+                    }
+                }
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int length = deflater.deflate(deflated);
+                    out.write(deflated, 0, length);
+                    compressedSize += length;
+                }
+            } finally {
+                deflater.end();
+            }
+            if (size >= ZIP64_MAGIC || compressedSize >= ZIP64_MAGIC) {
+                throw new IOException(entry.file + " is too large for a zip entry");
+            }
+            offset += compressedSize;
+            int position = 0;
+            position = putInt(header, position, DATA_DESCRIPTOR);
+            position = putInt(header, position, (int) crc32.getValue());
+            position = putInt(header, position, (int) compressedSize);
+            position = putInt(header, position, (int) size);
+            out.write(header, 0, position);
+            offset += position;
+            addCentralHeader(name, FLAG_UTF8 | FLAG_DATA_DESCRIPTOR, DEFLATED, dosTime, crc32.getValue(), compressedSize, size, localHeaderOffset);
+            return size;
+        }
+
+        private void writeLocalHeader(byte[] name, int flags, int method, int dosTime, long crc32, long compressedSize, long size) throws IOException {
+            int position = 0;
+            position = putInt(header, position, LOCAL_HEADER);
+            position = putShort(header, position, 20);
+            position = putShort(header, position, flags);
+            position = putShort(header, position, method);
+            position = putInt(header, position, dosTime);
+            position = putInt(header, position, (int) crc32);
+            position = putInt(header, position, (int) compressedSize);
+            position = putInt(header, position, (int) size);
+            position = putShort(header, position, name.length);
+            position = putShort(header, position, 0);
+            out.write(header, 0, position);
+            out.write(name);
+            offset += position + name.length;
+        }
+
+        private void addCentralHeader(byte[] name, int flags, int method, int dosTime, long crc32, long compressedSize, long size, long localHeaderOffset) {
+            boolean zip64 = localHeaderOffset >= ZIP64_MAGIC;
+            int position = 0;
+            position = putInt(header, position, CENTRAL_HEADER);
+            position = putShort(header, position, zip64 ? 45 : 20);
+            position = putShort(header, position, zip64 ? 45 : 20);
+            position = putShort(header, position, flags);
+            position = putShort(header, position, method);
+            position = putInt(header, position, dosTime);
+            position = putInt(header, position, (int) crc32);
+            position = putInt(header, position, (int) compressedSize);
+            position = putInt(header, position, (int) size);
+            position = putShort(header, position, name.length);
+            position = putShort(header, position, zip64 ? 12 : 0);
+            position = putShort(header, position, 0);
+            position = putShort(header, position, 0);
+            position = putShort(header, position, 0);
+            position = putInt(header, position, 0);
+            position = putInt(header, position, (int) (zip64 ? ZIP64_MAGIC : localHeaderOffset));
+            centralDirectory.write(header, 0, position);
+            centralDirectory.write(name, 0, name.length);
+            if (zip64) {
+                position = 0;
+                position = putShort(header, position, 1);
+                position = putShort(header, position, 8);
+                position = putLong(header, position, localHeaderOffset);
+                centralDirectory.write(header, 0, position);
+            }
+            entryCount++;
+        }
+
+        private void copy(File file, long size) throws IOException {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (InputStream in = new FileInputStream(file)) {
+                long remaining = size;
+                while (remaining > 0) {
+                    checkCancelled();
+                    int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (read < 0) {
+                        throw new IOException(file + " got shorter while exporting");
+                    }
+                    out.write(buffer, 0, read);
+                    remaining -= read;
+                }
+            }
+        }
+
+        private void finish() throws IOException {
+            long centralDirectoryOffset = offset;
+            centralDirectory.writeTo(out);
+            long centralDirectorySize = centralDirectory.size();
+            offset += centralDirectorySize;
+            boolean zip64 = entryCount > 0xFFFF || centralDirectoryOffset >= ZIP64_MAGIC;
+            int position;
+            if (zip64) {
+                long zip64EndOffset = offset;
+                position = 0;
+                position = putInt(header, position, ZIP64_END_HEADER);
+                position = putLong(header, position, 44);
+                position = putShort(header, position, 45);
+                position = putShort(header, position, 45);
+                position = putInt(header, position, 0);
+                position = putInt(header, position, 0);
+                position = putLong(header, position, entryCount);
+                position = putLong(header, position, entryCount);
+                position = putLong(header, position, centralDirectorySize);
+                position = putLong(header, position, centralDirectoryOffset);
+                out.write(header, 0, position);
+                position = 0;
+                position = putInt(header, position, ZIP64_LOCATOR);
+                position = putInt(header, position, 0);
+                position = putLong(header, position, zip64EndOffset);
+                position = putInt(header, position, 1);
+                out.write(header, 0, position);
+            }
+            position = 0;
+            position = putInt(header, position, END_HEADER);
+            position = putShort(header, position, 0);
+            position = putShort(header, position, 0);
+            position = putShort(header, position, (int) Math.min(entryCount, 0xFFFF));
+            position = putShort(header, position, (int) Math.min(entryCount, 0xFFFF));
+            position = putInt(header, position, (int) Math.min(centralDirectorySize, ZIP64_MAGIC));
+            position = putInt(header, position, (int) Math.min(centralDirectoryOffset, ZIP64_MAGIC));
+            position = putShort(header, position, 0);
+            out.write(header, 0, position);
+            out.flush();
+        }
+    }
+
+    private static int putShort(byte[] bytes, int position, int value) {
+        bytes[position] = (byte) value;
+        bytes[position + 1] = (byte) (value >>> 8);
+        return position + 2;
+    }
+
+    private static int putInt(byte[] bytes, int position, int value) {
+        return putShort(bytes, putShort(bytes, position, value), value >>> 16);
+    }
+
+    private static int putLong(byte[] bytes, int position, long value) {
+        return putInt(bytes, putInt(bytes, position, (int) value), (int) (value >>> 32));
+    }
+
+    /**
+     * @return the time in the local time zone as MS-DOS date and time, like {@link java.util.zip.ZipEntry#setTime(long)}
+     */
+    static int toDosTime(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (year - 1980) << 25
+                | (calendar.get(Calendar.MONTH) + 1) << 21
+                | calendar.get(Calendar.DAY_OF_MONTH) << 16
+                | calendar.get(Calendar.HOUR_OF_DAY) << 11
+                | calendar.get(Calendar.MINUTE) << 5
+                | calendar.get(Calendar.SECOND) >> 1;
+    }
+}
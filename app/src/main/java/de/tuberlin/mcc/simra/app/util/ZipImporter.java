@@ -0,0 +1,325 @@
+package de.tuberlin.mcc.simra.app.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Extracts a zip into a folder so that either all files are replaced or none.
+ * <p>
+ * {@link #extract} streams the entries into a staging folder. A zip stream can only be inflated
+ * in order, so each entry is inflated and written on the calling thread, with its CRC32 computed
+ * on the way, and only one buffer is held in memory. The files are not written in parallel, only
+ * synced: a pool of threads syncs the written files while the next entries are inflated, as the
+ * writes mostly go to the page cache and the sync is what waits for the storage. A corrupt zip
+ * fails here, before any file in the target folder was touched.
+ * <p>
+ * {@link #commit} then moves the staged files into the target folder and keeps the files they
+ * replace, until {@link #cleanUp} deletes them or {@link #rollback} puts them back.
+ */
+public class ZipImporter {
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final int threads;
+    private final File stagingFolder;
+    private final File backupFolder;
+    // files moved into the target folder by commit, in order
+    private final List<File> committedFiles = new ArrayList<>();
+    private final List<File> backupFiles = new ArrayList<>();
+
+    public interface ProgressListener {
+        /**
+         * Called on the extracting thread after each entry.
+         *
+         * @param bytesTotal size of the zip, -1 if unknown
+         */
+        void onProgress(long bytesDone, long bytesTotal);
+    }
+
+    public static class ExtractedFile {
+        /**
+         * Path relative to the staging and target folder, separated by '/'
+         */
+        public final String path;
+        public final File stagedFile;
+        public final long size;
+        public final long crc32;
+
+        private ExtractedFile(String path, File stagedFile, long size, long crc32) {
+            this.path = path;
+            this.stagedFile = stagedFile;
+            this.size = size;
+            this.crc32 = crc32;
+        }
+    }
+
+    /**
+     * @param threads       number of threads syncing the written entries
+     * @param stagingFolder must be on the same file system as the target folder
+     * @param backupFolder  must be on the same file system as the target folder
+     */
+    public ZipImporter(int threads, File stagingFolder, File backupFolder) {
+        this.threads = Math.max(1, threads);
+        this.stagingFolder = stagingFolder;
+        this.backupFolder = backupFolder;
+    }
+
+    /**
+     * Extracts all entries of the zip into the staging folder. The prefix, e.g. the package name, is
+     * removed from the entry names.
+     *
+     * @param progressListener may be null
+     * @throws IOException if the zip is corrupt or could not be written, the staging folder is deleted then
+     */
+    public List<ExtractedFile> extract(InputStream in, long bytesTotal, String prefix, ProgressListener progressListener) throws IOException {
+        deleteRecursive(stagingFolder);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Deque<Future<Void>> pending = new ArrayDeque<>();
+        List<ExtractedFile> extractedFiles = new ArrayList<>();
+        Set<String> paths = new HashSet<>();
+        boolean extracted = false;
+        CountingInputStream countingIn = new CountingInputStream(in);
+        try (ZipInputStream zis = new ZipInputStream(countingIn)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                String path = toPath(entry.getName(), prefix);
+                if (!paths.add(path)) {
+                    throw new IOException("duplicate entry " + entry.getName());
+                }
+                File stagedFile = new File(stagingFolder, path);
+                mkdirs(stagedFile.getParentFile());
+                CRC32 crc32 = new CRC32();
+                long size = 0;
+                try (OutputStream out = new CheckedOutputStream(new FileOutputStream(stagedFile, false), crc32)) {
+                    int read;
+                    // ZipInputStream checks the size and CRC32 of the entry at its end
+                    while ((read = zis.read(buffer)) >= 0) {
+                        out.write(buffer, 0, read);
+                        size += read;
+                    }
+                }
+                extractedFiles.add(new ExtractedFile(path, stagedFile, size, crc32.getValue()));
+                pending.add(executor.submit(() -> sync(stagedFile)));
+                while (pending.size() > threads) {
+                    await(pending.poll());
+                }
+                if (progressListener != null) {
+                    progressListener.onProgress(countingIn.count, bytesTotal);
+                }
+            }
+            while (!pending.isEmpty()) {
+                await(pending.poll());
+            }
+            extracted = true;
+        } finally {
+            executor.shutdownNow();
+            if (!extracted) {
+                deleteRecursive(stagingFolder);
+            }
+        }
+        return extractedFiles;
+    }
+
+    /**
+     * Moves the staged files into the target folder. Files which are replaced are moved to the backup
+     * folder. If a file cannot be moved, the files moved so far are rolled back.
+     */
+    public void commit(List<ExtractedFile> extractedFiles, File targetFolder) throws IOException {
+        commit(extractedFiles, new ArrayList<>(), targetFolder);
+    }
+
+    /**
+     * Like {@link #commit(List, File)}, but also removes files from the target folder, e.g. files which
+     * only make sense together with the replaced ones. They are moved to the backup folder as well.
+     *
+     * @param removedPaths paths relative to the target folder, which must not be extracted files
+     */
+    public void commit(List<ExtractedFile> extractedFiles, List<String> removedPaths, File targetFolder) throws IOException {
+        deleteRecursive(backupFolder);
+        try {
+            for (String removedPath : removedPaths) {
+                File file = new File(targetFolder, removedPath);
+                if (!file.exists()) {
+                    continue;
+                }
+                File backupFile = new File(backupFolder, removedPath);
+                mkdirs(backupFile.getParentFile());
+                if (!file.renameTo(backupFile)) {
+                    throw new IOException("could not back up " + file);
+                }
+                committedFiles.add(file);
+                backupFiles.add(backupFile);
+            }
+            for (ExtractedFile extractedFile : extractedFiles) {
+                File file = new File(targetFolder, extractedFile.path);
+                File backupFile = new File(backupFolder, extractedFile.path);
+                mkdirs(file.getParentFile());
+                if (file.exists()) {
+                    mkdirs(backupFile.getParentFile());
+                    if (!file.renameTo(backupFile)) {
+                        throw new IOException("could not back up " + file);
+                    }
+                } else {
+                    backupFile = null;
+                }
+                committedFiles.add(file);
+                backupFiles.add(backupFile);
+                if (!extractedFile.stagedFile.renameTo(file)) {
+                    throw new IOException("could not move " + extractedFile.stagedFile + " to " + file);
+                }
+            }
+        } catch (IOException e) {
+            rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * Restores the files replaced by {@link #commit} and deletes the files it added.
+     *
+     * @return whether all files were restored
+     */
+    public boolean rollback() {
+        boolean restored = true;
+        for (int i = committedFiles.size() - 1; i >= 0; i--) {
+            File file = committedFiles.get(i);
+            File backupFile = backupFiles.get(i);
+            if (file.exists() && !file.delete()) {
+                restored = false;
+            }
+            if (backupFile != null && !backupFile.renameTo(file)) {
+                restored = false;
+            }
+        }
+        committedFiles.clear();
+        backupFiles.clear();
+        return restored;
+    }
+
+    /**
+     * Deletes the staging folder and the backups, after which the import cannot be rolled back.
+     */
+    public void cleanUp() {
+        committedFiles.clear();
+        backupFiles.clear();
+        deleteRecursive(stagingFolder);
+        deleteRecursive(backupFolder);
+    }
+
+    /**
+     * @return the entry name without the prefix, rejecting names which would leave the folder
+     */
+    static String toPath(String name, String prefix) throws IOException {
+        String path = name.replace('\\', '/');
+        if (path.startsWith("/" + prefix + "/")) {
+            path = path.substring(prefix.length() + 2);
+        } else if (path.startsWith(prefix + "/")) {
+            path = path.substring(prefix.length() + 1);
+        }
+        while (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        for (String segment : path.split("/")) {
+            if (segment.isEmpty() || segment.equals(".") || segment.equals("..")) {
+                throw new IOException("invalid entry " + name);
+            }
+        }
+        return path;
+    }
+
+    private static Void sync(File file) throws IOException {
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.getFD().sync();
+        }
+        return null;
+    }
+
+    private static void await(Future<Void> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("import interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static synchronized void mkdirs(File folder) throws IOException {
+        // synchronized, as concurrent mkdirs of the same folder can fail
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("could not create " + folder);
+        }
+    }
+
+    private static void deleteRecursive(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                deleteRecursive(child);
+            }
+        }
+        if (file.exists()) {
+            file.delete();
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private long count = 0;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read >= 0) {
+                count++;
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
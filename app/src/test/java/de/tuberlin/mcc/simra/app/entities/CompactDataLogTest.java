@@ -0,0 +1,176 @@
+package de.tuberlin.mcc.simra.app.entities;
+
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CompactDataLogTest {
+    private static final String PREAMBLE = "84#1" + System.lineSeparator()
+            + "lat,lon,X,Y,Z,timeStamp,acc,a,b,c,obsDistanceLeft1,obsDistanceLeft2,obsDistanceRight1,obsDistanceRight2,obsClosePassEvent,XL,YL,ZL,RX,RY,RZ,RC" + System.lineSeparator();
+    // a line every 250 ms
+    private static final int LINES_PER_HOUR = 4 * 3600;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * A ride like the RecorderService records it: a GPS line every 3 s, OBS values every 5 lines
+     * and sensor values which change a little from line to line.
+     */
+    private static DataLogColumns syntheticRide(int lines) {
+        Random random = new Random(7);
+        DataLogColumns columns = new DataLogColumns();
+        double latitude = 52.5123456789;
+        double longitude = 13.4123456789;
+        float[] sensors = new float[13];
+        for (int i = 0; i < lines; i++) {
+            for (int j = 0; j < sensors.length; j++) {
+                sensors[j] += (float) random.nextGaussian() * 0.05F;
+            }
+            DataLogEntry.DataLogEntryBuilder builder = DataLogEntry.newBuilder()
+                    .withTimestamp(1592319028261L + i * 250L + random.nextInt(3))
+                    .withAccelerometer(sensors[0], sensors[1], 9.81F + sensors[2])
+                    .withGyroscope(sensors[3], sensors[4], sensors[5])
+                    .withLinearAccelerometer(sensors[6], sensors[7], sensors[8])
+                    .withRotation(sensors[9], sensors[10], sensors[11], sensors[12]);
+            if (i % 12 == 0) {
+                latitude += random.nextDouble() * 1e-4;
+                longitude -= random.nextDouble() * 1e-4;
+                builder.withGPS(latitude, longitude, 3F + random.nextFloat() * 10);
+            }
+            if (i % 5 == 0) {
+                builder.withOBS(150 + random.nextInt(200), null, null, null, i % 50 == 0 ? 1 : null);
+            }
+            columns.add(builder.build());
+        }
+        columns.trimToSize();
+        return columns;
+    }
+
+    @Test
+    public void writeAndRead_WithinPrecision() throws IOException {
+        DataLogColumns columns = syntheticRide(10_000);
+        File file = new File(folder.getRoot(), "1_accGps.srz");
+        new CompactDataLog(PREAMBLE, columns).write(file, true);
+        CompactDataLog read = CompactDataLog.read(file);
+
+        assertThat(read.preamble).isEqualTo(PREAMBLE);
+        assertThat(read.columns.getRowCount()).isEqualTo(10_000);
+        assertThat(read.columns.getGPSRowCount()).isEqualTo(columns.getGPSRowCount());
+        for (int row = 0; row < 10_000; row++) {
+            for (int column = 0; column < DataLogLineParser.COLUMN_COUNT; column++) {
+                assertThat(read.columns.isPresent(column, row)).isEqualTo(columns.isPresent(column, row));
+            }
+            assertThat(read.columns.getTimestamp(row)).isEqualTo(columns.getTimestamp(row));
+            assertThat(read.columns.getInt(DataLogLineParser.OBS_DISTANCE_LEFT_1, row)).isEqualTo(columns.getInt(DataLogLineParser.OBS_DISTANCE_LEFT_1, row));
+            assertThat(Math.abs(read.columns.getFloat(DataLogLineParser.ACCELEROMETER_Z, row) - columns.getFloat(DataLogLineParser.ACCELEROMETER_Z, row))).isLessThan(0.6e-4F);
+            assertThat(Math.abs(read.columns.getFloat(DataLogLineParser.GYROSCOPE_B, row) - columns.getFloat(DataLogLineParser.GYROSCOPE_B, row))).isLessThan(0.6e-5F);
+            assertThat(Math.abs(read.columns.getFloat(DataLogLineParser.ROTATION_C, row) - columns.getFloat(DataLogLineParser.ROTATION_C, row))).isLessThan(0.6e-6F);
+        }
+        for (int gpsIndex = 0; gpsIndex < columns.getGPSRowCount(); gpsIndex++) {
+            assertThat(read.columns.getGPSRow(gpsIndex)).isEqualTo(columns.getGPSRow(gpsIndex));
+            assertThat(Math.abs(read.columns.getGPSLatitude(gpsIndex) - columns.getGPSLatitude(gpsIndex))).isLessThan(0.51e-7);
+            assertThat(Math.abs(read.columns.getGPSLongitude(gpsIndex) - columns.getGPSLongitude(gpsIndex))).isLessThan(0.51e-7);
+            assertThat(Math.abs(read.columns.getGPSAccuracy(gpsIndex) - columns.getGPSAccuracy(gpsIndex))).isLessThan(0.6e-3F);
+        }
+    }
+
+    /**
+     * A CSV file exported from the compact file is encoded to the same values again.
+     */
+    @Test
+    public void exportToCsv_LosslessAtPrecision() throws IOException {
+        File file = new File(folder.getRoot(), "1_accGps.srz");
+        new CompactDataLog(PREAMBLE, syntheticRide(5_000)).write(file, false);
+        File csvFile = new File(folder.getRoot(), "1_accGps.csv");
+        assertThat(CompactDataLog.exportToCsv(file, csvFile)).isEqualTo(5_000);
+
+        DataLogColumns parsed = new DataLogColumns();
+        DataLogLineParser parser = new DataLogLineParser();
+        for (String line : Files.readAllLines(csvFile.toPath()).subList(2, 5_002)) {
+            parsed.add(parser.parse(line));
+        }
+        File secondFile = new File(folder.getRoot(), "2_accGps.srz");
+        new CompactDataLog(PREAMBLE, parsed).write(secondFile, false);
+        assertThat(Files.readAllBytes(secondFile.toPath())).isEqualTo(Files.readAllBytes(file.toPath()));
+
+        File secondCsvFile = new File(folder.getRoot(), "2_accGps.csv");
+        CompactDataLog.exportToCsv(secondFile, secondCsvFile);
+        assertThat(Files.readAllBytes(secondCsvFile.toPath())).isEqualTo(Files.readAllBytes(csvFile.toPath()));
+        // latitude and longitude with 7 decimals
+        String[] firstLine = Files.readAllLines(csvFile.toPath()).get(2).split(",");
+        assertThat(firstLine[0].matches("\\d+\\.\\d{1,7}")).isTrue();
+        assertThat(firstLine[1].matches("\\d+\\.\\d{1,7}")).isTrue();
+    }
+
+    @Test
+    public void writeAndRead_EmptyAndSparseRides() throws IOException {
+        File file = new File(folder.getRoot(), "1_accGps.srz");
+        new CompactDataLog(PREAMBLE, new DataLogColumns()).write(file, true);
+        assertThat(CompactDataLog.read(file).columns.isEmpty()).isTrue();
+
+        DataLogColumns columns = new DataLogColumns();
+        DataLogLineParser parser = new DataLogLineParser();
+        columns.add(parser.parse(",,1,2,,6"));
+        columns.add(parser.parse("1,2,,,,7,3,,,,,,,4,"));
+        columns.add(parser.parse(",,,,,,,,,,-5,,,,"));
+        new CompactDataLog(PREAMBLE, columns).write(file, true);
+        DataLogColumns read = CompactDataLog.read(file).columns;
+        for (int row = 0; row < 3; row++) {
+            assertThat(read.get(row).stringifyDataLogEntry()).isEqualTo(columns.get(row).stringifyDataLogEntry());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void read_TruncatedFile() throws IOException {
+        File file = new File(folder.getRoot(), "1_accGps.srz");
+        new CompactDataLog(PREAMBLE, syntheticRide(5_000)).write(file, true);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length - 100));
+        CompactDataLog.read(file);
+    }
+
+    @Test
+    public void size_SmallerThanCsv() throws IOException {
+        DataLogColumns columns = syntheticRide(LINES_PER_HOUR / 6);
+        File csvFile = new File(folder.getRoot(), "1_accGps.csv");
+        new DataLogFile(PREAMBLE, columns, 0, 0).writeCsv(csvFile);
+        File plainFile = new File(folder.getRoot(), "1_plain.srz");
+        new CompactDataLog(PREAMBLE, columns).write(plainFile, false);
+        File deflatedFile = new File(folder.getRoot(), "1_accGps.srz");
+        new CompactDataLog(PREAMBLE, columns).write(deflatedFile, true);
+
+        assertThat(plainFile.length() * 3).isLessThan(csvFile.length());
+        assertThat(deflatedFile.length()).isLessThanOrEqualTo(plainFile.length());
+    }
+
+    /**
+     * Time to write and read a 10 hour ride as compact file with DEFLATE, within a budget of
+     * 2 s and 1 s on a desktop JVM.
+     */
+    @Ignore("benchmark, run manually")
+    @Test
+    public void throughput_TenHourRide() throws IOException {
+        DataLogColumns columns = syntheticRide(10 * LINES_PER_HOUR);
+        File deflatedFile = new File(folder.getRoot(), "1_accGps.srz");
+        long start = System.nanoTime();
+        new CompactDataLog(PREAMBLE, columns).write(deflatedFile, true);
+        long writeMillis = (System.nanoTime() - start) / 1_000_000;
+        start = System.nanoTime();
+        DataLogColumns read = CompactDataLog.read(deflatedFile).columns;
+        long readMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertThat(read.getRowCount()).isEqualTo(columns.getRowCount());
+        assertThat(writeMillis).isLessThan(2000L);
+        assertThat(readMillis).isLessThan(1000L);
+    }
+}
@@ -0,0 +1,157 @@
+package de.tuberlin.mcc.simra.app.entities;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DataLogColumnsTest {
+    // a line every 250 ms, a GPS line every 3 s
+    private static final int LINES_PER_HOUR = 4 * 3600;
+    private static final int GPS_EVERY = 12;
+
+    /**
+     * Lines like the RecorderService writes them, starting with a GPS line.
+     */
+    private static List<String> syntheticRide(int lines) {
+        Random random = new Random(3);
+        List<String> result = new ArrayList<>(lines);
+        double latitude = 52.5;
+        double longitude = 13.4;
+        for (int i = 0; i < lines; i++) {
+            DataLogEntry.DataLogEntryBuilder builder = DataLogEntry.newBuilder()
+                    .withTimestamp(1592319028261L + i * 250L)
+                    .withAccelerometer(random.nextFloat(), random.nextFloat(), 9.81F + random.nextFloat())
+                    .withGyroscope(random.nextFloat(), random.nextFloat(), random.nextFloat())
+                    .withLinearAccelerometer(random.nextFloat(), random.nextFloat(), random.nextFloat())
+                    .withRotation(random.nextFloat(), random.nextFloat(), random.nextFloat(), random.nextFloat());
+            if (i % GPS_EVERY == 0) {
+                latitude += random.nextDouble() * 1e-4;
+                longitude += random.nextDouble() * 1e-4;
+                builder.withGPS(latitude, longitude, 3F + random.nextInt(10));
+            }
+            if (i % 5 == 0) {
+                builder.withOBS(150 + random.nextInt(200), null, null, null, null);
+            }
+            result.add(builder.build().stringifyDataLogEntry());
+        }
+        return result;
+    }
+
+    private static DataLogColumns load(List<String> lines) {
+        DataLogColumns columns = new DataLogColumns();
+        DataLogLineParser parser = new DataLogLineParser();
+        for (String line : lines) {
+            columns.add(parser.parse(line));
+        }
+        columns.trimToSize();
+        return columns;
+    }
+
+    private static long usedHeapAfterGC() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Test
+    public void add_SameLinesAsDataLogEntries() {
+        List<String> lines = syntheticRide(2_000);
+        lines.add(",,1,2,,6");
+        lines.add("1,2,,,,7,3,,,,,,,4,");
+        DataLogColumns columns = load(lines);
+
+        assertThat(columns.getRowCount()).isEqualTo(lines.size());
+        assertThat(columns.getGPSRowCount()).isEqualTo(2_000 / GPS_EVERY + 1 + 1);
+        for (int row = 0; row < lines.size(); row++) {
+            assertThat(columns.get(row).stringifyDataLogEntry()).isEqualTo(DataLogEntry.parseDataLogEntryFromLine(lines.get(row)).stringifyDataLogEntry());
+        }
+        // the accelerometer needs all three values
+        assertThat(columns.isPresent(DataLogLineParser.ACCELEROMETER_X, 2_000)).isFalse();
+        assertThat(columns.getTimestamp(2_000)).isEqualTo(6L);
+        assertThat(columns.isPresent(DataLogLineParser.OBS_DISTANCE_RIGHT_2, 2_001)).isTrue();
+        assertThat(columns.getInt(DataLogLineParser.OBS_DISTANCE_RIGHT_2, 2_001)).isEqualTo(4);
+        assertThat(columns.isPresent(DataLogLineParser.OBS_DISTANCE_LEFT_1, 2_001)).isFalse();
+    }
+
+    @Test
+    public void gpsIndex() {
+        DataLogColumns columns = load(syntheticRide(1_000));
+        List<DataLogEntry> gpsEntries = columns.gpsEntries();
+        assertThat(gpsEntries.size()).isEqualTo(columns.getGPSRowCount());
+        for (int gpsIndex = 0; gpsIndex < columns.getGPSRowCount(); gpsIndex++) {
+            int row = columns.getGPSRow(gpsIndex);
+            assertThat(row).isEqualTo(gpsIndex * GPS_EVERY);
+            assertThat(columns.isGPSRow(row)).isTrue();
+            assertThat(columns.isGPSRow(row + 1)).isFalse();
+            assertThat(gpsEntries.get(gpsIndex).latitude).isEqualTo(columns.getGPSLatitude(gpsIndex));
+            assertThat(gpsEntries.get(gpsIndex).timestamp).isEqualTo(columns.getGPSTimestamp(gpsIndex));
+            assertThat(columns.asList().get(row).longitude).isEqualTo(columns.getGPSLongitude(gpsIndex));
+        }
+    }
+
+    @Test
+    public void add_DataLogEntry() {
+        DataLogEntry entry = DataLogEntry.newBuilder()
+                .withTimestamp(6L)
+                .withGPS(1D, 2D, 7F)
+                .withAccelerometer(3F, 4F, 5F)
+                .withOBS(11, null, 13, null, 15)
+                .withRotation(19F, 20F, 21F, 22F).build();
+        DataLogColumns columns = new DataLogColumns();
+        columns.add(entry);
+        columns.add(DataLogEntry.newBuilder().build());
+        assertThat(columns.get(0).stringifyDataLogEntry()).isEqualTo(entry.stringifyDataLogEntry());
+        assertThat(columns.get(1).stringifyDataLogEntry()).isEqualTo(DataLogEntry.newBuilder().build().stringifyDataLogEntry());
+        assertThat(columns.getFloat(DataLogLineParser.GYROSCOPE_A, 0)).isEqualTo(0F);
+    }
+
+    @Test
+    public void add_RowOfOtherColumns() {
+        List<String> lines = syntheticRide(100);
+        DataLogColumns columns = load(lines);
+        DataLogColumns copy = new DataLogColumns();
+        for (int row = 10; row < 40; row++) {
+            copy.add(columns, row);
+        }
+        assertThat(copy.getRowCount()).isEqualTo(30);
+        assertThat(copy.getGPSRowCount()).isEqualTo(3);
+        for (int row = 0; row < 30; row++) {
+            assertThat(copy.get(row).stringifyDataLogEntry()).isEqualTo(lines.get(row + 10));
+        }
+    }
+
+    /**
+     * Heap taken by a 4 hour ride as columns and as list of DataLogEntries. Depends on the garbage
+     * collector, so it is not run with the unit tests.
+     */
+    @Ignore("benchmark, run manually")
+    @Test
+    public void heapSize_FourHourRide() throws InterruptedException {
+        List<String> lines = syntheticRide(4 * LINES_PER_HOUR);
+
+        long before = usedHeapAfterGC();
+        DataLogColumns columns = load(lines);
+        long columnsBytes = usedHeapAfterGC() - before;
+
+        before = usedHeapAfterGC();
+        List<DataLogEntry> entries = new ArrayList<>();
+        DataLogLineParser parser = new DataLogLineParser();
+        for (String line : lines) {
+            entries.add(parser.parse(line).toDataLogEntry());
+        }
+        long entriesBytes = usedHeapAfterGC() - before;
+
+        assertThat(columns.getRowCount()).isEqualTo(entries.size());
+        // roughly 100 bytes per line
+        assertThat(columnsBytes).isLessThan(lines.size() * 120L);
+        assertThat(columnsBytes * 3).isLessThan(entriesBytes);
+    }
+}
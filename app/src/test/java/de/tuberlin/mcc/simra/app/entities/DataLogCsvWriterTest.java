@@ -0,0 +1,159 @@
+package de.tuberlin.mcc.simra.app.entities;
+
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DataLogCsvWriterTest {
+    private static final String PREAMBLE = "84#1" + System.lineSeparator()
+            + "lat,lon,X,Y,Z,timeStamp,acc,a,b,c,obsDistanceLeft1,obsDistanceLeft2,obsDistanceRight1,obsDistanceRight2,obsClosePassEvent,XL,YL,ZL,RX,RY,RZ,RC" + System.lineSeparator();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * The entries of the golden file DataLogCsvWriterTest.csv, which was written with
+     * stringifyDataLogEntry() before it used DataLogCsvWriter.
+     */
+    static List<DataLogEntry> goldenEntries() {
+        List<DataLogEntry> entries = new ArrayList<>();
+        float[] specialFloats = {0F, -0F, 1F, -1.5F, 9.81F, 1.0E-5F, 0.001F, 1.0E7F, 123456.79F, -3.4028235E38F, Float.MIN_VALUE, Float.NaN, 0.1F + 0.2F};
+        double[] specialDoubles = {52.5123456789, 13.4, 0.0, -0.0, 1.0E-4, 52.51234567891234, -33.8688197, 1.0E7, 0.1 + 0.2};
+        for (int i = 0; i < specialFloats.length; i++) {
+            float value = specialFloats[i];
+            double location = specialDoubles[i % specialDoubles.length];
+            entries.add(DataLogEntry.newBuilder()
+                    .withTimestamp(1592319028261L + i)
+                    .withGPS(location, -location, value)
+                    .withAccelerometer(value, -value, value * 3)
+                    .withGyroscope(value / 7, value, -value)
+                    .withLinearAccelerometer(value, value / 3, -value)
+                    .withRotation(value, value, value, value / 11)
+                    .withOBS(i, -i, Integer.MAX_VALUE, Integer.MIN_VALUE, i % 2)
+                    .build());
+        }
+        // sparse lines like the recorded ones
+        entries.add(DataLogEntry.newBuilder().withTimestamp(0L).build());
+        entries.add(DataLogEntry.newBuilder().build());
+        entries.add(DataLogEntry.newBuilder().withOBS(null, 150, null, null, null).build());
+        Random random = new Random(5);
+        for (int i = 0; i < 200; i++) {
+            DataLogEntry.DataLogEntryBuilder builder = DataLogEntry.newBuilder()
+                    .withTimestamp(Long.MAX_VALUE - random.nextInt(1000))
+                    .withAccelerometer((float) random.nextGaussian(), (float) random.nextGaussian(), 9.81F + (float) random.nextGaussian())
+                    .withGyroscope(random.nextFloat() / 1000, random.nextFloat() * 1e6F, (float) random.nextGaussian())
+                    .withLinearAccelerometer((float) random.nextGaussian(), (float) random.nextGaussian(), (float) random.nextGaussian())
+                    .withRotation(random.nextFloat(), random.nextFloat(), random.nextFloat(), random.nextFloat());
+            if (i % 12 == 0) {
+                builder.withGPS(52.5 + random.nextDouble(), 13.4 + random.nextDouble(), random.nextFloat() * 20);
+            }
+            entries.add(builder.build());
+        }
+        return entries;
+    }
+
+    private static byte[] goldenFile() throws IOException {
+        StringBuilder content = new StringBuilder(PREAMBLE);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                DataLogCsvWriterTest.class.getResourceAsStream("DataLogCsvWriterTest.csv"), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                content.append(line).append(System.lineSeparator());
+            }
+        }
+        return content.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void writeLine_SameBytesAsGoldenFile() throws IOException {
+        List<DataLogEntry> entries = goldenEntries();
+        DataLogColumns columns = new DataLogColumns();
+        File entriesFile = new File(folder.getRoot(), "1_accGps.csv");
+        try (DataLogCsvWriter writer = new DataLogCsvWriter(entriesFile)) {
+            writer.write(PREAMBLE);
+            for (DataLogEntry entry : entries) {
+                writer.writeLine(entry);
+                columns.add(entry);
+            }
+            assertThat(writer.getBytesWritten()).isEqualTo((long) goldenFile().length);
+        }
+        File columnsFile = new File(folder.getRoot(), "2_accGps.csv");
+        try (DataLogCsvWriter writer = new DataLogCsvWriter(columnsFile)) {
+            writer.write(PREAMBLE);
+            for (int row = 0; row < columns.getRowCount(); row++) {
+                writer.writeLine(columns, row);
+            }
+        }
+
+        assertThat(Files.readAllBytes(entriesFile.toPath())).isEqualTo(goldenFile());
+        assertThat(Files.readAllBytes(columnsFile.toPath())).isEqualTo(goldenFile());
+    }
+
+    @Test
+    public void stringifyDataLogEntry_SameAsGoldenFile() throws IOException {
+        StringBuilder content = new StringBuilder(PREAMBLE);
+        for (DataLogEntry entry : goldenEntries()) {
+            content.append(entry.stringifyDataLogEntry()).append(System.lineSeparator());
+        }
+        assertThat(content.toString().getBytes(StandardCharsets.UTF_8)).isEqualTo(goldenFile());
+    }
+
+    /**
+     * Throughput of writing a 10 hour ride with stringifyDataLogEntry() and with DataLogCsvWriter.
+     */
+    @Ignore("benchmark, run manually")
+    @Test
+    public void throughput_TenHourRide() throws IOException {
+        DataLogColumns columns = new DataLogColumns();
+        Random random = new Random(9);
+        for (int i = 0; i < 10 * 4 * 3600; i++) {
+            DataLogEntry.DataLogEntryBuilder builder = DataLogEntry.newBuilder()
+                    .withTimestamp(1592319028261L + i * 250L)
+                    .withAccelerometer((float) random.nextGaussian(), (float) random.nextGaussian(), 9.81F + (float) random.nextGaussian())
+                    .withGyroscope((float) random.nextGaussian(), (float) random.nextGaussian(), (float) random.nextGaussian())
+                    .withLinearAccelerometer((float) random.nextGaussian(), (float) random.nextGaussian(), (float) random.nextGaussian())
+                    .withRotation(random.nextFloat(), random.nextFloat(), random.nextFloat(), random.nextFloat());
+            if (i % 12 == 0) {
+                builder.withGPS(52.5 + random.nextDouble(), 13.4 + random.nextDouble(), random.nextFloat() * 20);
+            }
+            columns.add(builder.build());
+        }
+        File stringFile = new File(folder.getRoot(), "1_accGps.csv");
+        File writerFile = new File(folder.getRoot(), "2_accGps.csv");
+        long stringMillis = Long.MAX_VALUE;
+        long writerMillis = Long.MAX_VALUE;
+        for (int run = 0; run < 3; run++) {
+            long start = System.nanoTime();
+            try (java.io.BufferedWriter writer = Files.newBufferedWriter(stringFile.toPath(), StandardCharsets.UTF_8)) {
+                writer.write(PREAMBLE);
+                for (int row = 0; row < columns.getRowCount(); row++) {
+                    writer.write(columns.get(row).stringifyDataLogEntry() + System.lineSeparator());
+                }
+            }
+            stringMillis = Math.min(stringMillis, (System.nanoTime() - start) / 1_000_000);
+            start = System.nanoTime();
+            try (DataLogCsvWriter writer = new DataLogCsvWriter(writerFile)) {
+                writer.write(PREAMBLE);
+                for (int row = 0; row < columns.getRowCount(); row++) {
+                    writer.writeLine(columns, row);
+                }
+            }
+            writerMillis = Math.min(writerMillis, (System.nanoTime() - start) / 1_000_000);
+        }
+        assertThat(Files.readAllBytes(writerFile.toPath())).isEqualTo(Files.readAllBytes(stringFile.toPath()));
+        assertThat(writerMillis).isLessThan(stringMillis);
+    }
+}
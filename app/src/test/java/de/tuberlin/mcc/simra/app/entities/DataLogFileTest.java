@@ -0,0 +1,164 @@
+package de.tuberlin.mcc.simra.app.entities;
+
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DataLogFileTest {
+    private static final String PREAMBLE = "84#1" + System.lineSeparator()
+            + "lat,lon,X,Y,Z,timeStamp,acc,a,b,c,obsDistanceLeft1,obsDistanceLeft2,obsDistanceRight1,obsDistanceRight2,obsClosePassEvent,XL,YL,ZL,RX,RY,RZ,RC" + System.lineSeparator();
+    // a line every 250 ms
+    private static final int LINES_PER_HOUR = 4 * 3600;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Writes a CSV file like DataLog.saveDataLog, with a GPS line every 3 s and OBS values every 5 lines.
+     */
+    private File writeRide(int lines) throws IOException {
+        File csvFile = folder.newFile("1_accGps.csv");
+        Random random = new Random(5);
+        double latitude = 52.5;
+        double longitude = 13.4;
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(csvFile), StandardCharsets.UTF_8))) {
+            writer.write(PREAMBLE);
+            for (int i = 0; i < lines; i++) {
+                DataLogEntry.DataLogEntryBuilder builder = DataLogEntry.newBuilder()
+                        .withTimestamp(1592319028261L + i * 250L)
+                        .withAccelerometer(random.nextFloat(), random.nextFloat(), 9.81F + random.nextFloat())
+                        .withGyroscope(random.nextFloat(), random.nextFloat(), random.nextFloat())
+                        .withLinearAccelerometer(random.nextFloat(), random.nextFloat(), random.nextFloat())
+                        .withRotation(random.nextFloat(), random.nextFloat(), random.nextFloat(), random.nextFloat());
+                if (i % 12 == 0) {
+                    latitude += random.nextDouble() * 1e-4;
+                    longitude += random.nextDouble() * 1e-4;
+                    builder.withGPS(latitude, longitude, 3F + random.nextInt(10));
+                }
+                if (i % 5 == 0) {
+                    builder.withOBS(150 + random.nextInt(200), null, 80, null, i % 10 == 0 ? 1 : null);
+                }
+                writer.write(builder.build().stringifyDataLogEntry() + System.lineSeparator());
+            }
+        }
+        return csvFile;
+    }
+
+    /**
+     * Parses a CSV file like DataLog.loadDataLog.
+     */
+    private static DataLogFile parseCsv(File csvFile) throws IOException {
+        DataLogColumns columns = new DataLogColumns();
+        StringBuilder preamble = new StringBuilder();
+        try (FileReader fileReader = new FileReader(csvFile)) {
+            DataLogLineParser.LineReader lineReader = new DataLogLineParser.LineReader(fileReader);
+            DataLogLineParser parser = new DataLogLineParser();
+            for (int i = 0; i < 2 && lineReader.next(); i++) {
+                preamble.append(lineReader.getChars(), lineReader.getStart(), lineReader.getEnd() - lineReader.getStart()).append(System.lineSeparator());
+            }
+            while (lineReader.next()) {
+                if (!lineReader.isBlank()) {
+                    columns.add(parser.parse(lineReader.getChars(), lineReader.getStart(), lineReader.getEnd()));
+                }
+            }
+        }
+        columns.trimToSize();
+        return new DataLogFile(preamble.toString(), columns, csvFile.length(), csvFile.lastModified());
+    }
+
+    @Test
+    public void writeAndOpen_RoundTrip() throws IOException {
+        File csvFile = writeRide(5_000);
+        DataLogFile parsed = parseCsv(csvFile);
+        File binaryFile = new File(folder.getRoot(), "1_dataLog.bin");
+        parsed.write(binaryFile);
+
+        DataLogFile opened = DataLogFile.open(binaryFile);
+        assertThat(opened.preamble).isEqualTo(PREAMBLE);
+        assertThat(opened.sourceLength).isEqualTo(csvFile.length());
+        assertThat(opened.columns.getRowCount()).isEqualTo(5_000);
+        assertThat(opened.columns.getGPSRowCount()).isEqualTo(parsed.columns.getGPSRowCount());
+        for (int row = 0; row < 5_000; row++) {
+            assertThat(opened.columns.get(row).stringifyDataLogEntry()).isEqualTo(parsed.columns.get(row).stringifyDataLogEntry());
+        }
+        assertThat(opened.columns.isPresent(DataLogLineParser.OBS_DISTANCE_LEFT_2, 0)).isFalse();
+        assertThat(opened.columns.getInt(DataLogLineParser.OBS_DISTANCE_RIGHT_1, 5)).isEqualTo(80);
+        assertThat(opened.columns.isPresent(DataLogLineParser.OBS_CLOSE_PASS_EVENT, 5)).isFalse();
+    }
+
+    @Test
+    public void exportToCsv_SameBytes() throws IOException {
+        File csvFile = writeRide(3_000);
+        File binaryFile = new File(folder.getRoot(), "1_dataLog.bin");
+        parseCsv(csvFile).write(binaryFile);
+
+        File exportedFile = new File(folder.getRoot(), "exported.csv");
+        assertThat(DataLogFile.exportToCsv(binaryFile, exportedFile)).isEqualTo(3_000);
+        assertThat(Files.readAllBytes(exportedFile.toPath())).isEqualTo(Files.readAllBytes(csvFile.toPath()));
+    }
+
+    @Test
+    public void writeAndOpen_EmptyRide() throws IOException {
+        File binaryFile = new File(folder.getRoot(), "1_dataLog.bin");
+        new DataLogFile(PREAMBLE, new DataLogColumns(), 0, 0).write(binaryFile);
+        DataLogFile opened = DataLogFile.open(binaryFile);
+        assertThat(opened.columns.isEmpty()).isTrue();
+        assertThat(opened.columns.getGPSRowCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void isUpToDate_FalseAfterCsvChanged() throws IOException {
+        File csvFile = writeRide(100);
+        File binaryFile = new File(folder.getRoot(), "1_dataLog.bin");
+        assertThat(DataLogFile.isUpToDate(binaryFile, csvFile)).isFalse();
+        parseCsv(csvFile).write(binaryFile);
+        assertThat(DataLogFile.isUpToDate(binaryFile, csvFile)).isTrue();
+
+        try (FileOutputStream out = new FileOutputStream(csvFile, true)) {
+            out.write(("1,2,,,,7,3" + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+        }
+        assertThat(DataLogFile.isUpToDate(binaryFile, csvFile)).isFalse();
+    }
+
+    @Test(expected = IOException.class)
+    public void open_InvalidFile() throws IOException {
+        File file = folder.newFile("1_dataLog.bin");
+        Files.write(file.toPath(), new byte[DataLogFile.HEADER_SIZE + 8]);
+        DataLogFile.open(file);
+    }
+
+    /**
+     * Time to load a 10 hour ride from the CSV file and from the binary file.
+     */
+    @Ignore("benchmark, run manually")
+    @Test
+    public void open_TenHourRide() throws IOException {
+        File csvFile = writeRide(10 * LINES_PER_HOUR);
+        File binaryFile = new File(folder.getRoot(), "1_dataLog.bin");
+
+        long start = System.nanoTime();
+        DataLogFile parsed = parseCsv(csvFile);
+        long parseMillis = (System.nanoTime() - start) / 1_000_000;
+        parsed.write(binaryFile);
+
+        start = System.nanoTime();
+        DataLogFile opened = DataLogFile.open(binaryFile);
+        long openMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertThat(opened.columns.getRowCount()).isEqualTo(parsed.columns.getRowCount());
+        assertThat(openMillis * 10).isLessThan(parseMillis);
+    }
+}
@@ -0,0 +1,174 @@
+package de.tuberlin.mcc.simra.app.entities;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class DataLogIndexTest {
+    private static final String HEADER = "87#1" + System.lineSeparator() + "lat,lon" + System.lineSeparator();
+    private static final long START = 1592319028261L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Records a ride with a line every 250 ms and a GPS line every 3 s.
+     */
+    private File recordRide(int lines, File indexFile) throws IOException {
+        File target = new File(folder.getRoot(), "1_accGps.csv");
+        DataLogWriter writer = new DataLogWriter(new File(folder.getRoot(), "Temp1_accGps.csv"), target, indexFile, HEADER);
+        for (int i = 0; i < lines; i++) {
+            DataLogEntry.DataLogEntryBuilder builder = DataLogEntry.newBuilder()
+                    .withTimestamp(START + i * 250L)
+                    .withAccelerometer((float) i, (float) -i, i * 0.5F);
+            if (i % 12 == 0) {
+                writer.appendGPSLine(builder.withGPS(52.5 + i * 1e-6, 13.4, 5F).build());
+            } else {
+                writer.appendSensorLine(builder.build());
+            }
+        }
+        writer.finish();
+        return target;
+    }
+
+    /**
+     * Reads the lines of the blocks which overlap the time frame, like DataLog.loadDataLog.
+     */
+    private static List<Long> readTimestamps(File csvFile, DataLogIndex index, Long startTimeBoundary, Long endTimeBoundary) throws IOException {
+        List<Long> timestamps = new ArrayList<>();
+        int firstBlock = index.firstBlock(startTimeBoundary, endTimeBoundary);
+        if (firstBlock < 0) {
+            return timestamps;
+        }
+        int lines = index.getEndLine(index.lastBlock(startTimeBoundary, endTimeBoundary)) - index.getFirstLine(firstBlock);
+        try (FileInputStream in = new FileInputStream(csvFile)) {
+            in.getChannel().position(index.getOffset(firstBlock));
+            DataLogLineParser.LineReader lineReader = new DataLogLineParser.LineReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            DataLogLineParser parser = new DataLogLineParser();
+            while (lines-- > 0 && lineReader.next()) {
+                long timestamp = parser.parse(lineReader.getChars(), lineReader.getStart(), lineReader.getEnd()).getLong(DataLogLineParser.TIMESTAMP);
+                if ((startTimeBoundary == null || timestamp >= startTimeBoundary) && (endTimeBoundary == null || timestamp <= endTimeBoundary)) {
+                    timestamps.add(timestamp);
+                }
+            }
+        }
+        return timestamps;
+    }
+
+    private static List<Long> expectedTimestamps(long from, long to) {
+        List<Long> timestamps = new ArrayList<>();
+        for (long timestamp = from; timestamp <= to; timestamp += 250) {
+            timestamps.add(timestamp);
+        }
+        return timestamps;
+    }
+
+    @Test
+    public void dataLogWriter_WritesIndex() throws IOException {
+        File indexFile = new File(folder.getRoot(), "1_dataLog.idx");
+        File csvFile = recordRide(1_000, indexFile);
+        DataLogIndex index = DataLogIndex.read(indexFile);
+
+        assertThat(index.isUpToDate(csvFile)).isTrue();
+        assertThat(index.lineCount).isEqualTo(1_000);
+        assertThat(index.getBlockCount()).isEqualTo(4);
+        assertThat(index.getEndLine(3)).isEqualTo(1_000);
+        List<String> lines = Files.readAllLines(csvFile.toPath(), StandardCharsets.UTF_8);
+        String content = new String(Files.readAllBytes(csvFile.toPath()), StandardCharsets.UTF_8);
+        for (int block = 0; block < index.getBlockCount(); block++) {
+            assertThat(content.substring((int) index.getOffset(block)).startsWith(lines.get(2 + index.getFirstLine(block)))).isTrue();
+        }
+    }
+
+    @Test
+    public void firstAndLastBlock() {
+        DataLogIndex.Builder builder = new DataLogIndex.Builder(64);
+        for (int i = 0; i < 300; i++) {
+            builder.add(i * 10, 1000 + i);
+        }
+        DataLogIndex index = builder.build(3000, 0);
+        assertThat(index.getBlockCount()).isEqualTo(5);
+        assertThat(index.firstBlock(1070L, 1130L)).isEqualTo(1);
+        assertThat(index.lastBlock(1070L, 1130L)).isEqualTo(2);
+        assertThat(index.firstBlock(null, 1000L)).isEqualTo(0);
+        assertThat(index.lastBlock(null, 1000L)).isEqualTo(0);
+        assertThat(index.lastBlock(1290L, null)).isEqualTo(4);
+        assertThat(index.firstBlock(2000L, null)).isEqualTo(-1);
+        assertThat(index.getOffset(2)).isEqualTo(1280L);
+    }
+
+    @Test
+    public void rangedRead_SameLinesAsFilteringAllLines() throws IOException {
+        File indexFile = new File(folder.getRoot(), "1_dataLog.idx");
+        File csvFile = recordRide(5_000, indexFile);
+        DataLogIndex index = DataLogIndex.read(indexFile);
+
+        long from = START + 1_234 * 250L;
+        long to = START + 2_345 * 250L;
+        assertThat(readTimestamps(csvFile, index, from, to)).isEqualTo(expectedTimestamps(from, to));
+        assertThat(readTimestamps(csvFile, index, null, from)).isEqualTo(expectedTimestamps(START, from));
+        assertThat(readTimestamps(csvFile, index, to, null)).isEqualTo(expectedTimestamps(to, START + 4_999 * 250L));
+        assertThat(readTimestamps(csvFile, index, 0L, START - 1).size()).isEqualTo(0);
+    }
+
+    @Test
+    public void openDataLogFile_Range() throws IOException {
+        DataLogColumns columns = new DataLogColumns();
+        DataLogLineParser parser = new DataLogLineParser();
+        for (String line : Files.readAllLines(recordRide(1_000, null).toPath(), StandardCharsets.UTF_8).subList(2, 1_002)) {
+            columns.add(parser.parse(line));
+        }
+        File binaryFile = new File(folder.getRoot(), "1_dataLog.bin");
+        new DataLogFile(HEADER, columns, 0, 0).write(binaryFile);
+
+        DataLogColumns range = DataLogFile.open(binaryFile, 256, 700).columns;
+        assertThat(range.getRowCount()).isEqualTo(444);
+        for (int row = 0; row < 444; row++) {
+            assertThat(range.get(row).stringifyDataLogEntry()).isEqualTo(columns.get(row + 256).stringifyDataLogEntry());
+        }
+        assertThat(range.getGPSRowCount()).isEqualTo(37);
+        assertThat(DataLogFile.open(binaryFile, 768, 2_000).columns.getRowCount()).isEqualTo(232);
+        assertThat(DataLogFile.open(binaryFile, 0, 0).columns.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void isUpToDate_FalseAfterCsvChanged() throws IOException {
+        File indexFile = new File(folder.getRoot(), "1_dataLog.idx");
+        File csvFile = recordRide(100, indexFile);
+        Files.write(csvFile.toPath(), "1,2,,,,7,3\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        assertThat(DataLogIndex.read(indexFile).isUpToDate(csvFile)).isFalse();
+    }
+
+    /**
+     * Only blocks starting at a multiple of 64 can be opened in the DataLogFile.
+     */
+    @Test
+    public void read_RejectsIntervalNotMultipleOf64() throws IOException {
+        File indexFile = new File(folder.getRoot(), "1_dataLog.idx");
+        recordRide(100, indexFile);
+        try (RandomAccessFile file = new RandomAccessFile(indexFile, "rw")) {
+            file.seek(8);
+            file.write(new byte[]{100, 0, 0, 0});
+        }
+        try {
+            DataLogIndex.read(indexFile);
+            fail("index with interval 100 was read");
+        } catch (IOException expected) {
+            assertThat(expected.getMessage()).contains(indexFile.getName());
+        }
+    }
+}
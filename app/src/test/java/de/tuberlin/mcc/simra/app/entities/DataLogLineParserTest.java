@@ -0,0 +1,186 @@
+package de.tuberlin.mcc.simra.app.entities;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+public class DataLogLineParserTest {
+
+    private static String randomLine(Random random) {
+        DataLogEntry.DataLogEntryBuilder builder = DataLogEntry.newBuilder()
+                .withTimestamp(1592319028261L + random.nextInt(10_000_000))
+                .withAccelerometer(randomFloat(random), randomFloat(random), randomFloat(random))
+                .withLinearAccelerometer(randomFloat(random), randomFloat(random), randomFloat(random))
+                .withRotation(randomFloat(random), randomFloat(random), randomFloat(random), randomFloat(random));
+        if (random.nextInt(4) == 0) {
+            builder.withGPS(52 + random.nextDouble(), 13 + random.nextDouble(), random.nextFloat() * 20)
+                    .withGyroscope(randomFloat(random), randomFloat(random), randomFloat(random));
+        }
+        if (random.nextInt(3) == 0) {
+            builder.withOBS(random.nextInt(300), null, random.nextInt(300), null, null);
+        }
+        return builder.build().stringifyDataLogEntry();
+    }
+
+    private static float randomFloat(Random random) {
+        switch (random.nextInt(4)) {
+            case 0:
+                // written in scientific notation
+                return (float) (random.nextGaussian() * 1e-5);
+            case 1:
+                return Float.intBitsToFloat(random.nextInt()) % 1e6F;
+            default:
+                return (float) (random.nextGaussian() * 10);
+        }
+    }
+
+    private static void assertParsedLikeBoxedTypes(String line) {
+        String[] cells = line.split(",", -1);
+        DataLogLineParser parser = new DataLogLineParser().parse(line);
+        for (int column = 0; column < DataLogLineParser.COLUMN_COUNT; column++) {
+            String cell = column < cells.length ? cells[column] : "";
+            assertThat(parser.isPresent(column)).isEqualTo(!cell.isEmpty());
+            if (cell.isEmpty()) {
+                continue;
+            }
+            if (column == DataLogLineParser.TIMESTAMP) {
+                assertThat(parser.getLong(column)).isEqualTo(Long.parseLong(cell));
+            } else if (column >= DataLogLineParser.OBS_DISTANCE_LEFT_1 && column <= DataLogLineParser.OBS_CLOSE_PASS_EVENT) {
+                assertThat(parser.getInt(column)).isEqualTo(Integer.parseInt(cell));
+            } else if (column <= DataLogLineParser.LONGITUDE) {
+                assertThat(Double.doubleToRawLongBits(parser.getDouble(column))).isEqualTo(Double.doubleToRawLongBits(Double.parseDouble(cell)));
+            } else {
+                assertThat(Float.floatToRawIntBits(parser.getFloat(column))).isEqualTo(Float.floatToRawIntBits(Float.parseFloat(cell)));
+            }
+        }
+    }
+
+    @Test
+    public void parse_SameValuesAsBoxedTypes() {
+        assertParsedLikeBoxedTypes("52.53949384561807,13.371213365189773,-0.8885537,-9.369222,-2.433742,1592319028261,6.0,0.008709193,0.21959732,-0.057107173,255,,,,,-0.8885537,-9.369222,-12.243742,,,,");
+        assertParsedLikeBoxedTypes("1,2,3,4,5,6,7,8,9,10,11,12,13,14");
+        assertParsedLikeBoxedTypes(",,1.5E-7,-0.0,1.0E10,,,.5,5.,+1");
+        assertParsedLikeBoxedTypes("");
+        Random random = new Random(42);
+        for (int i = 0; i < 20_000; i++) {
+            assertParsedLikeBoxedTypes(randomLine(random));
+        }
+    }
+
+    @Test
+    public void parse_FloatsLikeFloatParseFloat() {
+        Random random = new Random(7);
+        char[] chars = new char[64];
+        for (int i = 0; i < 200_000; i++) {
+            String value = Float.toString(randomFloat(random));
+            // more digits than needed, so that some values are exactly halfway between two floats
+            if (i % 2 == 0) {
+                value = Double.toString(random.nextInt(1 << 25) / 1024.0);
+            }
+            value.getChars(0, value.length(), chars, 0);
+            assertThat(Float.floatToRawIntBits(DataLogLineParser.parseFloat(chars, 0, value.length())))
+                    .isEqualTo(Float.floatToRawIntBits(Float.parseFloat(value)));
+        }
+    }
+
+    @Test
+    public void toDataLogEntry_SameAsBuilder() {
+        DataLogEntry expected = DataLogEntry.newBuilder()
+                .withTimestamp(1592319028261L)
+                .withGPS(52.53949384561807D, 13.371213365189773, 6.0F)
+                .withAccelerometer(-0.8885537F, -9.369222F, -2.433742F)
+                .withGyroscope(0.008709193F, 0.21959732F, -0.057107173F)
+                .withOBS(255, null, null, null, null)
+                .withLinearAccelerometer(-0.8885537F, -9.369222F, -12.243742F).build();
+        String line = expected.stringifyDataLogEntry();
+        DataLogEntry parsed = DataLogEntry.parseDataLogEntryFromLine(line);
+        assertThat(parsed.stringifyDataLogEntry()).isEqualTo(line);
+        assertThat(parsed.latitude).isEqualTo(expected.latitude);
+        assertThat(parsed.obsDistanceLeft1).isEqualTo(255);
+        assertThat(parsed.obsDistanceLeft2).isNull();
+        assertThat(parsed.rotationX).isNull();
+
+        // a sensor is only set if all of its values are present
+        parsed = DataLogEntry.parseDataLogEntryFromLine("1,2,3,,5,6,,8,9,10");
+        assertThat(parsed.latitude).isNull();
+        assertThat(parsed.accelerometerX).isNull();
+        assertThat(parsed.timestamp).isEqualTo(6L);
+        assertThat(parsed.gyroscopeA).isEqualTo(8F);
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void toDataLogEntry_FailsForInvalidNumber() {
+        DataLogEntry.parseDataLogEntryFromLine(",,1,x,3");
+    }
+
+    @Test
+    public void lineReader_SplitsLines() throws IOException {
+        StringBuilder content = new StringBuilder("87#2\r\nheader\n\n");
+        List<String> expected = new ArrayList<>();
+        expected.add("87#2");
+        expected.add("header");
+        expected.add("");
+        Random random = new Random(1);
+        for (int i = 0; i < 5_000; i++) {
+            String line = randomLine(random);
+            expected.add(line);
+            content.append(line).append(i % 2 == 0 ? "\r\n" : "\n");
+        }
+        content.append("last");
+        expected.add("last");
+
+        // deliver the content in small pieces, so that lines and \r\n span several reads
+        Reader reader = new StringReader(content.toString()) {
+            @Override
+            public int read(char[] chars, int offset, int length) throws IOException {
+                return super.read(chars, offset, Math.min(length, 7));
+            }
+        };
+        DataLogLineParser.LineReader lineReader = new DataLogLineParser.LineReader(reader);
+        List<String> lines = new ArrayList<>();
+        while (lineReader.next()) {
+            String line = new String(lineReader.getChars(), lineReader.getStart(), lineReader.getEnd() - lineReader.getStart());
+            lines.add(line);
+            assertThat(content.substring((int) lineReader.getOffset()).startsWith(line)).isTrue();
+        }
+        assertThat(lines).isEqualTo(expected);
+        assertThat(lineReader.getOffset()).isEqualTo((long) content.length() - "last".length());
+    }
+
+    /**
+     * Loading a DataLog parses every line, so this must not allocate.
+     */
+    @Test
+    public void parse_DoesNotAllocate() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        // sensor lines, a GPS line has coordinates with up to 17 digits which may need Double.parseDouble
+        char[] chars = "52.539493,13.371213,-0.8885537,-9.369222,-2.433742,1592319028261,6.0,0.008709193,0.21959732,-0.057107173,255,,,,,-0.8885537,-9.369222,-12.243742,1.2345678E-4,0.5,-0.25,0.75".toCharArray();
+        DataLogLineParser parser = new DataLogLineParser();
+        for (int i = 0; i < 100_000; i++) {
+            parser.parse(chars, 0, chars.length);
+        }
+        int lines = 1_000_000;
+        long threadId = Thread.currentThread().getId();
+        long bytesBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+        long checksum = 0;
+        for (int i = 0; i < lines; i++) {
+            checksum += parser.parse(chars, 0, chars.length).getLong(DataLogLineParser.TIMESTAMP);
+        }
+        long allocatedBytes = threadMXBean.getThreadAllocatedBytes(threadId) - bytesBefore;
+        assertThat(checksum).isEqualTo(1592319028261L * lines);
+        assertThat(allocatedBytes / (double) lines).isLessThan(0.01);
+    }
+}
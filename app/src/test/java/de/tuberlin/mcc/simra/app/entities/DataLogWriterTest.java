@@ -0,0 +1,97 @@
+package de.tuberlin.mcc.simra.app.entities;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DataLogWriterTest {
+    private static final String HEADER = "87#1" + System.lineSeparator() + "lat,lon" + System.lineSeparator();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static DataLogEntry gpsLine(long timestamp) {
+        return DataLogEntry.newBuilder().withTimestamp(timestamp).withGPS(52.5, 13.4, 5F).build();
+    }
+
+    private static DataLogEntry sensorLine(long timestamp) {
+        return DataLogEntry.newBuilder().withTimestamp(timestamp).withAccelerometer(1F, 2F, 3F).build();
+    }
+
+    private static List<String> readLines(File file) throws IOException {
+        return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void finish_WritesLinesOrderedByTimestamp() throws IOException {
+        File temp = new File(folder.getRoot(), "Temp1_accGps.csv");
+        File target = new File(folder.getRoot(), "1_accGps.csv");
+        DataLogWriter writer = new DataLogWriter(temp, target, HEADER);
+        writer.appendGPSLine(gpsLine(100));
+        writer.appendSensorLine(sensorLine(250));
+        writer.appendSensorLine(sensorLine(500));
+        writer.appendSensorLine(sensorLine(750));
+        // the location fix of this line is older than the last sensor lines
+        writer.appendGPSLine(gpsLine(500));
+        writer.appendSensorLine(sensorLine(1000));
+        writer.finish();
+
+        assertThat(temp.exists()).isFalse();
+        assertThat(readLines(target)).containsExactly(
+                "87#1",
+                "lat,lon",
+                gpsLine(100).stringifyDataLogEntry(),
+                sensorLine(250).stringifyDataLogEntry(),
+                gpsLine(500).stringifyDataLogEntry(),
+                sensorLine(500).stringifyDataLogEntry(),
+                sensorLine(750).stringifyDataLogEntry(),
+                sensorLine(1000).stringifyDataLogEntry()
+        );
+        assertThat(writer.getLinesWritten()).isEqualTo(6L);
+    }
+
+    @Test
+    public void appendSensorLine_IsHeldBackUntilNextGPSLine() throws IOException {
+        File temp = new File(folder.getRoot(), "Temp2_accGps.csv");
+        DataLogWriter writer = new DataLogWriter(temp, new File(folder.getRoot(), "2_accGps.csv"), HEADER);
+        writer.appendGPSLine(gpsLine(100));
+        writer.appendSensorLine(sensorLine(200));
+        writer.flush();
+        assertThat(readLines(temp)).hasSize(3);
+
+        writer.appendGPSLine(gpsLine(300));
+        writer.flush();
+        assertThat(readLines(temp)).hasSize(5);
+        writer.close();
+    }
+
+    @Test
+    public void finish_ReplacesExistingFile() throws IOException {
+        File temp = new File(folder.getRoot(), "Temp3_accGps.csv");
+        File target = new File(folder.getRoot(), "3_accGps.csv");
+        Files.write(target.toPath(), "old".getBytes(StandardCharsets.UTF_8));
+        DataLogWriter writer = new DataLogWriter(temp, target, HEADER);
+        writer.appendGPSLine(gpsLine(100));
+        writer.finish();
+        assertThat(readLines(target)).hasSize(3);
+    }
+
+    @Test
+    public void discard_DeletesTempFile() throws IOException {
+        File temp = new File(folder.getRoot(), "Temp4_accGps.csv");
+        File target = new File(folder.getRoot(), "4_accGps.csv");
+        DataLogWriter writer = new DataLogWriter(temp, target, HEADER);
+        writer.appendGPSLine(gpsLine(100));
+        writer.discard();
+        assertThat(temp.exists()).isFalse();
+        assertThat(target.exists()).isFalse();
+    }
+}
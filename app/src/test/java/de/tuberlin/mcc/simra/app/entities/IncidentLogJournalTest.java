@@ -0,0 +1,101 @@
+package de.tuberlin.mcc.simra.app.entities;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IncidentLogJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static IncidentLogEntry incident(int key, int incidentType, String description) {
+        return IncidentLogEntry.newBuilder()
+                .withKey(key)
+                .withBaseInformation(1593886060502L, 52.4949566, 13.3658506)
+                .withRideInformation(0, false, false, 0, incidentType, new IncidentLogEntry.InvolvedRoadUser(false, false, false, false, false, false, false, false, false, false), false, description)
+                .build();
+    }
+
+    @Test
+    public void replay_AppliesRecordsInOrder() throws IOException {
+        File journalFile = new File(folder.getRoot(), "accEvents1.journal");
+        Map<Integer, IncidentLogEntry> incidents = new HashMap<>();
+        incidents.put(1000, incident(1000, 2, ""));
+        incidents.put(1001, incident(1001, 3, ""));
+
+        IncidentLogJournal.appendUpdate(journalFile, incident(1000, 4, "Überholt, sehr knapp"));
+        IncidentLogJournal.appendUpdate(journalFile, incident(1002, 5, ""));
+        IncidentLogJournal.appendDelete(journalFile, 1001);
+
+        assertThat(IncidentLogJournal.replay(journalFile, incidents)).isEqualTo(3);
+        assertThat(incidents.keySet()).containsExactlyInAnyOrder(1000, 1002);
+        assertThat(incidents.get(1000))
+                .usingRecursiveComparison()
+                .isEqualTo(incident(1000, 4, "Überholt, sehr knapp"));
+        assertThat(incidents.get(1002).incidentType).isEqualTo(5);
+    }
+
+    /**
+     * A record cut off by a crash is ignored and does not affect the records appended after it.
+     */
+    @Test
+    public void replay_IgnoresIncompleteRecord() throws IOException {
+        File journalFile = new File(folder.getRoot(), "accEvents1.journal");
+        IncidentLogJournal.appendUpdate(journalFile, incident(1000, 2, ""));
+        Files.write(journalFile.toPath(), "U,1001,52.49".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        Map<Integer, IncidentLogEntry> incidents = new HashMap<>();
+        assertThat(IncidentLogJournal.replay(journalFile, incidents)).isEqualTo(1);
+        assertThat(incidents.keySet()).containsExactly(1000);
+
+        IncidentLogJournal.appendDelete(journalFile, 1000);
+        assertThat(IncidentLogJournal.replay(journalFile, incidents)).isEqualTo(2);
+        assertThat(incidents.isEmpty()).isTrue();
+    }
+
+    /**
+     * The changes saved together are replayed together.
+     */
+    @Test
+    public void appendChanges_ReplayedAsOneRecord() throws IOException {
+        File journalFile = new File(folder.getRoot(), "accEvents1.journal");
+        IncidentLogJournal.appendUpdate(journalFile, incident(1000, 2, ""));
+        IncidentLogJournal.appendChanges(journalFile,
+                Arrays.asList(incident(1001, 3, "1:U,"), incident(1002, 4, "Überholt, sehr knapp")),
+                Collections.singletonList(1000));
+
+        Map<Integer, IncidentLogEntry> incidents = new HashMap<>();
+        assertThat(IncidentLogJournal.replay(journalFile, incidents)).isEqualTo(2);
+        assertThat(incidents.keySet()).containsExactlyInAnyOrder(1001, 1002);
+        assertThat(incidents.get(1001).description).isEqualTo("1:U,");
+        assertThat(incidents.get(1002).description).isEqualTo("Überholt, sehr knapp");
+    }
+
+    /**
+     * Changes which were cut off by a crash or damaged are not applied at all.
+     */
+    @Test
+    public void replay_IgnoresIncompleteChanges() throws IOException {
+        File journalFile = new File(folder.getRoot(), "accEvents1.journal");
+        IncidentLogJournal.appendUpdate(journalFile, incident(1000, 2, ""));
+        IncidentLogJournal.appendChanges(journalFile, Collections.singletonList(incident(1001, 3, "")), Collections.singletonList(1000));
+        byte[] journal = Files.readAllBytes(journalFile.toPath());
+        Files.write(journalFile.toPath(), Arrays.copyOf(journal, journal.length - 10));
+        Files.write(journalFile.toPath(), "\nG,6:D,100020:D,1001\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        Map<Integer, IncidentLogEntry> incidents = new HashMap<>();
+        assertThat(IncidentLogJournal.replay(journalFile, incidents)).isEqualTo(1);
+        assertThat(incidents.keySet()).containsExactly(1000);
+    }
+}
@@ -0,0 +1,81 @@
+package de.tuberlin.mcc.simra.app.entities;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MetaDataJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static MetaDataEntry entry(int rideId, int state) {
+        return new MetaDataEntry(rideId, 1592319028261L, 1592320028261L, state, 2, 60L, 4200L, 1, 3);
+    }
+
+    @Test
+    public void replay_AppliesRecordsInOrder() throws IOException {
+        File journalFile = new File(folder.getRoot(), "metaData.journal");
+        Map<Integer, MetaDataEntry> entries = new HashMap<>();
+        entries.put(1, entry(1, MetaData.STATE.JUST_RECORDED));
+        entries.put(2, entry(2, MetaData.STATE.JUST_RECORDED));
+
+        MetaDataJournal.appendUpdate(journalFile, entry(1, MetaData.STATE.ANNOTATED));
+        MetaDataJournal.appendUpdate(journalFile, entry(3, MetaData.STATE.JUST_RECORDED));
+        MetaDataJournal.appendDelete(journalFile, 2);
+        MetaDataJournal.appendUpdate(journalFile, entry(1, MetaData.STATE.SYNCED));
+
+        assertThat(MetaDataJournal.replay(journalFile, entries)).isEqualTo(4);
+        assertThat(entries.keySet().size()).isEqualTo(2);
+        assertThat(entries.get(1).stringifyMetaDataEntry()).isEqualTo(entry(1, MetaData.STATE.SYNCED).stringifyMetaDataEntry());
+        assertThat(entries.get(3).stringifyMetaDataEntry()).isEqualTo(entry(3, MetaData.STATE.JUST_RECORDED).stringifyMetaDataEntry());
+        assertThat(entries.containsKey(2)).isFalse();
+    }
+
+    @Test
+    public void replay_NoJournal() throws IOException {
+        Map<Integer, MetaDataEntry> entries = new HashMap<>();
+        assertThat(MetaDataJournal.replay(new File(folder.getRoot(), "metaData.journal"), entries)).isEqualTo(0);
+        assertThat(entries.isEmpty()).isTrue();
+    }
+
+    /**
+     * A record cut off by a crash is ignored and does not affect the records appended after it.
+     */
+    @Test
+    public void replay_IgnoresIncompleteRecord() throws IOException {
+        File journalFile = new File(folder.getRoot(), "metaData.journal");
+        MetaDataJournal.appendUpdate(journalFile, entry(1, MetaData.STATE.ANNOTATED));
+        Files.write(journalFile.toPath(), "U,2,15923190".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        Map<Integer, MetaDataEntry> entries = new HashMap<>();
+        assertThat(MetaDataJournal.replay(journalFile, entries)).isEqualTo(1);
+
+        MetaDataJournal.appendUpdate(journalFile, entry(4, MetaData.STATE.ANNOTATED));
+        entries.clear();
+        assertThat(MetaDataJournal.replay(journalFile, entries)).isEqualTo(2);
+        assertThat(entries.containsKey(4)).isTrue();
+        assertThat(entries.containsKey(2)).isFalse();
+    }
+
+    @Test
+    public void needsCompaction_AfterManyRecords() throws IOException {
+        File journalFile = new File(folder.getRoot(), "metaData.journal");
+        int records = 0;
+        while (!MetaDataJournal.needsCompaction(journalFile)) {
+            MetaDataJournal.appendUpdate(journalFile, entry(records++ % 50, MetaData.STATE.SYNCED));
+        }
+        assertThat(records).isGreaterThan(500);
+        Map<Integer, MetaDataEntry> entries = new HashMap<>();
+        assertThat(MetaDataJournal.replay(journalFile, entries)).isEqualTo(records);
+        assertThat(entries.keySet().size()).isEqualTo(50);
+    }
+}
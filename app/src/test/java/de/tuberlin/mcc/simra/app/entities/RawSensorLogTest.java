@@ -0,0 +1,171 @@
+package de.tuberlin.mcc.simra.app.entities;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+public class RawSensorLogTest {
+    private static final long CLOCK_OFFSET = 1_600_000_000_000_000_000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void writeRecords(RawSensorLog.Writer writer, int count) throws IOException {
+        float[] values = new float[5];
+        for (int i = 0; i < count; i++) {
+            values[0] = i;
+            values[1] = -i;
+            values[2] = i * 0.5F;
+            values[3] = 7F;
+            values[4] = 99F;
+            writer.append(i % 4, 5_000_000L * i, values, i % 4 == 3 ? 5 : 3);
+        }
+    }
+
+    @Test
+    public void writeAndRead_RoundTrip() throws IOException {
+        File file = folder.newFile("rawSensors1.bin");
+        int count = 10_000;
+        try (RawSensorLog.Writer writer = new RawSensorLog.Writer(file, CLOCK_OFFSET)) {
+            writeRecords(writer, count);
+            assertThat(writer.getRecordCount()).isEqualTo((long) count);
+        }
+        assertThat(file.length()).isEqualTo((long) RawSensorLog.HEADER_SIZE + (long) count * RawSensorLog.RECORD_SIZE);
+
+        try (RawSensorLog.Reader reader = new RawSensorLog.Reader(file)) {
+            assertThat(reader.getRecordCount()).isEqualTo((long) count);
+            assertThat(reader.getClockOffsetNanos()).isEqualTo(CLOCK_OFFSET);
+            for (int i = 0; i < count; i++) {
+                assertThat(reader.next()).isTrue();
+                assertThat(reader.getSensor()).isEqualTo(i % 4);
+                assertThat(reader.getTimestampNanos()).isEqualTo(5_000_000L * i);
+                assertThat(reader.getValue(0)).isEqualTo((float) i);
+                assertThat(reader.getValue(1)).isEqualTo((float) -i);
+                assertThat(reader.getValue(2)).isEqualTo(i * 0.5F);
+                // only the rotation (sensor 3) has a fourth value
+                assertThat(reader.getValue(3)).isEqualTo(i % 4 == 3 ? 7F : 0F);
+            }
+            assertThat(reader.next()).isFalse();
+        }
+    }
+
+    @Test
+    public void read_IgnoresIncompleteLastRecord() throws IOException {
+        File file = folder.newFile("rawSensors2.bin");
+        try (RawSensorLog.Writer writer = new RawSensorLog.Writer(file, CLOCK_OFFSET)) {
+            writeRecords(writer, 3);
+        }
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[RawSensorLog.RECORD_SIZE - 1]);
+        }
+        try (RawSensorLog.Reader reader = new RawSensorLog.Reader(file)) {
+            assertThat(reader.getRecordCount()).isEqualTo(3L);
+            int read = 0;
+            while (reader.next()) {
+                read++;
+            }
+            assertThat(read).isEqualTo(3);
+        }
+    }
+
+    @Test
+    public void recover_TruncatesIncompleteLastRecord() throws IOException {
+        File file = folder.newFile("rawSensors5.bin");
+        RawSensorLog.Writer writer = new RawSensorLog.Writer(file, 0);
+        writer.setClockOffsetNanos(CLOCK_OFFSET);
+        writeRecords(writer, 3);
+        writer.flush();
+        // the writer is not closed, as after a crash
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[RawSensorLog.RECORD_SIZE - 1]);
+        }
+
+        assertThat(RawSensorLog.recover(file)).isEqualTo(3L);
+        assertThat(file.length()).isEqualTo((long) RawSensorLog.HEADER_SIZE + 3L * RawSensorLog.RECORD_SIZE);
+        try (RawSensorLog.Reader reader = new RawSensorLog.Reader(file)) {
+            assertThat(reader.getClockOffsetNanos()).isEqualTo(CLOCK_OFFSET);
+        }
+        writer.close();
+    }
+
+    /**
+     * The clock offset is derived from the first sensor timestamp, which may come after the header was flushed.
+     */
+    @Test
+    public void setClockOffsetNanos_AfterFlush() throws IOException {
+        File file = folder.newFile("rawSensors6.bin");
+        try (RawSensorLog.Writer writer = new RawSensorLog.Writer(file, 0)) {
+            writer.flush();
+            writer.setClockOffsetNanos(CLOCK_OFFSET);
+            writeRecords(writer, 2);
+        }
+        try (RawSensorLog.Reader reader = new RawSensorLog.Reader(file)) {
+            assertThat(reader.getClockOffsetNanos()).isEqualTo(CLOCK_OFFSET);
+            assertThat(reader.getRecordCount()).isEqualTo(2L);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void read_RejectsOtherFiles() throws IOException {
+        File file = folder.newFile("1_accGps.csv");
+        Files.write(file.toPath(), "87#1\nlat,lon,X,Y,Z\n".getBytes(StandardCharsets.UTF_8));
+        new RawSensorLog.Reader(file).close();
+    }
+
+    @Test
+    public void exportToCsv() throws IOException {
+        File file = folder.newFile("rawSensors3.bin");
+        try (RawSensorLog.Writer writer = new RawSensorLog.Writer(file, CLOCK_OFFSET)) {
+            writeRecords(writer, 4);
+        }
+        File csv = folder.newFile("rawSensors3.csv");
+        assertThat(RawSensorLog.exportToCsv(file, csv)).isEqualTo(4L);
+        List<String> lines = Files.readAllLines(csv.toPath(), StandardCharsets.UTF_8);
+        assertThat(lines).containsExactly(
+                RawSensorLog.CSV_HEADER,
+                "accelerometer,1600000000000,0,0.0,0.0,0.0,0.0",
+                "gyroscope,1600000000005,5000000,1.0,-1.0,0.5,0.0",
+                "linearAccelerometer,1600000000010,10000000,2.0,-2.0,1.0,0.0",
+                "rotation,1600000000015,15000000,3.0,-3.0,1.5,7.0"
+        );
+    }
+
+    /**
+     * The writer is called for every sensor event on the sensor thread, so it must not allocate.
+     */
+    @Test
+    public void append_DoesNotAllocate() throws IOException {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        File file = folder.newFile("rawSensors4.bin");
+        try (RawSensorLog.Writer writer = new RawSensorLog.Writer(file, CLOCK_OFFSET)) {
+            float[] values = {1F, 2F, 3F, 4F, 5F};
+            // warm up, also the first flushes of the file channel
+            for (int i = 0; i < 200_000; i++) {
+                writer.append(i & 3, i, values, 3);
+            }
+            int events = 1_000_000;
+            long threadId = Thread.currentThread().getId();
+            long bytesBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < events; i++) {
+                writer.append(i & 3, i, values, 3);
+            }
+            long allocatedBytes = threadMXBean.getThreadAllocatedBytes(threadId) - bytesBefore;
+            assertThat(allocatedBytes / (double) events).isLessThan(0.01);
+        }
+    }
+}
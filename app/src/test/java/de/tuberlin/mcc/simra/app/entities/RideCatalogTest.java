@@ -0,0 +1,124 @@
+package de.tuberlin.mcc.simra.app.entities;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RideCatalogTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void tearDown() {
+        RideCatalog.invalidate();
+    }
+
+    private File writeFile(String name, String content) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    public void rideIdOf_RideFiles() {
+        assertThat(RideCatalog.rideIdOf("12_accGps.csv")).isEqualTo(12);
+        assertThat(RideCatalog.rideIdOf("12_accGps.srz")).isEqualTo(12);
+        assertThat(RideCatalog.rideIdOf("12_dataLog.idx")).isEqualTo(12);
+        assertThat(RideCatalog.rideIdOf("accEvents12.csv")).isEqualTo(12);
+        assertThat(RideCatalog.rideIdOf("accEvents12.journal")).isEqualTo(12);
+        assertThat(RideCatalog.rideIdOf("rawSensors12.bin")).isEqualTo(12);
+    }
+
+    @Test
+    public void rideIdOf_OtherFiles() {
+        assertThat(RideCatalog.rideIdOf("Temp12_accGps.csv")).isEqualTo(-1);
+        assertThat(RideCatalog.rideIdOf("12_accGps.csv.tmp")).isEqualTo(-1);
+        assertThat(RideCatalog.rideIdOf("Ride12.journal")).isEqualTo(-1);
+        assertThat(RideCatalog.rideIdOf("metaData.csv")).isEqualTo(-1);
+        assertThat(RideCatalog.rideIdOf("simRa_regions.config")).isEqualTo(-1);
+        assertThat(RideCatalog.rideIdOf("CRASH_REPORT.txt")).isEqualTo(-1);
+        assertThat(RideCatalog.rideIdOf(RideCatalog.FILE_NAME)).isEqualTo(-1);
+    }
+
+    @Test
+    public void getCache_RebuildsFromFolder() throws IOException {
+        writeFile("1_accGps.csv", "84#1\nlat,lon\n1,2\n");
+        writeFile("accEvents1.csv", "84#1\nkey,lat\n");
+        writeFile("rawSensors2.bin", "SRAW");
+        writeFile("Temp3_accGps.csv", "84#1\n");
+        writeFile("metaData.csv", "84#1\n");
+
+        Map<Integer, Map<String, RideCatalog.FileEntry>> catalog = RideCatalog.getCache(folder.getRoot());
+
+        assertThat(catalog.keySet()).containsExactlyInAnyOrder(1, 2);
+        assertThat(catalog.get(1).keySet()).containsExactly("1_accGps.csv", "accEvents1.csv");
+        RideCatalog.FileEntry fileEntry = catalog.get(1).get("1_accGps.csv");
+        CRC32 crc32 = new CRC32();
+        crc32.update("84#1\nlat,lon\n1,2\n".getBytes(StandardCharsets.UTF_8));
+        assertThat(fileEntry.size).isEqualTo(17L);
+        assertThat(fileEntry.crc32).isEqualTo(crc32.getValue());
+        assertThat(new File(folder.getRoot(), RideCatalog.FILE_NAME)).exists();
+    }
+
+    @Test
+    public void recordFile_SurvivesReload() throws IOException {
+        writeFile("1_accGps.csv", "84#1\nlat,lon\n1,2\n");
+        File accEvents = writeFile("accEvents1.csv", "84#1\nkey,lat\n");
+        RideCatalog.getCache(folder.getRoot());
+
+        RideCatalog.recordFile(writeFile("5_accGps.csv", "84#1\nlat,lon\n"));
+        accEvents.delete();
+        RideCatalog.forgetFile(accEvents);
+        RideCatalog.invalidate();
+
+        Map<Integer, Map<String, RideCatalog.FileEntry>> catalog = RideCatalog.getCache(folder.getRoot());
+        assertThat(catalog.keySet()).containsExactlyInAnyOrder(1, 5);
+        assertThat(catalog.get(1).keySet()).containsExactly("1_accGps.csv");
+        assertThat(catalog.get(5).get("5_accGps.csv").size).isEqualTo(13L);
+    }
+
+    @Test
+    public void recordFileInBackground_RecordsFile() throws IOException, InterruptedException {
+        writeFile("1_accGps.csv", "84#1\nlat,lon\n1,2\n");
+        RideCatalog.getCache(folder.getRoot());
+
+        RideCatalog.recordFileInBackground(writeFile("3_accGps.csv", "84#1\nlat,lon\n"));
+        for (int i = 0; i < 500 && !RideCatalog.getCache(folder.getRoot()).containsKey(3); i++) {
+            Thread.sleep(10);
+        }
+
+        assertThat(RideCatalog.getCache(folder.getRoot()).get(3).get("3_accGps.csv").size).isEqualTo(13L);
+    }
+
+    /**
+     * Files which were changed, added or deleted without the catalog knowing are found by check.
+     */
+    @Test
+    public void check_CorrectsDrift() throws IOException {
+        File dataLog = writeFile("1_accGps.csv", "84#1\nlat,lon\n1,2\n");
+        File rawSensors = writeFile("rawSensors2.bin", "SRAW");
+        RideCatalog.getCache(folder.getRoot());
+        RideCatalog.invalidate();
+
+        writeFile("1_accGps.csv", "84#1\nlat,lon\n1,2\n3,4\n");
+        dataLog.setLastModified(dataLog.lastModified() + 2000);
+        rawSensors.delete();
+        writeFile("4_dataLog.bin", "SDLG");
+
+        assertThat(RideCatalog.check(folder.getRoot())).isEqualTo(3);
+        Map<Integer, Map<String, RideCatalog.FileEntry>> catalog = RideCatalog.getCache(folder.getRoot());
+        assertThat(catalog.keySet()).containsExactlyInAnyOrder(1, 4);
+        assertThat(catalog.get(1).get("1_accGps.csv").size).isEqualTo(21L);
+        assertThat(RideCatalog.check(folder.getRoot())).isEqualTo(0);
+    }
+}
@@ -0,0 +1,65 @@
+package de.tuberlin.mcc.simra.app.entities;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RideJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writeAndRead_RoundTrip() throws IOException {
+        File file = new File(folder.getRoot(), "Ride3.journal");
+        String incidents = "87#1#0\nkey,lat,lon,ts\n1,52.5,13.3,1600000000000,,,,,,,,,,,,,,,,,\n";
+        new RideJournal(3, 1000, 2000, 30, 1234, 2, incidents).write(file);
+        // overwriting replaces the old journal
+        new RideJournal(3, 1000, 5000, 60, 2345, 2, incidents).write(file);
+
+        RideJournal rideJournal = RideJournal.read(file);
+        assertThat(rideJournal.rideId).isEqualTo(3);
+        assertThat(rideJournal.startTime).isEqualTo(1000L);
+        assertThat(rideJournal.endTime).isEqualTo(5000L);
+        assertThat(rideJournal.waitedTime).isEqualTo(60L);
+        assertThat(rideJournal.distance).isEqualTo(2345L);
+        assertThat(rideJournal.region).isEqualTo(2);
+        assertThat(rideJournal.incidentLog).isEqualTo(incidents);
+        assertThat(new File(folder.getRoot(), "Ride3.journal.tmp").exists()).isFalse();
+    }
+
+    @Test(expected = IOException.class)
+    public void read_RejectsIncompleteJournal() throws IOException {
+        File file = folder.newFile("Ride4.journal");
+        Files.write(file.toPath(), (RideJournal.RIDE_JOURNAL_HEADER + "\n4,1000").getBytes(StandardCharsets.UTF_8));
+        RideJournal.read(file);
+    }
+
+    @Test
+    public void recover_DropsIncompleteLastLine() throws IOException {
+        File tempFile = folder.newFile("Temp5_accGps.csv");
+        File targetFile = new File(folder.getRoot(), "5_accGps.csv");
+        Files.write(tempFile.toPath(), "87#2\nlat,lon\n1,2\n3,4\n5,".getBytes(StandardCharsets.UTF_8));
+
+        assertThat(DataLogWriter.recover(tempFile, targetFile)).isEqualTo(2L);
+        assertThat(tempFile.exists()).isFalse();
+        assertThat(new String(Files.readAllBytes(targetFile.toPath()), StandardCharsets.UTF_8)).isEqualTo("87#2\nlat,lon\n1,2\n3,4\n");
+    }
+
+    @Test
+    public void recover_DeletesRideWithoutLines() throws IOException {
+        File tempFile = folder.newFile("Temp6_accGps.csv");
+        File targetFile = new File(folder.getRoot(), "6_accGps.csv");
+        Files.write(tempFile.toPath(), "87#2\nlat,lon\n".getBytes(StandardCharsets.UTF_8));
+
+        assertThat(DataLogWriter.recover(tempFile, targetFile)).isEqualTo(0L);
+        assertThat(tempFile.exists()).isFalse();
+        assertThat(targetFile.exists()).isFalse();
+    }
+}
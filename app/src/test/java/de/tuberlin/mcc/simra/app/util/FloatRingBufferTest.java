@@ -0,0 +1,145 @@
+package de.tuberlin.mcc.simra.app.util;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.junit.Assume.assumeTrue;
+
+public class FloatRingBufferTest {
+
+    @Test
+    public void average_Empty() {
+        assertThat(new FloatRingBuffer(3, 30).average(0)).isNaN();
+    }
+
+    @Test
+    public void average_PartiallyFilled() {
+        FloatRingBuffer buffer = new FloatRingBuffer(2, 4);
+        buffer.add(new float[]{1F, 10F});
+        buffer.add(new float[]{3F, 30F});
+        assertThat(buffer.size()).isEqualTo(2);
+        assertThat(buffer.isFull()).isFalse();
+        assertThat(buffer.average(0)).isEqualTo(2F);
+        assertThat(buffer.average(1)).isEqualTo(20F);
+    }
+
+    @Test
+    public void add_IgnoresAdditionalValues() {
+        FloatRingBuffer buffer = new FloatRingBuffer(4, 2);
+        buffer.add(new float[]{1F, 2F, 3F, 4F, 5F});
+        assertThat(buffer.average(3)).isEqualTo(4F);
+    }
+
+    @Test
+    public void add_OverwritesOldestWhenFull() {
+        FloatRingBuffer buffer = new FloatRingBuffer(1, 3);
+        for (int i = 1; i <= 5; i++) {
+            buffer.add(new float[]{i});
+        }
+        assertThat(buffer.size()).isEqualTo(3);
+        assertThat(buffer.average(0)).isEqualTo(4F);
+        assertThat(buffer.newest(0)).isEqualTo(5F);
+    }
+
+    @Test
+    public void removeOldest() {
+        FloatRingBuffer buffer = new FloatRingBuffer(1, 4);
+        for (int i = 1; i <= 4; i++) {
+            buffer.add(new float[]{i});
+        }
+        buffer.removeOldest(2);
+        assertThat(buffer.size()).isEqualTo(2);
+        assertThat(buffer.average(0)).isEqualTo(3.5F);
+        buffer.removeOldest(10);
+        assertThat(buffer.isEmpty()).isTrue();
+        assertThat(buffer.average(0)).isNaN();
+    }
+
+    /**
+     * Replays the fill / average / remove cycle of the RecorderService and compares it
+     * with the plain average over the same window.
+     */
+    @Test
+    public void movingAverage_MatchesNaiveAverage() {
+        int window = Constants.MVG_AVG_WINDOW;
+        FloatRingBuffer buffer = new FloatRingBuffer(1, window);
+        float[] history = new float[100_000];
+        float[] sample = new float[1];
+        int written = 0;
+        for (int i = 0; i < history.length; i++) {
+            history[i] = (float) Math.sin(i * 0.1) * 9.81F + (i % 7) * 0.001F;
+            sample[0] = history[i];
+            buffer.add(sample);
+            written++;
+            if (buffer.isFull()) {
+                double sum = 0;
+                for (int j = written - window; j < written; j++) {
+                    sum += history[j];
+                }
+                assertThat(buffer.average(0)).isCloseTo((float) (sum / window), within(1e-5F));
+                buffer.removeOldest(Constants.MVG_AVG_STEP);
+            }
+        }
+    }
+
+    /**
+     * Benchmark of one recorder tick (three buffers as used by the RecorderService).
+     * Fails if the steady state allocates on the heap.
+     */
+    @Test
+    public void recorderTick_DoesNotAllocate() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        FloatRingBuffer accelerometer = new FloatRingBuffer(3, Constants.MVG_AVG_WINDOW);
+        FloatRingBuffer linearAccelerometer = new FloatRingBuffer(3, Constants.MVG_AVG_WINDOW);
+        FloatRingBuffer rotation = new FloatRingBuffer(4, Constants.MVG_AVG_WINDOW);
+        float[] accelerometerMatrix = new float[3];
+        float[] linearAccelerometerMatrix = new float[3];
+        float[] rotationMatrix = new float[5];
+
+        // warm up, so that the measured loop runs compiled code
+        float checksum = runTicks(200_000, accelerometer, linearAccelerometer, rotation, accelerometerMatrix, linearAccelerometerMatrix, rotationMatrix);
+
+        int ticks = 1_000_000;
+        long threadId = Thread.currentThread().getId();
+        long bytesBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+        checksum += runTicks(ticks, accelerometer, linearAccelerometer, rotation, accelerometerMatrix, linearAccelerometerMatrix, rotationMatrix);
+        long allocatedBytes = threadMXBean.getThreadAllocatedBytes(threadId) - bytesBefore;
+
+        // the checksum is used, so that the loop cannot be optimized away
+        assertThat(Float.isNaN(checksum)).isFalse();
+        assertThat(allocatedBytes / (double) ticks).isLessThan(0.01);
+    }
+
+    private static float runTicks(int ticks, FloatRingBuffer accelerometer, FloatRingBuffer linearAccelerometer, FloatRingBuffer rotation,
+                                  float[] accelerometerMatrix, float[] linearAccelerometerMatrix, float[] rotationMatrix) {
+        float checksum = 0;
+        for (int i = 0; i < ticks; i++) {
+            accelerometerMatrix[0] = i % 13;
+            linearAccelerometerMatrix[1] = i % 11;
+            rotationMatrix[2] = i % 7;
+            if (!accelerometer.isFull()) {
+                accelerometer.add(accelerometerMatrix);
+            }
+            if (!linearAccelerometer.isFull()) {
+                linearAccelerometer.add(linearAccelerometerMatrix);
+            }
+            if (!rotation.isFull()) {
+                rotation.add(rotationMatrix);
+            }
+            if (accelerometer.isFull() && linearAccelerometer.isFull() && rotation.isFull()) {
+                checksum += accelerometer.average(0) + linearAccelerometer.average(1) + rotation.average(2);
+                accelerometer.removeOldest(Constants.MVG_AVG_STEP);
+                linearAccelerometer.removeOldest(Constants.MVG_AVG_STEP);
+                rotation.removeOldest(Constants.MVG_AVG_STEP);
+            }
+        }
+        return checksum;
+    }
+}
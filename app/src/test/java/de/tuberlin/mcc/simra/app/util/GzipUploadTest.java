@@ -0,0 +1,107 @@
+package de.tuberlin.mcc.simra.app.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GzipUploadTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Ten minutes of a ride: a line every 250 ms with sensor values and a GPS line every 3 s.
+     */
+    private File recordRide() throws IOException {
+        File rideFile = folder.newFile("1_accGps.csv");
+        Random random = new Random(3);
+        try (OutputStream out = Files.newOutputStream(rideFile.toPath())) {
+            out.write(("84#1\nlat,lon,X,Y,Z,timeStamp,acc,a,b,c,obsDistanceLeft1,obsDistanceLeft2,obsDistanceRight1,obsDistanceRight2,obsClosePassEvent,XL,YL,ZL,RX,RY,RZ,RC\n").getBytes(StandardCharsets.UTF_8));
+            for (int i = 0; i < 4 * 600; i++) {
+                StringBuilder line = new StringBuilder();
+                if (i % 12 == 0) {
+                    line.append(String.format(Locale.US, "%.8f,%.8f,", 52.5 + i * 1e-6, 13.4 + i * 1e-6));
+                } else {
+                    line.append(",,");
+                }
+                line.append(String.format(Locale.US, "%.4f,%.4f,%.4f,%d,", random.nextGaussian(), random.nextGaussian(), 9.81 + random.nextGaussian(), 1592319028261L + i * 250L));
+                line.append(i % 12 == 0 ? "5.0" : "").append(String.format(Locale.US, ",%.5f,%.5f,%.5f,,,,,,%.4f,%.4f,%.4f,%.6f,%.6f,%.6f,%.6f\n",
+                        random.nextGaussian(), random.nextGaussian(), random.nextGaussian(), random.nextGaussian(), random.nextGaussian(),
+                        random.nextGaussian(), random.nextFloat(), random.nextFloat(), random.nextFloat(), random.nextFloat()));
+                out.write(line.toString().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return rideFile;
+    }
+
+    @Test
+    public void send_GzipDecodedByServer() throws IOException {
+        File rideFile = recordRide();
+        UploadBody body = new UploadBody().add("incidents\n=========================\n").add(rideFile, 0);
+        try (LocalHttpServer server = new LocalHttpServer(true)) {
+            GzipUpload.Response response = GzipUpload.send(server::connect, body, true);
+
+            assertThat(response.status).isEqualTo(200);
+            assertThat(response.gzipRejected).isFalse();
+            assertThat(server.lastContentEncoding).isEqualTo("gzip");
+            assertThat(server.lastBody.length).isEqualTo((int) body.getContentLength());
+            assertThat(new String(server.lastBody, StandardCharsets.UTF_8)).isEqualTo("incidents\n=========================\n"
+                    + new String(Files.readAllBytes(rideFile.toPath()), StandardCharsets.UTF_8));
+            assertThat(server.lastWireBytes * 2).isLessThan(body.getContentLength());
+        }
+    }
+
+    @Test
+    public void send_Uncompressed() throws IOException {
+        UploadBody body = new UploadBody().add("1,2\n3,4\n");
+        try (LocalHttpServer server = new LocalHttpServer(true)) {
+            GzipUpload.Response response = GzipUpload.send(server::connect, body, false);
+
+            assertThat(response.status).isEqualTo(200);
+            assertThat(server.lastContentEncoding).isNull();
+            assertThat(new String(server.lastBody, StandardCharsets.UTF_8)).isEqualTo("1,2\n3,4\n");
+        }
+    }
+
+    /**
+     * A server which does not decode gzip gets the body again uncompressed.
+     */
+    @Test
+    public void send_FallbackIfGzipRejected() throws IOException {
+        UploadBody body = new UploadBody().add("1,2\n3,4\n");
+        try (LocalHttpServer server = new LocalHttpServer(false)) {
+            GzipUpload.Response response = GzipUpload.send(server::connect, body, true);
+
+            assertThat(response.status).isEqualTo(200);
+            assertThat(response.gzipRejected).isTrue();
+            assertThat(server.requestCount).isEqualTo(2);
+            assertThat(server.lastContentEncoding).isNull();
+            assertThat(new String(server.lastBody, StandardCharsets.UTF_8)).isEqualTo("1,2\n3,4\n");
+        }
+    }
+
+    /**
+     * 400 is an error of the request itself, it is neither sent again nor taken as rejection of gzip.
+     */
+    @Test
+    public void send_NoFallbackOnBadRequest() throws IOException {
+        UploadBody body = new UploadBody().add("1,2\n3,4\n");
+        try (LocalHttpServer server = new LocalHttpServer(false, HttpURLConnection.HTTP_BAD_REQUEST)) {
+            GzipUpload.Response response = GzipUpload.send(server::connect, body, true);
+
+            assertThat(response.status).isEqualTo(400);
+            assertThat(response.gzipRejected).isFalse();
+            assertThat(server.requestCount).isEqualTo(1);
+        }
+    }
+}
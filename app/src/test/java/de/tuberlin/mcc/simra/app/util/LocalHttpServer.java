@@ -0,0 +1,93 @@
+package de.tuberlin.mcc.simra.app.util;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * In-process stand-in for the SimRa backend. Decodes gzip request bodies like the backend and
+ * remembers the last request, with the number of bytes which went over the wire.
+ */
+public class LocalHttpServer implements AutoCloseable {
+    private final HttpServer server;
+    private final boolean acceptsGzip;
+    private final int rejectStatus;
+
+    public String lastContentEncoding;
+    public long lastWireBytes;
+    public byte[] lastBody;
+    public int requestCount = 0;
+
+    /**
+     * @param acceptsGzip whether compressed bodies are decoded or answered with 415
+     */
+    public LocalHttpServer(boolean acceptsGzip) throws IOException {
+        this(acceptsGzip, HttpURLConnection.HTTP_UNSUPPORTED_TYPE);
+    }
+
+    /**
+     * @param rejectStatus the answer to compressed bodies, if they are not decoded
+     */
+    public LocalHttpServer(boolean acceptsGzip, int rejectStatus) throws IOException {
+        this.acceptsGzip = acceptsGzip;
+        this.rejectStatus = rejectStatus;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            requestCount++;
+            lastContentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+            byte[] wire = readAll(exchange.getRequestBody());
+            lastWireBytes = wire.length;
+            int status = 200;
+            if ("gzip".equals(lastContentEncoding)) {
+                if (acceptsGzip) {
+                    lastBody = readAll(new GZIPInputStream(new ByteArrayInputStream(wire)));
+                } else {
+                    lastBody = null;
+                    status = rejectStatus;
+                }
+            } else {
+                lastBody = wire;
+            }
+            byte[] response = (status == 200 ? "[1]" : "Rejected").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        server.start();
+    }
+
+    public HttpURLConnection connect() throws IOException {
+        URL url = new URL("http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/ride");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "text/plain");
+        return connection;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,77 @@
+package de.tuberlin.mcc.simra.app.util;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OBSDistanceBufferTest {
+
+    private static OBSDistanceBuffer bufferWithMeasurementsEvery50ms(int count) {
+        OBSDistanceBuffer buffer = new OBSDistanceBuffer(64);
+        for (int i = 0; i < count; i++) {
+            // distance in cm == 100 + index
+            buffer.add(1000 + i * 50, 100 + i);
+        }
+        return buffer;
+    }
+
+    @Test
+    public void closest_JoinsByTime() {
+        OBSDistanceBuffer buffer = bufferWithMeasurementsEvery50ms(10);
+        assertThat(buffer.closest(1000, 25)).isEqualTo(100);
+        assertThat(buffer.closest(1120, 25)).isEqualTo(102);
+        assertThat(buffer.closest(1130, 25)).isEqualTo(103);
+        assertThat(buffer.closest(1449, 25)).isEqualTo(109);
+        // nothing close enough
+        assertThat(buffer.closest(900, 25)).isEqualTo(OBSDistanceBuffer.NO_VALUE);
+        assertThat(buffer.closest(1500, 25)).isEqualTo(OBSDistanceBuffer.NO_VALUE);
+        assertThat(new OBSDistanceBuffer(4).closest(1000, 25)).isEqualTo(OBSDistanceBuffer.NO_VALUE);
+    }
+
+    @Test
+    public void minimum_OverWindow() {
+        OBSDistanceBuffer buffer = new OBSDistanceBuffer(8);
+        buffer.add(1000, 300);
+        buffer.add(1050, 120);
+        buffer.add(1100, 250);
+        buffer.add(1150, 80);
+        assertThat(buffer.minimum(1000, 1100)).isEqualTo(120);
+        assertThat(buffer.minimum(900, 1200)).isEqualTo(80);
+        assertThat(buffer.minimum(1150, 1300)).isEqualTo(OBSDistanceBuffer.NO_VALUE);
+    }
+
+    @Test
+    public void add_OverwritesOldestWhenFull() {
+        OBSDistanceBuffer buffer = new OBSDistanceBuffer(4);
+        for (int i = 0; i < 10; i++) {
+            buffer.add(1000 + i * 50, i);
+        }
+        assertThat(buffer.size()).isEqualTo(4);
+        assertThat(buffer.getAddedCount()).isEqualTo(10L);
+        assertThat(buffer.getOverflowCount()).isEqualTo(6L);
+        assertThat(buffer.getDroppedCount()).isEqualTo(6L);
+        assertThat(buffer.closest(1000, 25)).isEqualTo(OBSDistanceBuffer.NO_VALUE);
+        assertThat(buffer.closest(1300, 25)).isEqualTo(6);
+    }
+
+    @Test
+    public void discardOlderThan_CountsUnusedMeasurementsAsDropped() {
+        OBSDistanceBuffer buffer = bufferWithMeasurementsEvery50ms(10);
+        buffer.closest(1050, 25);
+        buffer.minimum(1100, 1200);
+        buffer.discardOlderThan(1300);
+        assertThat(buffer.size()).isEqualTo(4);
+        // 1000, 1100 and 1250 were never joined with a line
+        assertThat(buffer.getDroppedCount()).isEqualTo(3L);
+        assertThat(buffer.getOverflowCount()).isEqualTo(0L);
+    }
+
+    @Test
+    public void add_KeepsOrderForOlderTimestamps() {
+        OBSDistanceBuffer buffer = new OBSDistanceBuffer(4);
+        buffer.add(1000, 1);
+        buffer.add(990, 2);
+        assertThat(buffer.closest(1000, 0)).isEqualTo(1);
+        assertThat(buffer.minimum(999, 1000)).isEqualTo(1);
+    }
+}
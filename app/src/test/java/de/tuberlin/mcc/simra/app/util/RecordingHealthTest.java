@@ -0,0 +1,61 @@
+package de.tuberlin.mcc.simra.app.util;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RecordingHealthTest {
+
+    @Test
+    public void histogram_Percentiles() {
+        RecordingHealth.Histogram histogram = RecordingHealth.Histogram.exponential(8);
+        for (int i = 0; i < 90; i++) {
+            histogram.record(2);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(100);
+        }
+        assertThat(histogram.getCount()).isEqualTo(100L);
+        assertThat(histogram.getMean()).isEqualTo(11L);
+        assertThat(histogram.getMax()).isEqualTo(100L);
+        // bucket [2, 3]
+        assertThat(histogram.getPercentile(50)).isEqualTo(3L);
+        assertThat(histogram.getPercentile(90)).isEqualTo(3L);
+        // bucket [64, ...), bounded by the maximum
+        assertThat(histogram.getPercentile(99)).isEqualTo(100L);
+        assertThat(RecordingHealth.Histogram.exponential(4).getPercentile(99)).isEqualTo(0L);
+    }
+
+    @Test
+    public void onTick_MeasuresJitter() {
+        RecordingHealth recordingHealth = new RecordingHealth();
+        long period = 50_000_000L;
+        recordingHealth.onTick(0, period);
+        recordingHealth.onTick(period, period);
+        recordingHealth.onTick(2 * period + 3_000_000L, period);
+        recordingHealth.onTick(3 * period, period);
+        assertThat(recordingHealth.getTickJitterMicros().getCount()).isEqualTo(3L);
+        assertThat(recordingHealth.getTickJitterMicros().getMax()).isEqualTo(3000L);
+    }
+
+    @Test
+    public void onLine_LinesPerSecond() {
+        RecordingHealth recordingHealth = new RecordingHealth();
+        for (int i = 0; i <= 40; i++) {
+            recordingHealth.onLine(1_000_000_000L + i * 250_000_000L, 20, i % 3);
+        }
+        recordingHealth.onGPSFix(800);
+        assertThat(recordingHealth.getLines()).isEqualTo(41L);
+        assertThat(recordingHealth.getLinesPerSecond()).isEqualTo(4.0);
+        assertThat(recordingHealth.getOBSQueueDepth().getMax()).isEqualTo(2L);
+
+        Map<String, Long> summary = recordingHealth.getSummary();
+        assertThat(summary.get("lines")).isEqualTo(41L);
+        assertThat(summary.get("linesPerMinute")).isEqualTo(240L);
+        assertThat(summary.get("sensorToLineMillis.mean")).isEqualTo(20L);
+        assertThat(summary.get("gpsFixAgeMillis.max")).isEqualTo(800L);
+        assertThat(RecordingHealth.stringifySummary(summary)).startsWith(RecordingHealth.SUMMARY_HEADER + System.lineSeparator() + "lines,41" + System.lineSeparator());
+    }
+}
@@ -0,0 +1,127 @@
+package de.tuberlin.mcc.simra.app.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class SensorResamplerTest {
+    private static final long MS = 1_000_000L;
+    private static final long PERIOD = 50 * MS;
+
+    private final List<Long> slotTimes = new ArrayList<>();
+    private final List<float[]> driverValues = new ArrayList<>();
+    private final List<float[]> otherValues = new ArrayList<>();
+
+    /**
+     * Sensor 0 (one channel) is the driver, sensor 1 (two channels) is only added if withOtherSensor.
+     */
+    private SensorResampler newResampler(boolean withOtherSensor) {
+        int[] channels = withOtherSensor ? new int[]{1, 2} : new int[]{1};
+        return new SensorResampler(channels, 0, PERIOD, 4 * PERIOD, 20 * PERIOD, (timestampNanos, values) -> {
+            slotTimes.add(timestampNanos);
+            driverValues.add(values[0].clone());
+            if (withOtherSensor) {
+                otherValues.add(values[1].clone());
+            }
+        });
+    }
+
+    @Test
+    public void onSample_EmitsSlotsOnSensorTimeGrid() {
+        SensorResampler resampler = newResampler(false);
+        // driver at irregular intervals with a linear signal, value == time in ms
+        long[] times = {1000, 1013, 1040, 1061, 1079, 1104, 1140, 1162, 1200};
+        for (long t : times) {
+            resampler.onSample(0, new float[]{t}, 1, t * MS);
+        }
+        assertThat(slotTimes).containsExactly(1000 * MS, 1050 * MS, 1100 * MS, 1150 * MS, 1200 * MS);
+        for (int i = 0; i < slotTimes.size(); i++) {
+            assertThat(driverValues.get(i)[0]).isCloseTo(slotTimes.get(i) / (float) MS, within(1e-3F));
+        }
+        assertThat(resampler.getEmittedSlots()).isEqualTo(5L);
+        assertThat(resampler.getDroppedSlots()).isEqualTo(0L);
+    }
+
+    @Test
+    public void onSample_SameOutputForBurstDelivery() {
+        // the output only depends on the timestamps, not on how the events are grouped
+        SensorResampler resampler = newResampler(true);
+        for (int i = 0; i <= 100; i++) {
+            resampler.onSample(1, new float[]{i, -i}, 2, (1000 + i * 20 + 7) * MS);
+            resampler.onSample(0, new float[]{i}, 1, (1000 + i * 20) * MS);
+        }
+        List<Long> interleavedTimes = new ArrayList<>(slotTimes);
+        List<float[]> interleavedDriver = new ArrayList<>(driverValues);
+        List<float[]> interleavedOther = new ArrayList<>(otherValues);
+        slotTimes.clear();
+        driverValues.clear();
+        otherValues.clear();
+
+        resampler = newResampler(true);
+        for (int burst = 0; burst <= 100; burst += 25) {
+            for (int i = burst; i < burst + 25 && i <= 100; i++) {
+                resampler.onSample(0, new float[]{i}, 1, (1000 + i * 20) * MS);
+            }
+            for (int i = burst; i < burst + 25 && i <= 100; i++) {
+                resampler.onSample(1, new float[]{i, -i}, 2, (1000 + i * 20 + 7) * MS);
+            }
+        }
+        assertThat(slotTimes).isEqualTo(interleavedTimes);
+        for (int i = 0; i < slotTimes.size(); i++) {
+            assertThat(driverValues.get(i)).isEqualTo(interleavedDriver.get(i));
+            assertThat(otherValues.get(i)).isEqualTo(interleavedOther.get(i));
+        }
+        assertThat(resampler.getEmittedSlots()).isEqualTo(41L);
+        assertThat(resampler.getLateSamples()).isEqualTo(0L);
+    }
+
+    @Test
+    public void onSample_InterpolatesOtherSensors() {
+        SensorResampler resampler = newResampler(true);
+        resampler.onSample(0, new float[]{0}, 1, 1000 * MS);
+        resampler.onSample(1, new float[]{10, 20}, 2, 1020 * MS);
+        resampler.onSample(1, new float[]{20, 40}, 2, 1060 * MS);
+        resampler.onSample(0, new float[]{0}, 1, 1070 * MS);
+        assertThat(slotTimes).containsExactly(1000 * MS, 1050 * MS);
+        // the first slot waits for the other sensor and gets its first values
+        assertThat(otherValues.get(0)).isEqualTo(new float[]{10F, 20F});
+        assertThat(otherValues.get(1)[0]).isCloseTo(17.5F, within(1e-4F));
+        assertThat(otherValues.get(1)[1]).isCloseTo(35F, within(1e-4F));
+    }
+
+    @Test
+    public void onSample_DoesNotWaitLongerThanMaxDelay() {
+        SensorResampler resampler = newResampler(true);
+        // the other sensor never delivers
+        for (int t = 1000; t <= 2010; t += 10) {
+            resampler.onSample(0, new float[]{t}, 1, t * MS);
+        }
+        // slots are emitted once the driver is more than 1000 ms ahead
+        assertThat(slotTimes).hasSize(1);
+        assertThat(otherValues.get(0)).isEqualTo(new float[]{0F, 0F});
+        resampler.onSample(0, new float[]{0}, 1, 2100 * MS);
+        assertThat(slotTimes).containsExactly(1000 * MS, 1050 * MS);
+    }
+
+    @Test
+    public void onSample_CountsDroppedSlotsAndLateSamples() {
+        SensorResampler resampler = newResampler(false);
+        resampler.onSample(0, new float[]{1}, 1, 1000 * MS);
+        resampler.onSample(0, new float[]{1}, 1, 1040 * MS);
+        // out of order and duplicate samples are ignored
+        resampler.onSample(0, new float[]{5}, 1, 1030 * MS);
+        resampler.onSample(0, new float[]{5}, 1, 1040 * MS);
+        // one second without driver samples
+        resampler.onSample(0, new float[]{2}, 1, 2040 * MS);
+        resampler.onSample(0, new float[]{2}, 1, 2100 * MS);
+
+        assertThat(resampler.getLateSamples()).isEqualTo(2L);
+        assertThat(resampler.getDroppedSlots()).isEqualTo(20L);
+        assertThat(slotTimes).containsExactly(1000 * MS, 2050 * MS, 2100 * MS);
+        assertThat(driverValues.get(1)[0]).isEqualTo(2F);
+    }
+}
@@ -0,0 +1,110 @@
+package de.tuberlin.mcc.simra.app.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StorageExecutorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void write_ReplacesFile() throws IOException {
+        File file = new File(folder.getRoot(), "metaData.csv");
+        Files.write(file.toPath(), "old content, which is longer".getBytes(StandardCharsets.UTF_8));
+
+        assertThat(StorageExecutor.write(file, "new")).isTrue();
+        assertThat(read(file)).isEqualTo("new");
+        assertThat(new File(folder.getRoot(), "metaData.csv.tmp")).doesNotExist();
+    }
+
+    /**
+     * A write which fails halfway leaves the old file as it was.
+     */
+    @Test
+    public void write_KeepsFileIfWriteFails() throws IOException {
+        File file = new File(folder.getRoot(), "metaData.csv");
+        Files.write(file.toPath(), "old".getBytes(StandardCharsets.UTF_8));
+
+        boolean written = StorageExecutor.write(file, tempFile -> {
+            try (FileOutputStream out = new FileOutputStream(tempFile)) {
+                out.write("ne".getBytes(StandardCharsets.UTF_8));
+                throw new IOException("disk full");
+            }
+        });
+
+        assertThat(written).isFalse();
+        assertThat(read(file)).isEqualTo("old");
+        assertThat(new File(folder.getRoot(), "metaData.csv.tmp")).doesNotExist();
+    }
+
+    /**
+     * Writes of the same file which queue up behind another write are written once, with the
+     * newest content.
+     */
+    @Test
+    public void write_CoalescesWaitingWrites() throws Exception {
+        File blockingFile = new File(folder.getRoot(), "accEvents1.csv");
+        File file = new File(folder.getRoot(), "metaData.csv");
+        CountDownLatch writerBlocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger writes = new AtomicInteger();
+        AtomicBoolean firstResult = new AtomicBoolean();
+        AtomicBoolean secondResult = new AtomicBoolean();
+
+        Thread blocking = new Thread(() -> StorageExecutor.write(blockingFile, tempFile -> {
+            writerBlocked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            Files.write(tempFile.toPath(), new byte[0]);
+        }));
+        blocking.start();
+        writerBlocked.await();
+
+        Thread first = new Thread(() -> firstResult.set(StorageExecutor.write(file, tempFile -> {
+            writes.incrementAndGet();
+            Files.write(tempFile.toPath(), "first".getBytes(StandardCharsets.UTF_8));
+        })));
+        first.start();
+        waitUntilWaiting(first);
+        Thread second = new Thread(() -> secondResult.set(StorageExecutor.write(file, tempFile -> {
+            writes.incrementAndGet();
+            Files.write(tempFile.toPath(), "second".getBytes(StandardCharsets.UTF_8));
+        })));
+        second.start();
+        waitUntilWaiting(second);
+        release.countDown();
+        blocking.join();
+        first.join();
+        second.join();
+
+        assertThat(writes.get()).isEqualTo(1);
+        assertThat(read(file)).isEqualTo("second");
+        assertThat(firstResult.get()).isTrue();
+        assertThat(secondResult.get()).isTrue();
+    }
+
+    private static void waitUntilWaiting(Thread thread) throws InterruptedException {
+        while (thread.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package de.tuberlin.mcc.simra.app.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class UploadBodyTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File writeFile(String content) throws IOException {
+        File file = folder.newFile("1_accGps.csv");
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    public void writeTo_TextsAndFiles() throws IOException {
+        File rideFile = writeFile("84#1\nlat,lon\n1,2\n3,4\n");
+        UploadBody body = new UploadBody()
+                .add("incidents\n=====\n")
+                .add("85#1\nlat,lon\n")
+                .add(rideFile, 13);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.writeTo(out);
+
+        assertThat(out.toString("UTF-8")).isEqualTo("incidents\n=====\n85#1\nlat,lon\n1,2\n3,4\n");
+        assertThat(body.getContentLength()).isEqualTo((long) out.size());
+    }
+
+    /**
+     * The memory used for writing does not depend on the size of the files.
+     */
+    @Test
+    public void writeTo_LargeFileWithFixedBuffer() throws IOException {
+        File rideFile = folder.newFile("1_accGps.csv");
+        byte[] line = "52.5123457,13.4123457,0.0423,0.0456,9.7956,1592319028262\n".getBytes(StandardCharsets.UTF_8);
+        try (OutputStream out = Files.newOutputStream(rideFile.toPath())) {
+            for (int i = 0; i < 200_000; i++) {
+                out.write(line);
+            }
+        }
+        UploadBody body = new UploadBody().add("x").add(rideFile, 0);
+        CountingOutputStream out = new CountingOutputStream();
+        body.writeTo(out);
+
+        assertThat(out.count).isEqualTo(body.getContentLength());
+        assertThat(out.count).isEqualTo(1 + 200_000L * line.length);
+        assertThat(out.largestWrite).isLessThanOrEqualTo(64 * 1024);
+    }
+
+    @Test(expected = EOFException.class)
+    public void writeTo_FailsIfFileGotShorter() throws IOException {
+        File rideFile = writeFile("1,2\n3,4\n");
+        UploadBody body = new UploadBody().add(rideFile, 0);
+        Files.write(rideFile.toPath(), "1,2\n".getBytes(StandardCharsets.UTF_8));
+        body.writeTo(new ByteArrayOutputStream());
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        private long count = 0;
+        private int largestWrite = 0;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+            largestWrite = Math.max(largestWrite, len);
+        }
+    }
+}
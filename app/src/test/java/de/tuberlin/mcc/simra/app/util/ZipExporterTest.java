@@ -0,0 +1,182 @@
+package de.tuberlin.mcc.simra.app.util;
+
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class ZipExporterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ZipExporter.Entry writeFile(String name, byte[] content) throws IOException {
+        File file = new File(folder.getRoot(), name.replace('/', '_'));
+        Files.write(file.toPath(), content);
+        return new ZipExporter.Entry(name, file);
+    }
+
+    private static byte[] rideCsv(int lines) {
+        StringBuilder csv = new StringBuilder("84#2\nlat,lon,X,Y,Z,timeStamp,acc,a,b,c\n");
+        Random random = new Random(lines);
+        for (int i = 0; i < lines; i++) {
+            csv.append("52.5").append(random.nextInt(10000)).append(",13.3").append(random.nextInt(10000))
+                    .append(",0.").append(random.nextInt(100)).append(",9.").append(random.nextInt(100))
+                    .append(",0.").append(random.nextInt(100)).append(',').append(1600000000000L + i * 20L)
+                    .append(",,,,\n");
+        }
+        return csv.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] readAll(ZipInputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * The zip is read by ZipInputStream, as the import does, and by ZipFile, which uses the central directory.
+     */
+    @Test
+    public void export_WritesEntriesInOrder() throws IOException {
+        List<ZipExporter.Entry> entries = new ArrayList<>();
+        entries.add(writeFile("/de.tuberlin.mcc.simra.app/files/1_accGps.csv", rideCsv(5000)));
+        entries.add(writeFile("/de.tuberlin.mcc.simra.app/files/accEvents1.csv", "84#2\nkey,lat,lon\n".getBytes(StandardCharsets.UTF_8)));
+        entries.add(writeFile("/de.tuberlin.mcc.simra.app/files/empty.csv", new byte[0]));
+        entries.add(writeFile("/de.tuberlin.mcc.simra.app/files/2_accGps.srz", randomBytes(100000)));
+        entries.add(writeFile("/de.tuberlin.mcc.simra.app/shared_prefs/Profile.xml", "<map>Straße</map>".getBytes(StandardCharsets.UTF_8)));
+        File zip = folder.newFile("SimRa.zip");
+        List<Long> progress = new ArrayList<>();
+
+        try (OutputStream out = new FileOutputStream(zip)) {
+            new ZipExporter(3).export(entries, out, (bytesDone, bytesTotal) -> progress.add(bytesDone));
+        }
+
+        try (ZipInputStream in = new ZipInputStream(Files.newInputStream(zip.toPath()))) {
+            for (ZipExporter.Entry entry : entries) {
+                ZipEntry zipEntry = in.getNextEntry();
+                assertThat(zipEntry.getName()).isEqualTo(entry.name);
+                assertThat(readAll(in)).isEqualTo(Files.readAllBytes(entry.file.toPath()));
+            }
+            assertThat(in.getNextEntry()).isNull();
+        }
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            assertThat(zipFile.size()).isEqualTo(entries.size());
+            assertThat(zipFile.getEntry(entries.get(3).name).getMethod()).isEqualTo(ZipEntry.STORED);
+            assertThat(zipFile.getEntry(entries.get(0).name).getMethod()).isEqualTo(ZipEntry.DEFLATED);
+        }
+        assertThat(progress).hasSize(entries.size());
+        assertThat(progress.get(progress.size() - 1)).isEqualTo(totalSize(entries));
+    }
+
+    /**
+     * Files too large to be compressed into memory are compressed while they are written.
+     */
+    @Test
+    public void export_StreamsLargeFiles() throws IOException {
+        List<ZipExporter.Entry> entries = new ArrayList<>();
+        entries.add(writeFile("1_accGps.csv", rideCsv(2000)));
+        entries.add(writeFile("rawSensors1.csv", rideCsv(100000)));
+        entries.add(writeFile("2_accGps.csv", rideCsv(2000)));
+        assertThat(entries.get(1).file.length()).isGreaterThan(ZipExporter.IN_MEMORY_LIMIT);
+        File zip = folder.newFile("SimRa.zip");
+
+        try (OutputStream out = new FileOutputStream(zip)) {
+            new ZipExporter(2).export(entries, out, null);
+        }
+
+        try (ZipInputStream in = new ZipInputStream(Files.newInputStream(zip.toPath()))) {
+            for (ZipExporter.Entry entry : entries) {
+                assertThat(in.getNextEntry().getName()).isEqualTo(entry.name);
+                assertThat(readAll(in)).isEqualTo(Files.readAllBytes(entry.file.toPath()));
+            }
+            assertThat(in.getNextEntry()).isNull();
+        }
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            ZipEntry zipEntry = zipFile.getEntry("rawSensors1.csv");
+            assertThat(zipEntry.getSize()).isEqualTo(entries.get(1).file.length());
+            assertThat(zipEntry.getCompressedSize()).isLessThan(zipEntry.getSize());
+        }
+    }
+
+    private static long totalSize(List<ZipExporter.Entry> entries) {
+        long size = 0;
+        for (ZipExporter.Entry entry : entries) {
+            size += entry.file.length();
+        }
+        return size;
+    }
+
+    @Test
+    public void export_StopsWhenCancelled() throws IOException {
+        List<ZipExporter.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            entries.add(writeFile(i + "_accGps.csv", rideCsv(2000)));
+        }
+        ZipExporter exporter = new ZipExporter(2);
+        List<Long> progress = new ArrayList<>();
+
+        try {
+            exporter.export(entries, new ByteArrayOutputStream(), (bytesDone, bytesTotal) -> {
+                progress.add(bytesDone);
+                exporter.cancel();
+            });
+            fail("export was not cancelled");
+        } catch (InterruptedIOException expected) {
+            assertThat(exporter.isCancelled()).isTrue();
+        }
+        assertThat(progress).hasSize(1);
+    }
+
+    /**
+     * Compares one and four threads on a folder of synthetic rides. Only faster on a device with
+     * several cores.
+     */
+    @Ignore("benchmark, run manually")
+    @Test
+    public void export_Benchmark() throws IOException {
+        List<ZipExporter.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            entries.add(writeFile(i + "_accGps.csv", rideCsv(40000)));
+        }
+        long[] sizes = new long[2];
+        long[] millis = new long[2];
+        int[] threads = {1, 4};
+        for (int i = 0; i < threads.length; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            long start = System.nanoTime();
+            new ZipExporter(threads[i]).export(entries, out, null);
+            millis[i] = (System.nanoTime() - start) / 1000000;
+            sizes[i] = out.size();
+        }
+        assertThat(sizes[1]).isEqualTo(sizes[0]);
+        assertThat(millis[1]).isLessThan(millis[0]);
+    }
+}
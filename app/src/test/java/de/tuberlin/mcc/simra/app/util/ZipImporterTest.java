@@ -0,0 +1,163 @@
+package de.tuberlin.mcc.simra.app.util;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class ZipImporterTest {
+    private static final String PACKAGE_NAME = "de.tuberlin.mcc.simra.app";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File appFolder;
+    private ZipImporter importer;
+
+    @Before
+    public void setUp() throws IOException {
+        appFolder = folder.newFolder(PACKAGE_NAME);
+        importer = new ZipImporter(2, new File(appFolder, "import"), new File(appFolder, "import_backup"));
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    private static void write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return a zip like the export, with the entries named "/packageName/path"
+     */
+    private byte[] exportZip(String... pathsAndContents) throws IOException {
+        File exportFolder = folder.newFolder();
+        List<ZipExporter.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < pathsAndContents.length; i += 2) {
+            File file = new File(exportFolder, "file" + i);
+            write(file, pathsAndContents[i + 1]);
+            entries.add(new ZipExporter.Entry("/" + PACKAGE_NAME + "/" + pathsAndContents[i], file));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ZipExporter(2).export(entries, out, null);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void extractAndCommit_ReplacesFiles() throws IOException {
+        byte[] zip = exportZip("files/1_accGps.csv", "84#2\nlat,lon\n1,2\n",
+                "files/accEvents1.csv", "84#2\nkey,lat\n",
+                "shared_prefs/Profile.xml", "<map>\n</map>\n");
+        write(new File(appFolder, "files/1_accGps.csv"), "old ride");
+        write(new File(appFolder, "files/2_accGps.csv"), "other ride");
+        List<Long> progress = new ArrayList<>();
+
+        List<ZipImporter.ExtractedFile> extractedFiles = importer.extract(new ByteArrayInputStream(zip), zip.length, PACKAGE_NAME,
+                (bytesDone, bytesTotal) -> progress.add(bytesDone));
+        importer.commit(extractedFiles, appFolder);
+        importer.cleanUp();
+
+        assertThat(extractedFiles).hasSize(3);
+        ZipImporter.ExtractedFile extractedFile = extractedFiles.get(0);
+        assertThat(extractedFile.path).isEqualTo("files/1_accGps.csv");
+        CRC32 crc32 = new CRC32();
+        crc32.update("84#2\nlat,lon\n1,2\n".getBytes(StandardCharsets.UTF_8));
+        assertThat(extractedFile.crc32).isEqualTo(crc32.getValue());
+        assertThat(read(new File(appFolder, "files/1_accGps.csv"))).isEqualTo("84#2\nlat,lon\n1,2\n");
+        assertThat(read(new File(appFolder, "files/accEvents1.csv"))).isEqualTo("84#2\nkey,lat\n");
+        assertThat(read(new File(appFolder, "files/2_accGps.csv"))).isEqualTo("other ride");
+        assertThat(new File(appFolder, "import")).doesNotExist();
+        assertThat(new File(appFolder, "import_backup")).doesNotExist();
+        assertThat(progress).hasSize(3);
+        assertThat(progress.get(2)).isEqualTo((long) zip.length);
+    }
+
+    /**
+     * A zip which breaks off or whose data is damaged fails before any file is replaced.
+     */
+    @Test
+    public void extract_FailsOnCorruptZip() throws IOException {
+        StringBuilder ride = new StringBuilder("84#2\nlat,lon\n");
+        for (int i = 0; i < 1000; i++) {
+            ride.append("52.").append(i * 7919 % 10000).append(",13.").append(i * 104729 % 10000).append('\n');
+        }
+        byte[] zip = exportZip("files/1_accGps.csv", ride.toString(), "files/2_accGps.csv", ride.toString());
+        byte[] damaged = zip.clone();
+        damaged[100] ^= 0x55;
+        byte[] truncated = Arrays.copyOf(zip, zip.length / 2);
+        write(new File(appFolder, "files/1_accGps.csv"), "old ride");
+
+        for (byte[] corrupt : Arrays.asList(damaged, truncated)) {
+            try {
+                importer.extract(new ByteArrayInputStream(corrupt), corrupt.length, PACKAGE_NAME, null);
+                fail("corrupt zip was extracted");
+            } catch (IOException expected) {
+                assertThat(new File(appFolder, "import")).doesNotExist();
+            }
+        }
+        assertThat(read(new File(appFolder, "files/1_accGps.csv"))).isEqualTo("old ride");
+    }
+
+    @Test
+    public void rollback_RestoresFiles() throws IOException {
+        byte[] zip = exportZip("files/1_accGps.csv", "new ride", "files/3_accGps.csv", "third ride");
+        write(new File(appFolder, "files/1_accGps.csv"), "old ride");
+
+        importer.commit(importer.extract(new ByteArrayInputStream(zip), zip.length, PACKAGE_NAME, null), appFolder);
+        assertThat(read(new File(appFolder, "files/1_accGps.csv"))).isEqualTo("new ride");
+        assertThat(importer.rollback()).isTrue();
+        importer.cleanUp();
+
+        assertThat(read(new File(appFolder, "files/1_accGps.csv"))).isEqualTo("old ride");
+        assertThat(new File(appFolder, "files/3_accGps.csv")).doesNotExist();
+    }
+
+    /**
+     * Files which would not fit the imported ones, e.g. journals, are removed and restored with the rest.
+     */
+    @Test
+    public void commit_RemovesFiles() throws IOException {
+        byte[] zip = exportZip("files/metaData.csv", "new meta data");
+        write(new File(appFolder, "files/metaData.csv"), "old meta data");
+        write(new File(appFolder, "files/metaData.journal"), "U,1,2,3\n");
+
+        importer.commit(importer.extract(new ByteArrayInputStream(zip), zip.length, PACKAGE_NAME, null),
+                Arrays.asList("files/metaData.journal", "files/accEvents9.journal"), appFolder);
+        assertThat(new File(appFolder, "files/metaData.journal")).doesNotExist();
+        assertThat(importer.rollback()).isTrue();
+        importer.cleanUp();
+
+        assertThat(read(new File(appFolder, "files/metaData.csv"))).isEqualTo("old meta data");
+        assertThat(read(new File(appFolder, "files/metaData.journal"))).isEqualTo("U,1,2,3\n");
+    }
+
+    @Test
+    public void toPath_RejectsNamesOutsideTheFolder() throws IOException {
+        assertThat(ZipImporter.toPath("/" + PACKAGE_NAME + "/files/1_accGps.csv", PACKAGE_NAME)).isEqualTo("files/1_accGps.csv");
+        assertThat(ZipImporter.toPath("files/1_accGps.csv", PACKAGE_NAME)).isEqualTo("files/1_accGps.csv");
+        for (String name : Arrays.asList("/" + PACKAGE_NAME + "/../databases/x.db", "files/./x", "files//x")) {
+            try {
+                ZipImporter.toPath(name, PACKAGE_NAME);
+                fail(name + " was accepted");
+            } catch (IOException expected) {
+                assertThat(expected.getMessage()).contains(name);
+            }
+        }
+    }
+}